@@ -1,11 +1,8 @@
 package laser.ddg;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Calendar;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -14,6 +11,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
+import laser.ddg.persist.FileHashCache;
+
 /**
  * The data instance node holds a state of a data entry whose processing is
  * being recorded with the use of a DDG. Similarly to the data it wraps, it can
@@ -65,9 +64,6 @@ public abstract class AbstractDataInstanceNode implements DataInstanceNode {
 	// The read/write status of the file. Null if this is not a file node.
 	private String rw;
 
-	// The message digest object for use in generating SHA-1 hash values
-	private MessageDigest md;
-
 	// The procedure that created this data
 	private ProcedureInstanceNode producedBy;
 
@@ -205,35 +201,8 @@ public abstract class AbstractDataInstanceNode implements DataInstanceNode {
 	 * @throws IOException
 	 */
 	public String doFileHashing(File location) throws IOException {
-		try {
-			this.md = MessageDigest.getInstance("SHA-1");
-		} catch (NoSuchAlgorithmException e) {
-			e.printStackTrace();
-			return null;
-		}
-		//http://howtodoinjava.com/core-java/io/how-to-generate-sha-or-md5-file-checksum-hash-in-java/
-		FileInputStream in = new FileInputStream(location);
-		byte[] b = new byte[1024];
-		int numbytes = 0;
-		while ((numbytes = in.read(b)) != -1) {
-			md.update(b, 0, numbytes);
-		}
-		byte[] digest = md.digest();
-		String hexString = bytesToHex(digest);
-		in.close();
-		return hexString;
-	}
-	
-	/* Converts a string of bytes to a hexadecimal string. */
-	private final static char[] hexArray = "0123456789abcdef".toCharArray();
-	private static String bytesToHex(byte[] bytes) {
-	    char[] hexChars = new char[bytes.length * 2];
-	    for ( int j = 0; j < bytes.length; j++ ) {
-	        int v = bytes[j] & 0xFF;
-	        hexChars[j * 2] = hexArray[v >>> 4];
-	        hexChars[j * 2 + 1] = hexArray[v & 0x0F];
-	    }
-	    return new String(hexChars);
+		// Files that have not changed since they were last hashed are not read again
+		return FileHashCache.getHash(location, FileHashCache.SHA1);
 	}
 
 	/**
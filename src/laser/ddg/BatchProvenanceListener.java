@@ -0,0 +1,22 @@
+package laser.ddg;
+
+/**
+ * A provenance listener that wants to know when a group of changes to a DDG
+ * is being delivered together.  When a DDG is bulk loaded, the events for
+ * all the nodes and edges added are held back until the load is committed.
+ * They are then delivered to each batch listener between calls to
+ * batchStarted and batchFinished, so that the listener can put off work that
+ * only needs to be done once for the whole group, such as updating
+ * visibility or laying out a graph.
+ */
+public interface BatchProvenanceListener extends ProvenanceListener {
+	/**
+	 * Called before the events in a batch are delivered
+	 */
+	public void batchStarted();
+
+	/**
+	 * Called after all the events in a batch have been delivered
+	 */
+	public void batchFinished();
+}
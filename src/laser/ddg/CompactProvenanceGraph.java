@@ -0,0 +1,1118 @@
+package laser.ddg;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only copy of the nodes and edges of a finished DDG that uses far less
+ * memory than the node objects it is built from.  Each node object normally
+ * carries its own maps of inputs, outputs and attributes and lists of
+ * predecessors, successors and users.  Here the nodes are stored as parallel
+ * arrays indexed by the node's position, the edges are stored in compressed
+ * sparse row form (an array of offsets into a single array of neighbor
+ * positions), and names, types and values are held once in a shared string
+ * pool.
+ *
+ * The nodes are presented to the rest of the system through small view
+ * objects that implement ProcedureInstanceNode and DataInstanceNode by reading
+ * the arrays.  Views are created as needed, so two views of the same node are
+ * equal but not necessarily identical.  Since the graph cannot change, the
+ * methods that would modify a node throw UnsupportedOperationException.
+ */
+public final class CompactProvenanceGraph {
+	// Used in place of a string pool index when there is no string
+	private static final int NONE = -1;
+
+	// Every distinct name, type and value in the graph
+	private final String[] strings;
+
+	// Procedure node columns, indexed by the node's position
+	private final int numPins;
+	private final int[] pinIds;
+	private final int[] pinNames;
+	private final int[] pinTypes;
+	private final int[] pinCreated;
+	private final int[] pinDefinitions;
+	private final double[] pinElapsed;
+	private final BitSet pinCanBeRoot;
+
+	// Source positions, 5 entries per procedure node:  script number, start line,
+	// start column, end line, end column.
+	private final int[] pinSourcePos;
+	private final BitSet pinHasSourcePos;
+
+	// Data node columns, indexed by the node's position
+	private final int numDins;
+	private final int[] dinIds;
+	private final int[] dinNames;
+	private final int[] dinTypes;
+	private final int[] dinValues;
+	private final int[] dinCreated;
+	private final int[] dinLocations;
+	private final int[] dinHashes;
+	private final int[] dinProducers;
+	private final BitSet dinIsProcessInput;
+	private final BitSet dinIsProcessOutput;
+
+	// Edges in compressed sparse row form.  The neighbors of node i are at
+	// positions offsets[i] up to offsets[i+1] in the corresponding array.
+	private final int[] successorOffsets;
+	private final int[] successors;
+	private final int[] predecessorOffsets;
+	private final int[] predecessors;
+	private final int[] inputOffsets;
+	private final int[] inputs;
+	private final int[] inputNames;
+	private final int[] outputOffsets;
+	private final int[] outputs;
+	private final int[] outputNames;
+	private final int[] userOffsets;
+	private final int[] users;
+
+	// Positions of the nodes indexed by id.  NONE where no node has the id.
+	private final int[] pinPositionById;
+	private final int[] dinPositionById;
+
+	// The few things that do not fit in the arrays.  Most nodes have none of these.
+	private final Map<Integer, Object> otherDefinitions;
+	private final Map<Integer, AgentConfiguration> agents;
+	private final Map<Integer, Map<String, Object>> pinAttributes;
+	private final Map<Integer, Map<String, Object>> dinAttributes;
+
+	/**
+	 * Copies a finished DDG into compact form
+	 * @param provData the ddg to copy
+	 * @return the compact copy
+	 */
+	public static CompactProvenanceGraph compact(ProvenanceData provData) {
+		return new Builder(provData).build();
+	}
+
+	private CompactProvenanceGraph(Builder b) {
+		strings = b.pool.toArray();
+
+		numPins = b.pins.size();
+		pinIds = b.pinIds;
+		pinNames = b.pinNames;
+		pinTypes = b.pinTypes;
+		pinCreated = b.pinCreated;
+		pinDefinitions = b.pinDefinitions;
+		pinElapsed = b.pinElapsed;
+		pinCanBeRoot = b.pinCanBeRoot;
+		pinSourcePos = b.pinSourcePos;
+		pinHasSourcePos = b.pinHasSourcePos;
+
+		numDins = b.dins.size();
+		dinIds = b.dinIds;
+		dinNames = b.dinNames;
+		dinTypes = b.dinTypes;
+		dinValues = b.dinValues;
+		dinCreated = b.dinCreated;
+		dinLocations = b.dinLocations;
+		dinHashes = b.dinHashes;
+		dinProducers = b.dinProducers;
+		dinIsProcessInput = b.dinIsProcessInput;
+		dinIsProcessOutput = b.dinIsProcessOutput;
+
+		successorOffsets = b.successorOffsets;
+		successors = b.successors;
+		predecessorOffsets = b.predecessorOffsets;
+		predecessors = b.predecessors;
+		inputOffsets = b.inputOffsets;
+		inputs = b.inputs;
+		inputNames = b.inputNames;
+		outputOffsets = b.outputOffsets;
+		outputs = b.outputs;
+		outputNames = b.outputNames;
+		userOffsets = b.userOffsets;
+		users = b.users;
+
+		pinPositionById = positionsById(pinIds);
+		dinPositionById = positionsById(dinIds);
+
+		otherDefinitions = b.otherDefinitions;
+		agents = b.agents;
+		pinAttributes = b.pinAttributes;
+		dinAttributes = b.dinAttributes;
+	}
+
+	/**
+	 * @return an array mapping each id to the position of the node with that id
+	 */
+	private static int[] positionsById(int[] ids) {
+		int maxId = 0;
+		for (int id : ids) {
+			maxId = Math.max(maxId, id);
+		}
+		int[] positions = new int[maxId + 1];
+		Arrays.fill(positions, NONE);
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] >= 0) {
+				positions[ids[i]] = i;
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * @return the number of procedure nodes
+	 */
+	public int getNumPins() {
+		return numPins;
+	}
+
+	/**
+	 * @return the number of data nodes
+	 */
+	public int getNumDins() {
+		return numDins;
+	}
+
+	/**
+	 * @return views of the procedure nodes in the order they were added to the ddg
+	 */
+	public List<ProcedureInstanceNode> procedureNodes() {
+		return new AbstractList<ProcedureInstanceNode>() {
+			@Override
+			public ProcedureInstanceNode get(int index) {
+				if (index < 0 || index >= numPins) {
+					throw new IndexOutOfBoundsException("Procedure node " + index);
+				}
+				return new PinView(index);
+			}
+
+			@Override
+			public int size() {
+				return numPins;
+			}
+		};
+	}
+
+	/**
+	 * @return views of the data nodes in the order they were added to the ddg
+	 */
+	public List<DataInstanceNode> dataNodes() {
+		return new AbstractList<DataInstanceNode>() {
+			@Override
+			public DataInstanceNode get(int index) {
+				if (index < 0 || index >= numDins) {
+					throw new IndexOutOfBoundsException("Data node " + index);
+				}
+				return new DinView(index);
+			}
+
+			@Override
+			public int size() {
+				return numDins;
+			}
+		};
+	}
+
+	/**
+	 * @param id the id of a procedure node
+	 * @return the node with that id or null if there is none
+	 */
+	public ProcedureInstanceNode findPin(int id) {
+		int position = lookup(pinPositionById, id);
+		return position == NONE ? null : new PinView(position);
+	}
+
+	/**
+	 * @param id the id of a data node
+	 * @return the node with that id or null if there is none
+	 */
+	public DataInstanceNode findDin(int id) {
+		int position = lookup(dinPositionById, id);
+		return position == NONE ? null : new DinView(position);
+	}
+
+	/**
+	 * Returns the view of a node in this graph corresponding to a node with the
+	 * same id in the ddg the graph was built from.
+	 * @param node a node of the original ddg
+	 * @return the view of the same node, or null if the graph has no such node
+	 */
+	Node viewOf(Node node) {
+		if (node instanceof ProcedureInstanceNode) {
+			return findPin(node.getId());
+		}
+		if (node instanceof DataInstanceNode) {
+			return findDin(node.getId());
+		}
+		return null;
+	}
+
+	private static int lookup(int[] positionById, int id) {
+		if (id < 0 || id >= positionById.length) {
+			return NONE;
+		}
+		return positionById[id];
+	}
+
+	private String string(int index) {
+		return index == NONE ? null : strings[index];
+	}
+
+	/**
+	 * Iterates over a range of one of the edge arrays, returning views of the
+	 * neighbors found there.
+	 */
+	private abstract class NeighborIterator<T> implements Iterator<T> {
+		private int next;
+		private final int end;
+
+		NeighborIterator(int[] offsets, int node) {
+			next = offsets[node];
+			end = offsets[node + 1];
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < end;
+		}
+
+		@Override
+		public T next() {
+			if (next >= end) {
+				throw new NoSuchElementException();
+			}
+			return view(next++);
+		}
+
+		/**
+		 * @param position the position in the edge array
+		 * @return the value to return for that position
+		 */
+		abstract T view(int position);
+	}
+
+	private Iterator<ProcedureInstanceNode> pinIterator(int[] offsets, final int[] neighbors, int node) {
+		return new NeighborIterator<ProcedureInstanceNode>(offsets, node) {
+			@Override
+			ProcedureInstanceNode view(int position) {
+				return new PinView(neighbors[position]);
+			}
+		};
+	}
+
+	private Iterator<DataInstanceNode> dinIterator(int[] offsets, final int[] neighbors, int node) {
+		return new NeighborIterator<DataInstanceNode>(offsets, node) {
+			@Override
+			DataInstanceNode view(int position) {
+				return new DinView(neighbors[position]);
+			}
+		};
+	}
+
+	private Iterator<String> nameIterator(int[] offsets, final int[] names, int node) {
+		return new NeighborIterator<String>(offsets, node) {
+			@Override
+			String view(int position) {
+				return strings[names[position]];
+			}
+		};
+	}
+
+	/**
+	 * Finds the data node bound to a parameter name
+	 * @return the position of the data node
+	 * @throws UnboundParameterException if there is no such parameter
+	 */
+	private int findParam(int[] offsets, int[] names, int[] values, int node, String paramName) {
+		for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+			if (strings[names[i]].equals(paramName)) {
+				return values[i];
+			}
+		}
+		throw new UnboundParameterException("No such parameter:  " + paramName);
+	}
+
+	/**
+	 * Walks forward from a node, collecting the data nodes reached that are
+	 * outputs of the process.
+	 */
+	private Set<DataInstanceNode> processOutputsDerived(int startPin, int startDin) {
+		Set<DataInstanceNode> found = new HashSet<>();
+		BitSet seenPins = new BitSet(numPins);
+		BitSet seenDins = new BitSet(numDins);
+		Deque<Integer> pinsToVisit = new ArrayDeque<>();
+		Deque<Integer> dinsToVisit = new ArrayDeque<>();
+		if (startPin != NONE) {
+			pinsToVisit.push(startPin);
+		}
+		else {
+			dinsToVisit.push(startDin);
+		}
+
+		while (!pinsToVisit.isEmpty() || !dinsToVisit.isEmpty()) {
+			if (!pinsToVisit.isEmpty()) {
+				int pin = pinsToVisit.pop();
+				if (seenPins.get(pin)) {
+					continue;
+				}
+				seenPins.set(pin);
+				for (int i = outputOffsets[pin]; i < outputOffsets[pin + 1]; i++) {
+					dinsToVisit.push(outputs[i]);
+				}
+				for (int i = successorOffsets[pin]; i < successorOffsets[pin + 1]; i++) {
+					pinsToVisit.push(successors[i]);
+				}
+			}
+			else {
+				int din = dinsToVisit.pop();
+				if (seenDins.get(din)) {
+					continue;
+				}
+				seenDins.set(din);
+				if (dinIsProcessOutput.get(din)) {
+					found.add(new DinView(din));
+				}
+				for (int i = userOffsets[din]; i < userOffsets[din + 1]; i++) {
+					pinsToVisit.push(users[i]);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Walks backward from a node, collecting the data nodes reached that are
+	 * inputs to the process.
+	 */
+	private Set<DataInstanceNode> processInputsDerived(int startPin, int startDin) {
+		Set<DataInstanceNode> found = new HashSet<>();
+		BitSet seenPins = new BitSet(numPins);
+		BitSet seenDins = new BitSet(numDins);
+		Deque<Integer> pinsToVisit = new ArrayDeque<>();
+		Deque<Integer> dinsToVisit = new ArrayDeque<>();
+		if (startPin != NONE) {
+			pinsToVisit.push(startPin);
+		}
+		else {
+			dinsToVisit.push(startDin);
+		}
+
+		while (!pinsToVisit.isEmpty() || !dinsToVisit.isEmpty()) {
+			if (!pinsToVisit.isEmpty()) {
+				int pin = pinsToVisit.pop();
+				if (seenPins.get(pin)) {
+					continue;
+				}
+				seenPins.set(pin);
+				for (int i = inputOffsets[pin]; i < inputOffsets[pin + 1]; i++) {
+					dinsToVisit.push(inputs[i]);
+				}
+				for (int i = predecessorOffsets[pin]; i < predecessorOffsets[pin + 1]; i++) {
+					pinsToVisit.push(predecessors[i]);
+				}
+			}
+			else {
+				int din = dinsToVisit.pop();
+				if (seenDins.get(din)) {
+					continue;
+				}
+				seenDins.set(din);
+				if (dinIsProcessInput.get(din)) {
+					found.add(new DinView(din));
+				}
+				if (dinProducers[din] != NONE) {
+					pinsToVisit.push(dinProducers[din]);
+				}
+			}
+		}
+		return found;
+	}
+
+	private static Iterator<String> attributeNames(Map<Integer, Map<String, Object>> attributes, int node) {
+		Map<String, Object> values = attributes.get(node);
+		if (values == null) {
+			return Collections.emptyIterator();
+		}
+		return Collections.unmodifiableSet(values.keySet()).iterator();
+	}
+
+	private static Object attributeValue(Map<Integer, Map<String, Object>> attributes, int node, String name) {
+		Map<String, Object> values = attributes.get(node);
+		return values == null ? null : values.get(name);
+	}
+
+	private static UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException("A compacted DDG cannot be changed");
+	}
+
+	/**
+	 * A procedure node, read from the arrays
+	 */
+	private final class PinView implements ProcedureInstanceNode {
+		// The node's position in the procedure node arrays
+		private final int pin;
+
+		PinView(int pin) {
+			this.pin = pin;
+		}
+
+		@Override
+		public Object getProcedureDefinition() {
+			if (pinDefinitions[pin] != NONE) {
+				return strings[pinDefinitions[pin]];
+			}
+			return otherDefinitions.get(pin);
+		}
+
+		@Override
+		public void setProcedureDefinition(Object def) {
+			throw readOnly();
+		}
+
+		@Override
+		public void addPredecessor(ProcedureInstanceNode pred) {
+			throw readOnly();
+		}
+
+		@Override
+		public void addSuccessor(ProcedureInstanceNode suc) {
+			throw readOnly();
+		}
+
+		@Override
+		public void addInput(String paramName, DataInstanceNode value) {
+			throw readOnly();
+		}
+
+		@Override
+		public DataInstanceNode getInput(String paramName) {
+			return new DinView(findParam(inputOffsets, inputNames, inputs, pin, paramName));
+		}
+
+		@Override
+		public void addOutput(String paramName, DataInstanceNode value) {
+			throw readOnly();
+		}
+
+		@Override
+		public DataInstanceNode getOutput(String paramName) {
+			return new DinView(findParam(outputOffsets, outputNames, outputs, pin, paramName));
+		}
+
+		@Override
+		public Iterator<ProcedureInstanceNode> successorIter() {
+			return pinIterator(successorOffsets, successors, pin);
+		}
+
+		@Override
+		public Iterator<ProcedureInstanceNode> predecessorIter() {
+			return pinIterator(predecessorOffsets, predecessors, pin);
+		}
+
+		@Override
+		public Iterator<String> inputParamNames() {
+			return nameIterator(inputOffsets, inputNames, pin);
+		}
+
+		@Override
+		public Iterator<DataInstanceNode> inputParamValues() {
+			return dinIterator(inputOffsets, inputs, pin);
+		}
+
+		@Override
+		public Iterator<String> outputParamNames() {
+			return nameIterator(outputOffsets, outputNames, pin);
+		}
+
+		@Override
+		public Iterator<DataInstanceNode> outputParamValues() {
+			return dinIterator(outputOffsets, outputs, pin);
+		}
+
+		@Override
+		public AgentConfiguration getAgent() {
+			return agents.get(pin);
+		}
+
+		@Override
+		public void setId(int newId) {
+			if (newId != pinIds[pin]) {
+				throw new IdAlreadySetException("Cannot reset the ID of a node that has already been assigned an ID.");
+			}
+		}
+
+		@Override
+		public int getId() {
+			return pinIds[pin];
+		}
+
+		@Override
+		public String getName() {
+			return string(pinNames[pin]);
+		}
+
+		@Override
+		public String getType() {
+			return string(pinTypes[pin]);
+		}
+
+		@Override
+		public String getNameAndType() {
+			return getName() + " " + getType();
+		}
+
+		@Override
+		public boolean canBeRoot() {
+			return pinCanBeRoot.get(pin);
+		}
+
+		@Override
+		public SourcePos getSourcePos() {
+			if (!pinHasSourcePos.get(pin)) {
+				return null;
+			}
+			int base = pin * 5;
+			return new SourcePos(pinSourcePos[base], pinSourcePos[base + 1], pinSourcePos[base + 2],
+					pinSourcePos[base + 3], pinSourcePos[base + 4]);
+		}
+
+		@Override
+		public String getCreatedTime() {
+			return string(pinCreated[pin]);
+		}
+
+		@Override
+		public double getElapsedTime() {
+			return pinElapsed[pin];
+		}
+
+		@Override
+		public Set<DataInstanceNode> getProcessOutputsDerived() {
+			return processOutputsDerived(pin, NONE);
+		}
+
+		@Override
+		public Set<DataInstanceNode> getProcessInputsDerived() {
+			return processInputsDerived(pin, NONE);
+		}
+
+		@Override
+		public Object getAttributeValue(String name) {
+			return attributeValue(pinAttributes, pin, name);
+		}
+
+		@Override
+		public void setAttribute(String name, Object value) {
+			throw readOnly();
+		}
+
+		@Override
+		public Iterator<String> attributes() {
+			return attributeNames(pinAttributes, pin);
+		}
+
+		@Override
+		public int compareTo(ProcedureInstanceNode other) {
+			return getId() - other.getId();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof PinView && ((PinView) other).pin == pin && ((PinView) other).graph() == graph();
+		}
+
+		@Override
+		public int hashCode() {
+			return pin;
+		}
+
+		private CompactProvenanceGraph graph() {
+			return CompactProvenanceGraph.this;
+		}
+
+		@Override
+		public String toString() {
+			return getType() + " p" + getId() + " \"" + getName() + "\"";
+		}
+	}
+
+	/**
+	 * A data node, read from the arrays
+	 */
+	private final class DinView implements DataInstanceNode {
+		// The node's position in the data node arrays
+		private final int din;
+
+		DinView(int din) {
+			this.din = din;
+		}
+
+		/**
+		 * Like the copies made by AbstractDataInstanceNode, the copy is not
+		 * part of any ddg and has no producer or users.  Unlike the view, it
+		 * can be changed.
+		 */
+		@Override
+		public Object clone() {
+			DataNodeCopy copy = new DataNodeCopy(this);
+			Iterator<String> names = attributes();
+			while (names.hasNext()) {
+				String name = names.next();
+				copy.setAttribute(name, getAttributeValue(name));
+			}
+			return copy;
+		}
+
+		@Override
+		public void addUserPIN(ProcedureInstanceNode user) {
+			throw readOnly();
+		}
+
+		@Override
+		public Serializable getValue() {
+			return string(dinValues[din]);
+		}
+
+		@Override
+		public void setValue(Serializable value) {
+			throw readOnly();
+		}
+
+		@Override
+		public ProcedureInstanceNode getProducer() {
+			int producer = dinProducers[din];
+			return producer == NONE ? null : new PinView(producer);
+		}
+
+		@Override
+		public Iterator<ProcedureInstanceNode> users() {
+			return pinIterator(userOffsets, users, din);
+		}
+
+		@Override
+		public int getId() {
+			return dinIds[din];
+		}
+
+		@Override
+		public void setId(int newId) {
+			if (newId != dinIds[din]) {
+				throw new IdAlreadySetException("Cannot reset the ID of a node that has already been assigned an ID.");
+			}
+		}
+
+		@Override
+		public String getType() {
+			return string(dinTypes[din]);
+		}
+
+		@Override
+		public String getName() {
+			return string(dinNames[din]);
+		}
+
+		@Override
+		public void setProducer(ProcedureInstanceNode p, DataInstanceNode d) {
+			throw readOnly();
+		}
+
+		@Override
+		public String getLocation() {
+			return string(dinLocations[din]);
+		}
+
+		@Override
+		public String getHash() {
+			return string(dinHashes[din]);
+		}
+
+		@Override
+		public String getCreatedTime() {
+			return string(dinCreated[din]);
+		}
+
+		@Override
+		public double getElapsedTime() {
+			return 0.0;
+		}
+
+		@Override
+		public Set<DataInstanceNode> getProcessOutputsDerived() {
+			return processOutputsDerived(NONE, din);
+		}
+
+		@Override
+		public Set<DataInstanceNode> getProcessInputsDerived() {
+			return processInputsDerived(NONE, din);
+		}
+
+		@Override
+		public Object getAttributeValue(String name) {
+			return attributeValue(dinAttributes, din, name);
+		}
+
+		@Override
+		public void setAttribute(String name, Object value) {
+			throw readOnly();
+		}
+
+		@Override
+		public Iterator<String> attributes() {
+			return attributeNames(dinAttributes, din);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof DinView && ((DinView) other).din == din && ((DinView) other).graph() == graph();
+		}
+
+		@Override
+		public int hashCode() {
+			return din;
+		}
+
+		private CompactProvenanceGraph graph() {
+			return CompactProvenanceGraph.this;
+		}
+
+		@Override
+		public String toString() {
+			return getType() + " d" + getId() + " \"" + getName() + "\"";
+		}
+	}
+
+	/**
+	 * A changeable copy of a data node of a compacted ddg
+	 */
+	private static final class DataNodeCopy extends AbstractDataInstanceNode {
+		// The node type, such as "Data" or "File"
+		private final String type;
+
+		DataNodeCopy(DataInstanceNode original) {
+			super(original.getValue() == null ? null : original.getValue().toString(), original.getName(),
+					original.getCreatedTime(), original.getLocation(), original.getHash(), null);
+			type = original.getType();
+			setId(original.getId());
+		}
+
+		@Override
+		public String getType() {
+			return type;
+		}
+	}
+
+	/**
+	 * Assigns each distinct string a position in the pool
+	 */
+	private static class StringPool {
+		private final Map<String, Integer> positions = new HashMap<>();
+		private String[] strings = new String[1024];
+
+		int add(String s) {
+			if (s == null) {
+				return NONE;
+			}
+			Integer position = positions.get(s);
+			if (position != null) {
+				return position;
+			}
+			int next = positions.size();
+			if (next == strings.length) {
+				strings = Arrays.copyOf(strings, next * 2);
+			}
+			strings[next] = s;
+			positions.put(s, next);
+			return next;
+		}
+
+		String[] toArray() {
+			return Arrays.copyOf(strings, positions.size());
+		}
+	}
+
+	/**
+	 * Copies the node objects of a ddg into the arrays.  The builder and its
+	 * maps are discarded once the graph is built.
+	 */
+	private static class Builder {
+		private final StringPool pool = new StringPool();
+		private final List<ProcedureInstanceNode> pins = new ArrayList<>();
+		private final List<DataInstanceNode> dins = new ArrayList<>();
+		private final Map<Node, Integer> pinPositions = new IdentityHashMap<>();
+		private final Map<Node, Integer> dinPositions = new IdentityHashMap<>();
+		private final ProvenanceData provData;
+
+		private int[] pinIds;
+		private int[] pinNames;
+		private int[] pinTypes;
+		private int[] pinCreated;
+		private int[] pinDefinitions;
+		private double[] pinElapsed;
+		private BitSet pinCanBeRoot;
+		private int[] pinSourcePos;
+		private BitSet pinHasSourcePos;
+
+		private int[] dinIds;
+		private int[] dinNames;
+		private int[] dinTypes;
+		private int[] dinValues;
+		private int[] dinCreated;
+		private int[] dinLocations;
+		private int[] dinHashes;
+		private int[] dinProducers;
+		private BitSet dinIsProcessInput;
+		private BitSet dinIsProcessOutput;
+
+		private int[] successorOffsets;
+		private int[] successors;
+		private int[] predecessorOffsets;
+		private int[] predecessors;
+		private int[] inputOffsets;
+		private int[] inputs;
+		private int[] inputNames;
+		private int[] outputOffsets;
+		private int[] outputs;
+		private int[] outputNames;
+		private int[] userOffsets;
+		private int[] users;
+
+		private final Map<Integer, Object> otherDefinitions = new HashMap<>();
+		private final Map<Integer, AgentConfiguration> agents = new HashMap<>();
+		private final Map<Integer, Map<String, Object>> pinAttributes = new HashMap<>();
+		private final Map<Integer, Map<String, Object>> dinAttributes = new HashMap<>();
+
+		Builder(ProvenanceData provData) {
+			this.provData = provData;
+			Iterator<ProcedureInstanceNode> pinIter = provData.pinIter();
+			while (pinIter.hasNext()) {
+				ProcedureInstanceNode pin = pinIter.next();
+				pinPositions.put(pin, pins.size());
+				pins.add(pin);
+			}
+			Iterator<DataInstanceNode> dinIter = provData.dinIter();
+			while (dinIter.hasNext()) {
+				DataInstanceNode din = dinIter.next();
+				dinPositions.put(din, dins.size());
+				dins.add(din);
+			}
+		}
+
+		CompactProvenanceGraph build() {
+			copyPins();
+			copyDins();
+			copyEdges();
+			return new CompactProvenanceGraph(this);
+		}
+
+		private void copyPins() {
+			int n = pins.size();
+			pinIds = new int[n];
+			pinNames = new int[n];
+			pinTypes = new int[n];
+			pinCreated = new int[n];
+			pinDefinitions = new int[n];
+			pinElapsed = new double[n];
+			pinCanBeRoot = new BitSet(n);
+			pinSourcePos = new int[n * 5];
+			pinHasSourcePos = new BitSet(n);
+
+			for (int i = 0; i < n; i++) {
+				ProcedureInstanceNode pin = pins.get(i);
+				pinIds[i] = pin.getId();
+				pinNames[i] = pool.add(pin.getName());
+				pinTypes[i] = pool.add(pin.getType());
+				pinCreated[i] = pool.add(pin.getCreatedTime());
+				pinElapsed[i] = pin.getElapsedTime();
+				pinCanBeRoot.set(i, pin.canBeRoot());
+
+				Object definition = pin.getProcedureDefinition();
+				if (definition instanceof String) {
+					pinDefinitions[i] = pool.add((String) definition);
+				}
+				else {
+					pinDefinitions[i] = NONE;
+					if (definition != null) {
+						otherDefinitions.put(i, definition);
+					}
+				}
+
+				SourcePos sourcePos = pin.getSourcePos();
+				if (sourcePos != null) {
+					pinHasSourcePos.set(i);
+					pinSourcePos[i * 5] = sourcePos.getScriptNumber();
+					pinSourcePos[i * 5 + 1] = sourcePos.getStartLine();
+					pinSourcePos[i * 5 + 2] = sourcePos.getStartCol();
+					pinSourcePos[i * 5 + 3] = sourcePos.getEndLine();
+					pinSourcePos[i * 5 + 4] = sourcePos.getEndCol();
+				}
+
+				if (pin.getAgent() != null) {
+					agents.put(i, pin.getAgent());
+				}
+				copyAttributes(pin, i, pinAttributes);
+			}
+		}
+
+		private void copyDins() {
+			int n = dins.size();
+			dinIds = new int[n];
+			dinNames = new int[n];
+			dinTypes = new int[n];
+			dinValues = new int[n];
+			dinCreated = new int[n];
+			dinLocations = new int[n];
+			dinHashes = new int[n];
+			dinProducers = new int[n];
+			dinIsProcessInput = new BitSet(n);
+			dinIsProcessOutput = new BitSet(n);
+
+			for (int i = 0; i < n; i++) {
+				DataInstanceNode din = dins.get(i);
+				dinIds[i] = din.getId();
+				dinNames[i] = pool.add(din.getName());
+				dinTypes[i] = pool.add(din.getType());
+				Serializable value = din.getValue();
+				dinValues[i] = value == null ? NONE : pool.add(value.toString());
+				dinCreated[i] = pool.add(din.getCreatedTime());
+				dinLocations[i] = pool.add(din.getLocation());
+				dinHashes[i] = pool.add(din.getHash());
+				dinProducers[i] = position(pinPositions, din.getProducer());
+				dinIsProcessInput.set(i, provData.isProcessInput(din));
+				dinIsProcessOutput.set(i, provData.isProcessOutput(din));
+				copyAttributes(din, i, dinAttributes);
+			}
+		}
+
+		private static void copyAttributes(Node node, int position, Map<Integer, Map<String, Object>> attributes) {
+			Iterator<String> names = node.attributes();
+			if (!names.hasNext()) {
+				return;
+			}
+			Map<String, Object> values = new HashMap<>();
+			while (names.hasNext()) {
+				String name = names.next();
+				values.put(name, node.getAttributeValue(name));
+			}
+			attributes.put(position, values);
+		}
+
+		private static int position(Map<Node, Integer> positions, Node node) {
+			if (node == null) {
+				return NONE;
+			}
+			Integer position = positions.get(node);
+			return position == null ? NONE : position;
+		}
+
+		private void copyEdges() {
+			int numPins = pins.size();
+			IntList neighbors = new IntList();
+			IntList names = new IntList();
+
+			successorOffsets = new int[numPins + 1];
+			for (int i = 0; i < numPins; i++) {
+				successorOffsets[i] = neighbors.size;
+				addAll(pins.get(i).successorIter(), pinPositions, neighbors);
+			}
+			successorOffsets[numPins] = neighbors.size;
+			successors = neighbors.toArray();
+
+			neighbors = new IntList();
+			predecessorOffsets = new int[numPins + 1];
+			for (int i = 0; i < numPins; i++) {
+				predecessorOffsets[i] = neighbors.size;
+				addAll(pins.get(i).predecessorIter(), pinPositions, neighbors);
+			}
+			predecessorOffsets[numPins] = neighbors.size;
+			predecessors = neighbors.toArray();
+
+			neighbors = new IntList();
+			inputOffsets = new int[numPins + 1];
+			for (int i = 0; i < numPins; i++) {
+				inputOffsets[i] = neighbors.size;
+				addParams(pins.get(i).inputParamNames(), pins.get(i).inputParamValues(), neighbors, names);
+			}
+			inputOffsets[numPins] = neighbors.size;
+			inputs = neighbors.toArray();
+			inputNames = names.toArray();
+
+			neighbors = new IntList();
+			names = new IntList();
+			outputOffsets = new int[numPins + 1];
+			for (int i = 0; i < numPins; i++) {
+				outputOffsets[i] = neighbors.size;
+				addParams(pins.get(i).outputParamNames(), pins.get(i).outputParamValues(), neighbors, names);
+			}
+			outputOffsets[numPins] = neighbors.size;
+			outputs = neighbors.toArray();
+			outputNames = names.toArray();
+
+			int numDins = dins.size();
+			neighbors = new IntList();
+			userOffsets = new int[numDins + 1];
+			for (int i = 0; i < numDins; i++) {
+				userOffsets[i] = neighbors.size;
+				addAll(dins.get(i).users(), pinPositions, neighbors);
+			}
+			userOffsets[numDins] = neighbors.size;
+			users = neighbors.toArray();
+		}
+
+		/**
+		 * Adds the positions of the nodes to the list, skipping any that are
+		 * not part of the ddg
+		 */
+		private static void addAll(Iterator<? extends Node> nodes, Map<Node, Integer> positions, IntList neighbors) {
+			while (nodes.hasNext()) {
+				int position = position(positions, nodes.next());
+				if (position != NONE) {
+					neighbors.add(position);
+				}
+			}
+		}
+
+		/**
+		 * Adds the parameters' data nodes and names to the lists.  The names
+		 * and values iterators run over the same parameters in the same order.
+		 */
+		private void addParams(Iterator<String> paramNames, Iterator<DataInstanceNode> paramValues,
+				IntList neighbors, IntList names) {
+			while (paramNames.hasNext() && paramValues.hasNext()) {
+				String name = paramNames.next();
+				int position = position(dinPositions, paramValues.next());
+				if (position != NONE) {
+					neighbors.add(position);
+					names.add(pool.add(name));
+				}
+			}
+		}
+	}
+
+	/**
+	 * A growable list of ints
+	 */
+	private static class IntList {
+		private int[] values = new int[1024];
+		private int size = 0;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+}
@@ -15,6 +15,9 @@ import laser.ddg.persist.ReportErrorException;
 public abstract class DDGBuilder {
 	// The provenance object that holds the ddg
 	private ProvenanceData provObject;
+	
+	// Pool used to share strings with the parser, or null if strings are not pooled
+	private StringPool strings;
 
 	/**
 	 * Creates a ddg builder 
@@ -26,6 +29,31 @@ public abstract class DDGBuilder {
 		provObject.notifyProcessStarted(script);
 	}
 	
+	/**
+	 * Shares the strings used by the nodes with those of the parser that 
+	 * is reading the ddg
+	 * @param strings the parser's string pool
+	 */
+	public void setStringPool(StringPool strings) {
+		this.strings = strings;
+	}
+	
+	/**
+	 * @param s a string to store in a node
+	 * @return the pooled copy of the string if strings are being pooled
+	 */
+	protected String intern(String s) {
+		return strings == null ? s : strings.intern(s);
+	}
+	
+	/**
+	 * @param value a data value to store in a node
+	 * @return the pooled copy of the value if it should be pooled
+	 */
+	protected String internValue(String value) {
+		return strings == null ? value : strings.internValue(value);
+	}
+	
 	/**
 	 * Determines what kind of procedure node to create and adds it
 	 * 
@@ -0,0 +1,149 @@
+package laser.ddg;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * An event that is recorded by the Java flight recorder when the flight
+ * recorder is available.  The flight recorder is part of Java 11 and later
+ * and of Java 8 from update 262.  On older runtimes the events do nothing.
+ *
+ * An event is used like a jdk.jfr.Event:  it is created and begun when the
+ * work it measures starts, ended when the work is done, and, if
+ * shouldCommit returns true, its fields are filled in and it is committed.
+ * Subclasses describe themselves with EventInfo and mark the fields to record
+ * with FieldInfo.  Recorded fields may be Strings, ints, longs or booleans.
+ *
+ * Nothing in this class refers to the flight recorder, so it loads on any
+ * Java 8 runtime.  Whether the flight recorder can be used is decided once,
+ * when the first event is created.
+ */
+public abstract class FlightEvent {
+	// Creates the flight recorder's events, or null if there is no flight recorder
+	private static final Recorder RECORDER = findRecorder();
+
+	// The flight recorder's copy of this event, or null if it is not recorded
+	private final Recording recording;
+
+	protected FlightEvent() {
+		recording = RECORDER == null ? null : RECORDER.newRecording(getClass());
+	}
+
+	/**
+	 * @return the recorder that uses the flight recorder, or null if the
+	 * 	runtime does not have one
+	 */
+	private static Recorder findRecorder() {
+		try {
+			Class.forName("jdk.jfr.EventFactory");
+			return (Recorder) Class.forName("laser.ddg.jfr.JfrRecorder").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if events are being recorded by the flight recorder
+	 */
+	public static boolean isRecorderAvailable() {
+		return RECORDER != null;
+	}
+
+	/**
+	 * Starts timing the event
+	 */
+	public void begin() {
+		if (recording != null) {
+			recording.begin();
+		}
+	}
+
+	/**
+	 * Stops timing the event
+	 */
+	public void end() {
+		if (recording != null) {
+			recording.end();
+		}
+	}
+
+	/**
+	 * @return true if the flight recorder is recording this kind of event and
+	 * 	this one is long enough to record.  The fields only need to be filled
+	 * 	in if this is true.
+	 */
+	public boolean shouldCommit() {
+		return recording != null && recording.shouldCommit();
+	}
+
+	/**
+	 * Records the event with the current values of its fields
+	 */
+	public void commit() {
+		if (recording != null) {
+			recording.commit(this);
+		}
+	}
+
+	/**
+	 * Describes a kind of event to the flight recorder
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.TYPE)
+	public @interface EventInfo {
+		/** The unique name of the event type */
+		String name();
+
+		/** The name shown for the event type */
+		String label();
+
+		/** Where the event type is listed, outermost first */
+		String[] category();
+
+		/** A sentence describing the event type */
+		String description();
+	}
+
+	/**
+	 * Marks a field that is recorded with the event
+	 */
+	@Retention(RetentionPolicy.RUNTIME)
+	@Target(ElementType.FIELD)
+	public @interface FieldInfo {
+		/** The name shown for the field */
+		String value();
+
+		/** True if the field is a number of bytes */
+		boolean bytes() default false;
+	}
+
+	/**
+	 * Creates the flight recorder's events
+	 */
+	public interface Recorder {
+		/**
+		 * @param type the kind of event
+		 * @return a new flight recorder event of that kind
+		 */
+		Recording newRecording(Class<? extends FlightEvent> type);
+	}
+
+	/**
+	 * The flight recorder's copy of one event
+	 */
+	public interface Recording {
+		void begin();
+
+		void end();
+
+		boolean shouldCommit();
+
+		/**
+		 * Copies the recorded fields of the event and records it
+		 * @param event the event whose fields are copied
+		 */
+		void commit(FlightEvent event);
+	}
+}
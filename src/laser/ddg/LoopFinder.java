@@ -0,0 +1,267 @@
+package laser.ddg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the sequences of procedure nodes that repeat because they come from
+ * the iterations of a loop.  Each time a loop body runs, it adds the same
+ * sequence of nodes, at the same source positions, to the ddg.  Loops that
+ * run many times can account for most of the nodes in a ddg, so the
+ * visualizer shows each loop found here as a single node that the user can
+ * expand.
+ *
+ * Nodes are compared by their type and source position.  A call to a
+ * function appears in the sequence of its caller as the call's Start node,
+ * standing for everything up to the matching Finish node.  The nodes within
+ * the call are searched for loops separately.  Nodes with no source position
+ * never match anything, so they end any loop they are in.
+ */
+public class LoopFinder {
+	// The fewest times a sequence must repeat to be treated as a loop
+	private static final int MIN_ITERATIONS = 3;
+
+	// The longest iteration looked for, counting each call as one node
+	private static final int MAX_ITERATION_LENGTH = 64;
+
+	/**
+	 * Finds the loops in a ddg
+	 * @param ddg the ddg to search.  It should be finished.
+	 * @return the loops found, not including loops nested inside the
+	 * 	iterations of other loops.  Those are available from the loops
+	 * 	they are nested in.
+	 */
+	public static List<Loop> find(ProvenanceData ddg) {
+		List<ProcedureInstanceNode> pins = new ArrayList<>();
+		Iterator<ProcedureInstanceNode> pinIter = ddg.pinIter();
+		while (pinIter.hasNext()) {
+			pins.add(pinIter.next());
+		}
+		pins.sort((pin1, pin2) -> Integer.compare(pin1.getId(), pin2.getId()));
+
+		List<Loop> loops = new ArrayList<>();
+		Signatures signatures = new Signatures();
+
+		// The sequence being collected at each level of calls.  The outermost
+		// level is at the bottom.
+		Deque<Level> levels = new ArrayDeque<>();
+		levels.push(new Level(null, 0));
+		for (ProcedureInstanceNode pin : pins) {
+			String type = pin.getType();
+			if (type.equals("Start")) {
+				levels.push(new Level(pin, signatures.unique()));
+			}
+			else if (type.equals("Finish") && levels.size() > 1) {
+				Level call = levels.pop();
+				call.add(pin, signatures.unique());
+				call.findLoops(loops);
+				levels.peek().add(call.start, signatures.of(call.start));
+			}
+			else {
+				levels.peek().add(pin, signatures.of(pin));
+			}
+		}
+
+		// Calls that never finished, and then the outermost level
+		while (!levels.isEmpty()) {
+			levels.pop().findLoops(loops);
+		}
+		return loops;
+	}
+
+	/**
+	 * Finds the loops in part of a sequence of nodes.  The search is greedy:
+	 * starting from each position, the iteration length that covers the
+	 * most nodes is used, preferring shorter iterations.
+	 * @param elements the sequence of nodes
+	 * @param signatures the signature of each node
+	 * @param from the first position to search
+	 * @param to the position just past the last one to search
+	 * @return the loops found, in order
+	 */
+	private static List<Loop> findLoops(List<ProcedureInstanceNode> elements, int[] signatures, int from, int to) {
+		List<Loop> loops = new ArrayList<>();
+		int next = from;
+		while (next < to) {
+			int bestLength = 0;
+			int bestCovered = 0;
+			for (int length = 1; length <= MAX_ITERATION_LENGTH && next + length * MIN_ITERATIONS <= to; length++) {
+				// Count how far the sequence starting here matches itself
+				// shifted by one iteration
+				int matching = 0;
+				while (next + length + matching < to
+						&& signatures[next + matching] == signatures[next + length + matching]) {
+					matching++;
+				}
+				int covered = (matching + length) / length * length;
+				if (covered / length >= MIN_ITERATIONS && covered > bestCovered) {
+					bestLength = length;
+					bestCovered = covered;
+				}
+			}
+
+			if (bestLength == 0) {
+				next++;
+			}
+			else {
+				loops.add(new Loop(elements, signatures, next, bestLength, bestCovered / bestLength));
+				next += bestCovered;
+			}
+		}
+		return loops;
+	}
+
+	/**
+	 * A loop, made of some number of iterations, each a sequence of nodes
+	 * with the same signatures
+	 */
+	public static class Loop {
+		// The sequence of nodes that the loop is part of
+		private final List<ProcedureInstanceNode> elements;
+
+		// Where the loop starts in the sequence
+		private final int start;
+
+		// The number of nodes in each iteration
+		private final int length;
+
+		// The number of iterations
+		private final int iterations;
+
+		// The loops nested in each iteration
+		private final List<List<Loop>> nested = new ArrayList<>();
+
+		private Loop(List<ProcedureInstanceNode> elements, int[] signatures, int start, int length, int iterations) {
+			this.elements = elements;
+			this.start = start;
+			this.length = length;
+			this.iterations = iterations;
+			for (int i = 0; i < iterations; i++) {
+				if (length < MIN_ITERATIONS) {
+					nested.add(Collections.emptyList());
+				}
+				else {
+					int iterationStart = start + i * length;
+					nested.add(findLoops(elements, signatures, iterationStart, iterationStart + length));
+				}
+			}
+		}
+
+		/**
+		 * @return the number of times the loop body ran
+		 */
+		public int getIterationCount() {
+			return iterations;
+		}
+
+		/**
+		 * @return the number of nodes in each iteration.  A call counts as
+		 * 	one node.
+		 */
+		public int getIterationLength() {
+			return length;
+		}
+
+		/**
+		 * Returns the nodes of one iteration.  A call is represented by its
+		 * Start node.
+		 * @param iteration which iteration, starting from 0
+		 * @return the nodes, in the order they ran
+		 */
+		public List<ProcedureInstanceNode> getIteration(int iteration) {
+			int iterationStart = start + iteration * length;
+			return elements.subList(iterationStart, iterationStart + length);
+		}
+
+		/**
+		 * @param iteration which iteration, starting from 0
+		 * @return the loops nested in that iteration, in order
+		 */
+		public List<Loop> getNestedLoops(int iteration) {
+			return nested.get(iteration);
+		}
+	}
+
+	/**
+	 * The nodes at one level of calls.  These are the nodes between a Start
+	 * node and its Finish node, other than those inside nested calls.
+	 */
+	private static class Level {
+		// The Start node of the call, or null for the outermost level
+		private final ProcedureInstanceNode start;
+
+		// The nodes in the order they ran
+		private final List<ProcedureInstanceNode> elements = new ArrayList<>();
+
+		// The signature of each node
+		private int[] signatures = new int[16];
+
+		/**
+		 * @param start the Start node of the call, or null for the outermost level
+		 * @param signature the signature to give the Start node within the call.
+		 * 	It should match nothing, so that the Start node is not part of a loop.
+		 */
+		private Level(ProcedureInstanceNode start, int signature) {
+			this.start = start;
+			if (start != null) {
+				add(start, signature);
+			}
+		}
+
+		private void add(ProcedureInstanceNode pin, int signature) {
+			if (elements.size() == signatures.length) {
+				signatures = Arrays.copyOf(signatures, signatures.length * 2);
+			}
+			signatures[elements.size()] = signature;
+			elements.add(pin);
+		}
+
+		private void findLoops(List<Loop> loops) {
+			loops.addAll(LoopFinder.findLoops(elements, signatures, 0, elements.size()));
+		}
+	}
+
+	/**
+	 * Numbers the distinct combinations of node type and source position, so
+	 * that nodes can be compared with a single integer comparison
+	 */
+	private static class Signatures {
+		// The number given to each combination seen so far
+		private final Map<String, Integer> numbers = new HashMap<>();
+
+		// The next number to give to a node that matches nothing.  These
+		// count down from -2 so they never equal a combination's number.
+		private int nextUnique = -2;
+
+		/**
+		 * @param pin a node
+		 * @return the number for the node's type and source position, or a
+		 * 	unique number if the node has no source position or should not be
+		 * 	part of a loop
+		 */
+		private int of(ProcedureInstanceNode pin) {
+			SourcePos pos = pin.getSourcePos();
+			String type = pin.getType();
+			if (pos == null || pos.getStartLine() < 1 || type.equals("Checkpoint") || type.equals("Restore")) {
+				return unique();
+			}
+			String key = type + ' ' + pos.getScriptNumber() + ':' + pos.getStartLine() + ':'
+					+ pos.getStartCol() + ':' + pos.getEndLine() + ':' + pos.getEndCol();
+			return numbers.computeIfAbsent(key, k -> numbers.size());
+		}
+
+		/**
+		 * @return a number that no other node has
+		 */
+		private int unique() {
+			return nextUnique--;
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package laser.ddg;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Measures where time goes while a ddg is read, drawn and queried.  Each ddg
+ * has its own metrics, so the statistics shown for a tab describe just the
+ * ddg in that tab.  There are three kinds of metrics, each identified by a
+ * name like "parse.header":
+ * <ul>
+ * <li> Counters, which count events or things.
+ * <li> Timers, which record how long each run of some code took.
+ * <li> Histograms, which record the distribution of some other value, like
+ * 	the number of nodes a query finds.
+ * </ul>
+ * Metrics may be recorded from any thread.  Recording is cheap enough to
+ * leave on all the time: values go into power-of-two buckets, so
+ * percentiles are approximate but no values are kept.
+ */
+public class Metrics {
+	// The counters, by name
+	private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	// The timers, by name.  Times are in microseconds.
+	private final Map<String, Histogram> timers = new ConcurrentHashMap<>();
+
+	// The histograms, by name
+	private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+	/**
+	 * Adds one to a counter
+	 * @param name the counter's name
+	 */
+	public void increment(String name) {
+		add(name, 1);
+	}
+
+	/**
+	 * Adds to a counter
+	 * @param name the counter's name
+	 * @param amount the amount to add
+	 */
+	public void add(String name, long amount) {
+		counters.computeIfAbsent(name, key -> new LongAdder()).add(amount);
+	}
+
+	/**
+	 * Records how long something took.  Typical use is
+	 * <pre>
+	 * long start = System.nanoTime();
+	 * ...
+	 * metrics.recordTime("name", start);
+	 * </pre>
+	 * @param name the timer's name
+	 * @param startNanos the value of System.nanoTime() when it started
+	 */
+	public void recordTime(String name, long startNanos) {
+		recordDuration(name, System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Records how long something took, when it was measured before the
+	 * metrics were available
+	 * @param name the timer's name
+	 * @param nanos how long it took, in nanoseconds
+	 */
+	public void recordDuration(String name, long nanos) {
+		timers.computeIfAbsent(name, key -> new Histogram()).record(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	/**
+	 * Records a value in a histogram
+	 * @param name the histogram's name
+	 * @param value the value to record.  Negative values are recorded as 0.
+	 */
+	public void record(String name, long value) {
+		histograms.computeIfAbsent(name, key -> new Histogram()).record(value);
+	}
+
+	/**
+	 * @return the value of each counter, sorted by name
+	 */
+	public SortedMap<String, Long> getCounters() {
+		SortedMap<String, Long> values = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+			values.put(counter.getKey(), counter.getValue().sum());
+		}
+		return values;
+	}
+
+	/**
+	 * @return a copy of each timer, sorted by name.  Times are in microseconds.
+	 */
+	public SortedMap<String, Histogram> getTimers() {
+		return copy(timers);
+	}
+
+	/**
+	 * @return a copy of each histogram, sorted by name
+	 */
+	public SortedMap<String, Histogram> getHistograms() {
+		return copy(histograms);
+	}
+
+	private static SortedMap<String, Histogram> copy(Map<String, Histogram> histograms) {
+		SortedMap<String, Histogram> copies = new TreeMap<>();
+		for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+			copies.put(histogram.getKey(), histogram.getValue().copy());
+		}
+		return copies;
+	}
+
+	/**
+	 * Forgets everything recorded so far
+	 */
+	public void clear() {
+		counters.clear();
+		timers.clear();
+		histograms.clear();
+	}
+
+	/**
+	 * Writes the metrics as json.  Times are written in milliseconds.
+	 * @param out where to write the json
+	 * @throws IOException if the json cannot be written
+	 */
+	public void writeJson(Writer out) throws IOException {
+		JsonWriter json = new JsonWriter(out);
+		json.setIndent("\t");
+		json.beginObject();
+
+		json.name("counters").beginObject();
+		for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+			json.name(counter.getKey()).value(counter.getValue());
+		}
+		json.endObject();
+
+		json.name("timers").beginObject();
+		for (Map.Entry<String, Histogram> timer : getTimers().entrySet()) {
+			json.name(timer.getKey());
+			timer.getValue().writeJson(json, 1000.0, "Ms");
+		}
+		json.endObject();
+
+		json.name("histograms").beginObject();
+		for (Map.Entry<String, Histogram> histogram : getHistograms().entrySet()) {
+			json.name(histogram.getKey());
+			histogram.getValue().writeJson(json, 1.0, "");
+		}
+		json.endObject();
+
+		json.endObject();
+		json.flush();
+	}
+
+	/**
+	 * The distribution of a value.  Each value is counted in the bucket for
+	 * its highest bit, so bucket i holds the values from 2^(i-1) to 2^i - 1,
+	 * and bucket 0 holds 0.
+	 */
+	public static class Histogram {
+		// The number of values in each bucket
+		private final long[] buckets = new long[Long.SIZE];
+
+		// The number of values recorded
+		private long count = 0;
+
+		// The sum of the values recorded
+		private long total = 0;
+
+		// The smallest and largest values recorded
+		private long min = Long.MAX_VALUE;
+		private long max = 0;
+
+		private synchronized void record(long value) {
+			value = Math.max(value, 0);
+			buckets[Long.SIZE - Long.numberOfLeadingZeros(value)]++;
+			count++;
+			total += value;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+
+		private synchronized Histogram copy() {
+			Histogram copy = new Histogram();
+			System.arraycopy(buckets, 0, copy.buckets, 0, buckets.length);
+			copy.count = count;
+			copy.total = total;
+			copy.min = min;
+			copy.max = max;
+			return copy;
+		}
+
+		/**
+		 * @return the number of values recorded
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the sum of the values recorded
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		/**
+		 * @return the smallest value recorded, or 0 if there are none
+		 */
+		public long getMin() {
+			return count == 0 ? 0 : min;
+		}
+
+		/**
+		 * @return the largest value recorded
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * @return the average of the values recorded, or 0 if there are none
+		 */
+		public double getMean() {
+			return count == 0 ? 0 : (double) total / count;
+		}
+
+		/**
+		 * @param fraction the fraction of values, between 0 and 1
+		 * @return an upper bound on the value that the given fraction of
+		 * 	the values are no larger than.  It is at most twice the true value.
+		 */
+		public long getPercentile(double fraction) {
+			long needed = (long) Math.ceil(fraction * count);
+			long seen = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				seen += buckets[i];
+				if (seen >= needed && seen > 0) {
+					long bucketMax = i == 0 ? 0 : (i == Long.SIZE - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+					return Math.min(bucketMax, max);
+				}
+			}
+			return max;
+		}
+
+		/**
+		 * Writes the summary of the histogram as a json object
+		 * @param json where to write it
+		 * @param scale the amount to divide values by
+		 * @param unit the suffix for the names of fields holding values
+		 * @throws IOException if the json cannot be written
+		 */
+		private void writeJson(JsonWriter json, double scale, String unit) throws IOException {
+			json.beginObject();
+			json.name("count").value(count);
+			json.name("total" + unit).value(total / scale);
+			json.name("mean" + unit).value(getMean() / scale);
+			json.name("min" + unit).value(getMin() / scale);
+			json.name("max" + unit).value(max / scale);
+			json.name("p50" + unit).value(getPercentile(0.5) / scale);
+			json.name("p90" + unit).value(getPercentile(0.9) / scale);
+			json.name("p99" + unit).value(getPercentile(0.99) / scale);
+			json.endObject();
+		}
+	}
+}
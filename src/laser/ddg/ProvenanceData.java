@@ -12,6 +12,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import laser.ddg.persist.FileUtil;
 import laser.ddg.visualizer.PrefuseGraphBuilder;
@@ -86,8 +87,44 @@ public class ProvenanceData {
 	// Listeners to changes to the DDG
 	private List<ProvenanceListener> provListeners = new LinkedList<>();
 
+	// The compact copy of the nodes and edges, or null if the ddg has not
+	// been compacted.  Once compacted, the ddg cannot be changed.
+	private CompactProvenanceGraph compactGraph;
+
+	// Events held back while a bulk load is in progress.  Each event
+	// notifies all the listeners when it is run.  Null when not bulk loading.
+	// Only used while holding the lock on this object.
+	private List<Runnable> queuedEvents;
+
 	// The query that this provenance data represents.
 	private String query;
+
+	// Guards the indexes below.  Nothing is called while holding it, so it 
+	// cannot deadlock with the locks held by listeners.
+	private final Object indexLock = new Object();
+
+	// The nodes with each id.  These are emptied when the ddg is compacted
+	// since the compact graph has its own index.
+	private Map<Integer, ProcedureInstanceNode> pinsById = new HashMap<>();
+	private Map<Integer, DataInstanceNode> dinsById = new HashMap<>();
+
+	// The ids of the data nodes with each name, in the order added
+	private Map<String, List<Integer>> dinIdsByName = new HashMap<>();
+
+	// The ids of the procedure nodes and data nodes of each type
+	private Map<String, List<Integer>> pinIdsByType = new HashMap<>();
+	private Map<String, List<Integer>> dinIdsByType = new HashMap<>();
+
+	// The ids of the procedure nodes that start on each line.  The key 
+	// combines the script number and the line number.
+	private Map<Long, List<Integer>> pinIdsByLine = new HashMap<>();
+
+	// Counts the nodes and data edges added, so that results computed from
+	// the ddg can tell when they are out of date
+	private final AtomicInteger changeCount = new AtomicInteger();
+
+	// Where time goes while this ddg is read, drawn and queried
+	private final Metrics metrics = new Metrics();
 	
 	// Information about all of the scripts that are executed
 	// to create the ddg.  The main script is in position 0.
@@ -151,10 +188,12 @@ public class ProvenanceData {
 	 *            PIN to add
 	 */
 	public synchronized void addPIN(ProcedureInstanceNode p) {
+		checkNotCompact();
 
 		pins.add(p);
 		p.setId(nextPinId);
 		nextPinId++;
+		index(p);
 		notifyPinCreated(p);
 	}
 
@@ -185,8 +224,10 @@ public class ProvenanceData {
 	 *            the PIN's id number
 	 */
 	public synchronized void addPIN(ProcedureInstanceNode p, int id) {
+		checkNotCompact();
 		pins.add(p);
 		p.setId(id);  // Using the one passed in as a parameter
+		index(p);
 		notifyPinCreated(p);
 	}
 	
@@ -197,6 +238,7 @@ public class ProvenanceData {
 	 *            the DIN to add
 	 */
 	public synchronized void addInputDIN(DataInstanceNode idin) {
+		checkNotCompact();
 		processInputs.add(idin);
 	}
 
@@ -207,6 +249,7 @@ public class ProvenanceData {
 	 *            the DIN to add
 	 */
 	public synchronized void addOutputDIN(DataInstanceNode odin) {
+		checkNotCompact();
 		processOutputs.add(odin);
 	}
 
@@ -217,9 +260,11 @@ public class ProvenanceData {
 	 *            DIN to add
 	 */
 	public synchronized void addDIN(DataInstanceNode d) {
+		checkNotCompact();
 		dins.add(d);
 		d.setId(nextDinId);
 		nextDinId += 1;
+		index(d);
 		notifyDinCreated(d);
 	}
 
@@ -249,11 +294,148 @@ public class ProvenanceData {
 	 *            DIN id number to add
 	 */
 	public synchronized void addDIN(DataInstanceNode d, int id) {
+		checkNotCompact();
 		d.setId(id);
 		dins.add(d);
+		index(d);
 		notifyDinCreated(d);
 	}
 
+	/**
+	 * Adds a procedure node to the indexes
+	 * @param pin the node, with its id set
+	 */
+	private void index(ProcedureInstanceNode pin) {
+		changeCount.incrementAndGet();
+		synchronized (indexLock) {
+			pinsById.putIfAbsent(pin.getId(), pin);
+			addToIndex(pinIdsByType, pin.getType(), pin.getId());
+			SourcePos pos = pin.getSourcePos();
+			if (pos != null && pos.getStartLine() != -1) {
+				addToIndex(pinIdsByLine, lineKey(pos.getScriptNumber(), pos.getStartLine()), pin.getId());
+			}
+		}
+	}
+
+	/**
+	 * Adds a data node to the indexes
+	 * @param din the node, with its id set
+	 */
+	private void index(DataInstanceNode din) {
+		changeCount.incrementAndGet();
+		synchronized (indexLock) {
+			dinsById.putIfAbsent(din.getId(), din);
+			addToIndex(dinIdsByName, din.getName(), din.getId());
+			addToIndex(dinIdsByType, din.getType(), din.getId());
+		}
+	}
+
+	/**
+	 * Adds a node id to the ids with the same key
+	 * @param index the index to add to
+	 * @param key the key
+	 * @param id the node id
+	 */
+	private static <K> void addToIndex(Map<K, List<Integer>> index, K key, int id) {
+		if (key == null) {
+			return;
+		}
+		List<Integer> ids = index.get(key);
+		if (ids == null) {
+			ids = new ArrayList<>(1);
+			index.put(key, ids);
+		}
+		ids.add(id);
+	}
+
+	/**
+	 * @param scriptNumber the position of a script in the list of scripts
+	 * @param line a line in that script
+	 * @return the key for the line in pinIdsByLine
+	 */
+	private static long lineKey(int scriptNumber, int line) {
+		return ((long) scriptNumber << 32) | (line & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Replaces the node objects of a finished ddg with a compact, read-only copy.
+	 * This greatly reduces the memory used by large ddgs.  The nodes returned
+	 * afterwards are views of the compact copy.  They are equal to, but not 
+	 * the same objects as, the nodes that were in the ddg before.
+	 */
+	public synchronized void compact() {
+		if (compactGraph != null) {
+			return;
+		}
+		
+		compactGraph = CompactProvenanceGraph.compact(this);
+		pins = compactGraph.procedureNodes();
+		dins = compactGraph.dataNodes();
+		synchronized (indexLock) {
+			pinsById = new HashMap<>();
+			dinsById = new HashMap<>();
+		}
+		changeCount.incrementAndGet();
+		processInputs = compactViews(processInputs);
+		processOutputs = compactViews(processOutputs);
+		if (root != null) {
+			root = compactGraph.viewOf(root);
+		}
+	}
+
+	/**
+	 * @param nodes data nodes from before the ddg was compacted
+	 * @return the compact views of the same nodes
+	 */
+	private List<DataInstanceNode> compactViews(List<DataInstanceNode> nodes) {
+		List<DataInstanceNode> views = new ArrayList<>();
+		for (DataInstanceNode din : nodes) {
+			DataInstanceNode view = compactGraph.findDin(din.getId());
+			if (view != null) {
+				views.add(view);
+			}
+		}
+		return views;
+	}
+
+	/**
+	 * @return a number that changes whenever a node or data edge is added
+	 * 	to the ddg, or the ddg is compacted
+	 */
+	public int getChangeCount() {
+		return changeCount.get();
+	}
+
+	/**
+	 * @return the performance metrics recorded for this ddg
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the number of procedure and data nodes in the ddg
+	 */
+	public synchronized int getNumNodes() {
+		return pins.size() + dins.size();
+	}
+
+	/**
+	 * @return true if the ddg has been compacted and can no longer be changed
+	 */
+	public synchronized boolean isCompact() {
+		return compactGraph != null;
+	}
+
+	/**
+	 * @throws IllegalStateException if the ddg has been compacted
+	 */
+	private void checkNotCompact() {
+		if (compactGraph != null) {
+			throw new IllegalStateException("A compacted DDG cannot be changed");
+		}
+	}
+
 	/**
 	 * @return an iterator through all output DINs in the process
 	 */
@@ -462,7 +644,20 @@ public class ProvenanceData {
 	 * @param e
 	 *            the event that provides details about the new data binding.
 	 */
-	void notifyDataBindingListeners(DataBindingEvent e) {
+	void notifyDataBindingListeners(final DataBindingEvent e) {
+		changeCount.incrementAndGet();
+		if (queueIfBulkLoading(() -> deliverDataBinding(e))) {
+			return;
+		}
+		deliverDataBinding(e);
+	}
+
+	/**
+	 * Tells the listeners about a new data binding.  The change has already
+	 * been counted.
+	 * @param e the event that provides details about the new data binding
+	 */
+	private void deliverDataBinding(DataBindingEvent e) {
 		for (DataBindingListener l : bindingListeners) {
 			l.bindingCreated(e);
 		}
@@ -534,6 +729,78 @@ public class ProvenanceData {
 		}
 	}
 
+	/**
+	 * Starts loading a group of nodes and edges into the DDG.  Until
+	 * commitBulkLoad is called, listeners are not told about the nodes
+	 * and edges added.  This avoids redrawing the graph after every
+	 * change when many nodes are added at once.
+	 * 
+	 * @throws IllegalStateException if a bulk load is already in progress
+	 */
+	public synchronized void beginBulkLoad() {
+		if (queuedEvents != null) {
+			throw new IllegalStateException("Bulk load already in progress");
+		}
+		queuedEvents = new ArrayList<>();
+	}
+
+	/**
+	 * Ends a bulk load and tells the listeners about everything added
+	 * since beginBulkLoad was called.  Listeners that handle batches are
+	 * told when the batch starts and finishes so that they can do
+	 * their expensive updates once for the whole batch.  Changes were
+	 * counted when they were queued, so they are not counted again here.
+	 * 
+	 * @throws IllegalStateException if there is no bulk load in progress
+	 */
+	public synchronized void commitBulkLoad() {
+		if (queuedEvents == null) {
+			throw new IllegalStateException("No bulk load in progress");
+		}
+		List<Runnable> batch = queuedEvents;
+		queuedEvents = null;
+
+		for (ProvenanceListener l : provListeners) {
+			if (l instanceof BatchProvenanceListener) {
+				((BatchProvenanceListener) l).batchStarted();
+			}
+		}
+		
+		for (Runnable event : batch) {
+			event.run();
+		}
+		
+		for (ProvenanceListener l : provListeners) {
+			if (l instanceof BatchProvenanceListener) {
+				((BatchProvenanceListener) l).batchFinished();
+			}
+		}
+	}
+
+	/**
+	 * Holds back an event while a bulk load is in progress.  Checking for
+	 * the bulk load and queuing the event are done together so that an event
+	 * added by one thread while another commits the load is either part of 
+	 * the batch or delivered after it, never lost.
+	 * @param event the event to hold back
+	 * @return true if the event was queued, false if the caller should 
+	 * 	deliver it now
+	 */
+	private synchronized boolean queueIfBulkLoading(Runnable event) {
+		if (queuedEvents == null) {
+			return false;
+		}
+		queuedEvents.add(event);
+		return true;
+	}
+
+	/**
+	 * @return true if a bulk load is in progress
+	 */
+	public synchronized boolean isBulkLoading() {
+		return queuedEvents != null;
+	}
+
 	/**
 	 * Notifies provenance listeners when a process is finished
 	 */
@@ -549,7 +816,11 @@ public class ProvenanceData {
 	 * @param pin
 	 *            the node added
 	 */
-	private void notifyPinCreated(ProcedureInstanceNode pin) {
+	private void notifyPinCreated(final ProcedureInstanceNode pin) {
+		if (queueIfBulkLoading(() -> notifyPinCreated(pin))) {
+			return;
+		}
+		
 		for (ProvenanceListener l : provListeners) {
 			l.procedureNodeCreated(pin);
 		}
@@ -561,7 +832,11 @@ public class ProvenanceData {
 	 * @param din
 	 *            the node added
 	 */
-	private void notifyDinCreated(DataInstanceNode din) {
+	private void notifyDinCreated(final DataInstanceNode din) {
+		if (queueIfBulkLoading(() -> notifyDinCreated(din))) {
+			return;
+		}
+		
 		for (ProvenanceListener l : provListeners) {
 			l.dataNodeCreated(din);
 		}
@@ -577,7 +852,11 @@ public class ProvenanceData {
 	 *            the successor procedure node
 	 */
 	synchronized void notifySuccessorEdgeCreated(
-			ProcedureInstanceNode predecessor, ProcedureInstanceNode successor) {
+			final ProcedureInstanceNode predecessor, final ProcedureInstanceNode successor) {
+		if (queueIfBulkLoading(() -> notifySuccessorEdgeCreated(predecessor, successor))) {
+			return;
+		}
+		
 		for (ProvenanceListener l : provListeners) {
 			l.successorEdgeCreated(predecessor, successor);
 		}
@@ -672,14 +951,13 @@ public class ProvenanceData {
 	 * @return the node with that id.  Returns null if the node is not found.
 	 */
 	public ProcedureInstanceNode findPin(int producer) {
-		Iterator<ProcedureInstanceNode> pinIt = pinIter();
-		while(pinIt.hasNext()){
-			ProcedureInstanceNode pCheck = pinIt.next();
-			if(producer == pCheck.getId()){
-				return pCheck;
-			}
+		if (compactGraph != null) {
+			return compactGraph.findPin(producer);
+		}
+		
+		synchronized (indexLock) {
+			return pinsById.get(producer);
 		}
-		return null;
 	}
 
 	/**
@@ -688,35 +966,102 @@ public class ProvenanceData {
 	 * @return the node with that id.  Returns null if the node is not found.
 	 */
 	public DataInstanceNode findDin(int data) {
-		Iterator<DataInstanceNode> dinIt = dinIter();
-		//System.out.println("Looking for data node " + data + "  Found:");
+		if (compactGraph != null) {
+			return compactGraph.findDin(data);
+		}
 		
-		while(dinIt.hasNext()){
-			DataInstanceNode dCheck = dinIt.next();
-			//System.out.println("   " + dCheck.getId());
-			if(data== dCheck.getId()){
-				return dCheck;
-			}
+		synchronized (indexLock) {
+			return dinsById.get(data);
 		}
-		return null;
 	}
 
 	/**
-	 * Find the data node with the given name
+	 * Find the data node with the given name.  Several data nodes can have
+	 * the same name.  Use findDins to get all of them.
 	 * @param nodeName the name of the node to search for
-	 * @return the data instance node with the given name.  Returns
+	 * @return the first data instance node added with the given name.  Returns
 	 *   null if there is no node with that name.
 	 */
 	public DataInstanceNode findDin(String nodeName) {
-		Iterator<DataInstanceNode> dinIt = dinIter();
-		
-		while(dinIt.hasNext()){
-			DataInstanceNode dCheck = dinIt.next();
-			if(nodeName.equals(dCheck.getName())){
-				return dCheck;
+		int id;
+		synchronized (indexLock) {
+			List<Integer> ids = dinIdsByName.get(nodeName);
+			if (ids == null) {
+				return null;
 			}
+			id = ids.get(0);
+		}
+		return findDin(id);
+	}
+
+	/**
+	 * Find all the data nodes with the given name
+	 * @param nodeName the name to search for
+	 * @return the data nodes with that name, in the order they were added
+	 */
+	public List<DataInstanceNode> findDins(String nodeName) {
+		List<DataInstanceNode> found = new ArrayList<>();
+		for (int id : lookUp(dinIdsByName, nodeName)) {
+			found.add(findDin(id));
+		}
+		return found;
+	}
+
+	/**
+	 * Find all the data nodes of a type
+	 * @param type the type of data node, like "Data" or "File"
+	 * @return the data nodes of that type, in the order they were added
+	 */
+	public List<DataInstanceNode> findDinsByType(String type) {
+		List<DataInstanceNode> found = new ArrayList<>();
+		for (int id : lookUp(dinIdsByType, type)) {
+			found.add(findDin(id));
+		}
+		return found;
+	}
+
+	/**
+	 * Find all the procedure nodes of a type
+	 * @param type the type of procedure node, like "Operation" or "Start"
+	 * @return the procedure nodes of that type, in the order they were added
+	 */
+	public List<ProcedureInstanceNode> findPinsByType(String type) {
+		List<ProcedureInstanceNode> found = new ArrayList<>();
+		for (int id : lookUp(pinIdsByType, type)) {
+			found.add(findPin(id));
+		}
+		return found;
+	}
+
+	/**
+	 * Find the procedure nodes that start on a line of a script
+	 * @param scriptNumber the position of the script in the list of scripts,
+	 * 	with the main script at 0
+	 * @param line the line number
+	 * @return the procedure nodes whose source starts on that line, in the 
+	 * 	order they were added
+	 */
+	public List<ProcedureInstanceNode> findPinsAt(int scriptNumber, int line) {
+		List<ProcedureInstanceNode> found = new ArrayList<>();
+		for (int id : lookUp(pinIdsByLine, lineKey(scriptNumber, line))) {
+			found.add(findPin(id));
+		}
+		return found;
+	}
+
+	/**
+	 * @param index an index from keys to node ids
+	 * @param key the key to look up
+	 * @return a copy of the ids with that key
+	 */
+	private <K> List<Integer> lookUp(Map<K, List<Integer>> index, K key) {
+		synchronized (indexLock) {
+			List<Integer> ids = index.get(key);
+			if (ids == null) {
+				return new ArrayList<>();
+			}
+			return new ArrayList<>(ids);
 		}
-		return null;
 	}
 
 	/**
@@ -0,0 +1,74 @@
+package laser.ddg;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Removes duplicate strings while a DDG is being read.  Node types, variable
+ * names, labels and many values repeat throughout a DDG, but the parsers create
+ * a new string for every occurrence, and the same strings are then held by the
+ * nodes and by the prefuse tables.  Passing them through a pool means that each
+ * distinct string is kept only once.
+ *
+ * The pool starts out holding the node types as the string constants used in
+ * the code, so the types of pooled nodes are the same objects as the constants
+ * they are compared against.
+ *
+ * A pool is meant to be used by one thread while reading one DDG and then
+ * discarded, so it is not synchronized.
+ */
+public class StringPool {
+	// Values longer than this are unlikely to repeat, so they are not pooled
+	private static final int MAX_POOLED_VALUE_LENGTH = 64;
+
+	// The node types that appear in DDGs
+	private static final String[] NODE_TYPES = {
+		"Start", "Finish", "Interm", "Leaf", "Operation", "Incomplete", "Binding",
+		"Checkpoint", "Restore", "SimpleHandler", "VStart", "VFinish", "VInterm",
+		"Data", "Exception", "URL", "File", "Snapshot", "Device",
+		"StandardOutput", "StandardOutputSnapshot", "CheckpointFile"
+	};
+
+	// Each string maps to itself
+	private final Map<String, String> strings = new HashMap<>();
+
+	/**
+	 * Creates a pool that holds the node types
+	 */
+	public StringPool() {
+		for (String type : NODE_TYPES) {
+			strings.put(type, type);
+		}
+	}
+
+	/**
+	 * @param s a string
+	 * @return the pooled string equal to s.  Returns null if s is null.
+	 */
+	public String intern(String s) {
+		if (s == null) {
+			return null;
+		}
+		String pooled = strings.putIfAbsent(s, s);
+		return pooled == null ? s : pooled;
+	}
+
+	/**
+	 * Pools a data value if it is short enough that it is likely to be repeated
+	 * @param value a data value
+	 * @return the pooled value, or the value itself if it is long
+	 */
+	public String internValue(String value) {
+		if (value == null || value.length() > MAX_POOLED_VALUE_LENGTH) {
+			return value;
+		}
+		return intern(value);
+	}
+
+	/**
+	 * @return the number of distinct strings in the pool
+	 */
+	public int size() {
+		return strings.size();
+	}
+}
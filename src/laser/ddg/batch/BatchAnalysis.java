@@ -0,0 +1,794 @@
+package laser.ddg.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import laser.ddg.DataInstanceNode;
+import laser.ddg.LanguageConfigurator;
+import laser.ddg.Node;
+import laser.ddg.ProcedureInstanceNode;
+import laser.ddg.ProvenanceData;
+import laser.ddg.ProvenanceDataVisitor;
+import laser.ddg.SourcePos;
+import laser.ddg.diff.NodeDiff;
+import laser.ddg.diff.TimingComparison;
+import laser.ddg.persist.DotExporter;
+import laser.ddg.persist.GraphExporter;
+import laser.ddg.persist.GraphMLExporter;
+import laser.ddg.persist.Parser;
+import laser.ddg.persist.ProvJsonExporter;
+import laser.ddg.workflow.ScriptNode;
+
+/**
+ * Analyses DDGs from the command line without starting the DDG Explorer GUI.
+ * The DDGs are parsed without a prefuse builder, so nothing is displayed and
+ * no Swing classes are needed.  This allows large numbers of DDGs to be
+ * analysed on machines that have no display.
+ *
+ * The program is run as:
+ *
+ * <pre>
+ * java -cp ddg-explorer.jar laser.ddg.batch.BatchAnalysis command [options] args
+ * </pre>
+ *
+ * The commands are:
+ * <ul>
+ * <li> lineage name ddg... - the data lineage of each node with the given name
+ * <li> timing ddg... - the time spent on each line of the scripts
+ * <li> diff left right - the procedure nodes added and removed in the right ddg
+ * <li> compare-times left right - the script lines and steps whose times
+ * 	changed the most between two runs
+ * <li> export ddg... - all the nodes and edges in each ddg
+ * </ul>
+ *
+ * A ddg argument can be either a ddg.txt or ddg.json file or a directory.  All
+ * ddg files found below a directory are analysed.  The options are:
+ * <ul>
+ * <li> -j n - the number of ddgs to analyse at the same time
+ * <li> -top n - the number of lines to report for timing and compare-times,
+ * 	0 for all of them
+ * <li> -format f - the format to export to: json (the default), graphml, dot
+ * 	or prov.  The formats other than json are written to a file for each ddg.
+ * <li> -o dir - the directory to write exported files to.  Each file is named
+ * 	after the directory containing the ddg.  Without this, the files are
+ * 	written next to the ddgs, named ddg-export.
+ * </ul>
+ *
+ * The result for each ddg is printed to standard output as a JSON object on a
+ * line by itself, in the order the ddgs were given.  Errors found in a ddg are
+ * included in its result.  The exit status is 1 if any ddg could not be read.
+ */
+public class BatchAnalysis {
+	// Names of the files that R and Python write ddgs to
+	private static final String[] DDG_FILE_NAMES = {"ddg.json", "ddg.txt"};
+
+	// Number of lines reported by the timing command unless -top is used
+	private static final int DEFAULT_TOP = 20;
+
+	// Used to write the results
+	private static final Gson GSON = new Gson();
+
+	// Where the results are written
+	private final PrintStream out;
+
+	// Number of ddgs to analyse at the same time
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	// Number of lines reported by the timing command
+	private int top = DEFAULT_TOP;
+
+	// Format that ddgs are exported to
+	private String format = "json";
+
+	// Directory that exported files are written to.  If null, they are
+	// written next to the ddgs.
+	private File outputDir;
+
+	// True if any ddg could not be read
+	private boolean failed = false;
+
+	/**
+	 * Creates an object that writes analysis results
+	 * @param out where the results are written
+	 */
+	public BatchAnalysis(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Runs the lineage query on each ddg
+	 * @param nodeName the name of the nodes whose lineage is reported
+	 * @param ddgFiles the ddgs to query
+	 */
+	public void lineage(String nodeName, List<File> ddgFiles) {
+		analyseEach(ddgFiles, (provData, result) -> {
+			result.addProperty("node", nodeName);
+			JsonArray matches = new JsonArray();
+			for (DataInstanceNode din : provData.findDins(nodeName)) {
+				matches.add(lineageOf(din));
+			}
+			Iterator<ProcedureInstanceNode> pins = provData.pinIter();
+			while (pins.hasNext()) {
+				ProcedureInstanceNode pin = pins.next();
+				if (nodeName.equals(pin.getName())) {
+					matches.add(lineageOf(pin));
+				}
+			}
+			result.add("matches", matches);
+		});
+	}
+
+	/**
+	 * Reports the time spent on each line of the scripts in each ddg
+	 * @param ddgFiles the ddgs to report on
+	 */
+	public void timing(List<File> ddgFiles) {
+		analyseEach(ddgFiles, (provData, result) -> {
+			Map<String, double[]> lineTimes = new LinkedHashMap<>();
+			double total = 0;
+			Iterator<ProcedureInstanceNode> pins = provData.pinIter();
+			while (pins.hasNext()) {
+				ProcedureInstanceNode pin = pins.next();
+
+				// Only operations do work.  The time of a function call is
+				// the sum of the operations inside it.
+				if (!pin.getType().equals("Operation")) {
+					continue;
+				}
+				double elapsed = pin.getElapsedTime();
+				total += elapsed;
+				String line = TimingComparison.lineOf(provData, pin.getSourcePos());
+				double[] timeAndCount = lineTimes.computeIfAbsent(line, l -> new double[2]);
+				timeAndCount[0] += elapsed;
+				timeAndCount[1]++;
+			}
+
+			List<Map.Entry<String, double[]>> sorted = new ArrayList<>(lineTimes.entrySet());
+			sorted.sort((e1, e2) -> Double.compare(e2.getValue()[0], e1.getValue()[0]));
+			if (top > 0 && sorted.size() > top) {
+				sorted = sorted.subList(0, top);
+			}
+
+			JsonArray lines = new JsonArray();
+			for (Map.Entry<String, double[]> entry : sorted) {
+				JsonObject line = new JsonObject();
+				line.addProperty("line", entry.getKey());
+				line.addProperty("time", entry.getValue()[0]);
+				line.addProperty("executions", (long) entry.getValue()[1]);
+				lines.add(line);
+			}
+			result.addProperty("totalTime", total);
+			result.add("lines", lines);
+		});
+	}
+
+	/**
+	 * Compares the procedure nodes of two ddgs.  Nodes are matched by their
+	 * labels in the order they executed, in the same way that the DDG Explorer
+	 * compares ddgs.
+	 * @param leftFile the original ddg
+	 * @param rightFile the ddg to compare to it
+	 */
+	public void diff(File leftFile, File rightFile) {
+		JsonObject result = new JsonObject();
+		result.addProperty("command", "diff");
+		result.addProperty("left", leftFile.getPath());
+		result.addProperty("right", rightFile.getPath());
+		try {
+			List<ProcedureInstanceNode> left = procedureNodes(load(leftFile, result));
+			List<ProcedureInstanceNode> right = procedureNodes(load(rightFile, result));
+
+			String[] leftLabels = labels(left);
+			String[] rightLabels = labels(right);
+			JsonArray deleted = new JsonArray();
+			JsonArray added = new JsonArray();
+			int unchanged = 0;
+			for (int[] step : NodeDiff.diff(leftLabels, rightLabels)) {
+				if (step[0] >= 0 && step[1] >= 0) {
+					unchanged++;
+				}
+				else if (step[0] >= 0) {
+					deleted.add(describe(left.get(step[0])));
+				}
+				else {
+					added.add(describe(right.get(step[1])));
+				}
+			}
+			result.addProperty("unchanged", unchanged);
+			result.add("deleted", deleted);
+			result.add("added", added);
+		} catch (IOException | RuntimeException e) {
+			recordFailure(result, e);
+		}
+		out.println(GSON.toJson(result));
+	}
+
+	/**
+	 * Compares the execution times of two runs of a script.  The script lines
+	 * and steps are ranked with the largest increase in time first.
+	 * @param leftFile the earlier run
+	 * @param rightFile the later run
+	 */
+	public void compareTimes(File leftFile, File rightFile) {
+		JsonObject result = new JsonObject();
+		result.addProperty("command", "compare-times");
+		result.addProperty("left", leftFile.getPath());
+		result.addProperty("right", rightFile.getPath());
+		try {
+			TimingComparison comparison = new TimingComparison(load(leftFile, result), load(rightFile, result));
+			result.addProperty("leftTotal", comparison.getLeftTotal());
+			result.addProperty("rightTotal", comparison.getRightTotal());
+			result.add("lines", describeDeltas(comparison.getLineDeltas(), "line"));
+			result.add("steps", describeDeltas(comparison.getStepDeltas(), "step"));
+			result.addProperty("deleted", comparison.getDeleted().size());
+			result.addProperty("added", comparison.getAdded().size());
+		} catch (IOException | RuntimeException e) {
+			recordFailure(result, e);
+		}
+		out.println(GSON.toJson(result));
+	}
+
+	/**
+	 * @param deltas the time changes, largest increase first
+	 * @param labelName the name of the property holding the line or step
+	 * @return a JSON array with the first top changes
+	 */
+	private JsonArray describeDeltas(List<TimingComparison.Delta> deltas, String labelName) {
+		if (top > 0 && deltas.size() > top) {
+			deltas = deltas.subList(0, top);
+		}
+		JsonArray descriptions = new JsonArray();
+		for (TimingComparison.Delta delta : deltas) {
+			JsonObject description = new JsonObject();
+			description.addProperty(labelName, delta.getLabel());
+			description.addProperty("leftTime", delta.getLeftTime());
+			description.addProperty("rightTime", delta.getRightTime());
+			description.addProperty("change", delta.getDelta());
+			description.addProperty("leftExecutions", delta.getLeftCount());
+			description.addProperty("rightExecutions", delta.getRightCount());
+			descriptions.add(description);
+		}
+		return descriptions;
+	}
+
+	/**
+	 * Writes all the nodes and edges of each ddg.  If the format is json, they
+	 * are included in the result printed for the ddg.  Otherwise, each ddg is
+	 * written to its own file by one of the streaming exporters, and the result
+	 * holds the name of the file.
+	 * @param ddgFiles the ddgs to export
+	 */
+	public void export(List<File> ddgFiles) {
+		if (!format.equals("json")) {
+			exportToFiles(ddgFiles);
+			return;
+		}
+		analyseEach(ddgFiles, (provData, result) -> {
+			JsonArray nodes = new JsonArray();
+			JsonArray edges = new JsonArray();
+			ProvenanceDataVisitor exporter = new ProvenanceDataVisitor() {
+				@Override
+				public void visitSn(ScriptNode sn) {
+					// Workflows are not exported
+				}
+
+				@Override
+				public void visitPin(ProcedureInstanceNode pin) {
+					JsonObject node = describe(pin);
+					node.addProperty("elapsedTime", pin.getElapsedTime());
+					SourcePos pos = pin.getSourcePos();
+					if (pos != null && pos.getStartLine() != -1) {
+						node.addProperty("line", TimingComparison.lineOf(provData, pos));
+					}
+					nodes.add(node);
+				}
+
+				@Override
+				public void visitDin(DataInstanceNode din) {
+					JsonObject node = describe(din);
+					if (din.getValue() != null) {
+						node.addProperty("value", din.getValue().toString());
+					}
+					if (din.getLocation() != null) {
+						node.addProperty("location", din.getLocation());
+					}
+					nodes.add(node);
+				}
+
+				@Override
+				public void visitControlFlowEdge(ProcedureInstanceNode predecessor, ProcedureInstanceNode successor) {
+					edges.add(edge("CF", id(predecessor), id(successor)));
+				}
+
+				@Override
+				public void visitInputEdge(DataInstanceNode input, ProcedureInstanceNode consumer) {
+					edges.add(edge("DF", id(input), id(consumer)));
+				}
+
+				@Override
+				public void visitOutputEdge(ProcedureInstanceNode producer, DataInstanceNode output) {
+					edges.add(edge("DF", id(producer), id(output)));
+				}
+			};
+			provData.visitPins(exporter);
+			provData.visitDins(exporter);
+			Iterator<ProcedureInstanceNode> pins = provData.pinIter();
+			while (pins.hasNext()) {
+				provData.visitControlFlowEdges(pins.next(), exporter);
+			}
+			provData.visitDataflowEdges(exporter);
+			result.add("nodes", nodes);
+			result.add("edges", edges);
+		});
+	}
+
+	/**
+	 * Writes each ddg to a file in the chosen format
+	 * @param ddgFiles the ddgs to export
+	 */
+	private void exportToFiles(List<File> ddgFiles) {
+		analyseEach(ddgFiles, (provData, result) -> {
+			GraphExporter exporter = createExporter(format);
+			File ddgDir = new File(provData.getSourcePath()).getParentFile();
+			File exportFile;
+			if (outputDir == null) {
+				exportFile = new File(ddgDir, "ddg-export." + exporter.getExtension());
+			}
+			else {
+				exportFile = new File(outputDir, ddgDir.getName() + "." + exporter.getExtension());
+			}
+			try {
+				exporter.export(provData, exportFile);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			result.addProperty("output", exportFile.getPath());
+		});
+	}
+
+	/**
+	 * @param format graphml, dot or prov
+	 * @return a new exporter for the format
+	 */
+	private static GraphExporter createExporter(String format) {
+		switch (format) {
+		case "graphml":
+			return new GraphMLExporter();
+		case "dot":
+			return new DotExporter();
+		case "prov":
+			return new ProvJsonExporter();
+		default:
+			throw new IllegalArgumentException("Unknown export format " + format);
+		}
+	}
+
+	/**
+	 * @return true if any ddg could not be read
+	 */
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	/**
+	 * Something that computes a result for one ddg
+	 */
+	private interface Analysis {
+		/**
+		 * Analyses a ddg
+		 * @param provData the ddg
+		 * @param result the object to add the results to
+		 */
+		void analyse(ProvenanceData provData, JsonObject result);
+	}
+
+	/**
+	 * Loads and analyses the ddgs on a pool of threads.  The results are written
+	 * in the order of the files even though they may finish in a different order.
+	 * @param ddgFiles the ddgs to analyse
+	 * @param analysis the analysis to perform
+	 */
+	private void analyseEach(List<File> ddgFiles, Analysis analysis) {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+			Thread t = new Thread(r, "DDG batch analysis");
+			t.setDaemon(true);
+			return t;
+		});
+		try {
+			List<Future<JsonObject>> results = new ArrayList<>();
+			for (File ddgFile : ddgFiles) {
+				results.add(pool.submit(() -> analyse(ddgFile, analysis)));
+			}
+			for (Future<JsonObject> result : results) {
+				out.println(GSON.toJson(result.get()));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// analyse catches the exceptions that reading a ddg can throw
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Loads and analyses one ddg
+	 * @param ddgFile the ddg
+	 * @param analysis the analysis to perform
+	 * @return the result of the analysis, or a description of why the ddg
+	 * 	could not be read
+	 */
+	private JsonObject analyse(File ddgFile, Analysis analysis) {
+		JsonObject result = new JsonObject();
+		result.addProperty("file", ddgFile.getPath());
+		try {
+			ProvenanceData provData = load(ddgFile, result);
+			result.addProperty("script", provData.getProcessName());
+			result.addProperty("timestamp", provData.getTimestamp());
+			analysis.analyse(provData, result);
+		} catch (IOException | RuntimeException e) {
+			recordFailure(result, e);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads a ddg without a prefuse builder
+	 * @param ddgFile the file containing the ddg
+	 * @param result the errors found in the ddg are added to this object
+	 * @return the ddg
+	 * @throws IOException if the file cannot be read
+	 */
+	private static ProvenanceData load(File ddgFile, JsonObject result) throws IOException {
+		Parser parser = Parser.createParser(ddgFile, null);
+		ProvenanceData provData = parser.addNodesAndEdges();
+		if (!parser.getErrors().isEmpty()) {
+			JsonArray errors = new JsonArray();
+			for (String error : parser.getErrors()) {
+				errors.add(error);
+			}
+			result.add("errors", errors);
+		}
+		return provData;
+	}
+
+	/**
+	 * Remembers that a ddg could not be analysed
+	 * @param result the result for the ddg
+	 * @param e the reason it failed
+	 */
+	private synchronized void recordFailure(JsonObject result, Exception e) {
+		failed = true;
+		result.addProperty("failure", e.getMessage() == null ? e.toString() : e.getMessage());
+	}
+
+	/**
+	 * Finds the nodes that a node was derived from and the nodes derived from it,
+	 * following data flow edges
+	 * @param start the node to find the lineage of
+	 * @return the lineage as a JSON object
+	 */
+	private static JsonObject lineageOf(Node start) {
+		JsonObject lineage = describe(start);
+		lineage.add("ancestors", describeAll(reachable(start, true)));
+		lineage.add("descendants", describeAll(reachable(start, false)));
+		return lineage;
+	}
+
+	/**
+	 * Finds the nodes reachable from a node along data flow edges
+	 * @param start the node to start from
+	 * @param backward true to follow edges backward to the nodes start was
+	 * 	derived from, false to follow them forward
+	 * @return the nodes reached, not including start
+	 */
+	private static Set<Node> reachable(Node start, boolean backward) {
+		Set<Node> visited = new LinkedHashSet<>();
+		Deque<Node> toVisit = new ArrayDeque<>();
+		toVisit.add(start);
+		while (!toVisit.isEmpty()) {
+			Node next = toVisit.remove();
+			for (Node neighbor : dataFlowNeighbors(next, backward)) {
+				if (neighbor != start && visited.add(neighbor)) {
+					toVisit.add(neighbor);
+				}
+			}
+		}
+		return visited;
+	}
+
+	/**
+	 * @param node a node
+	 * @param backward true for the nodes with data flow edges into node, false
+	 * 	for the nodes with data flow edges out of it
+	 * @return the neighbors
+	 */
+	private static List<Node> dataFlowNeighbors(Node node, boolean backward) {
+		List<Node> neighbors = new ArrayList<>();
+		if (node instanceof DataInstanceNode) {
+			DataInstanceNode din = (DataInstanceNode) node;
+			if (backward) {
+				if (din.getProducer() != null) {
+					neighbors.add(din.getProducer());
+				}
+			}
+			else {
+				din.users().forEachRemaining(neighbors::add);
+			}
+		}
+		else {
+			ProcedureInstanceNode pin = (ProcedureInstanceNode) node;
+			if (backward) {
+				pin.inputParamValues().forEachRemaining(neighbors::add);
+			}
+			else {
+				pin.outputParamValues().forEachRemaining(neighbors::add);
+			}
+		}
+		return neighbors;
+	}
+
+	/**
+	 * @param provData a ddg
+	 * @return the procedure nodes in the order they executed
+	 */
+	private static List<ProcedureInstanceNode> procedureNodes(ProvenanceData provData) {
+		List<ProcedureInstanceNode> pins = new ArrayList<>();
+		provData.pinIter().forEachRemaining(pins::add);
+		return pins;
+	}
+
+	/**
+	 * @param pins procedure nodes
+	 * @return the labels to compare the nodes by.  Whitespace is removed so that
+	 * 	differences in formatting are not reported.
+	 */
+	private static String[] labels(List<ProcedureInstanceNode> pins) {
+		String[] labels = new String[pins.size()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = pins.get(i).getName().replaceAll("\\s+", "");
+		}
+		return labels;
+	}
+
+	/**
+	 * @param node a node
+	 * @return the node's id in the form used in ddg files, like p3 or d5
+	 */
+	private static String id(Node node) {
+		if (node instanceof DataInstanceNode) {
+			return "d" + ((DataInstanceNode) node).getId();
+		}
+		return "p" + ((ProcedureInstanceNode) node).getId();
+	}
+
+	/**
+	 * @param node a node
+	 * @return a JSON object holding the node's id, type and name
+	 */
+	private static JsonObject describe(Node node) {
+		JsonObject description = new JsonObject();
+		description.addProperty("id", id(node));
+		if (node instanceof DataInstanceNode) {
+			DataInstanceNode din = (DataInstanceNode) node;
+			description.addProperty("type", din.getType());
+			description.addProperty("name", din.getName());
+		}
+		else {
+			ProcedureInstanceNode pin = (ProcedureInstanceNode) node;
+			description.addProperty("type", pin.getType());
+			description.addProperty("name", pin.getName());
+		}
+		return description;
+	}
+
+	/**
+	 * @param nodes some nodes
+	 * @return a JSON array describing the nodes
+	 */
+	private static JsonArray describeAll(Set<Node> nodes) {
+		JsonArray descriptions = new JsonArray();
+		for (Node node : nodes) {
+			descriptions.add(describe(node));
+		}
+		return descriptions;
+	}
+
+	/**
+	 * @param type CF or DF
+	 * @param source the id of the node the edge comes from
+	 * @param target the id of the node the edge goes to
+	 * @return a JSON object describing the edge
+	 */
+	private static JsonObject edge(String type, String source, String target) {
+		JsonObject edge = new JsonObject();
+		edge.addProperty("type", type);
+		edge.addProperty("source", source);
+		edge.addProperty("target", target);
+		return edge;
+	}
+
+	/**
+	 * Finds the ddg files named on the command line
+	 * @param args ddg files and directories containing ddg files
+	 * @return the ddg files
+	 * @throws IOException if a directory cannot be read
+	 */
+	private static List<File> ddgFiles(List<String> args) throws IOException {
+		List<File> files = new ArrayList<>();
+		for (String arg : args) {
+			File file = new File(arg);
+			if (file.isDirectory()) {
+				try (Stream<Path> paths = Files.walk(file.toPath())) {
+					files.addAll(paths.filter(BatchAnalysis::isDDGFile)
+							.sorted()
+							.map(Path::toFile)
+							.collect(Collectors.toList()));
+				}
+			}
+			else {
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Finds the single ddg named on the command line, for commands that
+	 * compare two ddgs
+	 * @param arg a ddg file or a directory containing one
+	 * @return the ddg file.  If a directory holds a ddg in more than one
+	 * 		format, the json one is used.
+	 * @throws IOException if the directory cannot be read, or does not
+	 * 		contain exactly one ddg
+	 */
+	private static File ddgFile(String arg) throws IOException {
+		List<File> files = ddgFiles(Collections.singletonList(arg));
+		if (files.isEmpty()) {
+			throw new IOException(arg + " does not contain a ddg.txt or ddg.json file");
+		}
+		File dir = files.get(0).getParentFile();
+		for (File file : files) {
+			if (!Objects.equals(file.getParentFile(), dir)) {
+				throw new IOException(arg + " contains more than one ddg");
+			}
+		}
+		return files.get(0);
+	}
+
+	/**
+	 * @param path a file path
+	 * @return true if the file has one of the names used for ddgs
+	 */
+	private static boolean isDDGFile(Path path) {
+		String name = path.getFileName().toString();
+		for (String ddgName : DDG_FILE_NAMES) {
+			if (name.equals(ddgName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Explains how to run the program and exits
+	 */
+	private static void usage() {
+		System.err.println("Usage: BatchAnalysis command [-j threads] [-top n] [-format f] [-o dir] args");
+		System.err.println("  lineage name ddg...   data lineage of the nodes with the given name");
+		System.err.println("  timing ddg...         time spent on each script line");
+		System.err.println("  diff left right       procedure nodes added and removed in right");
+		System.err.println("  compare-times left right  lines and steps that got slower in right");
+		System.err.println("  export ddg...         all nodes and edges, as json, graphml, dot or prov");
+		System.err.println("A ddg can be a ddg.txt or ddg.json file or a directory containing them.");
+		System.exit(2);
+	}
+
+	/**
+	 * Main program
+	 * @param args the options, command and command arguments
+	 */
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		LanguageConfigurator.addLanguageBuilder("R", "laser.ddg.r.RDDGBuilder");
+		LanguageConfigurator.addParser("R", "laser.ddg.r.RParser");
+		LanguageConfigurator.addLanguageBuilder("Python", "laser.ddg.r.RDDGBuilder");
+
+		BatchAnalysis analysis = new BatchAnalysis(System.out);
+		List<String> rest = new ArrayList<>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-j") && i + 1 < args.length) {
+					analysis.threads = Integer.parseInt(args[++i]);
+				}
+				else if (args[i].equals("-top") && i + 1 < args.length) {
+					analysis.top = Integer.parseInt(args[++i]);
+				}
+				else if (args[i].equals("-format") && i + 1 < args.length) {
+					analysis.format = args[++i];
+				}
+				else if (args[i].equals("-o") && i + 1 < args.length) {
+					analysis.outputDir = new File(args[++i]);
+				}
+				else if (args[i].startsWith("-")) {
+					usage();
+				}
+				else {
+					rest.add(args[i]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			usage();
+		}
+		if (rest.isEmpty()) {
+			usage();
+		}
+
+		String command = rest.remove(0);
+		try {
+			switch (command) {
+			case "lineage":
+				if (rest.size() < 2) {
+					usage();
+				}
+				String nodeName = rest.remove(0);
+				analysis.lineage(nodeName, ddgFiles(rest));
+				break;
+			case "timing":
+				analysis.timing(ddgFiles(rest));
+				break;
+			case "diff":
+				if (rest.size() != 2) {
+					usage();
+				}
+				analysis.diff(ddgFile(rest.get(0)), ddgFile(rest.get(1)));
+				break;
+			case "compare-times":
+				if (rest.size() != 2) {
+					usage();
+				}
+				analysis.compareTimes(ddgFile(rest.get(0)), ddgFile(rest.get(1)));
+				break;
+			case "export":
+				if (!analysis.format.matches("json|graphml|dot|prov")) {
+					usage();
+				}
+				analysis.export(ddgFiles(rest));
+				break;
+			default:
+				usage();
+			}
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+		System.out.flush();
+		System.exit(analysis.hasFailed() ? 1 : 0);
+	}
+}
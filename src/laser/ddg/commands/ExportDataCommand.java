@@ -0,0 +1,79 @@
+package laser.ddg.commands;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+import laser.ddg.ProvenanceData;
+import laser.ddg.gui.DDGExplorer;
+import laser.ddg.persist.GraphExporter;
+
+/**
+ * Command to export the nodes and edges of the current DDG as GraphML,
+ * GraphViz DOT or PROV-JSON so that it can be read by other graph tools.
+ * Unlike ExportDDGCommand, this writes the DDG itself rather than a picture
+ * of it, so it works for DDGs too large to draw.
+ */
+public class ExportDataCommand implements ActionListener {
+	private static final JFileChooser FILE_CHOOSER = new JFileChooser(System.getProperty("user.home"));
+	
+	static {
+		FileNameExtensionFilter graphml = new FileNameExtensionFilter("GraphML (.graphml)", "graphml");
+		FILE_CHOOSER.addChoosableFileFilter(graphml);
+		FILE_CHOOSER.addChoosableFileFilter(new FileNameExtensionFilter("GraphViz (.dot, .gv)", "dot", "gv"));
+		FILE_CHOOSER.addChoosableFileFilter(new FileNameExtensionFilter("PROV-JSON (.json)", "json"));
+		FILE_CHOOSER.setFileFilter(graphml);
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		DDGExplorer ddgExplorer = DDGExplorer.getInstance();
+		ProvenanceData curDDG = ddgExplorer.getCurrentDDG();
+		if (curDDG == null) {
+			return;
+		}
+		if (FILE_CHOOSER.showSaveDialog(ddgExplorer) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		
+		// Add the extension of the chosen format if the user did not type one
+		File selectedFile = FILE_CHOOSER.getSelectedFile();
+		if (selectedFile.getName().indexOf('.') == -1 
+				&& FILE_CHOOSER.getFileFilter() instanceof FileNameExtensionFilter) {
+			String extension = ((FileNameExtensionFilter) FILE_CHOOSER.getFileFilter()).getExtensions()[0];
+			selectedFile = new File(selectedFile.getPath() + "." + extension);
+		}
+		
+		final File exportFile = selectedFile;
+		final GraphExporter exporter;
+		try {
+			exporter = GraphExporter.forFile(exportFile);
+		} catch (IllegalArgumentException e1) {
+			JOptionPane.showMessageDialog(ddgExplorer, e1.getMessage(),
+					"Error exporting the DDG", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+		
+		// Large ddgs take a while to write, so do it in the background
+		Thread exportThread = new Thread("DDG exporter") {
+			@Override
+			public void run() {
+				try {
+					exporter.export(curDDG, exportFile);
+				} catch (Exception e1) {
+					e1.printStackTrace(System.err);
+					SwingUtilities.invokeLater(() -> 
+						JOptionPane.showMessageDialog(ddgExplorer,
+							"Unable to export the DDG: " + e1.getMessage(),
+							"Error exporting the DDG", JOptionPane.ERROR_MESSAGE));
+				}
+			}
+		};
+		exportThread.start();
+	}
+}
@@ -0,0 +1,90 @@
+package laser.ddg.commands;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.util.concurrent.CancellationException;
+
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.filechooser.FileNameExtensionFilter;
+
+import laser.ddg.gui.DDGExplorer;
+import laser.ddg.gui.DDGPanel;
+import laser.ddg.visualizer.TileExporter;
+
+/**
+ * Command to export the current DDG, as it is laid out in the display, as a
+ * Deep Zoom tile pyramid.  This works for DDGs whose picture would be too large
+ * to export as a single image.  The tiles are drawn in the background while
+ * a progress dialog allows the user to cancel.
+ */
+public class ExportTilesCommand implements ActionListener {
+	private static final JFileChooser FILE_CHOOSER = new JFileChooser(System.getProperty("user.home"));
+
+	// How often the progress dialog is updated, in milliseconds
+	private static final int PROGRESS_INTERVAL = 250;
+
+	static {
+		FILE_CHOOSER.setFileFilter(new FileNameExtensionFilter("Deep Zoom image (.dzi)", "dzi"));
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		DDGExplorer ddgExplorer = DDGExplorer.getInstance();
+		DDGPanel curDDGPanel = DDGExplorer.getCurrentDDGPanel();
+		if (curDDGPanel == null) {
+			return;
+		}
+		if (FILE_CHOOSER.showSaveDialog(ddgExplorer) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+
+		File selectedFile = FILE_CHOOSER.getSelectedFile();
+		if (!selectedFile.getName().endsWith(".dzi")) {
+			selectedFile = new File(selectedFile.getPath() + ".dzi");
+		}
+		final File dziFile = selectedFile;
+
+		final TileExporter exporter = new TileExporter(curDDGPanel.getDDGDisplay(), 1.0);
+		final ProgressMonitor progress = new ProgressMonitor(ddgExplorer,
+				"Exporting " + dziFile.getName(), null, 0, exporter.getTileCount());
+		final Timer progressTimer = new Timer(PROGRESS_INTERVAL, null);
+		progressTimer.addActionListener((ActionEvent tick) -> {
+			if (progress.isCanceled()) {
+				exporter.cancel();
+				progressTimer.stop();
+			}
+			else {
+				progress.setProgress(exporter.getTilesWritten());
+			}
+		});
+		progressTimer.start();
+
+		Thread exportThread = new Thread("DDG tile exporter") {
+			@Override
+			public void run() {
+				try {
+					exporter.export(dziFile);
+				} catch (CancellationException e1) {
+					// The user cancelled.  Nothing to report.
+				} catch (Exception e1) {
+					e1.printStackTrace(System.err);
+					SwingUtilities.invokeLater(() ->
+						JOptionPane.showMessageDialog(ddgExplorer,
+							"Unable to export the DDG: " + e1.getMessage(),
+							"Error exporting the DDG", JOptionPane.ERROR_MESSAGE));
+				} finally {
+					SwingUtilities.invokeLater(() -> {
+						progressTimer.stop();
+						progress.close();
+					});
+				}
+			}
+		};
+		exportThread.start();
+	}
+}
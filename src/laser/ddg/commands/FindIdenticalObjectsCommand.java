@@ -3,20 +3,19 @@ package laser.ddg.commands;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.swing.JMenu;
 import javax.swing.JMenuItem;
 
 
-import com.google.gson.Gson;
-
 import laser.ddg.gui.DDGExplorer;
 import laser.ddg.persist.HashtableEntry;
+import laser.ddg.persist.HashtableStore;
 import laser.ddg.r.RDataInstanceNode;
 import laser.ddg.workflow.ScriptNode;
 import laser.ddg.workflow.Workflow;
@@ -32,48 +31,101 @@ import laser.ddg.workflow.visualizer.WorkflowGraphBuilder;
 
 public class FindIdenticalObjectsCommand extends MouseAdapter {
 
-	private ArrayList<ScriptNode> scrnodes;
-	private ArrayList<RDataInstanceNode> fileNodes;
+	// Script nodes indexed by the path to the script
+	private Map<String, ScriptNode> scrnodes;
+	
+	// The file node for each hashtable entry that has a hash.  Entries with
+	// the same hash and file name share a node.  Files without a hash are 
+	// never identified with each other, so they are not in this table.
+	private Map<HashtableEntry, RDataInstanceNode> fileNodes;
 	private int index = 1;
 	private WorkflowGraphBuilder builder;
 	private Workflow wf;
+	
+	// The version of the hashtable store that the workflow was built from
+	private int builtVersion = -1;
+	
+	// The hashtable entries that the workflow is built from
+	private List<HashtableEntry> entries;
+	
+	// True if the current builder has already been displayed, so a new
+	// one is needed for the next workflow.
+	private boolean builderUsed = false;
+	
+	/**
+	 * Creates the command and starts reading the hashtable in the background
+	 * so that it is ready when the user first opens the menu.
+	 */
+	public FindIdenticalObjectsCommand() {
+		Thread loader = new Thread("Hashtable loader") {
+			@Override
+			public void run() {
+				try {
+					HashtableStore.getDefault().refresh();
+				} catch (IOException e) {
+					e.printStackTrace(System.err);
+				}
+			}
+		};
+		loader.setDaemon(true);
+		loader.start();
+	}
 
 	/**
 	 * Creates a drop down menu from the hashtable
 	 */
 	@Override
 	public void mouseEntered(MouseEvent e) {
-
-		scrnodes = new ArrayList<ScriptNode>();
-		fileNodes = new ArrayList<RDataInstanceNode>();
-		index = 1;
-		builder = new WorkflowGraphBuilder();
-		wf = new Workflow(builder);
-
 		// Setup and Initialization
 		DDGExplorer ddgExplorer = DDGExplorer.getInstance();
 
-		// Read in the hashtable and generate file nodes
+		// Bring the hashtable up to date, and rebuild the file nodes only if it changed
+		HashtableStore store = HashtableStore.getDefault();
 		try {
-			HashtableEntry entries[] = readHashtable();
-			if (entries.length > 0) {
-				generateFileNodes(entries);
-			}
+			store.refresh();
 		} catch (Exception exception) {
 			exception.printStackTrace(System.err);
 		}
-
-
+		
 		JMenu scriptMenu = (JMenu) e.getSource();
-		if (scriptMenu.getItemCount() == 0) {
-			for (ScriptNode scrnode : scrnodes) {
-				JMenuItem scriptItem = new JMenuItem(scrnode.getFullpath());
-				scriptItem.addActionListener((ActionEvent event) -> {
-					load(ddgExplorer, scrnode);
-				}
-						);
-				scriptMenu.add(scriptItem);
+		if (store.getVersion() == builtVersion) {
+			return;
+		}
+		
+		builtVersion = store.getVersion();
+		entries = store.getEntries();
+		buildWorkflow();
+
+		scriptMenu.removeAll();
+		JMenuItem allItem = new JMenuItem("All scripts");
+		allItem.addActionListener((ActionEvent event) -> {
+			loadAll(ddgExplorer);
+		});
+		scriptMenu.add(allItem);
+		scriptMenu.addSeparator();
+		for (String scriptPath : store.getScriptPaths()) {
+			JMenuItem scriptItem = new JMenuItem(scriptPath);
+			scriptItem.addActionListener((ActionEvent event) -> {
+				load(ddgExplorer, scriptPath);
 			}
+					);
+			scriptMenu.add(scriptItem);
+		}
+	}
+
+	/**
+	 * Creates the workflow containing all the scripts and files in the hashtable
+	 */
+	private void buildWorkflow() {
+		scrnodes = new LinkedHashMap<>();
+		fileNodes = new IdentityHashMap<>();
+		index = 1;
+		builder = new WorkflowGraphBuilder();
+		wf = new Workflow(builder);
+		builderUsed = false;
+
+		if (entries.size() > 0) {
+			generateFileNodes(entries);
 		}
 	}
 
@@ -81,79 +133,75 @@ public class FindIdenticalObjectsCommand extends MouseAdapter {
 	 * Loads the workflow into DDGExplorer
 	 * 
 	 * @param ddgExplorer the relevant instance of ddgExplorer
-	 * @param scrnode the script node which the user selected
+	 * @param scriptPath the path of the script which the user selected
 	 */
-	private void load(DDGExplorer ddgExplorer, ScriptNode scrnode) {
+	private void load(DDGExplorer ddgExplorer, String scriptPath) {
+		if (builderUsed) {
+			buildWorkflow();
+		}
+		builderUsed = true;
+		ScriptNode scrnode = scrnodes.get(scriptPath);
 		DDGExplorer.loadingDDG();
 		builder.buildNodeAndEdgeTables();
 		wf.walkBeginning(builder, scrnode.getId());
-		builder.drawGraph();
-		builder.createLegend("R");
-		builder.getPanel().addLegend();
-		ddgExplorer.addTab(scrnode.getName() + " Workflow", builder.getPanel());
-		DDGExplorer.doneLoadingDDG();
+		display(ddgExplorer, scrnode.getName() + " Workflow");
 	}
 
 	/**
-	 * Reads in the hashtable.csv from the user's home/.ddg directory. If this
-	 * directory does not exist, a file chooser will be displayed so that the
-	 * user can select the location of the hashtable.csv on their system.
+	 * Loads the workflow of every script in the hashtable into DDGExplorer.
+	 * Scripts that do not share any files with each other are shown side by 
+	 * side in the same tab.
 	 * 
-	 * @param csvmap the ArrayList of string arrays to be modified
-	 * @throws IOException
+	 * @param ddgExplorer the relevant instance of ddgExplorer
 	 */
-	private HashtableEntry[] readHashtable() throws IOException {
-		String home = System.getProperty("user.home");
-		File hashtable = new File(home + "/.ddg/hashtable.json");
-		if (!hashtable.exists()) {
-			HashtableEntry[] entries = {};
-			return entries;
+	private void loadAll(DDGExplorer ddgExplorer) {
+		if (builderUsed) {
+			buildWorkflow();
 		}
+		builderUsed = true;
+		DDGExplorer.loadingDDG();
+		builder.buildNodeAndEdgeTables();
+		wf.assembleAll(builder);
+		display(ddgExplorer, "All Scripts Workflow");
+	}
 
-		// Adapted from the local file JsonParser.java
-		BufferedReader reader = new BufferedReader (new FileReader(hashtable));
-		StringBuffer s = new StringBuffer();
-		String readline = reader.readLine();
-		while (readline != null) {
-			s.append(readline);
-			readline = reader.readLine();
-		}
-		String json = s.toString();
-		// https://stackoverflow.com/questions/27628096/json-array-to-java-objects
-		Gson gson = new Gson();
-		HashtableEntry[] entries = gson.fromJson(json, HashtableEntry[].class);
-		reader.close();
-		return entries;
+	/**
+	 * Draws the workflow that has been added to the builder in a new tab
+	 * 
+	 * @param ddgExplorer the relevant instance of ddgExplorer
+	 * @param title the title of the tab
+	 */
+	private void display(DDGExplorer ddgExplorer, String title) {
+		builder.drawGraph();
+		builder.createLegend("R");
+		builder.getPanel().addLegend();
+		ddgExplorer.addTab(title, builder.getPanel());
+		DDGExplorer.doneLoadingDDG();
 	}
 
 	/**
 	 * Generates the file nodes to be used in the workflow. It also makes calls to
 	 * generateScriptNode.
 	 * 
-	 * @param entries a series of string arrays obtained from reading the hashtable.json file.
-	 * @param builder a workflowGraphBuilder
-	 * @return a list of file nodes to add to the graph.
+	 * @param entries the entries obtained from the hashtable.json file.
 	 */
-	private ArrayList<RDataInstanceNode> generateFileNodes(HashtableEntry[] entries) {
+	private void generateFileNodes(List<HashtableEntry> entries) {
+		HashtableStore store = HashtableStore.getDefault();
 		for (HashtableEntry entry : entries) {
-			String name = entry.getFilePath().substring(entry.getFilePath().lastIndexOf('/') + 1);
+			String name = HashtableStore.getFileName(entry);
 			RDataInstanceNode file = new RDataInstanceNode("File", name, entry.getValue(), entry.getTimestamp(), 
 					entry.getFilePath(), entry.getSHA1Hash(), entry.getScriptPath());
-			ScriptNode scrnode = null; 
-			scrnode = generateScriptNode(scrnodes, file, entry.getScriptPath(),
-					entry.getDDGPath());
-
-			int foundindex = -1;
-			for (int i = 0; i < fileNodes.size(); i++) {
-				String hash = fileNodes.get(i).getHash();
-				if (hash != null && hash.equals(file.getHash()) && 
-						fileNodes.get(i).getName().equals(file.getName())) {
-					foundindex = i;
+			ScriptNode scrnode = generateScriptNode(entry.getScriptPath(), entry.getDDGPath());
+
+			RDataInstanceNode sourcednode = fileNodes.get(entry);
+			if (sourcednode == null) {
+				if (file.getHash() != null) {
+					// The first time the file is seen.  The other entries for
+					// the same file will use this node.
+					for (HashtableEntry sameFile : store.getEntriesWithHash(file.getHash(), name)) {
+						fileNodes.put(sameFile, file);
+					}
 				}
-			}
-
-			if (foundindex == -1) {
-				fileNodes.add(file);
 				file.setId(index++);
 				if (entry.getReadWrite().equals("read")) {
 					file.addNode(scrnode.getId(), "output");
@@ -167,11 +215,10 @@ public class FindIdenticalObjectsCommand extends MouseAdapter {
 					wf.addEdge("SFW", scrnode.getId(), file.getId());
 				}
 			} else {
-				RDataInstanceNode sourcednode = fileNodes.get(foundindex);
 				if (entry.getReadWrite().equals("read")) {
 					sourcednode.addNode(scrnode.getId(), "output");
 					scrnode.addNode(sourcednode.getId(), "input");
-					wf.addEdge("SFR", fileNodes.get(foundindex).getId(), scrnode.getId());
+					wf.addEdge("SFR", sourcednode.getId(), scrnode.getId());
 				} else if (entry.getReadWrite().equals("write")) {
 					sourcednode.addNode(scrnode.getId(), "input");
 					scrnode.addNode(sourcednode.getId(), "output");
@@ -179,43 +226,25 @@ public class FindIdenticalObjectsCommand extends MouseAdapter {
 				}
 			}	
 		}
-		return fileNodes;
 	}
 
 	/**
-	 * Generates a script node based off of a collection of information
+	 * Returns the script node for a script, creating it if this is
+	 * the first time the script has been seen.
 	 * 
-	 * @param scrnodes the list of script nodes
-	 * @param file the name of the file
-	 * @param path the full path to the file
+	 * @param path the full path to the script
 	 * @param json the location of the associated ddg.json file
-	 * @return the script node that was generated
+	 * @return the script node
 	 */
-	private ScriptNode generateScriptNode(ArrayList<ScriptNode> scrnodes, RDataInstanceNode file, String path, String json) {
-		String name = path.substring(path.lastIndexOf('/') + 1);
-		ScriptNode ret = new ScriptNode(0.0, name, json, path);
-		if (scrnodes.size() == 0) {
-			ScriptNode toAdd = new ScriptNode(0.0, name, json, path);
-			toAdd.setId(index++);
-			wf.addScript(toAdd);
-			scrnodes.add(toAdd);
-			ret = toAdd;
-		} else {
-			boolean added = false;
-			for (ScriptNode scrnode : scrnodes) {
-				if (scrnode.getFullpath().equals(path)) {
-					added = true;
-					ret = scrnode;
-				}
-			}
-			if (!added) {
-				ScriptNode toAdd = new ScriptNode(0.0, name, json, path);
-				toAdd.setId(index++);
-				wf.addScript(toAdd);
-				scrnodes.add(toAdd);
-				ret = toAdd;
-			}
+	private ScriptNode generateScriptNode(String path, String json) {
+		ScriptNode scrnode = scrnodes.get(path);
+		if (scrnode == null) {
+			String name = path.substring(path.lastIndexOf('/') + 1);
+			scrnode = new ScriptNode(0.0, name, json, path);
+			scrnode.setId(index++);
+			wf.addScript(scrnode);
+			scrnodes.put(path, scrnode);
 		}
-		return ret;
+		return scrnode;
 	}
 }
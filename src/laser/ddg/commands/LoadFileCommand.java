@@ -3,12 +3,22 @@ package laser.ddg.commands;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
+import laser.ddg.ProvenanceData;
 import laser.ddg.gui.DDGExplorer;
+import laser.ddg.gui.DDGPanel;
+import laser.ddg.persist.ParseCancelledException;
 import laser.ddg.persist.Parser;
+import laser.ddg.persist.ProvenanceCatalog;
+import laser.ddg.persist.TextParser;
 import laser.ddg.visualizer.PrefuseGraphBuilder;
 
 /**
@@ -23,6 +33,19 @@ public class LoadFileCommand implements ActionListener {
 	
 	private static final JFileChooser FILE_CHOOSER = new JFileChooser(System.getProperty("user.home"));
 
+	// Files at least this big are loaded in the background and drawn
+	// before they have been read completely
+	private static final long PROGRESSIVE_THRESHOLD = 4 * 1024 * 1024;
+
+	// How often the progress dialog is updated, in milliseconds
+	private static final int PROGRESS_INTERVAL = 250;
+
+	// The number of steps in the progress dialog
+	private static final int PROGRESS_MAX = 1000;
+
+	// The number of bytes in a megabyte, for reporting progress
+	private static final double MEGABYTE = 1024 * 1024;
+
 	/**
 	 * Loads a ddg text file from user selection
 	 * @throws Exception thrown if the file cannot be loaded
@@ -46,22 +69,164 @@ public class LoadFileCommand implements ActionListener {
 
 	
 	/**
-	 * loads a file that contains ddg
+	 * loads a file that contains ddg.  Large files are loaded progressively.
 	 * @param selectedFile
 	 * @throws Exception
 	 */
 	public static void loadFile(File selectedFile) throws Exception {
-		PrefuseGraphBuilder builder = new PrefuseGraphBuilder(false);
-		String selectedFileName = selectedFile.getName();
+		if (selectedFile.length() >= PROGRESSIVE_THRESHOLD) {
+			loadFileProgressively(selectedFile);
+			return;
+		}
+		
 		DDGExplorer.loadingDDG();
-		builder.processStarted(selectedFileName, null);
-		Parser parser = Parser.createParser(selectedFile, builder);
-		parser.addNodesAndEdges();
+		DDGPanel panel = readFile(selectedFile);
 		
 		//new tab!
 		DDGExplorer ddgExplorer = DDGExplorer.getInstance();
-		ddgExplorer.addTab(builder.getPanel().getName(), builder.getPanel());
+		ddgExplorer.addTab(panel.getName(), panel);
 		DDGExplorer.doneLoadingDDG();
+		
+		addToCatalog(panel.getProvData());
+	}
+	
+	/**
+	 * Loads a ddg file in the background.  A tab is opened right away.  The
+	 * collapsed steps of the ddg are drawn in it as soon as the procedure 
+	 * nodes and control flow have been added, before any data node is added,
+	 * and the data flow is drawn once the whole ddg has been added.  How soon
+	 * the steps appear depends on the number of procedure nodes, since each
+	 * one is added to the display's tables:  a ddg with hundreds of thousands
+	 * of procedure nodes takes tens of seconds, and one of 1GB takes minutes.  A progress dialog shows how much of the
+	 * file has been parsed and lets the user cancel, which closes the tab.
+	 * The tab is also closed if the file cannot be read.
+	 * This returns without waiting for the ddg to be read.
+	 * @param ddgFile the file containing the ddg
+	 * @throws IOException thrown if the file cannot be opened
+	 */
+	public static void loadFileProgressively(final File ddgFile) throws IOException {
+		final PrefuseGraphBuilder builder = new PrefuseGraphBuilder(false);
+		builder.processStarted(ddgFile.getName(), null);
+		builder.setTitle(ddgFile.getName(), null);
+		builder.drawControlFlowFirst();
+		final Parser parser = Parser.createParser(ddgFile, builder);
+		parser.setCompactLargeDdgs(DDGExplorer.getInstance().isCompactLargeDdgs());
+		
+		final DDGExplorer ddgExplorer = DDGExplorer.getInstance();
+		final DDGPanel panel = builder.getPanel();
+		DDGExplorer.loadingDDG();
+		ddgExplorer.addTab(panel.getName(), panel);
+
+		final String fileSize = String.format("%.1f MB", ddgFile.length() / MEGABYTE);
+		final ProgressMonitor progress = new ProgressMonitor(ddgExplorer,
+				"Loading " + ddgFile.getName(), "0.0 of " + fileSize, 0, PROGRESS_MAX);
+		final Timer progressTimer = new Timer(PROGRESS_INTERVAL, null);
+		progressTimer.addActionListener((ActionEvent tick) -> {
+			if (progress.isCanceled()) {
+				parser.cancel();
+				progressTimer.stop();
+			}
+			else {
+				progress.setNote(String.format("%.1f of ", parser.getBytesParsed() / MEGABYTE) + fileSize);
+				progress.setProgress((int) (PROGRESS_MAX * parser.getProgress()));
+			}
+		});
+		progressTimer.start();
+
+		Thread loader = new Thread("DDG loader") {
+			@Override
+			public void run() {
+				try {
+					ProvenanceData provData = parser.addNodesAndEdges();
+					SwingUtilities.invokeLater(DDGExplorer::doneLoadingDDG);
+					addToCatalog(provData);
+				} catch (ParseCancelledException e) {
+					SwingUtilities.invokeLater(() -> {
+						DDGExplorer.doneLoadingDDG();
+						ddgExplorer.removeTab(panel);
+					});
+				} catch (Exception e) {
+					e.printStackTrace(System.err);
+					SwingUtilities.invokeLater(() -> {
+						DDGExplorer.doneLoadingDDG();
+						ddgExplorer.removeTab(panel);
+						JOptionPane.showMessageDialog(ddgExplorer,
+							"Unable to load the file: " + e.getMessage(),
+							"Error loading file", JOptionPane.ERROR_MESSAGE);
+					});
+				} finally {
+					SwingUtilities.invokeLater(() -> {
+						progressTimer.stop();
+						progress.close();
+					});
+				}
+			}
+		};
+		loader.start();
+	}
+	
+	/**
+	 * Reads a ddg file into a new panel without adding it to a tab
+	 * @param ddgFile the file containing the ddg
+	 * @return the panel displaying the ddg
+	 * @throws Exception thrown if the file cannot be loaded
+	 */
+	public static DDGPanel readFile(File ddgFile) throws Exception {
+		PrefuseGraphBuilder builder = new PrefuseGraphBuilder(false);
+		builder.processStarted(ddgFile.getName(), null);
+		Parser parser = Parser.createParser(ddgFile, builder);
+		parser.setCompactLargeDdgs(DDGExplorer.getInstance().isCompactLargeDdgs());
+		parser.addNodesAndEdges();
+		return builder.getPanel();
+	}
+	
+	/**
+	 * Displays a ddg while it is streamed from a running script.  A tab is 
+	 * opened right away and the graph in it is redrawn at a fixed rate as
+	 * nodes and edges arrive.  This returns when the stream ends.
+	 * @param in the stream containing the ddg, in the textual ddg syntax
+	 * @param ddgFile the file the script is writing the ddg to
+	 * @throws Exception thrown if the stream cannot be read
+	 */
+	public static void streamDDG(Reader in, File ddgFile) throws Exception {
+		PrefuseGraphBuilder builder = new PrefuseGraphBuilder(false);
+		builder.processStarted(ddgFile.getName(), null);
+		builder.setTitle(ddgFile.getName(), null);
+		DDGExplorer ddgExplorer = DDGExplorer.getInstance();
+		ddgExplorer.addTab(builder.getPanel().getName(), builder.getPanel());
+		
+		builder.startLiveUpdates();
+		Parser parser = new TextParser(ddgFile, in, builder);
+		ProvenanceData provData = parser.addNodesAndEdges();
+		
+		addToCatalog(provData);
+	}
+	
+	/**
+	 * Records the files used by the ddg in the provenance catalog so that 
+	 * cross-run queries can be answered without reloading it.  This is done
+	 * in the background since it does not affect the display.
+	 * @param provData the ddg that was loaded
+	 */
+	private static void addToCatalog(final ProvenanceData provData) {
+		Thread cataloger = new Thread("Provenance cataloger") {
+			@Override
+			public void run() {
+				ProvenanceCatalog catalog = ProvenanceCatalog.getDefault();
+				try {
+					catalog.addRun(provData);
+					
+					// Reloading a ddg that is already in the catalog does not change it
+					if (catalog.hasUnsavedChanges()) {
+						catalog.save(ProvenanceCatalog.getDefaultFile());
+					}
+				} catch (Exception e) {
+					System.err.println("Could not update the provenance catalog: " + e.getMessage());
+				}
+			}
+		};
+		cataloger.setDaemon(true);
+		cataloger.start();
 	}
 	
 	@Override
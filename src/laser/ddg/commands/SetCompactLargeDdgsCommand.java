@@ -0,0 +1,26 @@
+package laser.ddg.commands;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JCheckBoxMenuItem;
+
+import laser.ddg.gui.DDGExplorer;
+
+/**
+ * Command to control whether ddgs with many nodes are compacted to save
+ * memory once they are read
+ */
+public class SetCompactLargeDdgsCommand implements ActionListener {
+
+	/**
+	 * Turns compaction on or off based on the setting of the corresponding menu item.
+	 * @param e
+	 */
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		JCheckBoxMenuItem compactMenuItem = (JCheckBoxMenuItem) e.getSource();
+		DDGExplorer.getInstance().setCompactLargeDdgs(compactMenuItem.isSelected());
+	}
+
+}
@@ -0,0 +1,26 @@
+package laser.ddg.commands;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JCheckBoxMenuItem;
+
+import laser.ddg.gui.DDGExplorer;
+
+/**
+ * Command to control whether graphs are drawn with the layered layout
+ * rather than the tree layout
+ */
+public class SetLayeredLayoutCommand implements ActionListener {
+
+	/**
+	 * Sets the layout based on the setting of the corresponding menu item.
+	 * @param e
+	 */
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		JCheckBoxMenuItem layeredLayoutMenuItem = (JCheckBoxMenuItem) e.getSource();
+		DDGExplorer.getInstance().useLayeredLayout(layeredLayoutMenuItem.isSelected());
+	}
+
+}
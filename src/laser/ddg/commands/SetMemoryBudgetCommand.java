@@ -0,0 +1,40 @@
+package laser.ddg.commands;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JOptionPane;
+
+import laser.ddg.gui.DDGExplorer;
+
+/**
+ * Command to set how much memory open ddgs may use before the tabs that
+ * have not been viewed recently are hibernated
+ */
+public class SetMemoryBudgetCommand implements ActionListener {
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		DDGExplorer ddgExplorer = DDGExplorer.getInstance();
+		long maxMB = Runtime.getRuntime().maxMemory() / (1024 * 1024);
+		String budget = (String) JOptionPane.showInputDialog(ddgExplorer, 
+				"Megabytes that open DDGs may use before DDGs not viewed recently\n"
+				+ "are unloaded (the maximum available is " + maxMB + "):",
+				"Memory budget", JOptionPane.QUESTION_MESSAGE, null, null, 
+				String.valueOf(ddgExplorer.getHeapBudgetMB()));
+		if (budget == null) {
+			return;
+		}
+		try {
+			long megabytes = Long.parseLong(budget.trim());
+			if (megabytes <= 0) {
+				throw new NumberFormatException();
+			}
+			ddgExplorer.setHeapBudgetMB(megabytes);
+		} catch (NumberFormatException e1) {
+			JOptionPane.showMessageDialog(ddgExplorer, budget + " is not a number of megabytes",
+					"Error setting memory budget", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+
+}
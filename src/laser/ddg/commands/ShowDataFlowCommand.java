@@ -4,7 +4,7 @@ import laser.ddg.DataInstanceNode;
 import laser.ddg.ProvenanceData;
 import laser.ddg.gui.DDGExplorer;
 import laser.ddg.query.DataQuery;
-import laser.ddg.visualizer.PrefuseUtils;
+import laser.ddg.visualizer.PrefuseGraphBuilder;
 import prefuse.data.Node;
 
 /**
@@ -17,10 +17,11 @@ import prefuse.data.Node;
 public class ShowDataFlowCommand {
 	/**
 	 * Executes the query to display a dataflow path to a particular node
+	 * @param builder the builder that drew the node
 	 * @param rootNode the node that the user wants to see the derivation of
 	 * @param query the query to execute
 	 */
-	public static void execute(Node rootNode, DataQuery query) {
+	public static void execute(PrefuseGraphBuilder builder, Node rootNode, DataQuery query) {
 		DDGExplorer ddgExplorer = DDGExplorer.getInstance();
 		ProvenanceData origProvData = ddgExplorer.getCurrentDDG();
 		query.setLanguage(origProvData.getLanguage());
@@ -31,12 +32,10 @@ public class ShowDataFlowCommand {
 		query.addQueryListener(ddgExplorer);
 
 		// Find the DIN clicked on
-		String nodeName = PrefuseUtils.getName(rootNode);
-		//System.out.println("nodeName = " + nodeName);
-		DataInstanceNode din = origProvData.findDin(nodeName);
+		DataInstanceNode din = origProvData.findDin(builder.getDataNodeId(rootNode));
 
 		// Execute the query
-		query.doQuery(din);
+		query.doQuery(origProvData, din);
 		DDGExplorer.doneLoadingDDG();
 
 	}
@@ -0,0 +1,36 @@
+package laser.ddg.commands;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JFrame;
+import javax.swing.JOptionPane;
+
+import laser.ddg.ProvenanceData;
+import laser.ddg.gui.DDGExplorer;
+import laser.ddg.gui.StatsPanel;
+
+/**
+ * Command to show the performance statistics recorded for the DDG in the
+ * current tab.  The statistics are displayed in a separate frame.
+ */
+public class ShowStatsCommand implements ActionListener {
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		DDGExplorer ddgExplorer = DDGExplorer.getInstance();
+		ProvenanceData curDDG = ddgExplorer.getCurrentDDG();
+		if (curDDG == null) {
+			JOptionPane.showMessageDialog(ddgExplorer, "There is no ddg in the current tab.",
+					"Error showing the statistics", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+
+		JFrame f = new JFrame("Performance statistics for " + curDDG.getProcessName());
+		f.add(new StatsPanel(curDDG.getMetrics()));
+		f.pack();
+		f.setLocationRelativeTo(ddgExplorer);
+		f.setVisible(true);
+	}
+
+}
@@ -0,0 +1,26 @@
+package laser.ddg.diff;
+
+import laser.ddg.FlightEvent;
+import laser.ddg.FlightEvent.EventInfo;
+import laser.ddg.FlightEvent.FieldInfo;
+
+/**
+ * Flight recorder event for comparing two ddgs, from reading the files
+ * until the differences have been marked
+ */
+@EventInfo(name = "laser.ddg.Diff", label = "DDG Diff",
+	category = {"DDG Explorer", "Diff"},
+	description = "Comparing two ddgs")
+class DiffEvent extends FlightEvent {
+	@FieldInfo("Left File")
+	String leftFile;
+
+	@FieldInfo("Right File")
+	String rightFile;
+
+	@FieldInfo("Compare Times")
+	boolean compareTimes;
+
+	@FieldInfo("Outcome")
+	String outcome;
+}
@@ -0,0 +1,276 @@
+package laser.ddg.diff;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.swing.SwingUtilities;
+
+import laser.ddg.ProvenanceData;
+import laser.ddg.diff.gui.DDGDiffPanel;
+import laser.ddg.gui.DDGExplorer;
+import laser.ddg.persist.ParseCancelledException;
+import laser.ddg.persist.Parser;
+import laser.ddg.visualizer.PrefuseGraphBuilder;
+
+/**
+ * Compares two ddgs in the background.  The two files are read at the same
+ * time on their own threads, and the nodes are matched and colored once both
+ * have been read.  Only displaying the results is done on the event thread,
+ * so the user interface stays responsive and the job can be cancelled while
+ * large ddgs are read.
+ */
+public class DiffJob {
+	// The part of the progress, out of 100, used for reading the files.
+	// The rest is for matching the nodes.
+	private static final int READ_PROGRESS = 90;
+
+	// The earlier ddg
+	private final File leftFile;
+
+	// The later ddg
+	private final File rightFile;
+
+	// True to compare execution times rather than just the nodes
+	private final boolean compareTimes;
+
+	// The parsers reading the files, once they have been created
+	private volatile Parser leftParser;
+	private volatile Parser rightParser;
+
+	// What the job is doing now
+	private volatile String note = "Reading ddgs";
+
+	// True once the nodes have been matched
+	private volatile boolean compared = false;
+
+	// Set when the user cancels the job
+	private volatile boolean cancelled = false;
+
+	// The reason the job failed, or null if it has not failed
+	private volatile Exception error;
+
+	/**
+	 * Creates a job to compare two ddgs
+	 * @param leftFile the earlier ddg
+	 * @param rightFile the later ddg
+	 * @param compareTimes true to compare execution times rather than just
+	 * 	the nodes
+	 */
+	public DiffJob(File leftFile, File rightFile, boolean compareTimes) {
+		this.leftFile = leftFile;
+		this.rightFile = rightFile;
+		this.compareTimes = compareTimes;
+	}
+
+	/**
+	 * Starts comparing the ddgs in the background.  If the comparison
+	 * succeeds, the results are shown in the diff panel.  Whether it succeeds,
+	 * fails or is cancelled, whenDone is then run on the event thread.
+	 * @param diffPanel the panel to display the results in
+	 * @param whenDone what to do once the job is over
+	 */
+	public void start(DDGDiffPanel diffPanel, Runnable whenDone) {
+		Thread worker = new Thread("DDG diff") {
+			@Override
+			public void run() {
+				DiffEvent event = new DiffEvent();
+				event.begin();
+				DDGExplorer.loadingDDG();
+				try {
+					compare(diffPanel);
+				} catch (ParseCancelledException e) {
+					// The user cancelled.  Nothing to report.
+				} catch (Exception e) {
+					if (!cancelled) {
+						e.printStackTrace(System.err);
+						error = e;
+					}
+				} finally {
+					commitEvent(event);
+					SwingUtilities.invokeLater(() -> {
+						DDGExplorer.doneLoadingDDG();
+						whenDone.run();
+					});
+				}
+			}
+		};
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Records the comparison with the flight recorder, if it is recording
+	 * such events
+	 * @param event the event, which began when the job started
+	 */
+	private void commitEvent(DiffEvent event) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.leftFile = leftFile.getPath();
+			event.rightFile = rightFile.getPath();
+			event.compareTimes = compareTimes;
+			if (cancelled) {
+				event.outcome = "cancelled";
+			}
+			else if (error != null) {
+				event.outcome = "failed";
+			}
+			else {
+				event.outcome = "compared";
+			}
+			event.commit();
+		}
+	}
+
+	/**
+	 * Reads both ddgs, matches their nodes, and hands the results to the
+	 * event thread to display
+	 * @param diffPanel the panel to display the results in
+	 * @throws Exception if either file cannot be read
+	 */
+	private void compare(DDGDiffPanel diffPanel) throws Exception {
+		PrefuseGraphBuilder leftBuilder = new PrefuseGraphBuilder(false);
+		leftParser = Parser.createParser(leftFile, leftBuilder);
+		PrefuseGraphBuilder rightBuilder = new PrefuseGraphBuilder(false);
+		rightParser = Parser.createParser(rightFile, rightBuilder);
+		if (cancelled) {
+			return;
+		}
+
+		String[] leftGroups = compareTimes ? withTimingGroups("left_group") : new String[] {"left_group"};
+		String[] rightGroups = compareTimes ? withTimingGroups("right_group") : new String[] {"right_group"};
+
+		ExecutorService readers = Executors.newFixedThreadPool(2, reader -> {
+			Thread thread = new Thread(reader, "DDG diff reader");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ProvenanceData left;
+		ProvenanceData right;
+		try {
+			Future<ProvenanceData> leftRead = readers.submit(
+					(Callable<ProvenanceData>) () -> GraphComp.loadForDiff(leftBuilder, leftParser, leftGroups));
+			Future<ProvenanceData> rightRead = readers.submit(
+					(Callable<ProvenanceData>) () -> GraphComp.loadForDiff(rightBuilder, rightParser, rightGroups));
+			left = await(leftRead);
+			right = await(rightRead);
+		} finally {
+			readers.shutdown();
+		}
+
+		note = "Matching nodes";
+		if (compareTimes) {
+			TimingComparison comparison = new TimingComparison(left, right);
+			GraphComp.markTimingChanges(comparison, leftBuilder, rightBuilder);
+			compared = true;
+			SwingUtilities.invokeLater(() -> {
+				if (!cancelled) {
+					diffPanel.displayDiffResults(leftBuilder, rightBuilder);
+					diffPanel.displayTimingResults(comparison);
+				}
+			});
+		}
+		else {
+			GraphComp.markDifferences(left, leftBuilder, right, rightBuilder);
+			compared = true;
+			SwingUtilities.invokeLater(() -> {
+				if (!cancelled) {
+					diffPanel.displayDiffResults(leftBuilder, rightBuilder);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Waits for one side to be read.  If it fails, the other side is
+	 * stopped as well.
+	 * @param read the reading of one side
+	 * @return the ddg read
+	 * @throws Exception the reason the side could not be read
+	 */
+	private ProvenanceData await(Future<ProvenanceData> read) throws Exception {
+		try {
+			return read.get();
+		} catch (ExecutionException e) {
+			stopParsers();
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @param sideGroup the group for nodes only on one side
+	 * @return the groups for one side when comparing times
+	 */
+	private static String[] withTimingGroups(String sideGroup) {
+		String[] groups = new String[GraphComp.TIMING_GROUPS.length + 1];
+		groups[0] = sideGroup;
+		System.arraycopy(GraphComp.TIMING_GROUPS, 0, groups, 1, GraphComp.TIMING_GROUPS.length);
+		return groups;
+	}
+
+	/**
+	 * @return how much of the job is done, out of 100
+	 */
+	public int getProgress() {
+		if (compared) {
+			return 100;
+		}
+		Parser left = leftParser;
+		Parser right = rightParser;
+		if (left == null || right == null) {
+			return 0;
+		}
+		return (int) (READ_PROGRESS * (left.getProgress() + right.getProgress()) / 2);
+	}
+
+	/**
+	 * @return a description of what the job is doing now
+	 */
+	public String getNote() {
+		return note;
+	}
+
+	/**
+	 * Stops the job.  Nothing is displayed once it has been cancelled.
+	 */
+	public void cancel() {
+		cancelled = true;
+		stopParsers();
+	}
+
+	/**
+	 * Stops the parsers that have been created
+	 */
+	private void stopParsers() {
+		Parser left = leftParser;
+		if (left != null) {
+			left.cancel();
+		}
+		Parser right = rightParser;
+		if (right != null) {
+			right.cancel();
+		}
+	}
+
+	/**
+	 * @return true if the user cancelled the job
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return the reason the job failed, or null if it did not fail
+	 */
+	public Exception getError() {
+		return error;
+	}
+}
@@ -1,13 +1,14 @@
 package laser.ddg.diff;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 import javax.swing.JPanel;
 
-import laser.ddg.diff.gui.DDGDiffPanel;
-import laser.ddg.gui.DDGExplorer;
+import laser.ddg.ProcedureInstanceNode;
+import laser.ddg.ProvenanceData;
 import laser.ddg.persist.Parser;
 import laser.ddg.visualizer.PrefuseGraphBuilder;
 
@@ -19,6 +20,9 @@ import laser.ddg.visualizer.PrefuseGraphBuilder;
  *
  */
 public class GraphComp extends JPanel {
+	// The groups used to color nodes by how much their time changed
+	static final String[] TIMING_GROUPS = 
+		{"much_slower_group", "slower_group", "faster_group", "much_faster_group"};
 
 	/**
 	 * Run the diff algorithm on the nodes of the left ddg and the nodes of the
@@ -26,192 +30,118 @@ public class GraphComp extends JPanel {
 	 * it appears in Red. If a node is present in right ddg and missing in the
 	 * left ddg, it appears in Green. The rest of the nodes in the left and
 	 * right ddgs are colored white.
+	 * @param left the left ddg
+	 * @param leftBuilder the builder displaying the left ddg
+	 * @param right the right ddg
+	 * @param rightBuilder the builder displaying the right ddg
 	 */
-	public static void doDiff(DDGDiffPanel diffPanel, File leftFile, File rightFile) throws IOException {
-		PrefuseGraphBuilder leftBuilder = new PrefuseGraphBuilder(false);
-		String[] leftText = prepareForDiff(leftBuilder, "left_group", leftFile);
-
-		PrefuseGraphBuilder rightBuilder = new PrefuseGraphBuilder(false);
-		String[] rightText = prepareForDiff(rightBuilder, "right_group", rightFile);
-
-		ArrayList<String> diffResult = computeTextDiffResult(leftText, rightText);
-		computeDDGDiffResult(diffResult, leftBuilder, rightBuilder);
-
-		diffPanel.displayDiffResults(leftBuilder, rightBuilder);
-
+	static void markDifferences(ProvenanceData left, PrefuseGraphBuilder leftBuilder, 
+			ProvenanceData right, PrefuseGraphBuilder rightBuilder) {
+		List<ProcedureInstanceNode> leftPins = new ArrayList<>();
+		left.pinIter().forEachRemaining(leftPins::add);
+		List<ProcedureInstanceNode> rightPins = new ArrayList<>();
+		right.pinIter().forEachRemaining(rightPins::add);
+
+		for (int[] step : NodeDiff.diff(createTextToDiff(leftPins), createTextToDiff(rightPins))) {
+			if (step[1] == -1) {
+				leftBuilder.updateCopiedGroup(leftPins.get(step[0]).getId(), "left_group");
+			}
+			else if (step[0] == -1) {
+				rightBuilder.updateCopiedGroup(rightPins.get(step[1]).getId(), "right_group");
+			}
+		}
 	}
 
-	private static String[] prepareForDiff(PrefuseGraphBuilder builder, String copyGroupName, File selectedFile)
+	/**
+	 * Reads a ddg into a builder set up to show differences
+	 * @param builder the builder to display the ddg
+	 * @param parser the parser for the ddg's file
+	 * @param groupNames the groups used to color the nodes
+	 * @return the ddg read
+	 * @throws IOException if the file cannot be read
+	 */
+	static ProvenanceData loadForDiff(PrefuseGraphBuilder builder, Parser parser, String... groupNames)
 			throws IOException {
-		DDGExplorer.loadingDDG();
-
-		builder.createCopiedGroup(copyGroupName);
+		for (String groupName : groupNames) {
+			builder.createCopiedGroup(groupName);
+		}
 
 		builder.processStartedForDiff();
 
-		Parser parser = Parser.createParser(selectedFile, builder);
-		parser.addNodesAndEdges();
-
-		return createTextToDiff(parser, builder);
+		return parser.addNodesAndEdges();
 	}
 
 	/**
-	 * Creates a text array to use in the comparison.  The array contains
-	 * one entry for each procedural node in the ddg.  The contents of the entry
-	 * is the node name with the node number and line number and all whitespace removed.  
-	 * 
-	 * @param parser
-	 * @param builder corresponding to the graph
+	 * Colors the nodes of two ddgs by how their execution times changed.  Nodes 
+	 * are matched in the same way as by markDifferences, and those that are only
+	 * in one ddg are colored the same way.  Matched operations and steps that got
+	 * slower are colored orange and those that got faster are colored blue, with
+	 * darker colors for larger changes.
+	 * @param comparison the comparison of the two ddgs' times
+	 * @param leftBuilder the builder displaying the earlier run
+	 * @param rightBuilder the builder displaying the later run
 	 */
-	private static String[] createTextToDiff(Parser parser, PrefuseGraphBuilder builder) {
-		String[] text = new String[parser.getNumPins()];
-		//System.out.println("numPins = " + parser.getNumPins());
-
-		// Pins are numbered beginning at 1.
-		for (int i = 1; i <= text.length; i++) {
-			String curNodeName = builder.getName(builder.getNode(i));
-			//System.out.println(curNodeName);
-			
-			// Remove whitespace
-			String dummy = curNodeName.replaceAll("\\s+", "");
-
-			// Remove the node number and line number, if present
-			if (dummy.indexOf("[") < 0) {
-				text[i - 1] = dummy.substring(dummy.indexOf('-') + 1);
-			} else {
-				text[i - 1] = dummy.substring(dummy.indexOf('-') + 1, dummy.indexOf('['));
-			}
+	static void markTimingChanges(TimingComparison comparison, PrefuseGraphBuilder leftBuilder, 
+			PrefuseGraphBuilder rightBuilder) {
+		for (int id : comparison.getDeleted()) {
+			leftBuilder.updateCopiedGroup(id, "left_group");
 		}
-
-		return text;
-	}
-
-	// Code adapted from
-	// http://introcs.cs.princeton.edu/java/96optimization/Diff.java.html
-	// From Section 9.6 of Introduction to Programming in Java by Robert Sedgewick and Kevin Wayne
-	// Note that this identifies new lines and deleted lines.  Changed lines are treated as
-	// an addition + a deletion.
-	// Rahman's original code checked for changed lines, but then colored them as additions
-	// and deletions rather than using a different color for changed lines, so this has the 
-	// equivalent effect.
-	private static ArrayList<String> computeTextDiffResult(String[] leftText, String[] rightText) {
-		// System.out.println("\nIn computeTextDiffResult");
-
-		// number of lines of each file
-		int leftNumLines = leftText.length;
-		int rightNumLines = rightText.length;
-
-		// opt[i][j] = length of LCS of x[i..M] and y[j..N]
-		int[][] opt = new int[leftNumLines + 1][rightNumLines + 1];
-
-		// compute length of LCS and all subproblems via dynamic programming
-		for (int i = leftNumLines - 1; i >= 0; i--) {
-			for (int j = rightNumLines - 1; j >= 0; j--) {
-				if (leftText[i].equals(rightText[j])) {
-					opt[i][j] = opt[i + 1][j + 1] + 1;
-				}
-				else {
-					opt[i][j] = Math.max(opt[i + 1][j], opt[i][j + 1]);
-				}
-			}
+		for (int id : comparison.getAdded()) {
+			rightBuilder.updateCopiedGroup(id, "right_group");
 		}
-
-		// recover LCS itself and print out non-matching lines to standard
-		// output
-		int i = 0, j = 0;
-		ArrayList<String> diffResult = new ArrayList<>();
-		while (i < leftNumLines && j < rightNumLines) {
-			//System.out.println("Left line = " + leftText[i]);
-			//System.out.println("Right line = " + rightText[j]);
-			if (leftText[i].equals(rightText[j])) {
-				//System.out.println("Lines " + i + " and " + j + " match");
-				diffResult.add(leftText[i] + " " + rightText[j]);
-				i++;
-				j++;
-			} else if (opt[i + 1][j] >= opt[i][j + 1]) {
-				//System.out.println("< " + leftText[i]);
-				diffResult.add("< " + leftText[i]);
-				i++;
-			} else {
-				//System.out.println("> " + rightText[j]);
-				diffResult.add("> " + rightText[j]);
-				j++;
-			}
+		Iterator<Integer> leftMatched = comparison.leftMatchedIter();
+		while (leftMatched.hasNext()) {
+			int id = leftMatched.next();
+			addToChangeGroup(leftBuilder, id, comparison.getLeftNodeDelta(id));
 		}
-
-		// dump out one remainder of one string if the other is exhausted
-		//System.out.println("Extra lines");
-		while (i < leftNumLines || j < rightNumLines) {
-			if (i == leftNumLines) {
-				//System.out.println("> " + rightText[j]);
-				diffResult.add("> " + rightText[j]);
-				j++;
-			} else if (j == rightNumLines) {
-				//System.out.println("< " + leftText[i]);
-				diffResult.add("< " + leftText[i]);
-				i++;
-			}
+		Iterator<Integer> rightMatched = comparison.rightMatchedIter();
+		while (rightMatched.hasNext()) {
+			int id = rightMatched.next();
+			addToChangeGroup(rightBuilder, id, comparison.getRightNodeDelta(id));
 		}
+	}
 
-		return diffResult;
+	/**
+	 * Adds a node to the group that colors it by how much its time changed
+	 * @param builder the builder displaying the node
+	 * @param id the node's id
+	 * @param delta the change in the node's time
+	 */
+	private static void addToChangeGroup(PrefuseGraphBuilder builder, int id, TimingComparison.Delta delta) {
+		switch (delta.getChange()) {
+		case MUCH_SLOWER:
+			builder.updateCopiedGroup(id, "much_slower_group");
+			break;
+		case SLOWER:
+			builder.updateCopiedGroup(id, "slower_group");
+			break;
+		case FASTER:
+			builder.updateCopiedGroup(id, "faster_group");
+			break;
+		case MUCH_FASTER:
+			builder.updateCopiedGroup(id, "much_faster_group");
+			break;
+		default:
+			break;
+		}
 	}
 
 	/**
-	 * Determines which nodes are added and removed in the 2nd ddg relative to the first ddg.
-	 * Deleted nodes are added to the left_group.  Added nodes are added to the right_group.
-	 * This will affect the colors that the nodes are displayed with.
+	 * Creates a text array to use in the comparison.  The array contains
+	 * one entry for each procedural node in the ddg.  The contents of the entry
+	 * is the node name with the node number and line number and all whitespace removed.  
 	 * 
-	 * @param textDiffResult the text differences in the procedural nodes.  There are 4 possibles line
-	 * 		formats:
-	 * 		<ul>
-	 * 		<li> &gt; right_node_label - represents a node that is new in the right graph
-	 * 		<li> &lt; left_node_label - represents a node that is deleted from the left graph
-	 * 		<li> left_node_label | right_node_label - represents a node that is changed
-	 * 		<li> left_node_label right_node_label - represents a node that is unchanged
-	 * 		</ul>
-	 * @param builderLeft the builder for the left graph
-	 * @param builderRight the builder for the right graph
+	 * @param pins the procedural nodes of the ddg, in order
 	 */
-	private static void computeDDGDiffResult(ArrayList<String> textDiffResult, PrefuseGraphBuilder builderLeft,
-			PrefuseGraphBuilder builderRight) {
-		int leftnode = 1, rightnode = 1;
-		//System.out.println("\nIn computeDDGDiffResult");
-		for (String nextDiff : textDiffResult) {
-
-			String currString = nextDiff.trim();
-			//System.out.println(currString);
-			
-			// Split on the whitespace
-			String[] dummyString = currString.split("\\s+");
-
-			// Check for a changed line
-			if (dummyString.length == 3) {
-				assert dummyString[1].equals("|");
-				// System.out.println("added left and right
-				// "+"leftnode:"+leftnode+" rightnode:"+rightnode);
-				builderLeft.updateCopiedGroup(leftnode, "left_group");
-				builderRight.updateCopiedGroup(rightnode, "right_group");
-				leftnode = leftnode + 1;
-				rightnode = rightnode + 1;
-			} 
-			
-			else if (dummyString.length == 2) {
-				// System.out.println("length = 2");
-				if (dummyString[0].equals(">")) {
-					//System.out.println("added right node: " + rightnode);
-					builderRight.updateCopiedGroup(rightnode, "right_group");
-					rightnode = rightnode + 1;
-				} else if (dummyString[0].equals("<")) {
-					//System.out.println("added left node: " + leftnode);
-					builderLeft.updateCopiedGroup(leftnode, "left_group");
-					leftnode = leftnode + 1;
-				} else {
-					// Identical node in both sides
-					leftnode = leftnode + 1;
-					rightnode = rightnode + 1;
-				}
-			}
+	private static String[] createTextToDiff(List<ProcedureInstanceNode> pins) {
+		String[] text = new String[pins.size()];
+		for (int i = 0; i < text.length; i++) {
+			String name = TimingComparison.nameOf(pins.get(i));
+
+			// Remove the line number, if present
+			int lineStart = name.indexOf('[');
+			text[i] = lineStart < 0 ? name : name.substring(0, lineStart);
 		}
+		return text;
 	}
 }
-
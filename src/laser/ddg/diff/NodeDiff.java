@@ -0,0 +1,98 @@
+package laser.ddg.diff;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Finds the shortest edit script between two sequences of node labels using
+ * Myers' O(ND) algorithm.  Runs of the same script usually differ in only a
+ * few places, so this takes time and space proportional to the number of
+ * differences rather than to the product of the lengths of the ddgs, as the
+ * table-based diff in GraphComp does.
+ */
+public class NodeDiff {
+
+	/**
+	 * Compares two sequences
+	 * @param left the original labels
+	 * @param right the new labels
+	 * @return one step for each label, in order.  A step is a pair of indices
+	 * 	into left and right.  A label that is in both has both indices.  A
+	 * 	deleted label has -1 as its right index.  An added label has -1 as its
+	 * 	left index.
+	 */
+	public static List<int[]> diff(String[] left, String[] right) {
+		int n = left.length;
+		int m = right.length;
+		int max = n + m;
+
+		// v[k + max] is the furthest x reached on diagonal k = x - y.
+		// trace.get(d) holds diagonals -d..d of v before round d.
+		int[] v = new int[2 * max + 2];
+		List<int[]> trace = new ArrayList<>();
+		int d;
+		search:
+		for (d = 0; d <= max; d++) {
+			int[] snapshot = new int[2 * d + 1];
+			System.arraycopy(v, max - d, snapshot, 0, snapshot.length);
+			trace.add(snapshot);
+			for (int k = -d; k <= d; k += 2) {
+				int x;
+				if (k == -d || (k != d && v[max + k - 1] < v[max + k + 1])) {
+					x = v[max + k + 1];
+				}
+				else {
+					x = v[max + k - 1] + 1;
+				}
+				int y = x - k;
+				while (x < n && y < m && left[x].equals(right[y])) {
+					x++;
+					y++;
+				}
+				v[max + k] = x;
+				if (x >= n && y >= m) {
+					break search;
+				}
+			}
+		}
+
+		// Walk back through the rounds to recover the steps
+		List<int[]> steps = new ArrayList<>();
+		int x = n;
+		int y = m;
+		for (; d > 0; d--) {
+			int[] prev = trace.get(d);
+			int k = x - y;
+			int prevK;
+			if (k == -d || (k != d && prev[k - 1 + d] < prev[k + 1 + d])) {
+				prevK = k + 1;
+			}
+			else {
+				prevK = k - 1;
+			}
+			int prevX = prev[prevK + d];
+			int prevY = prevX - prevK;
+			while (x > prevX && y > prevY) {
+				x--;
+				y--;
+				steps.add(new int[] {x, y});
+			}
+			if (prevK == k + 1) {
+				steps.add(new int[] {-1, prevY});
+			}
+			else {
+				steps.add(new int[] {prevX, -1});
+			}
+			x = prevX;
+			y = prevY;
+		}
+		while (x > 0 && y > 0) {
+			x--;
+			y--;
+			steps.add(new int[] {x, y});
+		}
+		Collections.reverse(steps);
+		return steps;
+	}
+}
@@ -0,0 +1,444 @@
+package laser.ddg.diff;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import laser.ddg.ProcedureInstanceNode;
+import laser.ddg.ProvenanceData;
+import laser.ddg.ScriptInfo;
+import laser.ddg.SourcePos;
+
+/**
+ * Compares the execution times of two runs of a script.  The times are
+ * totalled by script line and by step, where a step is the part of the ddg
+ * between a Start node and its Finish node, identified by the names of the
+ * steps that enclose it.  Only operation nodes do work, so the time of a step
+ * is the sum of the operations inside it.
+ *
+ * The procedure nodes of the two runs are also matched up, in the same way
+ * that GraphComp matches them, so that each matched operation and step can be
+ * shown with its change in time.  Step nodes are matched by name and line as
+ * well as by type, so that the step structure lines up.
+ */
+public class TimingComparison {
+	// Changes smaller than this many seconds are ignored
+	private static final double MIN_CHANGE = 0.001;
+
+	// Times must change by at least this fraction to count as a change
+	private static final double MIN_RATIO = 1.1;
+
+	// Times that change by at least this fraction are large changes
+	private static final double LARGE_RATIO = 2.0;
+
+	/** How much a time changed between the runs */
+	public enum Change {
+		MUCH_FASTER, FASTER, SAME, SLOWER, MUCH_SLOWER
+	}
+
+	/**
+	 * The time spent on something in each run
+	 */
+	public static class Delta {
+		// The line or step being timed
+		private final String label;
+
+		// Total time in seconds in each run
+		private double leftTime;
+		private double rightTime;
+
+		// Number of times it executed in each run
+		private int leftCount;
+		private int rightCount;
+
+		private Delta(String label) {
+			this.label = label;
+		}
+
+		private Delta(String label, double leftTime, double rightTime) {
+			this(label);
+			this.leftTime = leftTime;
+			this.rightTime = rightTime;
+			leftCount = 1;
+			rightCount = 1;
+		}
+
+		/**
+		 * @return the script line or step path
+		 */
+		public String getLabel() {
+			return label;
+		}
+
+		/**
+		 * @return the time in seconds in the left run
+		 */
+		public double getLeftTime() {
+			return leftTime;
+		}
+
+		/**
+		 * @return the time in seconds in the right run
+		 */
+		public double getRightTime() {
+			return rightTime;
+		}
+
+		/**
+		 * @return the number of executions in the left run
+		 */
+		public int getLeftCount() {
+			return leftCount;
+		}
+
+		/**
+		 * @return the number of executions in the right run
+		 */
+		public int getRightCount() {
+			return rightCount;
+		}
+
+		/**
+		 * @return the increase in time from the left run to the right run.
+		 *    This is negative if the right run was faster.
+		 */
+		public double getDelta() {
+			return rightTime - leftTime;
+		}
+
+		/**
+		 * @return the change as a percentage of the left time, or infinity
+		 *    if the left time was 0
+		 */
+		public double getPercentChange() {
+			if (leftTime == 0) {
+				return rightTime == 0 ? 0 : Double.POSITIVE_INFINITY;
+			}
+			return 100 * (rightTime - leftTime) / leftTime;
+		}
+
+		/**
+		 * @return whether the change is large enough to report
+		 */
+		public Change getChange() {
+			if (Math.abs(getDelta()) < MIN_CHANGE) {
+				return Change.SAME;
+			}
+			if (rightTime > leftTime) {
+				if (rightTime >= leftTime * LARGE_RATIO) {
+					return Change.MUCH_SLOWER;
+				}
+				return rightTime >= leftTime * MIN_RATIO ? Change.SLOWER : Change.SAME;
+			}
+			if (leftTime >= rightTime * LARGE_RATIO) {
+				return Change.MUCH_FASTER;
+			}
+			return leftTime >= rightTime * MIN_RATIO ? Change.FASTER : Change.SAME;
+		}
+	}
+
+	// Times of each script line
+	private final Map<String, Delta> lines = new LinkedHashMap<>();
+
+	// Times of each step
+	private final Map<String, Delta> steps = new LinkedHashMap<>();
+
+	// Changes of the matched nodes, by node id
+	private final Map<Integer, Delta> leftNodes = new HashMap<>();
+	private final Map<Integer, Delta> rightNodes = new HashMap<>();
+
+	// Ids of the nodes that are only in one of the runs
+	private final List<Integer> deleted = new ArrayList<>();
+	private final List<Integer> added = new ArrayList<>();
+
+	// Total time of each run
+	private double leftTotal;
+	private double rightTotal;
+
+	/**
+	 * Compares two runs
+	 * @param left the earlier run
+	 * @param right the later run
+	 */
+	public TimingComparison(ProvenanceData left, ProvenanceData right) {
+		Run leftRun = new Run(left, true);
+		Run rightRun = new Run(right, false);
+		leftTotal = leftRun.total;
+		rightTotal = rightRun.total;
+		matchNodes(leftRun, rightRun);
+	}
+
+	/**
+	 * The procedure nodes of one run and the time spent in each step instance
+	 */
+	private class Run {
+		// The procedure nodes in the order they executed
+		private final List<ProcedureInstanceNode> pins = new ArrayList<>();
+
+		// Labels that the nodes are matched by
+		private final String[] labels;
+
+		// Time of each Start and Finish node's step, by node id
+		private final Map<Integer, Double> stepTimes = new HashMap<>();
+
+		// Total time of the run
+		private double total;
+
+		/**
+		 * Adds a run's times to the line and step totals
+		 * @param provData the run
+		 * @param isLeft true for the left run
+		 */
+		private Run(ProvenanceData provData, boolean isLeft) {
+			provData.pinIter().forEachRemaining(pins::add);
+			labels = new String[pins.size()];
+
+			// The steps currently executing, innermost first
+			Deque<StepFrame> stack = new ArrayDeque<>();
+			for (int i = 0; i < pins.size(); i++) {
+				ProcedureInstanceNode pin = pins.get(i);
+				String name = nameOf(pin);
+				String line = lineOf(provData, pin.getSourcePos());
+				labels[i] = pin.getType() + " " + name + " " + line;
+
+				switch (pin.getType()) {
+				case "Operation":
+					double elapsed = pin.getElapsedTime();
+					total += elapsed;
+					add(lines, line, elapsed, isLeft);
+					if (!stack.isEmpty()) {
+						stack.peek().time += elapsed;
+					}
+					break;
+				case "Start":
+					String path = stack.isEmpty() ? name : stack.peek().path + "/" + name;
+					stack.push(new StepFrame(pin, path));
+					break;
+				case "Finish":
+					if (!stack.isEmpty()) {
+						finishStep(stack, pin, isLeft);
+					}
+					break;
+				default:
+					break;
+				}
+			}
+
+			// A script that stops with an error leaves steps unfinished
+			while (!stack.isEmpty()) {
+				finishStep(stack, null, isLeft);
+			}
+		}
+
+		/**
+		 * Records the time of the innermost step and adds it to the
+		 * step enclosing it
+		 * @param stack the steps executing
+		 * @param finish the Finish node of the step, or null if it has none
+		 * @param isLeft true for the left run
+		 */
+		private void finishStep(Deque<StepFrame> stack, ProcedureInstanceNode finish, boolean isLeft) {
+			StepFrame frame = stack.pop();
+			stepTimes.put(frame.start.getId(), frame.time);
+			if (finish != null) {
+				stepTimes.put(finish.getId(), frame.time);
+			}
+			add(steps, frame.path, frame.time, isLeft);
+			if (!stack.isEmpty()) {
+				stack.peek().time += frame.time;
+			}
+		}
+	}
+
+	/**
+	 * A step that has started but not finished
+	 */
+	private static class StepFrame {
+		// The step's Start node
+		private final ProcedureInstanceNode start;
+
+		// Names of the steps enclosing this one and this one
+		private final String path;
+
+		// Time of the operations in the step so far
+		private double time;
+
+		private StepFrame(ProcedureInstanceNode start, String path) {
+			this.start = start;
+			this.path = path;
+		}
+	}
+
+	/**
+	 * Adds a time to a total
+	 * @param totals the totals to add to
+	 * @param label the line or step timed
+	 * @param time the time to add
+	 * @param isLeft true if the time is from the left run
+	 */
+	private static void add(Map<String, Delta> totals, String label, double time, boolean isLeft) {
+		Delta delta = totals.computeIfAbsent(label, Delta::new);
+		if (isLeft) {
+			delta.leftTime += time;
+			delta.leftCount++;
+		}
+		else {
+			delta.rightTime += time;
+			delta.rightCount++;
+		}
+	}
+
+	/**
+	 * Matches the procedure nodes of the two runs and records the change
+	 * in time of the matched operations and steps
+	 * @param left the left run
+	 * @param right the right run
+	 */
+	private void matchNodes(Run left, Run right) {
+		for (int[] step : NodeDiff.diff(left.labels, right.labels)) {
+			if (step[0] >= 0 && step[1] >= 0) {
+				ProcedureInstanceNode leftPin = left.pins.get(step[0]);
+				ProcedureInstanceNode rightPin = right.pins.get(step[1]);
+				String label = left.labels[step[0]];
+				Delta delta;
+				if (leftPin.getType().equals("Operation")) {
+					delta = new Delta(label, leftPin.getElapsedTime(), rightPin.getElapsedTime());
+				}
+				else if (left.stepTimes.containsKey(leftPin.getId()) && right.stepTimes.containsKey(rightPin.getId())) {
+					delta = new Delta(label, left.stepTimes.get(leftPin.getId()), right.stepTimes.get(rightPin.getId()));
+				}
+				else {
+					continue;
+				}
+				leftNodes.put(leftPin.getId(), delta);
+				rightNodes.put(rightPin.getId(), delta);
+			}
+			else if (step[0] >= 0) {
+				deleted.add(left.pins.get(step[0]).getId());
+			}
+			else {
+				added.add(right.pins.get(step[1]).getId());
+			}
+		}
+	}
+
+	/**
+	 * @return the total time of the operations in the left run
+	 */
+	public double getLeftTotal() {
+		return leftTotal;
+	}
+
+	/**
+	 * @return the total time of the operations in the right run
+	 */
+	public double getRightTotal() {
+		return rightTotal;
+	}
+
+	/**
+	 * @return the times of each script line, largest increase first
+	 */
+	public List<Delta> getLineDeltas() {
+		return ranked(lines);
+	}
+
+	/**
+	 * @return the times of each step, largest increase first
+	 */
+	public List<Delta> getStepDeltas() {
+		return ranked(steps);
+	}
+
+	private static List<Delta> ranked(Map<String, Delta> totals) {
+		List<Delta> ranked = new ArrayList<>(totals.values());
+		ranked.sort((d1, d2) -> Double.compare(d2.getDelta(), d1.getDelta()));
+		return ranked;
+	}
+
+	/**
+	 * @param id the id of a procedure node in the left run
+	 * @return the change in time of the node, or null if it is not an
+	 *    operation or step that is in both runs
+	 */
+	public Delta getLeftNodeDelta(int id) {
+		return leftNodes.get(id);
+	}
+
+	/**
+	 * @param id the id of a procedure node in the right run
+	 * @return the change in time of the node, or null if it is not an
+	 *    operation or step that is in both runs
+	 */
+	public Delta getRightNodeDelta(int id) {
+		return rightNodes.get(id);
+	}
+
+	/**
+	 * @return the ids of the matched procedure nodes of the left run
+	 */
+	public Iterator<Integer> leftMatchedIter() {
+		return Collections.unmodifiableSet(leftNodes.keySet()).iterator();
+	}
+
+	/**
+	 * @return the ids of the matched procedure nodes of the right run
+	 */
+	public Iterator<Integer> rightMatchedIter() {
+		return Collections.unmodifiableSet(rightNodes.keySet()).iterator();
+	}
+
+	/**
+	 * @return the ids of the procedure nodes only in the left run
+	 */
+	public List<Integer> getDeleted() {
+		return Collections.unmodifiableList(deleted);
+	}
+
+	/**
+	 * @return the ids of the procedure nodes only in the right run
+	 */
+	public List<Integer> getAdded() {
+		return Collections.unmodifiableList(added);
+	}
+
+	/**
+	 * The parsers put the node number in front of the names of nodes read
+	 * from json files, and spacing can differ between runs.  Neither should
+	 * stop the nodes from matching.
+	 * @param pin a procedure node
+	 * @return the name of the node without the node number or whitespace
+	 */
+	static String nameOf(ProcedureInstanceNode pin) {
+		String name = pin.getName().replaceAll("\\s+", "");
+		String prefix = pin.getId() + "-";
+		if (name.startsWith(prefix)) {
+			return name.substring(prefix.length());
+		}
+		return name;
+	}
+
+	/**
+	 * @param provData the ddg containing the node
+	 * @param pos the position of a node in a script
+	 * @return the script name and line number, or "unknown" if the position
+	 * 	is not known
+	 */
+	public static String lineOf(ProvenanceData provData, SourcePos pos) {
+		if (pos == null || pos.getStartLine() == -1) {
+			return "unknown";
+		}
+		List<ScriptInfo> scripts = provData.scripts();
+		int scriptNum = pos.getScriptNumber();
+		String script = scripts != null && scriptNum >= 0 && scriptNum < scripts.size()
+				? scripts.get(scriptNum).getName()
+				: provData.getProcessName();
+		return script + ":" + pos.getStartLine();
+	}
+}
@@ -2,12 +2,20 @@ package laser.ddg.diff.gui;
 
 import java.awt.BorderLayout;
 import java.awt.Cursor;
+import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.awt.event.MouseEvent;
+import java.util.List;
 
 import javax.swing.BorderFactory;
+import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableModel;
 
+import laser.ddg.diff.TimingComparison;
 import laser.ddg.gui.Toolbar;
 import laser.ddg.visualizer.DDGDisplay;
 import laser.ddg.visualizer.DisplayWithOverview;
@@ -27,6 +35,9 @@ import prefuse.visual.VisualItem;
  *
  */
 public class DDGDiffPanel extends JPanel {
+	// Height of the table of timing changes
+	private static final int TIMING_PANEL_HEIGHT = 200;
+
 	private Toolbar toolbar;
 
 	public DDGDiffPanel () {
@@ -73,6 +84,58 @@ public class DDGDiffPanel extends JPanel {
 		add (comparePanel, BorderLayout.CENTER);
 	}
 
+	/**
+	 * Lists the script lines and steps whose execution times changed, with
+	 * the largest increases first, below the ddgs
+	 * @param comparison the timing comparison of the two ddgs
+	 */
+	public void displayTimingResults (TimingComparison comparison) {
+		JTabbedPane timingTabs = new JTabbedPane();
+		timingTabs.addTab("Lines", new JScrollPane(createTimingTable(comparison.getLineDeltas(), "Line")));
+		timingTabs.addTab("Steps", new JScrollPane(createTimingTable(comparison.getStepDeltas(), "Step")));
+		
+		JPanel timingPanel = new JPanel(new BorderLayout());
+		timingPanel.add(new JLabel(String.format("Total time: %.3f s on the left, %.3f s on the right", 
+				comparison.getLeftTotal(), comparison.getRightTotal())), BorderLayout.NORTH);
+		timingPanel.add(timingTabs, BorderLayout.CENTER);
+		timingPanel.setPreferredSize(new Dimension(0, TIMING_PANEL_HEIGHT));
+		add (timingPanel, BorderLayout.SOUTH);
+	}
+
+	/**
+	 * Creates a table of time changes.  The table can be sorted on any column.
+	 * @param deltas the changes to show
+	 * @param labelColumn the heading of the column identifying what was timed
+	 * @return the table
+	 */
+	private static JTable createTimingTable(List<TimingComparison.Delta> deltas, String labelColumn) {
+		Object[][] rows = new Object[deltas.size()][];
+		for (int i = 0; i < rows.length; i++) {
+			TimingComparison.Delta delta = deltas.get(i);
+			rows[i] = new Object[] {delta.getLabel(), delta.getLeftTime(), delta.getRightTime(),
+					delta.getDelta(), delta.getPercentChange(), delta.getLeftCount(), delta.getRightCount()};
+		}
+		String[] columns = {labelColumn, "Left (s)", "Right (s)", "Change (s)", "Change (%)", 
+				"Left runs", "Right runs"};
+		DefaultTableModel model = new DefaultTableModel(rows, columns) {
+			@Override
+			public Class<?> getColumnClass(int column) {
+				if (column == 0) {
+					return String.class;
+				}
+				return column < 5 ? Double.class : Integer.class;
+			}
+
+			@Override
+			public boolean isCellEditable(int row, int column) {
+				return false;
+			}
+		};
+		JTable table = new JTable(model);
+		table.setAutoCreateRowSorter(true);
+		return table;
+	}
+
 	/**
 	 * This is a modification of Prefuse's PanControl that will
 	 * simultaneously pan two displays.  Unfortunately, PanControl
@@ -4,17 +4,19 @@ import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.io.File;
-import java.io.IOException;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.ProgressMonitor;
+import javax.swing.Timer;
 
-import laser.ddg.diff.GraphComp;
+import laser.ddg.diff.DiffJob;
 import laser.ddg.gui.DDGExplorer;
 
 /**
@@ -30,6 +32,9 @@ public class DDGDiffTab extends JPanel {
 	// The object used to load R scripts
 	private static JFileChooser chooser;
 
+	// How often the progress dialog is updated, in milliseconds
+	private static final int PROGRESS_INTERVAL = 250;
+
 	// The panel that shows the side-by-side files and their differences
 	private DDGDiffPanel diffPanel = new DDGDiffPanel();
 
@@ -51,6 +56,10 @@ public class DDGDiffTab extends JPanel {
 	// The field to display the right file name
 	JTextField rightFileField = new JTextField();
 
+	// Selected to compare the execution times of the ddgs rather than
+	// just their nodes
+	private JCheckBox compareTimesBox = new JCheckBox("Compare execution times");
+
 	/**
 	 * Create the window that allows the user to select files to compare and to
 	 * see the results of the comparison
@@ -62,10 +71,13 @@ public class DDGDiffTab extends JPanel {
 		JPanel leftPanel = createButtonPanel(selectFile1Button, leftFileField, "Left file");
 		JPanel rightPanel = createButtonPanel(selectFile2Button, rightFileField, "Right file");
 
-		JPanel northPanel = new JPanel();
-		northPanel.setLayout(new GridLayout(1, 2, 8, 0));
-		northPanel.add(leftPanel);
-		northPanel.add(rightPanel);
+		JPanel filePanel = new JPanel();
+		filePanel.setLayout(new GridLayout(1, 2, 8, 0));
+		filePanel.add(leftPanel);
+		filePanel.add(rightPanel);
+		JPanel northPanel = new JPanel(new BorderLayout());
+		northPanel.add(filePanel, BorderLayout.CENTER);
+		northPanel.add(compareTimesBox, BorderLayout.SOUTH);
 		add(northPanel, BorderLayout.NORTH);
 		add(diffPanel, BorderLayout.CENTER);
 	}
@@ -114,7 +126,7 @@ public class DDGDiffTab extends JPanel {
 	 *            the button clicked. We need this to determine if we are
 	 *            setting the left or right file
 	 */
-	private void selectFile(Object button) throws IOException {
+	private void selectFile(Object button) {
 		if (chooser == null) {
 			chooser = new JFileChooser(System.getProperty("user.home"));
 		}
@@ -127,11 +139,60 @@ public class DDGDiffTab extends JPanel {
 				selectRightFile(selectedFile, selectedFile.getAbsolutePath());
 			}
 			if (leftFile != null && rightFile != null) {
-				GraphComp.doDiff(diffPanel, leftFile, rightFile);
+				compareFiles();
 			}
 		}
 	}
 
+	/**
+	 * Compares the selected files in the background while a progress dialog
+	 * allows the user to cancel.  If the comparison is cancelled or fails,
+	 * the user can select files again.
+	 */
+	private void compareFiles() {
+		compareTimesBox.setEnabled(false);
+		final DiffJob job = new DiffJob(leftFile, rightFile, compareTimesBox.isSelected());
+		final ProgressMonitor progress = new ProgressMonitor(this,
+				"Comparing " + leftFile.getName() + " and " + rightFile.getName(), job.getNote(), 0, 100);
+		final Timer progressTimer = new Timer(PROGRESS_INTERVAL, null);
+		progressTimer.addActionListener((ActionEvent tick) -> {
+			if (progress.isCanceled()) {
+				job.cancel();
+				progressTimer.stop();
+			}
+			else {
+				progress.setNote(job.getNote());
+				progress.setProgress(job.getProgress());
+			}
+		});
+		progressTimer.start();
+
+		job.start(diffPanel, () -> {
+			progressTimer.stop();
+			progress.close();
+			if (job.getError() != null) {
+				JOptionPane.showMessageDialog(this, "Unable to compare the files: " + job.getError().getMessage(),
+						"Error comparing files", JOptionPane.ERROR_MESSAGE);
+			}
+			if (job.isCancelled() || job.getError() != null) {
+				clearFiles();
+			}
+		});
+	}
+
+	/**
+	 * Forgets the selected files so that the user can select others
+	 */
+	private void clearFiles() {
+		leftFile = null;
+		leftFileField.setText("");
+		selectFile1Button.setEnabled(true);
+		rightFile = null;
+		rightFileField.setText("");
+		selectFile2Button.setEnabled(true);
+		compareTimesBox.setEnabled(true);
+	}
+
 	/**
 	 * Set the information for the right file
 	 * 
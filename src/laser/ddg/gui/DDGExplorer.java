@@ -34,15 +34,21 @@ import laser.ddg.commands.CommandOverviewCommand;
 import laser.ddg.commands.CompareGraphsCommand;
 import laser.ddg.commands.CompareScriptsCommand;
 import laser.ddg.commands.ExportDDGCommand;
+import laser.ddg.commands.ExportDataCommand;
+import laser.ddg.commands.ExportTilesCommand;
 import laser.ddg.commands.FindIdenticalObjectsCommand;
 import laser.ddg.commands.FindTimeCommand;
 import laser.ddg.commands.LoadFileCommand;
 import laser.ddg.commands.QuitCommand;
 import laser.ddg.commands.SetArrowDirectionCommand;
+import laser.ddg.commands.SetCompactLargeDdgsCommand;
+import laser.ddg.commands.SetLayeredLayoutCommand;
+import laser.ddg.commands.SetMemoryBudgetCommand;
 import laser.ddg.commands.ShowAttributesCommand;
 import laser.ddg.commands.ShowLegendMenuItem;
 import laser.ddg.commands.ShowLineNumbersCommand;
 import laser.ddg.commands.ShowScriptCommand;
+import laser.ddg.commands.ShowStatsCommand;
 import laser.ddg.commands.SystemLookAndFeelCommand;
 import laser.ddg.query.QueryListener;
 import laser.ddg.workflow.gui.WorkflowPanel;
@@ -72,6 +78,9 @@ public class DDGExplorer extends JFrame implements QueryListener {
 	private JMenuItem attributesItem;  // Enabled on everything but the home panel
 	private JMenuItem showScriptItem;  // Enabled on everything but the home panel
 	private JMenuItem exportDDGItem;  // Enabled on everything but the home panel
+	private JMenuItem exportDataItem;  // Enabled on everything but the home panel
+	private JMenuItem exportTilesItem;  // Enabled on everything but the home panel
+	private JMenuItem statsItem;  // Enabled on everything but the home panel
 
 	private JCheckBoxMenuItem showLegendMenuItem;
 
@@ -84,6 +93,9 @@ public class DDGExplorer extends JFrame implements QueryListener {
 
 	private static JMenuItem timeItem;
 
+	// Hibernates tabs that have not been viewed recently when memory is low
+	private TabHibernator hibernator;
+
 	/**
 	 * Initializes the DDG Explorer by loading the preference file and
 	 * loading information about known languages.
@@ -138,6 +150,7 @@ public class DDGExplorer extends JFrame implements QueryListener {
 
 		// add tabbed pane
 		tabbed = createTabbedPane();
+		hibernator = new TabHibernator(tabbed, PREFERENCES.getHeapBudgetMB() * 1024 * 1024);
 		tabbed.addTab(" ", null, new HomePanel(), "Home Tab");
 		add(tabbed, BorderLayout.CENTER);
 
@@ -190,55 +203,69 @@ public class DDGExplorer extends JFrame implements QueryListener {
 		};
 		tabbedPane.setOpaque(true);
 
-		tabbedPane.addChangeListener((ChangeEvent e) -> {
-			Component openTab = getCurrentDDGPanel();
-			if (openTab == null) {
-				openTab = getCurrentWorkflowPanel();
-			}
-			if (openTab instanceof laser.ddg.gui.DDGPanel) {
-				DDGPanel openDDGPanel = (DDGPanel) openTab;
-				enableDDGCommands();
-				SearchPanel.enableSearch();
-				if (PREFERENCES.isArrowDirectionDown()) {
-					openDDGPanel.setArrowDirectionDown();
-				}
-				else {
-					openDDGPanel.setArrowDirectionUp();
-				}
-				if (PREFERENCES.isShowLegend()) {
-					openDDGPanel.addLegend();
-				}
-				else {
-					openDDGPanel.removeLegend();
-				}
-				openDDGPanel.showLineNumbers(PREFERENCES.isShowLineNumbers());
-			} else if (openTab instanceof laser.ddg.workflow.gui.WorkflowPanel) {
-				WorkflowPanel openwfPanel = (WorkflowPanel) openTab;
-				SearchPanel.enableSearch();
-				disableDDGCommands();
-				if (PREFERENCES.isArrowDirectionDown()) {
-					openwfPanel.setArrowDirectionUp();
-				}
-				else {
-					openwfPanel.setArrowDirectionDown();
-				}
-				if (PREFERENCES.isShowLegend()) {
-					openwfPanel.addLegend();
-				}
-				else {
-					openwfPanel.removeLegend();
-				}
-				// Because this flips arrows, it's currently commented out
-				//openwfPanel.showLineNumbers(PREFERENCES.isShowLineNumbers());
-			} else {
-				disableDDGCommands();
-				SearchPanel.disableSearch();
-			}
-		});
+		tabbedPane.addChangeListener((ChangeEvent e) -> tabSelected());
 
 		return tabbedPane;
 	}
 
+	/**
+	 * Enables the commands and applies the preferences that go with the
+	 * selected tab.  Called when the selected tab changes, and when the
+	 * panel in the selected tab is replaced.
+	 */
+	void tabSelected() {
+		Component openTab = getCurrentDDGPanel();
+		if (openTab == null) {
+			openTab = getCurrentWorkflowPanel();
+		}
+		if (openTab instanceof laser.ddg.gui.DDGPanel) {
+			DDGPanel openDDGPanel = (DDGPanel) openTab;
+			enableDDGCommands();
+			SearchPanel.enableSearch();
+			if (PREFERENCES.isArrowDirectionDown()) {
+				openDDGPanel.setArrowDirectionDown();
+			}
+			else {
+				openDDGPanel.setArrowDirectionUp();
+			}
+			if (PREFERENCES.isShowLegend()) {
+				openDDGPanel.addLegend();
+			}
+			else {
+				openDDGPanel.removeLegend();
+			}
+			openDDGPanel.showLineNumbers(PREFERENCES.isShowLineNumbers());
+			openDDGPanel.useLayeredLayout(PREFERENCES.isLayeredLayout());
+			hibernator.viewed(openDDGPanel);
+		} else if (tabbed.getSelectedComponent() instanceof TabHibernator.HibernatedPanel) {
+			disableDDGCommands();
+			SearchPanel.disableSearch();
+			hibernator.wake((TabHibernator.HibernatedPanel) tabbed.getSelectedComponent());
+		} else if (openTab instanceof laser.ddg.workflow.gui.WorkflowPanel) {
+			WorkflowPanel openwfPanel = (WorkflowPanel) openTab;
+			SearchPanel.enableSearch();
+			disableDDGCommands();
+			if (PREFERENCES.isArrowDirectionDown()) {
+				openwfPanel.setArrowDirectionUp();
+			}
+			else {
+				openwfPanel.setArrowDirectionDown();
+			}
+			if (PREFERENCES.isShowLegend()) {
+				openwfPanel.addLegend();
+			}
+			else {
+				openwfPanel.removeLegend();
+			}
+			openwfPanel.useLayeredLayout(PREFERENCES.isLayeredLayout());
+			// Because this flips arrows, it's currently commented out
+			//openwfPanel.showLineNumbers(PREFERENCES.isShowLineNumbers());
+		} else {
+			disableDDGCommands();
+			SearchPanel.disableSearch();
+		}
+	}
+
 	private void setWindowTitle() {
 		String title;
 		Properties props = new Properties();
@@ -347,6 +374,21 @@ public class DDGExplorer extends JFrame implements QueryListener {
 		exportDDGItem.setEnabled(false);
 		DDGMenu.add(exportDDGItem);
 		
+		exportDataItem = new JMenuItem("Export data...");
+		exportDataItem.addActionListener(new ExportDataCommand());
+		exportDataItem.setEnabled(false);
+		DDGMenu.add(exportDataItem);
+		
+		exportTilesItem = new JMenuItem("Export zoomable image...");
+		exportTilesItem.addActionListener(new ExportTilesCommand());
+		exportTilesItem.setEnabled(false);
+		DDGMenu.add(exportTilesItem);
+		
+		statsItem = new JMenuItem("Show performance statistics");
+		statsItem.addActionListener(new ShowStatsCommand());
+		statsItem.setEnabled(false);
+		DDGMenu.add(statsItem);
+		
 		return DDGMenu;
 	}
 
@@ -355,6 +397,9 @@ public class DDGExplorer extends JFrame implements QueryListener {
 		attributesItem.setEnabled(true);
 		showScriptItem.setEnabled(true);
 		exportDDGItem.setEnabled(true);
+		exportDataItem.setEnabled(true);
+		exportTilesItem.setEnabled(true);
+		statsItem.setEnabled(true);
 	}
 
 	private void disableDDGCommands() {
@@ -362,6 +407,9 @@ public class DDGExplorer extends JFrame implements QueryListener {
 		attributesItem.setEnabled(false);
 		showScriptItem.setEnabled(false);
 		exportDDGItem.setEnabled(false);
+		exportDataItem.setEnabled(false);
+		exportTilesItem.setEnabled(false);
+		statsItem.setEnabled(false);
 	}
 
 	private static JMenu createQueryMenu() {
@@ -398,10 +446,24 @@ public class DDGExplorer extends JFrame implements QueryListener {
 		showLineNumbersMenuItem.addActionListener(new ShowLineNumbersCommand());
 		prefMenu.add(showLineNumbersMenuItem);
 
+		final JCheckBoxMenuItem layeredLayoutMenuItem = new JCheckBoxMenuItem("Use layered layout", 
+				PREFERENCES.isLayeredLayout());
+		layeredLayoutMenuItem.addActionListener(new SetLayeredLayoutCommand());
+		prefMenu.add(layeredLayoutMenuItem);
+
 		final JCheckBoxMenuItem useSystemLAFMenuItem = new JCheckBoxMenuItem("Use system Look and Feel", 
 				PREFERENCES.isSystemLookAnFeel());
 		useSystemLAFMenuItem.addActionListener(new SystemLookAndFeelCommand());
 		prefMenu.add(useSystemLAFMenuItem);
+
+		final JCheckBoxMenuItem compactMenuItem = new JCheckBoxMenuItem("Compact large DDGs to save memory", 
+				PREFERENCES.isCompactLargeDdgs());
+		compactMenuItem.addActionListener(new SetCompactLargeDdgsCommand());
+		prefMenu.add(compactMenuItem);
+
+		final JMenuItem memoryBudgetMenuItem = new JMenuItem("Memory budget...");
+		memoryBudgetMenuItem.addActionListener(new SetMemoryBudgetCommand());
+		prefMenu.add(memoryBudgetMenuItem);
 		return prefMenu;
 	}
 
@@ -437,13 +499,25 @@ public class DDGExplorer extends JFrame implements QueryListener {
 		tabbed.setSelectedIndex(tabNum);
 	}
 
+	/**
+	 * Closes the tab displaying a component
+	 * @param panel the component displayed in the tab
+	 */
+	public void removeTab(JComponent panel) {
+		tabbed.remove(panel);
+	}
+
 
 
 	/**
 	 * @return the DDGPanel that the user is currently viewing.  Returns
-	 *   null if the user is viewing the home panel (i.e., no DDG or viewing a workflow).
+	 *   null if the user is viewing the home panel (i.e., no DDG or viewing a workflow),
+	 *   or if the explorer window has not been created.
 	 */
 	public static DDGPanel getCurrentDDGPanel() {
+		if (tabbed == null) {
+			return null;
+		}
 		Component selectedTab = tabbed.getSelectedComponent();
 		if (!(selectedTab instanceof DDGPanel)) {
 			return null;
@@ -528,6 +602,58 @@ public class DDGExplorer extends JFrame implements QueryListener {
 		PREFERENCES.showLineNumbers(show);
 	}
 
+	/**
+	 * Switch between the tree layout and the layered layout.
+	 * Save this as the persistent value.
+	 * @param layered if true the layered layout is used
+	 */
+	public void useLayeredLayout(boolean layered) {
+		DDGPanel curDDGPanel = getCurrentDDGPanel();
+		if (curDDGPanel != null) { 
+			curDDGPanel.useLayeredLayout(layered);
+		}
+		WorkflowPanel wfPanel = getCurrentWorkflowPanel();
+		if (wfPanel != null) {
+			wfPanel.useLayeredLayout(layered);
+		}
+		PREFERENCES.setLayeredLayout(layered);
+	}
+
+	/**
+	 * @return true if ddgs with many nodes are compacted once they are read
+	 */
+	public boolean isCompactLargeDdgs() {
+		return PREFERENCES.isCompactLargeDdgs();
+	}
+
+	/**
+	 * Controls whether ddgs with many nodes are compacted once they are
+	 * read.  This affects ddgs loaded afterwards.  Save this as the
+	 * persistent value.
+	 * @param compact if true, large ddgs are compacted
+	 */
+	public void setCompactLargeDdgs(boolean compact) {
+		PREFERENCES.setCompactLargeDdgs(compact);
+	}
+
+	/**
+	 * @return the most heap, in megabytes, that open ddgs should use
+	 */
+	public long getHeapBudgetMB() {
+		return PREFERENCES.getHeapBudgetMB();
+	}
+
+	/**
+	 * Changes the most heap that open ddgs should use and hibernates tabs
+	 * if more is in use.  Save this as the persistent value.
+	 * @param megabytes the budget in megabytes
+	 */
+	public void setHeapBudgetMB(long megabytes) {
+		PREFERENCES.setHeapBudgetMB(megabytes);
+		hibernator.setBudget(megabytes * 1024 * 1024);
+		hibernator.enforceBudget();
+	}
+
 	public void useSystemLookAndFeel(boolean use){
 		loadLookAndFeel(use);
 		SwingUtilities.updateComponentTreeUI(this);
@@ -569,9 +695,13 @@ public class DDGExplorer extends JFrame implements QueryListener {
 	}
 
 	public static void showErrMsg (String msg) {
-		if (loadingDDG) {
-			errors = errors + "\n" + msg;
-			return;
+		// The two sides of a diff are read at the same time, so errors can
+		// be reported from more than one thread
+		synchronized (DDGExplorer.class) {
+			if (loadingDDG) {
+				errors = errors + "\n" + msg;
+				return;
+			}
 		}
 		DDGPanel curDDGPanel = getCurrentDDGPanel();
 		if (curDDGPanel != null) {
@@ -583,15 +713,19 @@ public class DDGExplorer extends JFrame implements QueryListener {
 		}
 	}
 
-	public static void loadingDDG() {
+	public static synchronized void loadingDDG() {
 		loadingDDG = true;
 		errors = "";
 	}
 
 	public static void doneLoadingDDG() {
-		loadingDDG = false;
+		String loadErrors;
+		synchronized (DDGExplorer.class) {
+			loadingDDG = false;
+			loadErrors = errors;
+		}
 		if (getCurrentDDGPanel() != null) {
-			getCurrentDDGPanel().showErrMsg(errors);
+			getCurrentDDGPanel().showErrMsg(loadErrors);
 		}
 	}
 
@@ -657,12 +791,19 @@ public class DDGExplorer extends JFrame implements QueryListener {
 	}
 
 	/**
-	 * A class that reads in information from the client side 
+	 * A class that reads in information from the client side.  The client
+	 * either sends the name of a finished ddg file to load, or LIVE followed
+	 * by the name of the file it is writing the ddg to on the same line.  In
+	 * the second case, the rest of the connection is the ddg itself, 
+	 * in the textual ddg syntax, sent as the script runs.
 	 * @author Moe Pwint Phyu
 	 *
 	 */
 	static private class ClientConnection implements Runnable{
 
+		// First word sent by a client that streams its ddg
+		private static final String LIVE = "LIVE";
+
 		private String fileName;
 		private Socket clientSocket;
 		private BufferedReader in;
@@ -680,7 +821,13 @@ public class DDGExplorer extends JFrame implements QueryListener {
 				//timeStamp = in.readLine();
 				//language = in.readLine();
 				//LoadFileCommand.executeIncrementalDrawing(this);
-				LoadFileCommand.loadFile(new File(fileName));
+				if (fileName.startsWith(LIVE + " ")) {
+					LoadFileCommand.streamDDG(in, new File(fileName.substring(LIVE.length()).trim()));
+					clientSocket.close();
+				}
+				else {
+					LoadFileCommand.loadFile(new File(fileName));
+				}
 
 			} catch (IOException e) {
 				e.printStackTrace();
@@ -288,6 +288,16 @@ public class DDGPanel extends JPanel {
 		vis.repaint();
 	}
 
+	/**
+	 * Switches between the tree layout and the layered layout
+	 * @param layered if true, the layered layout is used
+	 */
+	public void useLayeredLayout(boolean layered) {
+		if (builder != null) {
+			builder.useLayeredLayout(layered);
+		}
+	}
+
 	public void addLegend() {
 		ddgMain.add(legendBox, BorderLayout.WEST);
 		ddgMain.validate();
@@ -416,4 +426,24 @@ public class DDGPanel extends JPanel {
 		return ddgDisplay;
 	}
 
+	/**
+	 * @return true if nodes are still being added to the ddg as a script runs
+	 */
+	public boolean isLive() {
+		return builder != null && builder.isLive();
+	}
+
+	/**
+	 * Closes the script windows opened from this panel so that the panel
+	 * can be discarded
+	 */
+	public void release() {
+		for (ScriptDisplayer displayer : fileDisplayers) {
+			if (displayer != null) {
+				displayer.close();
+			}
+		}
+		fileDisplayers.clear();
+	}
+
 }
@@ -4,6 +4,7 @@ import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.io.File;
+import java.io.FileNotFoundException;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
@@ -159,7 +160,15 @@ public class DiffTab extends JPanel {
 	 */
 	private void displayDiff() {
 		if (leftFile != null && rightFile != null) {
-			diffPanel.launchDiff(leftFile, rightFile);
+			try {
+				// Share the contents with any script displays that already read these files
+				String leftText = ScriptCache.getScript(leftFile).getText();
+				String rightText = ScriptCache.getScript(rightFile).getText();
+				diffPanel.launchDiff(leftFile.getName(), leftText, rightFile.getName(), rightText);
+			} catch (FileNotFoundException e) {
+				JOptionPane.showMessageDialog(diffPanel, "Could not read " + e.getMessage());
+				return;
+			}
 			if (leftFile.equals(rightFile)) {
 				JOptionPane.showMessageDialog(diffPanel, "These are the same file.");
 			}
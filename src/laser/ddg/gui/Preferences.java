@@ -38,6 +38,8 @@ public class Preferences {
 		preferences.put("WindowWidth", "950");
 		preferences.put("WindowHeight", "700");
 		preferences.put("ShowLineNumbers", "false");
+		preferences.put("LayeredLayout", "false");
+		preferences.put("CompactLargeDdgs", "false");
 
 		try {
 			if (PREFERENCE_FILE.exists()) {
@@ -194,6 +196,48 @@ public class Preferences {
 		savePreferences();
 	}
 
+	public boolean isLayeredLayout() {
+		if (preferences.containsKey("LayeredLayout")) {
+			return preferences.get("LayeredLayout").toLowerCase().equals("true");
+		}
+		return false;
+	}
+
+	public void setLayeredLayout(boolean layered) {
+		if (layered) {
+			preferences.put("LayeredLayout", "true");
+		}
+		else {
+			preferences.put("LayeredLayout", "false");
+		}
+		savePreferences();
+	}
+
+	/**
+	 * @return true if ddgs with many nodes should be compacted to save memory
+	 * 	once they are read.  Compacted ddgs cannot be changed.
+	 */
+	public boolean isCompactLargeDdgs() {
+		if (preferences.containsKey("CompactLargeDdgs")) {
+			return preferences.get("CompactLargeDdgs").toLowerCase().equals("true");
+		}
+		return false;
+	}
+
+	/**
+	 * Persistently records whether large ddgs should be compacted
+	 * @param compact if true, large ddgs are compacted once they are read
+	 */
+	public void setCompactLargeDdgs(boolean compact) {
+		if (compact) {
+			preferences.put("CompactLargeDdgs", "true");
+		}
+		else {
+			preferences.put("CompactLargeDdgs", "false");
+		}
+		savePreferences();
+	}
+
         /**
         * Determine from preference if default or system LAF should be used. 
         * @return true if system LAF should be used, false by default.
@@ -218,4 +262,29 @@ public class Preferences {
             }
             savePreferences();
         }
+
+	/**
+	 * @return the most heap, in megabytes, that open ddgs should use before
+	 * 	tabs that have not been viewed recently are hibernated.  The default
+	 * 	is 60% of the maximum heap.
+	 */
+	public long getHeapBudgetMB() {
+		if (preferences.containsKey("HeapBudgetMB")) {
+			try {
+				return Long.parseLong(preferences.get("HeapBudgetMB"));
+			} catch (NumberFormatException e) {
+				// Use the default
+			}
+		}
+		return Runtime.getRuntime().maxMemory() * 6 / 10 / (1024 * 1024);
+	}
+
+	/**
+	 * Persistently records the heap budget for open ddgs
+	 * @param megabytes the budget in megabytes
+	 */
+	public void setHeapBudgetMB(long megabytes) {
+		preferences.put("HeapBudgetMB", "" + megabytes);
+		savePreferences();
+	}
 }
@@ -0,0 +1,165 @@
+package laser.ddg.gui;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the contents of script files that have been read in so that
+ * multiple DDG tabs, workflow views and script comparisons that refer to the
+ * same script do not each need to read and index the file again.
+ *
+ * Scripts are identified by their path together with the file's modification
+ * time, so a script that changes on disk is read in again.  The cache
+ * is bounded by the total number of characters held, evicting the least
+ * recently used scripts first.
+ */
+public class ScriptCache {
+	// The maximum number of characters of script text to keep in memory
+	private static final long MAX_CACHED_CHARS = 8 * 1024 * 1024;
+
+	// The scripts that have been read, in least recently used order
+	private static final LinkedHashMap<String, Script> scripts = new LinkedHashMap<>(16, 0.75f, true);
+
+	// The number of characters currently held by the cache
+	private static long cachedChars = 0;
+
+	private ScriptCache() {
+		// Only static methods
+	}
+
+	/**
+	 * Return the contents of a script, reading the file only if it is not
+	 * already cached or has been modified since it was cached.
+	 * @param theFile the file containing the script
+	 * @return the script contents with its line index
+	 * @throws FileNotFoundException if the file does not exist or cannot be read
+	 */
+	public static Script getScript(File theFile) throws FileNotFoundException {
+		if (!theFile.exists()) {
+			throw new FileNotFoundException(theFile.getPath());
+		}
+		String key = theFile.getAbsolutePath() + "@" + theFile.lastModified();
+
+		synchronized (scripts) {
+			Script cached = scripts.get(key);
+			if (cached != null) {
+				return cached;
+			}
+		}
+
+		// Read outside the lock so that a large script does not hold up
+		// lookups of scripts that are already cached.
+		Script script = readFile(theFile);
+
+		synchronized (scripts) {
+			Script cached = scripts.get(key);
+			if (cached != null) {
+				return cached;
+			}
+			scripts.put(key, script);
+			cachedChars += script.getText().length();
+			evict();
+			return script;
+		}
+	}
+
+	/**
+	 * Remove all scripts from the cache
+	 */
+	public static void clear() {
+		synchronized (scripts) {
+			scripts.clear();
+			cachedChars = 0;
+		}
+	}
+
+	/**
+	 * Removes the least recently used scripts until the cache is within its
+	 * memory bound.  The most recently added script is always kept, even if
+	 * it alone exceeds the bound.
+	 */
+	private static void evict() {
+		Iterator<Map.Entry<String, Script>> entries = scripts.entrySet().iterator();
+		while (cachedChars > MAX_CACHED_CHARS && scripts.size() > 1) {
+			Script oldest = entries.next().getValue();
+			entries.remove();
+			cachedChars -= oldest.getText().length();
+		}
+	}
+
+	/**
+	 * Read the file recording the character position for each line start
+	 * @param theFile the file to read in
+	 * @return the script read
+	 */
+	private static Script readFile(File theFile) throws FileNotFoundException {
+		StringBuilder contentsBuilder = new StringBuilder();
+		int[] lineStarts = new int[256];
+		int numLines = 0;
+		try (BufferedReader in = new BufferedReader(new FileReader(theFile))) {
+			// Read the file one line at a time and remember where each line starts.
+			String line = in.readLine();
+			while (line != null) {
+				if (numLines == lineStarts.length) {
+					lineStarts = Arrays.copyOf(lineStarts, numLines * 2);
+				}
+				lineStarts[numLines] = contentsBuilder.length();
+				numLines++;
+				contentsBuilder.append(line).append('\n');
+				line = in.readLine();
+			}
+		} catch (FileNotFoundException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new FileNotFoundException("Could not read " + theFile.getPath() + ": " + e.getMessage());
+		}
+		return new Script(contentsBuilder.toString(), Arrays.copyOf(lineStarts, numLines));
+	}
+
+	/**
+	 * The contents of a script file together with the character position
+	 * where each line starts.  Instances are shared, so they are immutable.
+	 */
+	public static class Script {
+		// The contents of the file
+		private final String text;
+
+		// The character position where each line starts.
+		private final int[] lineStarts;
+
+		private Script(String text, int[] lineStarts) {
+			this.text = text;
+			this.lineStarts = lineStarts;
+		}
+
+		/**
+		 * @return the contents of the script
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * @return the number of lines in the script
+		 */
+		public int getNumLines() {
+			return lineStarts.length;
+		}
+
+		/**
+		 * @param lineIndex the line, counting from 0
+		 * @return the character position where the line starts
+		 */
+		public int getLineStart(int lineIndex) {
+			return lineStarts[lineIndex];
+		}
+	}
+
+}
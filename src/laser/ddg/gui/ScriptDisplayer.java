@@ -4,8 +4,6 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.ArrayList;
-import java.util.Scanner;
 
 import javax.swing.JFrame;
 import javax.swing.JScrollPane;
@@ -29,8 +27,9 @@ public class ScriptDisplayer {
 	// The contents of the file to display
 	private String fileContents;
 	
-	// The character position where each line starts.  Needed to do the highlighting.
-	private ArrayList<Integer> lineStarts = new ArrayList<>();
+	// The cached script, which knows the character position where each line
+	// starts.  Needed to do the highlighting.
+	private ScriptCache.Script script;
 	
 	// The frame that is displaying this file
 	private JFrame fileFrame;
@@ -107,28 +106,12 @@ public class ScriptDisplayer {
 	}
 
 	/**
-	 * Read the file recording the character position for each line start
+	 * Get the file contents and line starts from the shared script cache
 	 * @param theFile the file to read in
 	 */
 	private void readFile(File theFile) throws FileNotFoundException {
-		StringBuilder contentsBuilder = new StringBuilder();
-		Scanner readFile = null;
-		try {
-			readFile = new Scanner(theFile);
-			lineStarts = new ArrayList<>();
-			// System.out.println("\n" + str);
-			// Read the file one line at a time and remember where each line starts.
-			while (readFile.hasNextLine()) {
-				String line = readFile.nextLine();
-				lineStarts.add(contentsBuilder.length());
-				contentsBuilder.append(line + "\n");
-			}
-			fileContents = contentsBuilder.toString();
-		} finally {
-			if (readFile != null) {
-				readFile.close();
-			}
-		}
+		script = ScriptCache.getScript(theFile);
+		fileContents = script.getText();
 	}
 
 	/**
@@ -158,7 +141,7 @@ public class ScriptDisplayer {
 			fileFrame.setVisible(true);
 			int firstLine = sourcePos.getStartLine();
 			int firstCol = sourcePos.getStartCol();
-			fileTextArea.setCaretPosition(lineStarts.get(firstLine - 1) + firstCol - 1);
+			fileTextArea.setCaretPosition(script.getLineStart(firstLine - 1) + firstCol - 1);
 			fileHighlighter.removeAllHighlights();
 			
 			int lastLine = sourcePos.getEndLine();
@@ -167,18 +150,18 @@ public class ScriptDisplayer {
 			// start line.
 			if (lastLine == -1) {
 				lastLine = firstLine;
-				if (lastLine < lineStarts.size()) {
-					fileHighlighter.addHighlight(lineStarts.get(firstLine - 1), lineStarts.get(lastLine),
+				if (lastLine < script.getNumLines()) {
+					fileHighlighter.addHighlight(script.getLineStart(firstLine - 1), script.getLineStart(lastLine),
 							fileHighlightPainter);
 				} else {
-					fileHighlighter.addHighlight(lineStarts.get(firstLine - 1), fileContents.length() - 1,
+					fileHighlighter.addHighlight(script.getLineStart(firstLine - 1), fileContents.length() - 1,
 							fileHighlightPainter);
 				}
 			}
 			else {
 				int lastCol = sourcePos.getEndCol();
-				fileHighlighter.addHighlight(lineStarts.get(firstLine - 1) + firstCol - 1, 
-						lineStarts.get(lastLine - 1) + lastCol,
+				fileHighlighter.addHighlight(script.getLineStart(firstLine - 1) + firstCol - 1, 
+						script.getLineStart(lastLine - 1) + lastCol,
 						fileHighlightPainter);
 
 			}
@@ -198,4 +181,10 @@ public class ScriptDisplayer {
 		fileHighlighter.removeAllHighlights();
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Closes the window displaying the script
+	 */
+	public void close() {
+		fileFrame.dispose();
+	}
+}
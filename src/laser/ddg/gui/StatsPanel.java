@@ -0,0 +1,123 @@
+package laser.ddg.gui;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import javax.swing.JButton;
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.table.DefaultTableModel;
+
+import laser.ddg.Metrics;
+import laser.ddg.Metrics.Histogram;
+
+/**
+ * Shows the performance metrics recorded for one ddg as a table, with one
+ * row for each counter, timer and histogram.  Times are shown in
+ * milliseconds.  The metrics can be refreshed while the ddg is used, and
+ * saved as json to compare runs.
+ */
+public class StatsPanel extends JPanel {
+	// Version of the class for serialization
+	private static final long serialVersionUID = 1L;
+
+	// The column headings
+	private static final String[] COLUMNS = {"Metric", "Kind", "Count", "Total", "Mean", "Min", "Max", "90%"};
+
+	// Remembers the directory json was last saved to
+	private static final JFileChooser FILE_CHOOSER = new JFileChooser(System.getProperty("user.home"));
+
+	// The metrics shown
+	private final Metrics metrics;
+
+	// The rows of the table
+	private final DefaultTableModel model = new DefaultTableModel(COLUMNS, 0) {
+		@Override
+		public boolean isCellEditable(int row, int column) {
+			return false;
+		}
+	};
+
+	/**
+	 * Creates a panel showing the metrics of a ddg
+	 * @param metrics the metrics to show
+	 */
+	public StatsPanel(Metrics metrics) {
+		super(new BorderLayout());
+		this.metrics = metrics;
+
+		JTable table = new JTable(model);
+		table.setAutoCreateRowSorter(true);
+		add(new JScrollPane(table), BorderLayout.CENTER);
+
+		JButton refreshButton = new JButton("Refresh");
+		refreshButton.addActionListener(e -> refresh());
+		JButton saveButton = new JButton("Save as JSON...");
+		saveButton.addActionListener(e -> saveJson());
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+		buttons.add(refreshButton);
+		buttons.add(saveButton);
+		add(buttons, BorderLayout.SOUTH);
+
+		refresh();
+	}
+
+	/**
+	 * Shows the current values of the metrics
+	 */
+	public void refresh() {
+		model.setRowCount(0);
+		for (Map.Entry<String, Long> counter : metrics.getCounters().entrySet()) {
+			model.addRow(new Object[] {counter.getKey(), "counter", counter.getValue(), "", "", "", "", ""});
+		}
+		for (Map.Entry<String, Histogram> timer : metrics.getTimers().entrySet()) {
+			addRow(timer.getKey(), "time (ms)", timer.getValue(), 1000.0);
+		}
+		for (Map.Entry<String, Histogram> histogram : metrics.getHistograms().entrySet()) {
+			addRow(histogram.getKey(), "histogram", histogram.getValue(), 1.0);
+		}
+	}
+
+	/**
+	 * Adds a row for a timer or histogram
+	 * @param name the metric's name
+	 * @param kind the kind of metric
+	 * @param histogram the values recorded
+	 * @param scale the amount to divide the values by
+	 */
+	private void addRow(String name, String kind, Histogram histogram, double scale) {
+		model.addRow(new Object[] {name, kind, histogram.getCount(),
+				format(histogram.getTotal() / scale), format(histogram.getMean() / scale),
+				format(histogram.getMin() / scale), format(histogram.getMax() / scale),
+				format(histogram.getPercentile(0.9) / scale)});
+	}
+
+	private static String format(double value) {
+		return String.format("%.1f", value);
+	}
+
+	/**
+	 * Asks the user for a file and writes the metrics to it as json
+	 */
+	private void saveJson() {
+		if (FILE_CHOOSER.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+			return;
+		}
+		File file = FILE_CHOOSER.getSelectedFile();
+		try (Writer out = new FileWriter(file)) {
+			metrics.writeJson(out);
+		} catch (IOException e) {
+			JOptionPane.showMessageDialog(this,
+					"Unable to save the statistics: " + e.getMessage(),
+					"Error saving the statistics", JOptionPane.ERROR_MESSAGE);
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package laser.ddg.gui;
+
+import java.awt.BorderLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.NotificationEmitter;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTabbedPane;
+import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+
+import laser.ddg.ProvenanceData;
+import laser.ddg.commands.LoadFileCommand;
+
+/**
+ * Keeps the memory used by open DDG tabs within a budget.  When more of the
+ * heap is in use than the budget allows, the tabs that were viewed least
+ * recently are hibernated: the tab's panel, with its graph, visualization and
+ * search index, is replaced by a small placeholder that remembers the file
+ * the ddg was read from and how the display was panned and zoomed.  When the
+ * user returns to a hibernated tab, the ddg is read from the file again.
+ *
+ * Only ddgs read from files that still exist can be hibernated.  The
+ * heap in use is measured after garbage collection, so garbage that has not
+ * been collected yet does not cause tabs to be hibernated.
+ */
+class TabHibernator {
+	// Rough number of bytes used for each node of a displayed ddg, counting
+	// the ddg, its prefuse tables and visual items, and its search index
+	private static final long BYTES_PER_NODE = 4096;
+
+	// The tabs being managed
+	private final JTabbedPane tabs;
+
+	// The DDG tabs, least recently viewed first
+	private final Map<DDGPanel, Boolean> recentlyViewed = new LinkedHashMap<>(16, 0.75f, true);
+
+	// The most heap the open ddgs should use, in bytes
+	private long budget;
+
+	// The heap pool that long-lived objects, like ddgs, end up in
+	private final MemoryPoolMXBean tenuredPool;
+
+	/**
+	 * Creates the object that hibernates tabs
+	 * @param tabs the tabbed pane holding the tabs
+	 * @param budget the most heap the open ddgs should use, in bytes
+	 */
+	TabHibernator(JTabbedPane tabs, long budget) {
+		this.tabs = tabs;
+		tenuredPool = findTenuredPool();
+		setBudget(budget);
+
+		// Check the budget whenever a collection leaves the heap over it,
+		// not just when tabs change
+		if (tenuredPool != null) {
+			NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+			emitter.addNotificationListener((notification, handback) -> {
+				if (notification.getType().equals(MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED)) {
+					SwingUtilities.invokeLater(this::enforceBudget);
+				}
+			}, null, null);
+		}
+	}
+
+	/**
+	 * @return the heap pool with a collection threshold that can hold the
+	 * 	most, which is the tenured generation for the standard collectors
+	 */
+	private static MemoryPoolMXBean findTenuredPool() {
+		MemoryPoolMXBean largest = null;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported()
+					&& (largest == null || pool.getUsage().getMax() > largest.getUsage().getMax())) {
+				largest = pool;
+			}
+		}
+		return largest;
+	}
+
+	/**
+	 * Changes the budget
+	 * @param budget the most heap the open ddgs should use, in bytes
+	 */
+	void setBudget(long budget) {
+		this.budget = budget;
+		if (tenuredPool != null) {
+			long max = tenuredPool.getUsage().getMax();
+			tenuredPool.setCollectionUsageThreshold(max > 0 ? Math.min(budget, max) : budget);
+		}
+	}
+
+	/**
+	 * Records that a tab was viewed and hibernates other tabs if the heap
+	 * is over budget
+	 * @param panel the panel in the tab viewed
+	 */
+	void viewed(DDGPanel panel) {
+		recentlyViewed.put(panel, Boolean.TRUE);
+		enforceBudget();
+	}
+
+	/**
+	 * Hibernates the tabs viewed least recently until enough memory should
+	 * be freed to bring the heap within budget.  The tab being viewed is never
+	 * hibernated.
+	 */
+	void enforceBudget() {
+		long toFree = liveHeap() - budget;
+		Iterator<DDGPanel> panels = recentlyViewed.keySet().iterator();
+		while (toFree > 0 && panels.hasNext()) {
+			DDGPanel panel = panels.next();
+			int index = tabs.indexOfComponent(panel);
+			if (index == -1) {
+				// The tab was closed
+				panels.remove();
+			}
+			else if (index != tabs.getSelectedIndex() && canHibernate(panel)) {
+				toFree -= estimateSize(panel);
+				hibernate(panel, index);
+				panels.remove();
+			}
+		}
+	}
+
+	/**
+	 * @return the heap in use after the last garbage collection, in bytes.
+	 * 	Pools that have not been collected yet count as empty.
+	 */
+	private long liveHeap() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				MemoryUsage afterCollection = pool.getCollectionUsage();
+				used += afterCollection == null ? pool.getUsage().getUsed() : afterCollection.getUsed();
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * @param panel a ddg panel
+	 * @return true if the ddg can be read again from its file
+	 */
+	private static boolean canHibernate(DDGPanel panel) {
+		ProvenanceData provData = panel.getProvData();
+		return provData != null && provData.getSourcePath() != null
+				&& new File(provData.getSourcePath()).isFile()
+				&& !panel.isLive();
+	}
+
+	/**
+	 * @param panel a ddg panel
+	 * @return a rough estimate of the memory that hibernating it frees, in bytes
+	 */
+	private static long estimateSize(DDGPanel panel) {
+		return panel.getProvData().getNumNodes() * BYTES_PER_NODE;
+	}
+
+	/**
+	 * Replaces a tab's panel with a placeholder
+	 * @param panel the panel to hibernate
+	 * @param index the position of its tab
+	 */
+	private void hibernate(DDGPanel panel, int index) {
+		HibernatedPanel placeholder = new HibernatedPanel(new File(panel.getProvData().getSourcePath()),
+				panel.getDDGDisplay().getTransform());
+		placeholder.setName(panel.getName());
+		panel.release();
+		tabs.setComponentAt(index, placeholder);
+	}
+
+	/**
+	 * Reads the ddg of a hibernated tab again and puts it back in the tab.
+	 * The ddg is read in the background, and the placeholder is shown until
+	 * it is ready.
+	 * @param placeholder the placeholder in the tab
+	 */
+	void wake(HibernatedPanel placeholder) {
+		if (placeholder.waking) {
+			return;
+		}
+		placeholder.waking = true;
+		Thread reloader = new Thread("DDG reloader") {
+			@Override
+			public void run() {
+				try {
+					DDGExplorer.loadingDDG();
+					DDGPanel panel = LoadFileCommand.readFile(placeholder.ddgFile);
+					SwingUtilities.invokeLater(() -> restore(placeholder, panel));
+				} catch (Exception e) {
+					e.printStackTrace(System.err);
+					SwingUtilities.invokeLater(() -> {
+						DDGExplorer.doneLoadingDDG();
+						placeholder.waking = false;
+						placeholder.showMessage("Unable to reload " + placeholder.ddgFile + ": " + e.getMessage());
+					});
+				}
+			}
+		};
+		reloader.setDaemon(true);
+		reloader.start();
+	}
+
+	/**
+	 * Puts a reloaded panel in the place of its placeholder and restores the
+	 * pan and zoom of the display
+	 * @param placeholder the placeholder in the tab
+	 * @param panel the reloaded panel
+	 */
+	private void restore(HibernatedPanel placeholder, DDGPanel panel) {
+		int index = tabs.indexOfComponent(placeholder);
+		if (index == -1) {
+			// The tab was closed while the ddg was being read
+			DDGExplorer.doneLoadingDDG();
+			return;
+		}
+		panel.setName(placeholder.getName());
+		tabs.setComponentAt(index, panel);
+		DDGExplorer.doneLoadingDDG();
+		try {
+			panel.getDDGDisplay().setTransform(placeholder.viewTransform);
+		} catch (NoninvertibleTransformException e) {
+			// Leave the display showing the whole ddg
+		}
+		panel.getDDGDisplay().repaint();
+
+		// Replacing the panel does not tell the tabbed pane's listeners, so
+		// the explorer still has the commands set up for the placeholder
+		if (tabs.getSelectedComponent() == panel) {
+			DDGExplorer.getInstance().tabSelected();
+		}
+	}
+
+	/**
+	 * What is left in a tab while its ddg is hibernating
+	 */
+	static class HibernatedPanel extends JPanel {
+		// Version of the class for serialization
+		private static final long serialVersionUID = 1L;
+
+		// The file to reload the ddg from
+		private final File ddgFile;
+
+		// The pan and zoom of the display when the tab was hibernated
+		private final AffineTransform viewTransform;
+
+		// Explains what is going on to the user
+		private final JLabel message;
+
+		// True once the ddg has started to be read again
+		private boolean waking = false;
+
+		private HibernatedPanel(File ddgFile, AffineTransform viewTransform) {
+			super(new BorderLayout());
+			this.ddgFile = ddgFile;
+			this.viewTransform = new AffineTransform(viewTransform);
+			message = new JLabel("Reloading " + ddgFile + "...", SwingConstants.CENTER);
+			add(message, BorderLayout.CENTER);
+		}
+
+		private void showMessage(String text) {
+			message.setText(text);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package laser.ddg.jfr;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+import jdk.jfr.AnnotationElement;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventFactory;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.ValueDescriptor;
+import laser.ddg.FlightEvent;
+
+/**
+ * Records FlightEvents with the Java flight recorder.  A flight recorder
+ * event type is made for each kind of FlightEvent from its annotations the
+ * first time one is created.
+ *
+ * This is the only class that uses the flight recorder.  FlightEvent loads it
+ * by name, and only if the runtime has the flight recorder, so the rest of
+ * the explorer runs on Java 8 runtimes that do not.
+ */
+public class JfrRecorder implements FlightEvent.Recorder {
+	// The flight recorder event type for each kind of FlightEvent
+	private final ClassValue<EventKind> kinds = new ClassValue<EventKind>() {
+		@Override
+		protected EventKind computeValue(Class<?> type) {
+			return new EventKind(type);
+		}
+	};
+
+	@Override
+	public FlightEvent.Recording newRecording(Class<? extends FlightEvent> type) {
+		return new JfrRecording(kinds.get(type));
+	}
+
+	/**
+	 * A flight recorder event type and the fields of the FlightEvent that
+	 * are copied into it
+	 */
+	private static class EventKind {
+		private final EventFactory factory;
+		private final List<Field> fields = new ArrayList<>();
+
+		EventKind(Class<?> type) {
+			FlightEvent.EventInfo info = type.getAnnotation(FlightEvent.EventInfo.class);
+			List<AnnotationElement> annotations = new ArrayList<>();
+			if (info != null) {
+				annotations.add(new AnnotationElement(Name.class, info.name()));
+				annotations.add(new AnnotationElement(Label.class, info.label()));
+				annotations.add(new AnnotationElement(Category.class, info.category()));
+				annotations.add(new AnnotationElement(Description.class, info.description()));
+			}
+			else {
+				annotations.add(new AnnotationElement(Name.class, type.getName()));
+			}
+
+			List<ValueDescriptor> values = new ArrayList<>();
+			for (Field field : type.getDeclaredFields()) {
+				FlightEvent.FieldInfo fieldInfo = field.getAnnotation(FlightEvent.FieldInfo.class);
+				if (fieldInfo == null || Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+				List<AnnotationElement> fieldAnnotations = new ArrayList<>();
+				fieldAnnotations.add(new AnnotationElement(Label.class, fieldInfo.value()));
+				if (fieldInfo.bytes()) {
+					fieldAnnotations.add(new AnnotationElement(DataAmount.class, DataAmount.BYTES));
+				}
+				values.add(new ValueDescriptor(field.getType(), field.getName(), fieldAnnotations));
+				field.setAccessible(true);
+				fields.add(field);
+			}
+			factory = EventFactory.create(annotations, values);
+		}
+	}
+
+	/**
+	 * The flight recorder event for one FlightEvent
+	 */
+	private static class JfrRecording implements FlightEvent.Recording {
+		private final EventKind kind;
+		private final Event event;
+
+		JfrRecording(EventKind kind) {
+			this.kind = kind;
+			event = kind.factory.newEvent();
+		}
+
+		@Override
+		public void begin() {
+			event.begin();
+		}
+
+		@Override
+		public void end() {
+			event.end();
+		}
+
+		@Override
+		public boolean shouldCommit() {
+			return event.shouldCommit();
+		}
+
+		@Override
+		public void commit(FlightEvent flightEvent) {
+			try {
+				for (int i = 0; i < kind.fields.size(); i++) {
+					event.set(i, kind.fields.get(i).get(flightEvent));
+				}
+			} catch (IllegalAccessException e) {
+				// The fields were made accessible when the kind was created
+				throw new IllegalStateException(e);
+			}
+			event.commit();
+		}
+	}
+}
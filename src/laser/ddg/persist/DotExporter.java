@@ -0,0 +1,84 @@
+package laser.ddg.persist;
+
+import java.io.IOException;
+
+import laser.ddg.DataInstanceNode;
+import laser.ddg.ProcedureInstanceNode;
+
+/**
+ * Writes a DDG in the GraphViz DOT language.  Procedure nodes are drawn as
+ * boxes and data nodes as ellipses.  Control flow edges are blue and data
+ * flow edges are red, as they are in the DDG Explorer.
+ */
+public class DotExporter extends GraphExporter {
+
+	@Override
+	public String getExtension() {
+		return "dot";
+	}
+
+	@Override
+	protected void write() throws IOException {
+		out.write("digraph " + quote(provData.getProcessName()) + " {\n");
+		out.write("  node [fontname=\"Helvetica\"];\n");
+		visitNodes();
+		visitControlFlowEdges();
+		visitDataflowEdges();
+		out.write("}\n");
+	}
+
+	@Override
+	public void visitPin(ProcedureInstanceNode pin) {
+		print("  " + id(pin) + " [label=" + quote(name(pin)) + ", shape=box, tooltip=" + quote(pin.getType()) + "];\n");
+	}
+
+	@Override
+	public void visitDin(DataInstanceNode din) {
+		print("  " + id(din) + " [label=" + quote(name(din)) + ", shape=ellipse, tooltip=" + quote(din.getType()) + "];\n");
+	}
+
+	@Override
+	public void visitControlFlowEdge(ProcedureInstanceNode predecessor, ProcedureInstanceNode successor) {
+		print("  " + id(predecessor) + " -> " + id(successor) + " [color=blue];\n");
+	}
+
+	@Override
+	public void visitInputEdge(DataInstanceNode input, ProcedureInstanceNode consumer) {
+		print("  " + id(input) + " -> " + id(consumer) + " [color=red];\n");
+	}
+
+	@Override
+	public void visitOutputEdge(ProcedureInstanceNode producer, DataInstanceNode output) {
+		print("  " + id(producer) + " -> " + id(output) + " [color=red];\n");
+	}
+
+	/**
+	 * @param s a string
+	 * @return the string as a DOT quoted string
+	 */
+	private static String quote(String s) {
+		if (s == null) {
+			return "\"\"";
+		}
+		StringBuilder quoted = new StringBuilder(s.length() + 2);
+		quoted.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '"':
+			case '\\':
+				quoted.append('\\').append(c);
+				break;
+			case '\n':
+				quoted.append("\\n");
+				break;
+			case '\r':
+				break;
+			default:
+				quoted.append(c);
+			}
+		}
+		quoted.append('"');
+		return quoted.toString();
+	}
+}
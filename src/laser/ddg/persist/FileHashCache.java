@@ -0,0 +1,193 @@
+package laser.ddg.persist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes and remembers content hashes of files, such as the snapshots and
+ * file copies referenced from a DDG.  Results are remembered by path, size and
+ * modification time, so asking again about a file that has not changed is
+ * answered immediately, while a file that has changed is hashed again.
+ *
+ * Hashing is done by a background thread so that the caller can start the
+ * computation early and only wait for the result when it is actually needed.
+ * Large files are hashed through memory-mapped regions so that they are never
+ * read into the Java heap all at once.
+ */
+public class FileHashCache {
+	/** The algorithm used for the hashes in the provenance hashtable */
+	public static final String SHA1 = "SHA-1";
+
+	/** The algorithm used for the hashes recorded in prov.json */
+	public static final String MD5 = "MD5";
+
+	// Files smaller than this are read with a plain buffer.  Larger files are mapped.
+	private static final long MAP_THRESHOLD = 1024 * 1024;
+
+	// The largest region of a file that is mapped at one time
+	private static final long MAP_REGION_SIZE = 64 * 1024 * 1024;
+
+	// The maximum number of hashes remembered
+	private static final int MAX_ENTRIES = 4096;
+
+	// The hashes that have been computed, in least recently used order.
+	private static final Map<String, String> hashes = new LinkedHashMap<String, String>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	// Hash computations that have been started but not finished
+	private static final Map<String, Future<String>> pending = new ConcurrentHashMap<>();
+
+	// The threads that compute the hashes
+	private static final ExecutorService hasher = Executors.newFixedThreadPool(
+			Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)),
+			(Runnable r) -> {
+				Thread t = new Thread(r, "File hasher");
+				t.setDaemon(true);
+				return t;
+			});
+
+	private FileHashCache() {
+		// Only static methods
+	}
+
+	/**
+	 * Starts computing the hash of a file in the background if it is not already
+	 * known or being computed.
+	 * @param file the file to hash
+	 * @param algorithm the digest algorithm, such as SHA1 or MD5
+	 * @return the pending result
+	 */
+	public static Future<String> hashInBackground(final File file, final String algorithm) {
+		final String key = key(file, algorithm);
+		synchronized (hashes) {
+			final String known = hashes.get(key);
+			if (known != null) {
+				return CompletableFuture.completedFuture(known);
+			}
+		}
+
+		return pending.computeIfAbsent(key, (String k) -> hasher.submit(new Callable<String>() {
+			@Override
+			public String call() throws IOException {
+				try {
+					String hash = computeHash(file, algorithm);
+					synchronized (hashes) {
+						hashes.put(k, hash);
+					}
+					return hash;
+				} finally {
+					pending.remove(k);
+				}
+			}
+		}));
+	}
+
+	/**
+	 * Returns the hash of a file, waiting for it to be computed if necessary.
+	 * @param file the file to hash
+	 * @param algorithm the digest algorithm, such as SHA1 or MD5
+	 * @return the hash as a lower case hexadecimal string
+	 * @throws IOException if the file cannot be read
+	 */
+	public static String getHash(File file, String algorithm) throws IOException {
+		try {
+			return hashInBackground(file, algorithm).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while hashing " + file, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Could not hash " + file, e.getCause());
+		}
+	}
+
+	/**
+	 * Checks whether the contents of a file match a previously recorded hash.
+	 * @param file the file to check
+	 * @param expectedHash the recorded hash
+	 * @param algorithm the algorithm used to compute the recorded hash
+	 * @return true if the current contents have the same hash
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean matches(File file, String expectedHash, String algorithm) throws IOException {
+		return getHash(file, algorithm).equalsIgnoreCase(expectedHash);
+	}
+
+	/**
+	 * @return the key used to remember a hash.  It changes if the file
+	 * 		is modified.
+	 */
+	private static String key(File file, String algorithm) {
+		return algorithm + ":" + file.length() + ":" + file.lastModified() + ":" + file.getAbsolutePath();
+	}
+
+	/**
+	 * Computes the hash of a file, reading it in pieces.
+	 * @param file the file to hash
+	 * @param algorithm the digest algorithm
+	 * @return the hash as a lower case hexadecimal string
+	 * @throws IOException if the file cannot be read
+	 */
+	private static String computeHash(File file, String algorithm) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("Unknown hash algorithm " + algorithm, e);
+		}
+
+		try (RandomAccessFile in = new RandomAccessFile(file, "r");
+				FileChannel channel = in.getChannel()) {
+			long size = channel.size();
+			if (size < MAP_THRESHOLD) {
+				ByteBuffer buffer = ByteBuffer.allocate(8192);
+				while (channel.read(buffer) != -1) {
+					buffer.flip();
+					md.update(buffer);
+					buffer.clear();
+				}
+			}
+			else {
+				for (long position = 0; position < size; position += MAP_REGION_SIZE) {
+					long regionSize = Math.min(MAP_REGION_SIZE, size - position);
+					MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionSize);
+					md.update(region);
+				}
+			}
+		}
+		return bytesToHex(md.digest());
+	}
+
+	/* Converts a string of bytes to a hexadecimal string. */
+	private final static char[] hexArray = "0123456789abcdef".toCharArray();
+	private static String bytesToHex(byte[] bytes) {
+	    char[] hexChars = new char[bytes.length * 2];
+	    for ( int j = 0; j < bytes.length; j++ ) {
+	        int v = bytes[j] & 0xFF;
+	        hexChars[j * 2] = hexArray[v >>> 4];
+	        hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+	    }
+	    return new String(hexChars);
+	}
+}
@@ -0,0 +1,194 @@
+package laser.ddg.persist;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+import laser.ddg.DataInstanceNode;
+import laser.ddg.Node;
+import laser.ddg.ProcedureInstanceNode;
+import laser.ddg.ProvenanceData;
+import laser.ddg.ProvenanceDataVisitor;
+import laser.ddg.workflow.ScriptNode;
+
+/**
+ * Writes a DDG in a format that other graph tools can read.  The nodes and
+ * edges are written as they are visited, so the memory needed does not depend
+ * on the size of the DDG, and nothing is drawn, so DDGs can be exported
+ * without a display.
+ *
+ * Subclasses write one format each.  They decide what order the nodes and
+ * edges are written in and implement the visit methods to write each one.
+ */
+public abstract class GraphExporter implements ProvenanceDataVisitor {
+	/** The ddg being exported */
+	protected ProvenanceData provData;
+
+	/** Where the ddg is written */
+	protected Writer out;
+
+	/**
+	 * Creates the exporter for a file based on the file's extension
+	 * @param file the file to export to.  It should end in .graphml, .dot,
+	 * 	.gv or .json.
+	 * @return the exporter for that format
+	 */
+	public static GraphExporter forFile(File file) {
+		String fileName = file.getName();
+		String extension = fileName.substring(fileName.lastIndexOf('.') + 1);
+		switch (extension) {
+		case "graphml":
+			return new GraphMLExporter();
+		case "dot":
+		case "gv":
+			return new DotExporter();
+		case "json":
+			return new ProvJsonExporter();
+		default:
+			throw new IllegalArgumentException("No exporter available for " + fileName);
+		}
+	}
+
+	/**
+	 * @return the extension used for files in this format
+	 */
+	public abstract String getExtension();
+
+	/**
+	 * Writes a ddg to a file
+	 * @param ddg the ddg to write
+	 * @param file the file to write it to
+	 * @throws IOException if the file cannot be written
+	 */
+	public void export(ProvenanceData ddg, File file) throws IOException {
+		try (Writer fileOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			export(ddg, fileOut);
+		}
+	}
+
+	/**
+	 * Writes a ddg.  The writer is flushed but not closed.
+	 * @param ddg the ddg to write
+	 * @param writer where to write it
+	 * @throws IOException if the ddg cannot be written
+	 */
+	public void export(ProvenanceData ddg, Writer writer) throws IOException {
+		provData = ddg;
+		out = writer;
+		try {
+			write();
+		} catch (UncheckedIOException e) {
+			// The visit methods cannot throw IOException, so they wrap it
+			throw e.getCause();
+		} finally {
+			provData = null;
+			out = null;
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Writes the ddg, using the visit methods to write the nodes and edges
+	 * @throws IOException if the ddg cannot be written
+	 */
+	protected abstract void write() throws IOException;
+
+	/**
+	 * Visits the procedure nodes and then the data nodes
+	 */
+	protected void visitNodes() {
+		provData.visitPins(this);
+		provData.visitDins(this);
+	}
+
+	/**
+	 * Visits all the control flow edges
+	 */
+	protected void visitControlFlowEdges() {
+		Iterator<ProcedureInstanceNode> pins = provData.pinIter();
+		while (pins.hasNext()) {
+			provData.visitControlFlowEdges(pins.next(), this);
+		}
+	}
+
+	/**
+	 * Visits all the data flow edges
+	 */
+	protected void visitDataflowEdges() {
+		provData.visitDataflowEdges(this);
+	}
+
+	/**
+	 * Writes a string from inside a visit method
+	 * @param s the string to write
+	 */
+	protected void print(String s) {
+		try {
+			out.write(s);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Workflows are not exported
+	 */
+	@Override
+	public void visitSn(ScriptNode sn) {
+		// Nothing to do
+	}
+
+	/**
+	 * @param node a node
+	 * @return the node's id in the form used in ddg files, like p3 or d5
+	 */
+	protected static String id(Node node) {
+		if (node instanceof DataInstanceNode) {
+			return "d" + ((DataInstanceNode) node).getId();
+		}
+		return "p" + ((ProcedureInstanceNode) node).getId();
+	}
+
+	/**
+	 * The parsers put the node number in front of the name of nodes read
+	 * from json files.  That is removed so that nodes have the same names
+	 * no matter what kind of file they were read from.
+	 * @param node a node
+	 * @return the name of the node without the node number
+	 */
+	protected static String name(Node node) {
+		String name;
+		int id;
+		if (node instanceof DataInstanceNode) {
+			name = ((DataInstanceNode) node).getName();
+			id = ((DataInstanceNode) node).getId();
+		}
+		else {
+			name = ((ProcedureInstanceNode) node).getName();
+			id = ((ProcedureInstanceNode) node).getId();
+		}
+		String prefix = id + "-";
+		if (name.startsWith(prefix)) {
+			return name.substring(prefix.length());
+		}
+		return name;
+	}
+
+	/**
+	 * @param din a data node
+	 * @return the node's value as a string, or null if it has no value
+	 */
+	protected static String value(DataInstanceNode din) {
+		Object value = din.getValue();
+		if (value == null) {
+			return null;
+		}
+		return value.toString();
+	}
+}
@@ -0,0 +1,143 @@
+package laser.ddg.persist;
+
+import java.io.IOException;
+
+import laser.ddg.DataInstanceNode;
+import laser.ddg.ProcedureInstanceNode;
+import laser.ddg.SourcePos;
+
+/**
+ * Writes a DDG as GraphML.  Each node records its type and name, and the
+ * values, times and script positions that the DDG has for it.  Edges go in
+ * the order of execution: from a procedure node to the one that follows it,
+ * from a data node to the procedure nodes that use it, and from a procedure
+ * node to the data it produces.
+ */
+public class GraphMLExporter extends GraphExporter {
+
+	@Override
+	public String getExtension() {
+		return "graphml";
+	}
+
+	@Override
+	protected void write() throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+		writeKey("type", "node", "type", "string");
+		writeKey("name", "node", "name", "string");
+		writeKey("value", "node", "value", "string");
+		writeKey("timestamp", "node", "timestamp", "string");
+		writeKey("location", "node", "location", "string");
+		writeKey("elapsedTime", "node", "elapsedTime", "double");
+		writeKey("script", "node", "script", "int");
+		writeKey("startLine", "node", "startLine", "int");
+		writeKey("endLine", "node", "endLine", "int");
+		writeKey("edgeType", "edge", "type", "string");
+		out.write("  <graph id=\"" + escape(provData.getProcessName()) + "\" edgedefault=\"directed\">\n");
+		visitNodes();
+		visitControlFlowEdges();
+		visitDataflowEdges();
+		out.write("  </graph>\n");
+		out.write("</graphml>\n");
+	}
+
+	private void writeKey(String id, String domain, String name, String type) throws IOException {
+		out.write("  <key id=\"" + id + "\" for=\"" + domain + "\" attr.name=\"" + name + "\" attr.type=\"" + type + "\"/>\n");
+	}
+
+	@Override
+	public void visitPin(ProcedureInstanceNode pin) {
+		print("    <node id=\"" + id(pin) + "\">");
+		printData("type", pin.getType());
+		printData("name", name(pin));
+		printData("elapsedTime", String.valueOf(pin.getElapsedTime()));
+		SourcePos pos = pin.getSourcePos();
+		if (pos != null && pos.getStartLine() != -1) {
+			printData("script", String.valueOf(pos.getScriptNumber()));
+			printData("startLine", String.valueOf(pos.getStartLine()));
+			printData("endLine", String.valueOf(pos.getEndLine()));
+		}
+		print("</node>\n");
+	}
+
+	@Override
+	public void visitDin(DataInstanceNode din) {
+		print("    <node id=\"" + id(din) + "\">");
+		printData("type", din.getType());
+		printData("name", name(din));
+		printData("value", value(din));
+		printData("timestamp", din.getCreatedTime());
+		printData("location", din.getLocation());
+		print("</node>\n");
+	}
+
+	@Override
+	public void visitControlFlowEdge(ProcedureInstanceNode predecessor, ProcedureInstanceNode successor) {
+		printEdge("CF", id(predecessor), id(successor));
+	}
+
+	@Override
+	public void visitInputEdge(DataInstanceNode input, ProcedureInstanceNode consumer) {
+		printEdge("DF", id(input), id(consumer));
+	}
+
+	@Override
+	public void visitOutputEdge(ProcedureInstanceNode producer, DataInstanceNode output) {
+		printEdge("DF", id(producer), id(output));
+	}
+
+	private void printEdge(String type, String source, String target) {
+		print("    <edge source=\"" + source + "\" target=\"" + target + "\">");
+		printData("edgeType", type);
+		print("</edge>\n");
+	}
+
+	/**
+	 * Writes a data element if the value is not null
+	 * @param key the key of the data
+	 * @param value the value to write
+	 */
+	private void printData(String key, String value) {
+		if (value != null) {
+			print("<data key=\"" + key + "\">" + escape(value) + "</data>");
+		}
+	}
+
+	/**
+	 * @param s a string
+	 * @return the string with the characters that are special in XML escaped
+	 */
+	private static String escape(String s) {
+		if (s == null) {
+			return "";
+		}
+		StringBuilder escaped = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '<':
+				escaped.append("&lt;");
+				break;
+			case '>':
+				escaped.append("&gt;");
+				break;
+			case '&':
+				escaped.append("&amp;");
+				break;
+			case '"':
+				escaped.append("&quot;");
+				break;
+			default:
+				// Control characters other than whitespace are not allowed in XML
+				if (c < ' ' && c != '\t' && c != '\n' && c != '\r') {
+					escaped.append(' ');
+				}
+				else {
+					escaped.append(c);
+				}
+			}
+		}
+		return escaped.toString();
+	}
+}
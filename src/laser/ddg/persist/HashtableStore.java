@@ -0,0 +1,199 @@
+package laser.ddg.persist;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * An in-memory, indexed copy of the provenance hashtable that rdt writes to
+ * ~/.ddg/hashtable.json.  Each entry records a file that a script read or wrote,
+ * together with the SHA-1 hash of the file.
+ *
+ * The hashtable file is only read again when its size or modification time
+ * changes.  It is then reloaded from scratch, since rdt rewrites the whole
+ * table, dropping a ddg's old entries when its script is run again.
+ *
+ * Entries are indexed by the combination of SHA-1 hash and file name, which
+ * is what identifies the same file being used by different scripts.
+ */
+public class HashtableStore {
+	// The store for the default hashtable location
+	private static HashtableStore defaultStore;
+
+	// The json file containing the hashtable
+	private final File hashtableFile;
+
+	// All entries in the order they appear in the file
+	private List<HashtableEntry> entries = new ArrayList<>();
+
+	// The paths of the scripts that read or wrote files, in the order the
+	// scripts first appear in the file
+	private Set<String> scriptPaths = new LinkedHashSet<>();
+
+	// Entries indexed by hash + file name
+	private Map<String, List<HashtableEntry>> byHashAndName = new LinkedHashMap<>();
+
+	// The size and modification time of the file when it was last loaded
+	private long loadedLength = -1;
+	private long loadedModified = -1;
+
+	// Incremented every time the contents of the store change
+	private int version = 0;
+
+	/**
+	 * Create a store for a hashtable file.  The file is not read until
+	 * the store is first used.
+	 * @param hashtableFile the json file containing the hashtable
+	 */
+	public HashtableStore(File hashtableFile) {
+		this.hashtableFile = hashtableFile;
+	}
+
+	/**
+	 * @return the store for the hashtable in the user's ddg directory
+	 */
+	public static synchronized HashtableStore getDefault() {
+		if (defaultStore == null) {
+			defaultStore = new HashtableStore(new File(FileUtil.DDG_DIRECTORY, "hashtable.json"));
+		}
+		return defaultStore;
+	}
+
+	/**
+	 * Brings the store up to date with the hashtable file, reading it only
+	 * if it has changed.
+	 * @return true if the contents of the store changed
+	 * @throws IOException if the hashtable cannot be read
+	 */
+	public synchronized boolean refresh() throws IOException {
+		if (!hashtableFile.exists()) {
+			if (entries.isEmpty()) {
+				return false;
+			}
+			clear();
+			loadedLength = -1;
+			loadedModified = -1;
+			version++;
+			return true;
+		}
+
+		long length = hashtableFile.length();
+		long modified = hashtableFile.lastModified();
+		if (length == loadedLength && modified == loadedModified) {
+			return false;
+		}
+
+		clear();
+		load();
+		loadedLength = length;
+		loadedModified = modified;
+		version++;
+		return true;
+	}
+
+	/**
+	 * Reads the hashtable, adding its entries to the store
+	 * @throws IOException if the hashtable cannot be read
+	 */
+	private void load() throws IOException {
+		Gson gson = new Gson();
+		try (JsonReader reader = new JsonReader(new BufferedReader(new FileReader(hashtableFile)))) {
+			if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+				return;
+			}
+			reader.beginArray();
+			while (reader.hasNext()) {
+				HashtableEntry entry = gson.fromJson(reader, HashtableEntry.class);
+				add(entry);
+			}
+			reader.endArray();
+		}
+	}
+
+	/**
+	 * Adds an entry to the store and its indexes
+	 * @param entry the entry to add
+	 */
+	private void add(HashtableEntry entry) {
+		entries.add(entry);
+		scriptPaths.add(entry.getScriptPath());
+		if (entry.getSHA1Hash() != null) {
+			byHashAndName.computeIfAbsent(hashKey(entry.getSHA1Hash(), getFileName(entry)),
+					(String key) -> new ArrayList<>()).add(entry);
+		}
+	}
+
+	/**
+	 * Removes all entries
+	 */
+	private void clear() {
+		entries = new ArrayList<>();
+		scriptPaths = new LinkedHashSet<>();
+		byHashAndName = new LinkedHashMap<>();
+	}
+
+	/**
+	 * @return the number of times the contents of the store have changed.  Callers
+	 * 		can compare this to a remembered value to decide if they need to
+	 * 		recompute anything derived from the store.
+	 */
+	public synchronized int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return all the entries, in the order they appear in the hashtable
+	 */
+	public synchronized List<HashtableEntry> getEntries() {
+		return Collections.unmodifiableList(new ArrayList<>(entries));
+	}
+
+	/**
+	 * @return the paths of all scripts that appear in the hashtable, in the
+	 * 		order they first appear
+	 */
+	public synchronized Set<String> getScriptPaths() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(scriptPaths));
+	}
+
+	/**
+	 * @param sha1Hash the hash of a file's contents
+	 * @param fileName the name of the file with the directory removed
+	 * @return the entries for files with this name and contents
+	 */
+	public synchronized List<HashtableEntry> getEntriesWithHash(String sha1Hash, String fileName) {
+		List<HashtableEntry> hashEntries = byHashAndName.get(hashKey(sha1Hash, fileName));
+		if (hashEntries == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(new ArrayList<>(hashEntries));
+	}
+
+	/**
+	 * @param entry a hashtable entry
+	 * @return the name of the entry's file with the directory removed
+	 */
+	public static String getFileName(HashtableEntry entry) {
+		String filePath = entry.getFilePath();
+		return filePath.substring(filePath.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * @return the key used to look up entries by hash and file name
+	 */
+	private static String hashKey(String sha1Hash, String fileName) {
+		return sha1Hash + File.pathSeparator + fileName;
+	}
+}
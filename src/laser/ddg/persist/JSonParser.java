@@ -167,18 +167,35 @@ public class JSonParser extends Parser {
         if (jsonRoot.isJsonObject()) {
             JsonObject wholeThing = jsonRoot.getAsJsonObject();
             JsonObject procNodes = wholeThing.getAsJsonObject("activity");
-            parseProcNodes (procNodes);
-            
             JsonObject entity = wholeThing.getAsJsonObject("entity");
-            parseDataAndLibraryNodes(entity);
-            
             JsonObject cfEdges = wholeThing.getAsJsonObject("wasInformedBy");
+            JsonObject outputEdges = wholeThing.getAsJsonObject("wasGeneratedBy");
+            JsonObject inputEdges = wholeThing.getAsJsonObject("used");
+
+            // The whole file has been read already, so progress is reported
+            // as each section is added, in proportion to its size
+            long size = getFileSize();
+            long total = size(procNodes) + size(entity) + size(cfEdges) + size(outputEdges) + size(inputEdges);
+            long added = 0;
+
+            // The steps can be drawn before the data nodes are added
+            parseProcNodes (procNodes);
+            added += size(procNodes);
+            setBytesParsed(size * added / Math.max(total, 1));
+            
             parseControlFlowEdges (cfEdges);
+            added += size(cfEdges);
+            setBytesParsed(size * added / Math.max(total, 1));
+            controlFlowAdded();
+            
+            parseDataAndLibraryNodes(entity);
+            added += size(entity);
+            setBytesParsed(size * added / Math.max(total, 1));
 
-            JsonObject outputEdges = wholeThing.getAsJsonObject("wasGeneratedBy");
             parseOutputEdges (outputEdges);
+            added += size(outputEdges);
+            setBytesParsed(size * added / Math.max(total, 1));
 
-            JsonObject inputEdges = wholeThing.getAsJsonObject("used");
             parseInputEdges (inputEdges);
         }
 
@@ -189,6 +206,17 @@ public class JSonParser extends Parser {
 		}
     }
     
+	/**
+	 * @param section a section of the json, or null if it is missing
+	 * @return the number of entries in the section
+	 */
+	private static int size(JsonObject section) {
+		if (section == null) {
+			return 0;
+		}
+		return section.entrySet().size();
+	}
+
 	/** 
 	 * Parses all the procedural nodes and adds them to the provenance data and visual graph 
 	 */
@@ -323,10 +351,8 @@ public class JSonParser extends Parser {
 				// webpages.  URLs that start with -> are actually socket connections.
 				if(type.equals("File") || type.equals("Snapshot") || type.equals("StandardOutputSnapshot") || 
 						(type.equals("URL") && value.indexOf("://") == -1 && value.indexOf("->") == -1)){
-					if (builder != null) {
-						File relative = new File(builder.getSourceDDGDirectory(), value);
-						value = relative.getAbsolutePath();
-					}
+					File relative = new File(getSourceDDGDirectory(), value);
+					value = relative.getAbsolutePath();
 				}
 				
 				// If we ever want to do anything interesting with valType in DDG Explorer,
@@ -343,10 +369,19 @@ public class JSonParser extends Parser {
 					location = null;
 				}
 				
+				// Older prov.json files do not record the hash
+				String hash = null;
+				if (nodeDef.has(PREFIX+"MD5hash")) {
+					hash = nodeDef.get(PREFIX+"MD5hash").getAsString();
+					if (hash.equals("")) {
+						hash = null;
+					}
+				}
+				
 				int idNum = Integer.parseInt(id.substring(1));
 				String label = ""+idNum+"-"+name;
 			
-				addDataNode (type, id, label, value, valType, timestamp, location);
+				addDataNode (type, id, label, value, valType, timestamp, location, hash);
 			}
 			// environment node: skip!
 			else if( id.equals("environment") )
@@ -0,0 +1,32 @@
+package laser.ddg.persist;
+
+import laser.ddg.FlightEvent;
+import laser.ddg.FlightEvent.EventInfo;
+import laser.ddg.FlightEvent.FieldInfo;
+
+/**
+ * Flight recorder event for reading a ddg from a file.  The event lasts
+ * from when the parser starts reading until the ddg has been drawn.
+ */
+@EventInfo(name = "laser.ddg.Load", label = "DDG Load",
+	category = {"DDG Explorer", "Load"},
+	description = "Reading a ddg from a file")
+class LoadEvent extends FlightEvent {
+	@FieldInfo("File")
+	String file;
+
+	@FieldInfo("Language")
+	String language;
+
+	@FieldInfo("Procedure Nodes")
+	int procedureNodes;
+
+	@FieldInfo("Data Nodes")
+	int dataNodes;
+
+	@FieldInfo("Edges")
+	int edges;
+
+	@FieldInfo(value = "File Size", bytes = true)
+	long bytes;
+}
@@ -0,0 +1,953 @@
+package laser.ddg.persist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamTokenizer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Tokenizes the declarations of a textual DDG in parallel.  The part of the
+ * file following the header is split into chunks at line boundaries, and each
+ * chunk is memory-mapped separately, so files bigger than 2GB can be read.
+ * Since each declaration is on a single line, the chunks can be tokenized
+ * independently.  Each chunk is tokenized on the fork-join pool into buffers
+ * of nodes and edges.  These are replayed with the procedure nodes and control
+ * flow first, so that the steps of the DDG can be drawn before any data node
+ * is added.  Each kind of node and edge is replayed in the order it appears
+ * in the file, so the nodes reach the DDG builder in id order just as they do
+ * when the file is read sequentially.
+ *
+ * The tokens recognized are the same as those TextParser's StreamTokenizer
+ * recognizes:  words, quoted strings and the single characters ; and =.
+ */
+final class ParallelTextTokenizer {
+	// Token kinds.  Other kinds are the character itself, as with StreamTokenizer.
+	private static final int WORD = StreamTokenizer.TT_WORD;
+	private static final int QUOTE = '\"';
+
+	// Codes used to identify dataflow and control flow edges
+	private static final String DATA_FLOW = "DF";
+	private static final String CONTROL_FLOW = "CF";
+
+	// Attribute names for nodes
+	private static final String VALUE = "Value";
+	private static final String VALTYPE = "ValType";
+	private static final String TIMESTAMP = "Time";
+	private static final String LOCATION = "Location";
+	private static final String LINE_NUMBER = "Line";
+	private static final String POS = "Pos";
+	private static final String SCRIPT_NUMBER = "Script";
+
+	// Kinds of edges held in the edge buffers
+	private static final byte CONTROL_FLOW_EDGE = 0;
+	private static final byte DATA_CONSUMER_EDGE = 1;
+	private static final byte DATA_PRODUCER_EDGE = 2;
+
+	// Chunks are never made smaller than this, so small files are not split
+	// into more pieces than is worthwhile.
+	static final int MIN_CHUNK_SIZE = 64 * 1024;
+
+	// Chunks are not made bigger than this unless a single line is longer.
+	// A mapped region cannot be bigger than 2GB.
+	static final int MAX_CHUNK_SIZE = 256 * 1024 * 1024;
+
+	// The number of bytes read at a time when looking for the end of a line
+	private static final int LINE_END_BLOCK = 8 * 1024;
+
+	// The tokenized chunks in the order they appear in the file
+	private final List<Chunk> chunks;
+
+	/**
+	 * Receives the declarations of a DDG in the order they should be added
+	 * to the DDG:  the procedure nodes, the control flow edges, the data nodes
+	 * and then the data flow edges, each in file order.  Errors are delivered
+	 * first.
+	 */
+	interface DeclarationHandler {
+		/**
+		 * Called for a syntax error in the file
+		 * @param msg the message describing the error, including the line number
+		 */
+		void error(String msg);
+
+		/**
+		 * Called for each procedure node.
+		 * @param timeFromStart the time recorded for an Operation node, relative to
+		 * 		the start of the script, or NaN if there is no usable time
+		 */
+		void procNode(String nodeType, String nodeId, String name, String value, double timeFromStart,
+				String script, String startLine, String startCol, String endLine, String endCol);
+
+		/**
+		 * Called for each data node.  Missing attributes are null.
+		 */
+		void dataNode(String nodeType, String nodeId, String name, String value, String valType,
+				String timestamp, String location);
+
+		/**
+		 * Called for each control flow edge
+		 * @param pred the id of the node that executed first
+		 * @param succ the id of the node that executed second
+		 */
+		void controlFlowEdge(int pred, int succ);
+
+		/**
+		 * Called for each data flow edge from a data node to a procedure node
+		 */
+		void dataConsumerEdge(int proc, int data);
+
+		/**
+		 * Called for each data flow edge from a procedure node to a data node
+		 */
+		void dataProducerEdge(int proc, int data);
+
+		/**
+		 * Called once all the procedure nodes and control flow edges have 
+		 * been delivered, before the data nodes and data flow edges
+		 */
+		void controlFlowFinished();
+
+		/**
+		 * Called as the declarations are delivered, to report progress
+		 * @param bytes the number of bytes of the file whose declarations
+		 * 		have been delivered
+		 */
+		void replayed(long bytes);
+	}
+
+	private ParallelTextTokenizer(List<Chunk> chunks) {
+		this.chunks = chunks;
+	}
+
+	/**
+	 * Tokenizes the declarations that follow the header of a textual DDG.
+	 * @param file the file to tokenize
+	 * @param numPins the pin counter from the header.  The declarations start on
+	 * 		the line following it.
+	 * @return the tokenized declarations, or null if the file cannot be tokenized
+	 * 		in parallel, in which case it should be read sequentially
+	 * @throws IOException if the file cannot be read
+	 */
+	static ParallelTextTokenizer tokenize(File file, int numPins) throws IOException {
+		return tokenize(file, numPins, MAX_CHUNK_SIZE);
+	}
+
+	/**
+	 * Tokenizes the declarations that follow the header of a textual DDG,
+	 * mapping no more than a given number of bytes of the file at a time
+	 * unless a single line is longer.
+	 * @param file the file to tokenize
+	 * @param numPins the pin counter from the header
+	 * @param maxChunkSize the largest chunk to map, which must be at least 
+	 * 		MIN_CHUNK_SIZE.  The header must fit in the first chunk.
+	 * @return the tokenized declarations, or null if the file cannot be tokenized
+	 * 		in parallel, in which case it should be read sequentially
+	 * @throws IOException if the file cannot be read
+	 */
+	static ParallelTextTokenizer tokenize(File file, int numPins, int maxChunkSize) throws IOException {
+		try (RandomAccessFile in = new RandomAccessFile(file, "r");
+				FileChannel channel = in.getChannel()) {
+			long end = channel.size();
+			int headerEnd = (int) Math.min(end, maxChunkSize);
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerEnd);
+
+			// Find the pin counter that ends the header.  The last line of the
+			// region may be cut short, so it is only checked if it ends the file.
+			int lineStart = 0;
+			int lineNumber = 1;
+			long bodyStart = -1;
+			while (lineStart < headerEnd && bodyStart == -1) {
+				int lineEnd = findLineEnd(header, lineStart, headerEnd);
+				if (lineEnd == headerEnd && headerEnd < end) {
+					break;
+				}
+				if (isPinCounter(header, lineStart, lineEnd, numPins)) {
+					bodyStart = Math.min(lineEnd + 1, end);
+				}
+				lineStart = lineEnd + 1;
+				lineNumber++;
+			}
+			if (bodyStart == -1) {
+				return null;
+			}
+
+			List<Chunk> chunks = split(channel, bodyStart, end, maxChunkSize);
+			for (Chunk chunk : chunks) {
+				if (chunk.end - chunk.start > Integer.MAX_VALUE) {
+					// A line too long to map
+					return null;
+				}
+			}
+			ForkJoinPool pool = ForkJoinPool.commonPool();
+			List<Future<Chunk>> results = new ArrayList<>();
+			for (Chunk chunk : chunks) {
+				results.add(pool.submit(() -> {
+					chunk.tokenize(channel);
+					return chunk;
+				}));
+			}
+			for (Future<Chunk> result : results) {
+				try {
+					result.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while reading " + file, e);
+				} catch (ExecutionException e) {
+					throw new IOException("Could not read " + file, e.getCause());
+				}
+			}
+
+			// Now that the number of lines in each chunk is known, number the lines
+			for (Chunk chunk : chunks) {
+				chunk.firstLine = lineNumber;
+				lineNumber += chunk.numLines;
+			}
+			return new ParallelTextTokenizer(chunks);
+		}
+	}
+
+	/**
+	 * Passes the declarations to a handler:  first the errors, then the 
+	 * procedure nodes and the control flow edges, then the data nodes and the 
+	 * data flow edges.  The bytes of each chunk are reported as replayed in 
+	 * proportion to the declarations delivered from it.
+	 * @param handler the object to add the declarations to the DDG
+	 */
+	void replay(DeclarationHandler handler) {
+		for (Chunk chunk : chunks) {
+			for (int i = 0; i < chunk.numErrors; i++) {
+				handler.error("Line " + (chunk.firstLine + chunk.errorLines[i]) + ": " + chunk.errorMessages[i] + "\n\n");
+			}
+		}
+
+		// The header has been parsed already
+		long replayed = chunks.isEmpty() ? 0 : chunks.get(0).start;
+		for (Chunk chunk : chunks) {
+			Nodes nodes = chunk.nodes;
+			int procNodes = 0;
+			for (int i = 0; i < nodes.count; i++) {
+				if (nodes.isProc[i]) {
+					handler.procNode(nodes.types[i], nodes.ids[i], nodes.names[i], nodes.values[i], nodes.times[i],
+							nodes.scripts[i], nodes.startLines[i], nodes.startCols[i], nodes.endLines[i], nodes.endCols[i]);
+					procNodes++;
+				}
+			}
+			replayed += chunk.share(procNodes);
+			handler.replayed(replayed);
+		}
+
+		for (Chunk chunk : chunks) {
+			Edges edges = chunk.edges;
+			int controlFlowEdges = 0;
+			for (int i = 0; i < edges.count; i++) {
+				if (edges.kinds[i] == CONTROL_FLOW_EDGE) {
+					handler.controlFlowEdge(edges.sources[i], edges.targets[i]);
+					controlFlowEdges++;
+				}
+			}
+			replayed += chunk.share(controlFlowEdges);
+			handler.replayed(replayed);
+		}
+		handler.controlFlowFinished();
+
+		for (Chunk chunk : chunks) {
+			Nodes nodes = chunk.nodes;
+			int dataNodes = 0;
+			for (int i = 0; i < nodes.count; i++) {
+				if (!nodes.isProc[i]) {
+					handler.dataNode(nodes.types[i], nodes.ids[i], nodes.names[i], nodes.values[i], nodes.valTypes[i],
+							nodes.timestamps[i], nodes.locations[i]);
+					dataNodes++;
+				}
+			}
+			replayed += chunk.share(dataNodes);
+			handler.replayed(replayed);
+		}
+
+		for (Chunk chunk : chunks) {
+			Edges edges = chunk.edges;
+			int dataFlowEdges = 0;
+			for (int i = 0; i < edges.count; i++) {
+				switch (edges.kinds[i]) {
+				case CONTROL_FLOW_EDGE:
+					break;
+				case DATA_CONSUMER_EDGE:
+					handler.dataConsumerEdge(edges.sources[i], edges.targets[i]);
+					dataFlowEdges++;
+					break;
+				default:
+					handler.dataProducerEdge(edges.sources[i], edges.targets[i]);
+					dataFlowEdges++;
+					break;
+				}
+			}
+			replayed += chunk.share(dataFlowEdges);
+			handler.replayed(replayed);
+		}
+	}
+
+	/**
+	 * Splits the body of the file into chunks that end at line boundaries
+	 */
+	private static List<Chunk> split(FileChannel channel, long start, long end, int maxChunkSize) 
+			throws IOException {
+		int parallelism = ForkJoinPool.getCommonPoolParallelism();
+		long chunkSize = Math.max(MIN_CHUNK_SIZE, (end - start) / (parallelism * 4) + 1);
+		chunkSize = Math.min(chunkSize, maxChunkSize);
+		List<Chunk> chunks = new ArrayList<>();
+		ByteBuffer block = ByteBuffer.allocate(LINE_END_BLOCK);
+		long chunkStart = start;
+		while (chunkStart < end) {
+			long chunkEnd = chunkStart + chunkSize;
+			if (chunkEnd >= end) {
+				chunkEnd = end;
+			}
+			else {
+				chunkEnd = Math.min(findLineEnd(channel, block, chunkEnd, end) + 1, end);
+			}
+			chunks.add(new Chunk(chunkStart, chunkEnd));
+			chunkStart = chunkEnd;
+		}
+		return chunks;
+	}
+
+	/**
+	 * @return the position of the newline that ends the line containing start,
+	 * 		or end if the last line has no newline
+	 */
+	private static long findLineEnd(FileChannel channel, ByteBuffer block, long start, long end) 
+			throws IOException {
+		long pos = start;
+		while (pos < end) {
+			block.clear();
+			int read = channel.read(block, pos);
+			if (read <= 0) {
+				return end;
+			}
+			for (int i = 0; i < read; i++) {
+				if (block.get(i) == '\n') {
+					return pos + i;
+				}
+			}
+			pos += read;
+		}
+		return end;
+	}
+
+	/**
+	 * @return the position of the newline that ends the line containing start,
+	 * 		or end if the last line has no newline
+	 */
+	private static int findLineEnd(MappedByteBuffer buffer, int start, int end) {
+		int pos = start;
+		while (pos < end && buffer.get(pos) != '\n') {
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * @return true if the line holds nothing but the pin counter
+	 */
+	private static boolean isPinCounter(MappedByteBuffer buffer, int start, int end, int numPins) {
+		int value = 0;
+		int digits = 0;
+		for (int pos = start; pos < end; pos++) {
+			int b = buffer.get(pos);
+			if (b >= '0' && b <= '9') {
+				if (digits == 10) {
+					return false;
+				}
+				value = value * 10 + (b - '0');
+				digits++;
+			}
+			else if (b > ' ') {
+				return false;
+			}
+		}
+		return digits > 0 && value == numPins;
+	}
+
+	/**
+	 * @return true if the character is part of a word, using the same character
+	 * 		classes as TextParser
+	 */
+	private static boolean isWordChar(int b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+				|| (b >= '!' && b <= '/' && b != QUOTE) || b == ':' || b == '<'
+				|| (b >= '>' && b <= '@') || (b >= '[' && b <= '`') || (b >= '{' && b <= '~');
+	}
+
+	/**
+	 * A range of lines in the file together with the nodes, edges and errors
+	 * found in it.
+	 */
+	private static class Chunk {
+		// The range of the file covered by the chunk
+		private final long start;
+		private final long end;
+
+		// The number of the first line in the chunk and the number of lines it contains
+		private int firstLine;
+		private int numLines;
+
+		// What was found in the chunk
+		private final Nodes nodes = new Nodes();
+		private final Edges edges = new Edges();
+
+		// Errors, with the line within the chunk where they occur
+		private int numErrors = 0;
+		private int[] errorLines = new int[4];
+		private String[] errorMessages = new String[4];
+
+		// The tokens on the line currently being tokenized
+		private int numTokens;
+		private int[] tokenKinds = new int[32];
+		private String[] tokenText = new String[32];
+
+		// Position of the next token to interpret
+		private int next;
+
+		// The line within the chunk currently being tokenized
+		private int line;
+
+		// Holds the bytes of quoted strings after escapes are handled
+		private byte[] scratch = new byte[256];
+
+		private Chunk(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		/**
+		 * @param declarations a number of the declarations in the chunk
+		 * @return the part of the chunk's bytes in proportion to that number
+		 */
+		private long share(int declarations) {
+			int total = nodes.count + edges.count;
+			if (total == 0) {
+				return 0;
+			}
+			return (end - start) * declarations / total;
+		}
+
+		/**
+		 * Maps the chunk's part of the file, then tokenizes each line of the 
+		 * chunk and records its declaration
+		 */
+		private void tokenize(FileChannel channel) throws IOException {
+			int length = (int) (end - start);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+			int lineStart = 0;
+			line = 0;
+			while (lineStart < length) {
+				int lineEnd = findLineEnd(buffer, lineStart, length);
+				lexLine(buffer, lineStart, lineEnd);
+				if (numTokens > 0) {
+					parseDeclaration();
+				}
+				lineStart = lineEnd + 1;
+				line++;
+			}
+			numLines = line;
+		}
+
+		/**
+		 * Breaks a line into tokens
+		 */
+		private void lexLine(MappedByteBuffer buffer, int lineStart, int lineEnd) {
+			numTokens = 0;
+			next = 0;
+			int pos = lineStart;
+			while (pos < lineEnd) {
+				int b = buffer.get(pos) & 0xFF;
+				if (b <= ' ') {
+					pos++;
+				}
+				else if (b == QUOTE) {
+					pos = lexQuote(buffer, pos + 1, lineEnd);
+				}
+				else if (isWordChar(b)) {
+					int wordEnd = pos + 1;
+					while (wordEnd < lineEnd && isWordChar(buffer.get(wordEnd) & 0xFF)) {
+						wordEnd++;
+					}
+					int length = wordEnd - pos;
+					byte[] bytes = scratch(length);
+					for (int i = 0; i < length; i++) {
+						bytes[i] = buffer.get(pos + i);
+					}
+					addToken(WORD, new String(bytes, 0, length, StandardCharsets.UTF_8));
+					pos = wordEnd;
+				}
+				else {
+					addToken(b, String.valueOf((char) b));
+					pos++;
+				}
+			}
+		}
+
+		/**
+		 * Reads a quoted string, handling escapes the way StreamTokenizer does.  The
+		 * string ends at the closing quote or the end of the line.
+		 * @return the position following the string
+		 */
+		private int lexQuote(MappedByteBuffer buffer, int pos, int lineEnd) {
+			int length = 0;
+			while (pos < lineEnd) {
+				int c = buffer.get(pos++) & 0xFF;
+				if (c == QUOTE) {
+					break;
+				}
+				if (c == '\r') {
+					pos = lineEnd;
+					break;
+				}
+				if (c == '\\' && pos < lineEnd) {
+					c = buffer.get(pos++) & 0xFF;
+					switch (c) {
+					case 'a': c = 0x7; break;
+					case 'b': c = '\b'; break;
+					case 'f': c = 0xC; break;
+					case 'n': c = '\n'; break;
+					case 'r': c = '\r'; break;
+					case 't': c = '\t'; break;
+					case 'v': c = 0xB; break;
+					default:
+						if (c >= '0' && c <= '7') {
+							int first = c;
+							c = c - '0';
+							int maxDigits = first <= '3' ? 3 : 2;
+							for (int digit = 1; digit < maxDigits && pos < lineEnd; digit++) {
+								int d = buffer.get(pos) & 0xFF;
+								if (d < '0' || d > '7') {
+									break;
+								}
+								c = c * 8 + (d - '0');
+								pos++;
+							}
+						}
+						break;
+					}
+				}
+				byte[] bytes = scratch(length + 1);
+				bytes[length++] = (byte) c;
+			}
+			addToken(QUOTE, new String(scratch, 0, length, StandardCharsets.UTF_8));
+			return pos;
+		}
+
+		/**
+		 * @return the scratch buffer, made big enough to hold length bytes
+		 */
+		private byte[] scratch(int length) {
+			if (scratch.length < length) {
+				scratch = Arrays.copyOf(scratch, Math.max(length, scratch.length * 2));
+			}
+			return scratch;
+		}
+
+		private void addToken(int kind, String text) {
+			if (numTokens == tokenKinds.length) {
+				tokenKinds = Arrays.copyOf(tokenKinds, numTokens * 2);
+				tokenText = Arrays.copyOf(tokenText, numTokens * 2);
+			}
+			tokenKinds[numTokens] = kind;
+			tokenText[numTokens] = text;
+			numTokens++;
+		}
+
+		private void error(String msg) {
+			if (numErrors == errorLines.length) {
+				errorLines = Arrays.copyOf(errorLines, numErrors * 2);
+				errorMessages = Arrays.copyOf(errorMessages, numErrors * 2);
+			}
+			errorLines[numErrors] = line;
+			errorMessages[numErrors] = msg;
+			numErrors++;
+		}
+
+		/**
+		 * @return true if there are no more tokens in the declaration
+		 */
+		private boolean atEnd() {
+			return next == numTokens || tokenKinds[next] == ';';
+		}
+
+		/**
+		 * @return true if the next token is a word with the given text
+		 */
+		private boolean nextIsWord(String word) {
+			return next < numTokens && tokenKinds[next] == WORD && tokenText[next].equals(word);
+		}
+
+		/**
+		 * Consumes the next token if it is the given character
+		 * @return true if the token was consumed
+		 */
+		private boolean skip(int c) {
+			if (next < numTokens && tokenKinds[next] == c) {
+				next++;
+				return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Consumes the next token if it is one of the given kinds
+		 * @return the text of the token, or null if it is some other kind of token
+		 */
+		private String take(int kind1, int kind2) {
+			if (next < numTokens && (tokenKinds[next] == kind1 || tokenKinds[next] == kind2)) {
+				return tokenText[next++];
+			}
+			return null;
+		}
+
+		/**
+		 * Records the declaration on the current line
+		 */
+		private void parseDeclaration() {
+			if (tokenKinds[0] != WORD) {
+				error("Unexpected first token.");
+				return;
+			}
+
+			String first = tokenText[0];
+			next = 1;
+			if (first.equals(CONTROL_FLOW) || first.equals(DATA_FLOW)) {
+				parseEdge(first);
+				return;
+			}
+
+			if (!parseNode(first)) {
+				return;
+			}
+
+			if (next < numTokens && tokenKinds[next] != ';') {
+				error("Unexpected tokens at end of line. Token:" + tokenText[next]);
+			}
+		}
+
+		/**
+		 * Records an edge declaration
+		 * @param edgeType CF or DF
+		 */
+		private void parseEdge(String edgeType) {
+			if (numTokens < 3) {
+				error("Invalid edge construct. Need valid name, source and target.");
+				return;
+			}
+
+			String source = tokenText[1];
+			String target = tokenText[2];
+			try {
+				if (edgeType.equals(CONTROL_FLOW)) {
+					edges.add(CONTROL_FLOW_EDGE, extractId(source), extractId(target));
+				}
+				else if (target.startsWith("p")) {
+					edges.add(DATA_CONSUMER_EDGE, extractId(target), extractId(source));
+				}
+				else if (source.startsWith("p")) {
+					edges.add(DATA_PRODUCER_EDGE, extractId(source), extractId(target));
+				}
+				else {
+					error("Neither source nor target of edge is a procedure node:  " +
+							edgeType + " " + source + " " + target);
+				}
+			} catch (NumberFormatException e) {
+				error("Invalid edge construct. Bad node id in " + edgeType + " " + source + " " + target);
+			}
+		}
+
+		private static int extractId(String nodeId) {
+			return Integer.parseInt(nodeId.substring(1));
+		}
+
+		/**
+		 * Records a node declaration
+		 * @param nodeType the type of node
+		 * @return false if the rest of the line should be ignored due to an error
+		 */
+		private boolean parseNode(String nodeType) {
+			if (next == numTokens || tokenKinds[next] != WORD) {
+				error("Expected data or procedure node identifier:  " + nodeType);
+				return false;
+			}
+
+			String nodeId = tokenText[next++];
+			if (nodeId.startsWith("p")) {
+				return parseProcNode(nodeType, nodeId);
+			}
+			if (nodeId.startsWith("d")) {
+				return parseDataNode(nodeType, nodeId);
+			}
+			return false;
+		}
+
+		/**
+		 * Records a procedure node declaration
+		 * @return false if the rest of the line should be ignored due to an error
+		 */
+		private boolean parseProcNode(String nodeType, String nodeId) {
+			if (next == numTokens) {
+				error("Name is missing for node " + nodeId);
+				return false;
+			}
+			String name = tokenText[next++];
+
+			String value = null;
+			boolean ok = true;
+			if (nextIsWord(VALUE)) {
+				next++;
+				value = parseAttributeValue(VALUE, nodeId, WORD, QUOTE);
+				ok = value != null;
+			}
+
+			double timeFromStart = Double.NaN;
+			String startLine = "NA";
+			String startCol = "NA";
+			String endLine = "NA";
+			String endCol = "NA";
+			String script = "NA";
+
+			// The remaining attributes are optional
+			while (ok && !atEnd()) {
+				if (tokenKinds[next] != WORD) {
+					next++;
+					continue;
+				}
+
+				String attribute = tokenText[next++];
+				if (attribute.equals(TIMESTAMP)) {
+					if (!skip('=')) {
+						error("Expected = after TIMESTAMP.");
+						continue;
+					}
+					String time = take(QUOTE, WORD);
+
+					// We later calculate the time for start/finish nodes to be the sum of the times of the internal
+					// operations.
+					if (time != null && nodeType.equals("Operation")) {
+						try {
+							timeFromStart = Double.parseDouble(time);
+						} catch (NumberFormatException e) {
+							// Old style file, probably storing a timestamp instead so just ignore
+						}
+					}
+				}
+
+				else if (attribute.equals(LINE_NUMBER)) {
+					skip('=');
+					String lineNum = take(QUOTE, QUOTE);
+					if (lineNum != null) {
+						startLine = lineNum;
+					}
+				}
+
+				else if (attribute.equals(POS)) {
+					skip('=');
+					String pos = take(QUOTE, QUOTE);
+					if (pos != null) {
+						String[] lineCols = pos.split(",");
+						if (lineCols.length > 3) {
+							startLine = lineCols[0];
+							startCol = lineCols[1];
+							endLine = lineCols[2];
+							endCol = lineCols[3];
+						}
+					}
+				}
+
+				else if (attribute.equals(SCRIPT_NUMBER)) {
+					skip('=');
+					String scriptNum = take(QUOTE, QUOTE);
+					if (scriptNum != null) {
+						script = scriptNum;
+					}
+				}
+			}
+
+			nodes.addProc(nodeType, nodeId, name, value, timeFromStart, script, startLine, startCol, endLine, endCol);
+			return ok;
+		}
+
+		/**
+		 * Records a data node declaration
+		 * @return false if the rest of the line should be ignored due to an error
+		 */
+		private boolean parseDataNode(String nodeType, String nodeId) {
+			if (next == numTokens) {
+				error("Name missing for node " + nodeId);
+				return false;
+			}
+			String name = tokenText[next++];
+			String value = null;
+			String valType = null;
+			String timestamp = null;
+			String location = null;
+
+			boolean ok = true;
+			while (ok && next < numTokens && tokenKinds[next] == WORD) {
+				String attribute = tokenText[next];
+				if (value == null && attribute.equals(VALUE)) {
+					next++;
+					value = parseAttributeValue("Value", nodeId, WORD, QUOTE);
+					ok = value != null;
+				}
+				else if (valType == null && attribute.equals(VALTYPE)) {
+					next++;
+					valType = parseAttributeValue("ValType", nodeId, WORD, QUOTE);
+					ok = valType != null;
+				}
+				else if (timestamp == null && attribute.equals(TIMESTAMP)) {
+					next++;
+					timestamp = parseAttributeValue("Timestamp", nodeId, QUOTE, WORD);
+					ok = timestamp != null;
+				}
+				else if (location == null && attribute.equals(LOCATION)) {
+					next++;
+					location = parseAttributeValue("Location", nodeId, QUOTE, QUOTE);
+					ok = location != null;
+				}
+				else {
+					error("Expecting VALUE or TIMESTAMP or LOCATION for node " + nodeId);
+					ok = false;
+				}
+			}
+
+			if (ok && !atEnd()) {
+				error("Unexpected tokens for node " + nodeId);
+				ok = false;
+			}
+
+			nodes.addData(nodeType, nodeId, name, value, valType, timestamp, location);
+			return ok;
+		}
+
+		/**
+		 * Parses the = and value that follow an attribute name
+		 * @param attribute the attribute name used in error messages
+		 * @param nodeId the node being parsed
+		 * @param kind1 a kind of token allowed for the value
+		 * @param kind2 another kind of token allowed for the value
+		 * @return the value, or null if it is missing
+		 */
+		private String parseAttributeValue(String attribute, String nodeId, int kind1, int kind2) {
+			if (!skip('=')) {
+				error("Expected =.");
+				return null;
+			}
+			String value = take(kind1, kind2);
+			if (value == null) {
+				error(attribute + " is missing for node " + nodeId);
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * The nodes declared in a chunk, stored by column
+	 */
+	private static class Nodes {
+		private int count = 0;
+		private boolean[] isProc = new boolean[64];
+		private String[] types = new String[64];
+		private String[] ids = new String[64];
+		private String[] names = new String[64];
+		private String[] values = new String[64];
+
+		// Procedure node columns
+		private double[] times = new double[64];
+		private String[] scripts = new String[64];
+		private String[] startLines = new String[64];
+		private String[] startCols = new String[64];
+		private String[] endLines = new String[64];
+		private String[] endCols = new String[64];
+
+		// Data node columns
+		private String[] valTypes = new String[64];
+		private String[] timestamps = new String[64];
+		private String[] locations = new String[64];
+
+		private void addProc(String type, String id, String name, String value, double time,
+				String script, String startLine, String startCol, String endLine, String endCol) {
+			int i = add(true, type, id, name, value);
+			times[i] = time;
+			scripts[i] = script;
+			startLines[i] = startLine;
+			startCols[i] = startCol;
+			endLines[i] = endLine;
+			endCols[i] = endCol;
+		}
+
+		private void addData(String type, String id, String name, String value, String valType,
+				String timestamp, String location) {
+			int i = add(false, type, id, name, value);
+			valTypes[i] = valType;
+			timestamps[i] = timestamp;
+			locations[i] = location;
+		}
+
+		private int add(boolean proc, String type, String id, String name, String value) {
+			if (count == types.length) {
+				int capacity = count * 2;
+				isProc = Arrays.copyOf(isProc, capacity);
+				types = Arrays.copyOf(types, capacity);
+				ids = Arrays.copyOf(ids, capacity);
+				names = Arrays.copyOf(names, capacity);
+				values = Arrays.copyOf(values, capacity);
+				times = Arrays.copyOf(times, capacity);
+				scripts = Arrays.copyOf(scripts, capacity);
+				startLines = Arrays.copyOf(startLines, capacity);
+				startCols = Arrays.copyOf(startCols, capacity);
+				endLines = Arrays.copyOf(endLines, capacity);
+				endCols = Arrays.copyOf(endCols, capacity);
+				valTypes = Arrays.copyOf(valTypes, capacity);
+				timestamps = Arrays.copyOf(timestamps, capacity);
+				locations = Arrays.copyOf(locations, capacity);
+			}
+			isProc[count] = proc;
+			types[count] = type;
+			ids[count] = id;
+			names[count] = name;
+			values[count] = value;
+			return count++;
+		}
+	}
+
+	/**
+	 * The edges declared in a chunk
+	 */
+	private static class Edges {
+		private int count = 0;
+		private byte[] kinds = new byte[64];
+
+		// For control flow edges, the predecessor and successor.  For data flow
+		// edges, the procedure node and the data node.
+		private int[] sources = new int[64];
+		private int[] targets = new int[64];
+
+		private void add(byte kind, int source, int target) {
+			if (count == kinds.length) {
+				kinds = Arrays.copyOf(kinds, count * 2);
+				sources = Arrays.copyOf(sources, count * 2);
+				targets = Arrays.copyOf(targets, count * 2);
+			}
+			kinds[count] = kind;
+			sources[count] = source;
+			targets[count] = target;
+			count++;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package laser.ddg.persist;
+
+import java.io.File;
+
+/**
+ * Thrown by a parser when another thread cancels it while it is reading a DDG.
+ * This is unchecked so that it passes through the parsing code unchanged.
+ */
+public class ParseCancelledException extends RuntimeException {
+	/**
+	 * used for serializable objects in order to verify that the same version of
+	 * the class definition is used to serialize the object as to unserialize it
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param file the file that was being read
+	 */
+	public ParseCancelledException(File file) {
+		super("Reading " + file + " was cancelled");
+	}
+}
@@ -2,17 +2,20 @@ package laser.ddg.persist;
 
 import java.io.File;
 import java.io.IOException;
-
-import javax.swing.JOptionPane;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import laser.ddg.Attributes;
 import laser.ddg.DDGBuilder;
 import laser.ddg.LanguageConfigurator;
+import laser.ddg.Metrics;
 import laser.ddg.NoSuchDataNodeException;
 import laser.ddg.NoSuchNodeException;
 import laser.ddg.NoSuchProcNodeException;
 import laser.ddg.ProvenanceData;
 import laser.ddg.SourcePos;
+import laser.ddg.StringPool;
 import laser.ddg.gui.DDGExplorer;
 import laser.ddg.visualizer.PrefuseGraphBuilder;
 
@@ -81,8 +84,36 @@ public abstract class Parser {
 	/** String of attribute names and values */
 	protected Attributes attributes = new Attributes();
 	
+	/** Shares repeated strings among the nodes read by this parser */
+	protected final StringPool strings = new StringPool();
+	
 	private File fileBeingParsed;
 	
+	// Errors found while parsing when there is no prefuse builder, and
+	// so no GUI to report them to
+	private final List<String> errors = new ArrayList<>();
+	
+	// DDGs with at least this many nodes are compacted once they are read,
+	// if compaction has been turned on
+	private static final int COMPACT_THRESHOLD = 100000;
+	
+	// If true, large ddgs are compacted once they are read.  A compacted
+	// ddg cannot be changed, so this is off unless the caller asks for it.
+	private boolean compactLargeDdgs = false;
+	
+	// Number of bytes of the file whose declarations have been added so
+	// far, so that other threads can report progress
+	private volatile long bytesParsed = 0;
+	
+	// Number of nodes and edges read so far.  Only used by the
+	// parsing thread.
+	private int pinsRead = 0;
+	private int dinsRead = 0;
+	private int edgesRead = 0;
+	
+	// Set by another thread to stop parsing
+	private volatile boolean cancelled = false;
+	
 	/**
 	 * Initializes the parser
 	 * @param file the file to read the DDG from
@@ -118,9 +149,14 @@ public abstract class Parser {
 	/**
 	 * Adds the nodes and edges from the DDG to the graph.
 	 * @throws IOException if there is a problem reading the file
+	 * @throws ParseCancelledException if another thread cancels the parse
 	 */
 	public ProvenanceData addNodesAndEdges() throws IOException {
+		LoadEvent event = new LoadEvent();
+		event.begin();
+		long parseStart = System.nanoTime();
 		parseHeader();
+		long headerTime = System.nanoTime() - parseStart;
 		
 		// If there was no script attribute, use the filename.
 		if (scrpt == null) {
@@ -133,6 +169,10 @@ public abstract class Parser {
 		provData.setAttributes(attributes);
 		
 		provData.setQuery("Entire DDG");
+		Metrics metrics = provData.getMetrics();
+		metrics.recordDuration("parse.header", headerTime);
+		
+		long start = System.nanoTime();
 		if (builder != null) {
 			builder.setProvData(provData);
 		}
@@ -142,25 +182,57 @@ public abstract class Parser {
 				language = "Little-JIL";
 			}
 			ddgBuilder = LanguageConfigurator.createDDGBuilder(language, scrpt, provData);
+			ddgBuilder.setStringPool(strings);
 			if (builder != null) {
 				builder.createLegend(language);
 			}
 
 			//System.out.println("Using " + ddgBuilder.getClass().getName());
 		} catch (Exception e) {
-			JOptionPane.showMessageDialog(DDGExplorer.getInstance(), "No DDG Builder for " + language + ".  Cannot add the DDG to the database.\n\n");
+			reportError("No DDG Builder for " + language + ".  Cannot add the DDG to the database.\n\n");
 			e.printStackTrace(System.err);
 		}
+		metrics.recordTime("parse.builderSetup", start);
 		
+		start = System.nanoTime();
 		parseNodesAndEdges();
+		setBytesParsed(getFileSize());
+		metrics.recordTime("parse.nodesAndEdges", start);
+		metrics.add("parse.procedureNodes", pinsRead);
 		
 		//System.out.println("Done parsing");
 		
 		if (ddgBuilder != null) {
+			start = System.nanoTime();
 			ddgBuilder.ddgBuilt();
+			metrics.recordTime("parse.ddgBuilt", start);
 		}
+		
 		if (builder != null) {
+			start = System.nanoTime();
 			builder.processFinished();
+			metrics.recordTime("parse.processFinished", start);
+		}
+		
+		// Large ddgs can be kept in compact form to save memory.  This is
+		// done last so that the builder sees the nodes it was given.
+		if (compactLargeDdgs && provData.getNumNodes() >= COMPACT_THRESHOLD) {
+			start = System.nanoTime();
+			provData.compact();
+			metrics.recordTime("parse.compact", start);
+		}
+		metrics.add("parse.nodes", provData.getNumNodes());
+		metrics.recordTime("parse.total", parseStart);
+		
+		event.end();
+		if (event.shouldCommit()) {
+			event.file = fileBeingParsed.getPath();
+			event.language = language;
+			event.procedureNodes = pinsRead;
+			event.dataNodes = dinsRead;
+			event.edges = edgesRead;
+			event.bytes = fileBeingParsed.length();
+			event.commit();
 		}
 		return provData;
 	}
@@ -193,10 +265,15 @@ public abstract class Parser {
 	 */
 	protected void addProcNode (String nodeType, String nodeId, String name, String value, double elapsedTime, String script, String startLine, String startCol, String endLine, String endCol) {
 		//System.out.println("Adding proc node " + nodeId);
+		checkCancelled();
+		pinsRead++;
 		SourcePos sourcePos = buildSourcePos(script, startLine, startCol, endLine, endCol);
+		nodeType = strings.intern(nodeType);
+		name = strings.intern(name);
+		value = strings.internValue(value);
 		if (builder != null) {
 			builder.addNode(nodeType, extractUID(nodeId), 
-					constructName(nodeType, name), value, elapsedTime, null, sourcePos);
+					strings.intern(constructName(nodeType, name)), value, elapsedTime, null, sourcePos);
 		}
 		int idNum = Integer.parseInt( nodeId.substring(1) );
 
@@ -268,20 +345,85 @@ public abstract class Parser {
 	 * @param location the file location if the data is a file or snapshot
 	 */
 	protected void addDataNode (String nodeType, String nodeId, String name, String value, String valType, String timestamp, String location) {
+		addDataNode (nodeType, nodeId, name, value, valType, timestamp, location, null);
+	}
+
+	/**
+	 * Add a data node to the provenance data and the visual graph
+	 * @param nodeType the type of node, such as "File", "Data", "Exception"
+	 * @param nodeId the node's unique id
+	 * @param name the label to display
+	 * @param value the data value
+	 * @param valType the type of the data value
+	 * @param timestamp the timestamp for the data
+	 * @param location the file location if the data is a file or snapshot
+	 * @param hash the MD5 hash of the file if the data is a file or snapshot, 
+	 * 		or null if no hash was recorded
+	 */
+	protected void addDataNode (String nodeType, String nodeId, String name, String value, String valType, String timestamp, String location, String hash) {
 		//System.out.println("Adding data node " + nodeId + " with type " + nodeType);
+		checkCancelled();
+		dinsRead++;
 		int idNum = Integer.parseInt(nodeId.substring(1));
+		nodeType = strings.intern(nodeType);
+		name = strings.intern(name);
+		value = strings.internValue(value);
+		timestamp = strings.intern(timestamp);
+		location = strings.intern(location);
 		if (ddgBuilder != null) {
 			ddgBuilder.addDataNode(nodeType,idNum,name,value,timestamp, location);
 		}
 		//System.out.println("ddgBuilder added");
 		if (builder != null) {
-			builder.addNode(nodeType, extractUID(nodeId), 
-					constructName(nodeType, name), value, timestamp, location, null);
+			int rowNum = builder.addNode(nodeType, extractUID(nodeId), 
+					strings.intern(constructName(nodeType, name)), value, timestamp, location, null);
+			builder.setDataNodeId(rowNum, idNum);
+			if (hash != null) {
+				builder.setHash(rowNum, hash);
+			}
 		}
 		//System.out.println("builder added");
 	}
 	
 
+	/**
+	 * Reports a problem found in the DDG.  If the DDG is being displayed, the
+	 * error is shown to the user.  If there is no prefuse builder, as when
+	 * DDGs are analysed without a GUI, the error is saved so that the caller
+	 * can retrieve it with getErrors.
+	 * @param msg the error message
+	 */
+	protected void reportError(String msg) {
+		if (builder == null) {
+			errors.add(msg.trim());
+		}
+		else {
+			DDGExplorer.showErrMsg(msg);
+		}
+	}
+
+	/**
+	 * @return the errors found while parsing a DDG without a prefuse builder
+	 */
+	public List<String> getErrors() {
+		return Collections.unmodifiableList(errors);
+	}
+
+	/**
+	 * @return the directory containing the file being parsed.  Paths to
+	 * 	files and snapshots in the DDG are relative to this directory.
+	 */
+	protected File getSourceDDGDirectory() {
+		return fileBeingParsed.getAbsoluteFile().getParentFile();
+	}
+
+	/**
+	 * @return the size of the file being parsed, in bytes
+	 */
+	protected long getFileSize() {
+		return fileBeingParsed.length();
+	}
+
 	/**
 	 * @return the string of all attributes
 	 */
@@ -296,14 +438,83 @@ public abstract class Parser {
 		return numPins;
 	}
 
+	/**
+	 * @return the fraction of the file parsed so far, between 0 and 1.
+	 * 	This is 0 if the size of the file is not known, as when a ddg is
+	 * 	streamed from a running script.
+	 */
+	public double getProgress() {
+		long size = getFileSize();
+		if (size <= 0) {
+			return 0;
+		}
+		return Math.min(1.0, (double) bytesParsed / size);
+	}
+
+	/**
+	 * @return the number of bytes of the file whose declarations have been
+	 * 	added to the ddg so far
+	 */
+	public long getBytesParsed() {
+		return bytesParsed;
+	}
+
+	/**
+	 * Records how much of the file has been parsed, so that other threads
+	 * can report progress
+	 * @param bytes the number of bytes of the file whose declarations have
+	 * 	been added to the ddg
+	 */
+	protected void setBytesParsed(long bytes) {
+		bytesParsed = bytes;
+	}
+
+	/**
+	 * Called once all the procedure nodes and control flow edges have been
+	 * added, before any data flow edges are added.  The data nodes may not
+	 * have been added yet.  This lets the builder draw the steps of a large
+	 * ddg while its data is still being added.
+	 */
+	protected void controlFlowAdded() {
+		if (builder != null) {
+			builder.controlFlowFinished();
+		}
+	}
+
+	/**
+	 * Controls whether a ddg with many nodes is replaced by a compact,
+	 * read-only copy once it has been read.  This is off by default.
+	 * @param compact if true, large ddgs are compacted
+	 */
+	public void setCompactLargeDdgs(boolean compact) {
+		compactLargeDdgs = compact;
+	}
+
+	/**
+	 * Stops parsing.  The thread reading the DDG throws ParseCancelledException
+	 * when it next adds a node.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @throws ParseCancelledException if parsing has been cancelled
+	 */
+	private void checkCancelled() {
+		if (cancelled) {
+			throw new ParseCancelledException(fileBeingParsed);
+		}
+	}
+
 	/**
 	 * Constructs the name to use for the node from the tokens
 	 * @param tokens the tokens from the declaration
 	 * @return the name to use
 	 */
-	static String constructName(String nodeType, String nodeName) {
+	String constructName(String nodeType, String nodeName) {
 		if(nodeName == null){
-			DDGExplorer.showErrMsg("Invalid node construct. No name given.");
+			reportError("Invalid node construct. No name given.");
 			return null;
 		}
 		String str = nodeName;
@@ -375,8 +586,18 @@ public abstract class Parser {
 		//System.out.println("Adding CF edge from " + predId + " to " + succId);
 		int pred = Integer.parseInt(predId.substring(1));
 		int succ = Integer.parseInt(succId.substring(1));
+		addControlFlowEdge(pred, succ);
+	}
+
+	/**
+	 * Add a control flow edge to the provenance data and the visual graph
+	 * @param pred number of the node that executed first
+	 * @param succ number of the node that executed second
+	 */
+	protected void addControlFlowEdge(int pred, int succ) {
 		ddgBuilder.addPredSuccLink(pred, succ);
 		addEdge ("CF", pred, succ);
+		edgesRead++;
 	}
 
 	/**
@@ -391,18 +612,31 @@ public abstract class Parser {
 		//System.out.println("Adding DF consumer edge from " + dataId + " to " + procId);
 		int data = Integer.parseInt(dataId.substring(1));
 		int consumer = Integer.parseInt(procId.substring(1));
+		addDataConsumerEdge(consumer, data);
+	}
+
+	/**
+	 * Add a data flow edge that goes from a data node to a procedural node
+	 * to the provenance data and the visual graph
+	 * @param consumer the number of the procedural node
+	 * @param data the number of the data node
+	 * @throws NoSuchDataNodeException if there is no data node with that id
+	 * @throws NoSuchProcNodeException if there is no procedural node with that id
+	 */
+	protected void addDataConsumerEdge(int consumer, int data) throws NoSuchDataNodeException, NoSuchProcNodeException {
 		try {
 			ddgBuilder.addDataConsumer(consumer, data);
 			addEdge ("DF", data + numPins, consumer);
+			edgesRead++;
 		} catch (NoSuchDataNodeException e) {
 			String msg = "Can't create edge from data node " + data + " to procedure node " + consumer + "\n";
 			msg = msg + "No data node with id " + data;
-			DDGExplorer.showErrMsg(msg);
+			reportError(msg);
 			throw e;
 		} catch (NoSuchProcNodeException e) {
 			String msg = "Can't create edge from data node " + data + " to procedure node " + consumer + "\n";
 			msg = msg + "No procedure node with id " + consumer;
-			DDGExplorer.showErrMsg(msg);
+			reportError(msg);
 			throw e;
 		} catch (NoSuchNodeException e) {
 			// TODO Auto-generated catch block
@@ -423,25 +657,39 @@ public abstract class Parser {
 		//System.out.println("Adding DF producer edge from " + procId + " to " + dataId);
 		int data = Integer.parseInt(dataId.substring(1));
 		int producer = Integer.parseInt(procId.substring(1));
+		addDataProducerEdge(producer, data);
+	}
+
+	/**
+	 * Add a data flow edge that goes from a procedure node to a data node
+	 * to the provenance data and the visual graph
+	 * @param producer the number of the procedural node
+	 * @param data the number of the data node
+	 * @throws NoSuchDataNodeException if there is no data node with that id
+	 * @throws NoSuchProcNodeException if there is no procedural node with that id
+	 * @throws ReportErrorException if another error has been reported to the user
+	 */
+	protected void addDataProducerEdge(int producer, int data) throws NoSuchDataNodeException, NoSuchProcNodeException, ReportErrorException {
 		try {
 			ddgBuilder.addDataProducer(data, producer);
 			addEdge ("DF", producer, data + numPins);
+			edgesRead++;
 		} catch (NoSuchDataNodeException e) {
 			String msg = "Can't create edge from procedure node " + producer + " to data node " + data + "\n";
 			msg = msg + "No data node with id " + data;
-			DDGExplorer.showErrMsg(msg);
+			reportError(msg);
 			throw e;
 		} catch (NoSuchProcNodeException e) {
 			String msg = "Can't create edge from procedure node " + producer + " to data node " + data + "\n";
 			msg = msg + "No procedure node with id " + producer;
-			DDGExplorer.showErrMsg(msg);
+			reportError(msg);
 			throw e;
 		} catch (NoSuchNodeException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace(System.err);
 		} catch (ReportErrorException e) {
 			// TODO Auto-generated catch block
-			DDGExplorer.showErrMsg(e.getMessage());
+			reportError(e.getMessage());
 			throw e;
 		}
 	}
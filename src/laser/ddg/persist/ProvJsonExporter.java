@@ -0,0 +1,228 @@
+package laser.ddg.persist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import com.google.gson.stream.JsonWriter;
+
+import laser.ddg.Attributes;
+import laser.ddg.DataInstanceNode;
+import laser.ddg.ProcedureInstanceNode;
+import laser.ddg.ScriptInfo;
+import laser.ddg.SourcePos;
+
+/**
+ * Writes a DDG as PROV-JSON using the same extensions that RDataTracker
+ * uses, so the result can be read back in by JSonParser as well as by other
+ * PROV tools.  Procedure nodes are activities and data nodes are entities.
+ * Node names are written without the node numbers that the parsers add, and
+ * file values are written relative to the directory of the original ddg,
+ * so that DDGs read from text and json files export the same way.
+ */
+public class ProvJsonExporter extends GraphExporter {
+	// Prefix used for the extension attributes and node ids
+	private static final String PREFIX = "rdt:";
+
+	// Where the extensions are described
+	private static final String RDT_NAMESPACE = "https://github.com/End-to-end-provenance/ExtendedProvJson/blob/master/JSON-format.md";
+
+	// Writes the json as it is generated
+	private JsonWriter json;
+
+	// Dataflow edges are visited together, but used and wasGeneratedBy edges
+	// go in different sections.  True while writing the used section.
+	private boolean writingInputs;
+
+	// Number of the last edge written in the current section
+	private int edgeNum;
+
+	// Directory of the ddg's source file, used to make file values relative
+	private String sourceDir;
+
+	@Override
+	public String getExtension() {
+		return "json";
+	}
+
+	@Override
+	protected void write() throws IOException {
+		json = new JsonWriter(out);
+		json.setIndent("\t");
+		String sourcePath = provData.getSourcePath();
+		sourceDir = sourcePath == null ? null : provData.getSourceDDGDirectory().getPath() + File.separator;
+		try {
+			json.beginObject();
+
+			json.name("prefix").beginObject();
+			json.name("prov").value("http://www.w3.org/ns/prov#");
+			json.name("rdt").value(RDT_NAMESPACE);
+			json.endObject();
+
+			json.name("activity").beginObject();
+			provData.visitPins(this);
+			json.endObject();
+
+			json.name("entity").beginObject();
+			writeEnvironment();
+			provData.visitDins(this);
+			json.endObject();
+
+			json.name("wasInformedBy").beginObject();
+			edgeNum = 0;
+			visitControlFlowEdges();
+			json.endObject();
+
+			json.name("wasGeneratedBy").beginObject();
+			edgeNum = 0;
+			writingInputs = false;
+			visitDataflowEdges();
+			json.endObject();
+
+			json.name("used").beginObject();
+			edgeNum = 0;
+			writingInputs = true;
+			visitDataflowEdges();
+			json.endObject();
+
+			json.endObject();
+			json.flush();
+		} finally {
+			json = null;
+		}
+	}
+
+	/**
+	 * Writes the entity that describes the script and the environment it ran in
+	 * @throws IOException if the json cannot be written
+	 */
+	private void writeEnvironment() throws IOException {
+		Attributes attributes = provData.getAttributes();
+		json.name(PREFIX + "environment").beginObject();
+		if (provData.getLanguage() != null) {
+			json.name(Attributes.JSON_LANGUAGE).value(provData.getLanguage());
+		}
+		String script = attributes.get(Attributes.MAIN_SCRIPT_NAME);
+		json.name(Attributes.JSON_MAIN_SCRIPT_NAME).value(script == null ? provData.getProcessName() : script);
+		if (provData.getTimestamp() != null) {
+			json.name(Attributes.JSON_EXECUTION_TIME).value(provData.getTimestamp());
+		}
+		if (provData.getProvDir() != null) {
+			json.name(Attributes.JSON_PROV_DIRECTORY).value(provData.getProvDir());
+		}
+
+		// The first script is the main script
+		List<ScriptInfo> scripts = provData.scripts();
+		if (scripts != null && scripts.size() > 1) {
+			json.name(Attributes.JSON_SOURCED_SCRIPTS).beginArray();
+			for (ScriptInfo sourced : scripts.subList(1, scripts.size())) {
+				json.value(sourced.getFilepath());
+			}
+			json.endArray();
+			json.name(Attributes.JSON_SOURCED_SCRIPT_TIMESTAMPS).beginArray();
+			for (ScriptInfo sourced : scripts.subList(1, scripts.size())) {
+				json.value(sourced.getTimestamp());
+			}
+			json.endArray();
+		}
+		json.endObject();
+	}
+
+	@Override
+	public void visitPin(ProcedureInstanceNode pin) {
+		try {
+			json.name(PREFIX + id(pin)).beginObject();
+			json.name(PREFIX + "name").value(name(pin));
+			json.name(PREFIX + "type").value(pin.getType());
+			json.name(PREFIX + "elapsedTime").value(pin.getElapsedTime());
+			SourcePos pos = pin.getSourcePos();
+			if (pos == null) {
+				pos = new SourcePos(-1, -1, 0, -1, 0);
+			}
+			json.name(PREFIX + "scriptNum").value(orNA(pos.getScriptNumber()));
+			json.name(PREFIX + "startLine").value(orNA(pos.getStartLine()));
+			json.name(PREFIX + "startCol").value(orNA(pos.getStartCol()));
+			json.name(PREFIX + "endLine").value(orNA(pos.getEndLine()));
+			json.name(PREFIX + "endCol").value(orNA(pos.getEndCol()));
+			json.endObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void visitDin(DataInstanceNode din) {
+		try {
+			json.name(PREFIX + id(din)).beginObject();
+			json.name(PREFIX + "name").value(name(din));
+			json.name(PREFIX + "value").value(relativeValue(din));
+			json.name(PREFIX + "valType").value("");
+			json.name(PREFIX + "type").value(din.getType());
+			json.name(PREFIX + "MD5hash").value(orEmpty(din.getHash()));
+			json.name(PREFIX + "timestamp").value(orEmpty(din.getCreatedTime()));
+			json.name(PREFIX + "location").value(orEmpty(din.getLocation()));
+			json.endObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void visitControlFlowEdge(ProcedureInstanceNode predecessor, ProcedureInstanceNode successor) {
+		edgeNum++;
+		writeEdge("pp" + edgeNum, "prov:informant", id(predecessor), "prov:informed", id(successor));
+	}
+
+	@Override
+	public void visitInputEdge(DataInstanceNode input, ProcedureInstanceNode consumer) {
+		if (writingInputs) {
+			edgeNum++;
+			writeEdge("dp" + edgeNum, "prov:entity", id(input), "prov:activity", id(consumer));
+		}
+	}
+
+	@Override
+	public void visitOutputEdge(ProcedureInstanceNode producer, DataInstanceNode output) {
+		if (!writingInputs) {
+			edgeNum++;
+			writeEdge("pd" + edgeNum, "prov:activity", id(producer), "prov:entity", id(output));
+		}
+	}
+
+	private void writeEdge(String edgeId, String sourceRole, String source, String targetRole, String target) {
+		try {
+			json.name(PREFIX + edgeId).beginObject();
+			json.name(sourceRole).value(PREFIX + source);
+			json.name(targetRole).value(PREFIX + target);
+			json.endObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * The parsers turn the paths of saved files into absolute paths.  They
+	 * are turned back into paths relative to the ddg's directory.
+	 * @param din a data node
+	 * @return the node's value
+	 */
+	private String relativeValue(DataInstanceNode din) {
+		String value = value(din);
+		if (value == null) {
+			return "";
+		}
+		if (sourceDir != null && value.startsWith(sourceDir)) {
+			return value.substring(sourceDir.length());
+		}
+		return value;
+	}
+
+	private static String orNA(int n) {
+		return n == -1 ? "NA" : String.valueOf(n);
+	}
+
+	private static String orEmpty(String s) {
+		return s == null ? "" : s;
+	}
+}
@@ -0,0 +1,505 @@
+package laser.ddg.persist;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import laser.ddg.DataInstanceNode;
+import laser.ddg.ProvenanceData;
+import laser.ddg.ScriptInfo;
+
+/**
+ * A catalog of the files read and written by many executions of scripts.  Each
+ * ddg that is added contributes one run.  Files are identified by the hash of
+ * their contents, so the same file used by different runs, possibly under
+ * different names, is recorded once.
+ *
+ * Once a ddg is in the catalog, questions about which runs produced or consumed
+ * a file, or which scripts are downstream of a script, are answered from the
+ * catalog's indexes without reading the ddg files again.
+ *
+ * The catalog can be saved to and restored from a json file.  The default
+ * catalog lives in the user's ddg directory.  The file is replaced in one
+ * step when the catalog is saved, so it is never left half written, and a
+ * file that cannot be read is set aside rather than overwritten.
+ */
+public class ProvenanceCatalog {
+	// The catalog kept in the user's ddg directory
+	private static ProvenanceCatalog defaultCatalog;
+
+	// All runs, indexed by run id.  Run ids are positions in this list.
+	private List<Run> runs = new ArrayList<>();
+
+	// All files, indexed by the hash of their contents
+	private Map<String, CatalogFile> files = new LinkedHashMap<>();
+
+	// The runs of each script, indexed by the path to the main script
+	private transient Map<String, List<Run>> runsByScript = new LinkedHashMap<>();
+
+	// Runs indexed by the ddg file and its timestamp, used to avoid adding a run twice
+	private transient Map<String, Run> runsByDDG = new HashMap<>();
+
+	// Files indexed by any name they have had
+	private transient Map<String, Set<CatalogFile>> filesByName = new HashMap<>();
+
+	// True if runs have been added since the catalog was read or saved
+	private transient boolean unsaved = false;
+
+	/**
+	 * @return the catalog saved in the user's ddg directory.  It is read
+	 * 		the first time it is requested.
+	 */
+	public static synchronized ProvenanceCatalog getDefault() {
+		if (defaultCatalog == null) {
+			defaultCatalog = open(getDefaultFile());
+		}
+		return defaultCatalog;
+	}
+
+	/**
+	 * Reads a catalog if it has been saved.  If the file cannot be read, it
+	 * is renamed so that it is not overwritten when the new catalog is saved.
+	 * @param catalogFile the file the catalog is saved in
+	 * @return the catalog read, or an empty catalog if there is no file or
+	 * 		it cannot be read
+	 */
+	static ProvenanceCatalog open(File catalogFile) {
+		if (catalogFile.exists()) {
+			try {
+				return load(catalogFile);
+			} catch (IOException | JsonParseException e) {
+				System.err.println("Could not read the provenance catalog: " + e.getMessage());
+				setAside(catalogFile);
+			}
+		}
+		return new ProvenanceCatalog();
+	}
+
+	/**
+	 * Renames a catalog file that cannot be read
+	 * @param catalogFile the file to rename
+	 */
+	private static void setAside(File catalogFile) {
+		File backup = new File(catalogFile.getPath() + "." + System.currentTimeMillis() + ".bad");
+		try {
+			Files.move(catalogFile.toPath(), backup.toPath());
+			System.err.println("The unreadable catalog was saved as " + backup);
+		} catch (IOException e) {
+			System.err.println("Could not save the unreadable catalog as " + backup + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the file the default catalog is saved in
+	 */
+	public static File getDefaultFile() {
+		return new File(FileUtil.DDG_DIRECTORY, "catalog.json");
+	}
+
+	/**
+	 * Reads a catalog that was previously saved
+	 * @param catalogFile the file the catalog was saved in
+	 * @return the catalog
+	 * @throws IOException if the file cannot be read
+	 */
+	public static ProvenanceCatalog load(File catalogFile) throws IOException {
+		try (Reader in = Files.newBufferedReader(catalogFile.toPath(), StandardCharsets.UTF_8)) {
+			ProvenanceCatalog catalog = new Gson().fromJson(in, ProvenanceCatalog.class);
+			if (catalog == null) {
+				return new ProvenanceCatalog();
+			}
+			catalog.rebuildIndexes();
+			return catalog;
+		}
+	}
+
+	/**
+	 * Writes the catalog to a file.  The catalog is written to a temporary
+	 * file in the same directory, which then replaces the file, so a reader,
+	 * or a program that stops while the catalog is being saved, sees either
+	 * the old catalog or the new one.
+	 * @param catalogFile the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public synchronized void save(File catalogFile) throws IOException {
+		File dir = catalogFile.getAbsoluteFile().getParentFile();
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		Path temp = Files.createTempFile(dir.toPath(), catalogFile.getName(), ".tmp");
+		try {
+			try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				new Gson().toJson(this, out);
+			}
+			try {
+				Files.move(temp, catalogFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, catalogFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		unsaved = false;
+	}
+
+	/**
+	 * @return true if runs have been added since the catalog was read or
+	 * 		last saved
+	 */
+	public synchronized boolean hasUnsavedChanges() {
+		return unsaved;
+	}
+
+	/**
+	 * Recreates the indexes that are not saved with the catalog
+	 */
+	private void rebuildIndexes() {
+		runsByScript = new LinkedHashMap<>();
+		runsByDDG = new HashMap<>();
+		filesByName = new HashMap<>();
+		for (Run run : runs) {
+			indexRun(run);
+		}
+		for (CatalogFile file : files.values()) {
+			for (String name : file.names) {
+				filesByName.computeIfAbsent(name, (String n) -> new LinkedHashSet<>()).add(file);
+			}
+		}
+	}
+
+	/**
+	 * Adds a run to the run indexes
+	 * @param run the run to index
+	 */
+	private void indexRun(Run run) {
+		runsByScript.computeIfAbsent(run.scriptPath, (String path) -> new ArrayList<>()).add(run);
+		runsByDDG.put(ddgKey(run.ddgPath, run.timestamp), run);
+	}
+
+	/**
+	 * Adds the files used by a ddg to the catalog.  Only file nodes whose
+	 * contents could be hashed when the ddg was loaded are recorded.  A ddg that
+	 * is already in the catalog is not added again.
+	 *
+	 * @param provData the ddg to add
+	 * @return the run that records the ddg
+	 */
+	public synchronized Run addRun(ProvenanceData provData) {
+		String ddgPath = provData.getSourcePath();
+		String timestamp = provData.getTimestamp();
+		Run existing = runsByDDG.get(ddgKey(ddgPath, timestamp));
+		if (existing != null) {
+			return existing;
+		}
+
+		Run run = new Run();
+		run.id = runs.size();
+		run.processName = provData.getProcessName();
+		run.ddgPath = ddgPath;
+		run.timestamp = timestamp;
+		List<ScriptInfo> scripts = provData.scripts();
+		if (scripts != null && !scripts.isEmpty()) {
+			run.scriptPath = scripts.get(0).getFilepath();
+		}
+		else {
+			run.scriptPath = provData.getProcessName();
+		}
+
+		Iterator<DataInstanceNode> dins = provData.dinIter();
+		while (dins.hasNext()) {
+			DataInstanceNode din = dins.next();
+			String hash = din.getHash();
+			if (hash == null) {
+				continue;
+			}
+
+			CatalogFile file = files.get(hash);
+			if (file == null) {
+				file = new CatalogFile();
+				file.hash = hash;
+				files.put(hash, file);
+			}
+			if (file.names.add(din.getName())) {
+				filesByName.computeIfAbsent(din.getName(), (String n) -> new LinkedHashSet<>()).add(file);
+			}
+			if (din.getLocation() != null) {
+				file.locations.add(din.getLocation());
+			}
+
+			if (din.getProducer() != null) {
+				file.producers.add(run.id);
+				run.outputs.add(hash);
+			}
+			if (din.users().hasNext()) {
+				file.consumers.add(run.id);
+				run.inputs.add(hash);
+			}
+		}
+
+		runs.add(run);
+		indexRun(run);
+		unsaved = true;
+		return run;
+	}
+
+	/**
+	 * @return the key identifying a ddg
+	 */
+	private static String ddgKey(String ddgPath, String timestamp) {
+		return ddgPath + File.pathSeparator + timestamp;
+	}
+
+	/**
+	 * @return all the runs in the catalog
+	 */
+	public synchronized List<Run> getRuns() {
+		return Collections.unmodifiableList(new ArrayList<>(runs));
+	}
+
+	/**
+	 * @param scriptPath the path to a main script
+	 * @return the runs of the script that are in the catalog
+	 */
+	public synchronized List<Run> getRunsOfScript(String scriptPath) {
+		List<Run> scriptRuns = runsByScript.get(scriptPath);
+		if (scriptRuns == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(new ArrayList<>(scriptRuns));
+	}
+
+	/**
+	 * @param hash the SHA-1 hash of a file's contents
+	 * @return the file with those contents, or null if it is not in the catalog
+	 */
+	public synchronized CatalogFile getFile(String hash) {
+		return files.get(hash);
+	}
+
+	/**
+	 * @param name a file name as it appears in a ddg
+	 * @return all files that have had that name
+	 */
+	public synchronized Set<CatalogFile> getFilesNamed(String name) {
+		Set<CatalogFile> named = filesByName.get(name);
+		if (named == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(new LinkedHashSet<>(named));
+	}
+
+	/**
+	 * @param hash the SHA-1 hash of a file's contents
+	 * @return the runs that wrote the file
+	 */
+	public synchronized List<Run> getProducers(String hash) {
+		CatalogFile file = files.get(hash);
+		if (file == null) {
+			return Collections.emptyList();
+		}
+		return getRuns(file.producers);
+	}
+
+	/**
+	 * @param hash the SHA-1 hash of a file's contents
+	 * @return the runs that read the file
+	 */
+	public synchronized List<Run> getConsumers(String hash) {
+		CatalogFile file = files.get(hash);
+		if (file == null) {
+			return Collections.emptyList();
+		}
+		return getRuns(file.consumers);
+	}
+
+	/**
+	 * @return the runs with the given ids
+	 */
+	private List<Run> getRuns(Set<Integer> runIds) {
+		List<Run> found = new ArrayList<>(runIds.size());
+		for (int runId : runIds) {
+			found.add(runs.get(runId));
+		}
+		return found;
+	}
+
+	/**
+	 * Finds the scripts that read, directly or indirectly, a file written by
+	 * any run of the given script.
+	 * @param scriptPath the path to the main script
+	 * @return the paths of the downstream scripts, nearest first
+	 */
+	public synchronized Set<String> getDownstreamScripts(String scriptPath) {
+		return walkScripts(scriptPath, true);
+	}
+
+	/**
+	 * Finds the scripts that wrote, directly or indirectly, a file read by
+	 * any run of the given script.
+	 * @param scriptPath the path to the main script
+	 * @return the paths of the upstream scripts, nearest first
+	 */
+	public synchronized Set<String> getUpstreamScripts(String scriptPath) {
+		return walkScripts(scriptPath, false);
+	}
+
+	/**
+	 * Breadth-first walk from a script through the files its runs use.
+	 * @param scriptPath the script to start from
+	 * @param downstream true to follow outputs to their consumers, false to
+	 * 		follow inputs to their producers
+	 * @return the scripts reached, not including the starting script unless
+	 * 		it is reached around a cycle
+	 */
+	private Set<String> walkScripts(String scriptPath, boolean downstream) {
+		Set<String> found = new LinkedHashSet<>();
+		Set<String> visitedScripts = new LinkedHashSet<>();
+		Set<String> visitedFiles = new LinkedHashSet<>();
+		Deque<String> toVisit = new ArrayDeque<>();
+		toVisit.add(scriptPath);
+		visitedScripts.add(scriptPath);
+
+		while (!toVisit.isEmpty()) {
+			String script = toVisit.remove();
+			List<Run> scriptRuns = runsByScript.get(script);
+			if (scriptRuns == null) {
+				continue;
+			}
+
+			for (Run run : scriptRuns) {
+				Set<String> hashes = downstream ? run.outputs : run.inputs;
+				for (String hash : hashes) {
+					if (!visitedFiles.add(hash)) {
+						continue;
+					}
+					CatalogFile file = files.get(hash);
+					Set<Integer> next = downstream ? file.consumers : file.producers;
+					for (int runId : next) {
+						String nextScript = runs.get(runId).scriptPath;
+						found.add(nextScript);
+						if (visitedScripts.add(nextScript)) {
+							toVisit.add(nextScript);
+						}
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * The files used by one execution of a script, as recorded in its ddg.
+	 */
+	public static class Run {
+		// Position of the run in the catalog
+		private int id;
+
+		// The name of the process as recorded in the ddg
+		private String processName;
+
+		// The path to the main script
+		private String scriptPath;
+
+		// The ddg file the run was loaded from
+		private String ddgPath;
+
+		// When the ddg was created
+		private String timestamp;
+
+		// Hashes of the files the run read
+		private Set<String> inputs = new LinkedHashSet<>();
+
+		// Hashes of the files the run wrote
+		private Set<String> outputs = new LinkedHashSet<>();
+
+		public int getId() {
+			return id;
+		}
+
+		public String getProcessName() {
+			return processName;
+		}
+
+		public String getScriptPath() {
+			return scriptPath;
+		}
+
+		public String getDDGPath() {
+			return ddgPath;
+		}
+
+		public String getTimestamp() {
+			return timestamp;
+		}
+
+		public Set<String> getInputs() {
+			return Collections.unmodifiableSet(inputs);
+		}
+
+		public Set<String> getOutputs() {
+			return Collections.unmodifiableSet(outputs);
+		}
+
+		@Override
+		public String toString() {
+			return scriptPath + " " + timestamp;
+		}
+	}
+
+	/**
+	 * A file, identified by its contents, and the runs that used it.
+	 */
+	public static class CatalogFile {
+		// SHA-1 hash of the contents
+		private String hash;
+
+		// The names the file has had in ddgs
+		private Set<String> names = new LinkedHashSet<>();
+
+		// The original locations of the file
+		private Set<String> locations = new LinkedHashSet<>();
+
+		// Ids of the runs that wrote the file
+		private Set<Integer> producers = new LinkedHashSet<>();
+
+		// Ids of the runs that read the file
+		private Set<Integer> consumers = new LinkedHashSet<>();
+
+		public String getHash() {
+			return hash;
+		}
+
+		public Set<String> getNames() {
+			return Collections.unmodifiableSet(names);
+		}
+
+		public Set<String> getLocations() {
+			return Collections.unmodifiableSet(locations);
+		}
+
+		@Override
+		public String toString() {
+			return names + " " + hash;
+		}
+	}
+}
@@ -4,17 +4,17 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FilterReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StreamTokenizer;
 import java.util.ArrayList;
-
-import javax.swing.JOptionPane;
+import java.util.BitSet;
+import java.util.Iterator;
 
 import laser.ddg.Attributes;
 import laser.ddg.NoSuchDataNodeException;
 import laser.ddg.NoSuchProcNodeException;
-import laser.ddg.gui.DDGExplorer;
 import laser.ddg.visualizer.PrefuseGraphBuilder;
 
 /**
@@ -89,8 +89,30 @@ public class TextParser extends Parser {
 	// Time of the last procedure node encountered
 	private double lastProcElapsedTime = 0.0;
 
-	// Used to read from the file being parsed.
-	private Reader reader;
+	// Used to read from the file being parsed.  Counts the characters
+	// read so that progress can be reported.
+	private CountingReader reader;
+	
+	// The file being parsed
+	private File file;
+	
+	// Files at least this big have their declarations tokenized in parallel.
+	// Even with one processor, this is faster than reading them sequentially,
+	// and it lets the steps be drawn before the data nodes are added.
+	private static final long PARALLEL_THRESHOLD = 1024 * 1024;
+	
+	// How files are tokenized in parallel.  Only changed by the tests.
+	private long parallelThreshold = PARALLEL_THRESHOLD;
+	private int maxChunkSize = ParallelTextTokenizer.MAX_CHUNK_SIZE;
+	
+	// True if the declarations are being streamed from a running script
+	// rather than read from a finished file
+	private final boolean live;
+	
+	// The nodes declared so far.  In a live stream, an edge is added as soon
+	// as both of its nodes have been declared.
+	private final BitSet declaredPins = new BitSet();
+	private final BitSet declaredDins = new BitSet();
 	
 	/**
 	 * Initializes the parser
@@ -101,9 +123,31 @@ public class TextParser extends Parser {
 	 */
 	public TextParser(File file, PrefuseGraphBuilder builder) 
 		throws FileNotFoundException {
+		this (file, new BufferedReader (new FileReader (file)), builder, false);
+	}
+
+	/**
+	 * Initializes a parser that reads a DDG as it is streamed from a running
+	 * script.  Nodes and edges are added to the graph as soon as they are read,
+	 * so the builder can display the DDG while it grows.  The stream has the
+	 * same syntax as a DDG file.  If the script does not know how many
+	 * procedure nodes there will be, it can use 0 for the pin counter.
+	 * 
+	 * @param file the file the script is writing the DDG to.  Relative paths 
+	 * 	in the DDG are relative to its directory.
+	 * @param reader the stream containing the DDG
+	 * @param builder the prefuse object that will build the graph
+	 */
+	public TextParser(File file, Reader reader, PrefuseGraphBuilder builder) {
+		this (file, reader, builder, true);
+	}
+
+	private TextParser(File file, Reader reader, PrefuseGraphBuilder builder, boolean live) {
 		super (file, builder);
-		reader = new BufferedReader (new FileReader (file));
-	    in = new StreamTokenizer(reader);
+		this.file = file;
+		this.reader = new CountingReader(reader);
+		this.live = live;
+	    in = new StreamTokenizer(this.reader);
 	    in.eolIsSignificant(true);
 	    in.resetSyntax();
 
@@ -123,6 +167,19 @@ public class TextParser extends Parser {
 
 	}
 
+	/**
+	 * Changes which files are tokenized in parallel, so that the tests can
+	 * compare the two ways of reading a file.
+	 * 
+	 * @param threshold files at least this big are tokenized in parallel.
+	 * 	Long.MAX_VALUE reads all files sequentially.
+	 * @param maxChunkSize the most bytes of the file mapped at once
+	 */
+	void setParallelTokenizing(long threshold, int maxChunkSize) {
+		parallelThreshold = threshold;
+		this.maxChunkSize = maxChunkSize;
+	}
+
 	/**
 	 * Adds the nodes and edges from the DDG to the graph.
 	 * 
@@ -130,13 +187,36 @@ public class TextParser extends Parser {
 	 */
 	@Override
 	public void parseNodesAndEdges() throws IOException {
+		if (live) {
+			// The pin counter is not known until the script finishes
+			if (numPins <= 0) {
+				numPins = Integer.MAX_VALUE / 2;
+			}
+		}
+		else if (file.length() >= parallelThreshold) {
+			ParallelTextTokenizer declarations = ParallelTextTokenizer.tokenize(file, numPins, maxChunkSize);
+			if (declarations != null) {
+				reader.close();
+				declarations.replay(new DeclarationAdder());
+				return;
+			}
+		}
+		
+		// Edges are not counted as parsed until they are added
+		long edgeChars = 0;
 		int nextToken = skipBlankLines();
 		while (nextToken != StreamTokenizer.TT_EOF) {
 			// System.out.println(in.sval);
+			long declStart = reader.getCount();
+			int savedBefore = savedEdges.size();
 			parseDeclaration(nextToken);
 			nextToken = skipBlankLines();
+			if (savedEdges.size() > savedBefore) {
+				edgeChars += reader.getCount() - declStart;
+			}
+			setBytesParsed(reader.getCount() - edgeChars);
 		}
-		addEdges();
+		addEdges(reader.getCount() - edgeChars, edgeChars);
 		reader.close();
 	}
 
@@ -151,7 +231,7 @@ public class TextParser extends Parser {
 		// Skip over blank lines
 		int nextToken = skipBlankLines();
 		if (nextToken == StreamTokenizer.TT_EOF) {
-			JOptionPane.showMessageDialog(DDGExplorer.getInstance(), "The file is empty.\n\n");
+			reportError("The file is empty.\n\n");
 			throw new IOException("The file is empty.");
 		}
 		
@@ -172,13 +252,13 @@ public class TextParser extends Parser {
 					parseAttribute();
 					nextToken = skipBlankLines();
 					if (nextToken == StreamTokenizer.TT_EOF) {
-						DDGExplorer.showErrMsg("Number of pins is missing from the file.\n\n");
+						reportError("Number of pins is missing from the file.\n\n");
 						throw new IOException("Number of pins is missing from the file.");
 					}
 				}
 				
 				else {
-					DDGExplorer.showErrMsg("Line " + in.lineno() + ": Expected attribute name or pin counter.\n\n");
+					reportError("Line " + in.lineno() + ": Expected attribute name or pin counter.\n\n");
 					throw new IOException("Expected attribute name or pin counter.");
 				}
 			}
@@ -218,6 +298,9 @@ public class TextParser extends Parser {
 			else {
 				parseNode();
 			}
+			if (live) {
+				addDeclaredEdges();
+			}
 			
 			nextToken = in.nextToken();
 			if (nextToken == ';') {
@@ -225,14 +308,14 @@ public class TextParser extends Parser {
 				in.pushBack();
 			}
 			else if (nextToken != StreamTokenizer.TT_EOF && nextToken != StreamTokenizer.TT_EOL) {
-				DDGExplorer.showErrMsg("Line " + in.lineno() + ": Unexpected tokens at end of line. Token:" + nextToken + "\n\n");
+				reportError("Line " + in.lineno() + ": Unexpected tokens at end of line. Token:" + nextToken + "\n\n");
 				
 				// Consume the rest of the line.
 				consumeRestOfLine();
 			}
 		}
 		else {
-			DDGExplorer.showErrMsg("Line " + in.lineno() + ": Unexpected first token.\n\n");
+			reportError("Line " + in.lineno() + ": Unexpected first token.\n\n");
 			consumeRestOfLine();
 		}
 	}
@@ -281,7 +364,7 @@ public class TextParser extends Parser {
 		// System.out.println("Node Type:"+nodeType);
 		
 		if (in.nextToken() != StreamTokenizer.TT_WORD) {
-			DDGExplorer.showErrMsg("Line " + in.lineno() + ": Expected data or procedure node identifier:  " + nodeType + "\n\n");
+			reportError("Line " + in.lineno() + ": Expected data or procedure node identifier:  " + nodeType + "\n\n");
 			in.pushBack();
 			consumeRestOfLine();
 			return;
@@ -311,7 +394,7 @@ public class TextParser extends Parser {
 		try {
 			name = convertNextTokenToString ();
 		} catch (IllegalStateException e) {
-			DDGExplorer.showErrMsg("Line " + in.lineno() + ": Name is missing for node " + nodeId + "\n\n");
+			reportError("Line " + in.lineno() + ": Name is missing for node " + nodeId + "\n\n");
 			in.pushBack();
 			consumeRestOfLine();
 			return;
@@ -417,13 +500,14 @@ public class TextParser extends Parser {
 		//System.out.println("Line number = " + lineNum);
 		
 		addProcNode (nodeType, nodeId, name, value, elapsedTime, script, startLine, startCol, endLine, endCol);
+		nodeDeclared(nodeId);
 	}
 
 	private String parseElapsedTime() throws IOException {
 		int nextToken = in.nextToken();
 		if (nextToken != '=') {
 			in.pushBack();
-			DDGExplorer.showErrMsg("Line " + in.lineno() + ": Expected = after TIMESTAMP.\n\n");
+			reportError("Line " + in.lineno() + ": Expected = after TIMESTAMP.\n\n");
 			return null;
 		}
 
@@ -432,7 +516,7 @@ public class TextParser extends Parser {
 			return in.sval;
 		}
 
-		//DDGExplorer.showErrMsg("Line " + in.lineno() + ": Timestamp is missing for node " + nodeId + "\n\n");
+		//reportError("Line " + in.lineno() + ": Timestamp is missing for node " + nodeId + "\n\n");
 		return null;
 	}
 
@@ -459,7 +543,7 @@ public class TextParser extends Parser {
 				nextToken = in.nextToken();
 				if (nextToken != '=') {
 					in.pushBack();
-					DDGExplorer.showErrMsg("Line " + in.lineno() + ": Expected =.\n\n");
+					reportError("Line " + in.lineno() + ": Expected =.\n\n");
 					consumeRestOfLine();
 					return null;
 				}
@@ -470,7 +554,7 @@ public class TextParser extends Parser {
 				}
 				
 				in.pushBack();
-				DDGExplorer.showErrMsg("Line " + in.lineno() + ": Value is missing for node " + nodeId + "\n\n");
+				reportError("Line " + in.lineno() + ": Value is missing for node " + nodeId + "\n\n");
 				consumeRestOfLine();
 				return null;
 			}
@@ -481,7 +565,7 @@ public class TextParser extends Parser {
 		}
 
 		in.pushBack();
-		DDGExplorer.showErrMsg("Line " + in.lineno() + " Node " + nodeId + " unexpected token.\n\n");
+		reportError("Line " + in.lineno() + " Node " + nodeId + " unexpected token.\n\n");
 		consumeRestOfLine();
 		return null;
 	}
@@ -511,7 +595,7 @@ public class TextParser extends Parser {
 				
 				if (nextToken != '=') {
 					in.pushBack();
-					DDGExplorer.showErrMsg("Line " + in.lineno() + ": Expected =.\n\n");
+					reportError("Line " + in.lineno() + ": Expected =.\n\n");
 					consumeRestOfLine();
 					return null;
 				}
@@ -524,7 +608,7 @@ public class TextParser extends Parser {
 				
 				// token not found
 				in.pushBack();
-				DDGExplorer.showErrMsg("Line " + in.lineno() + ": ValType is missing for node " + nodeId + "\n\n");
+				reportError("Line " + in.lineno() + ": ValType is missing for node " + nodeId + "\n\n");
 				consumeRestOfLine();
 				return null;
 			}
@@ -536,7 +620,7 @@ public class TextParser extends Parser {
 		
 		// unexpected token
 		in.pushBack();
-		DDGExplorer.showErrMsg("Line " + in.lineno() + ": ValType is missing for node " + nodeId + "\n\n");
+		reportError("Line " + in.lineno() + ": ValType is missing for node " + nodeId + "\n\n");
 		consumeRestOfLine();
 		return null;
 	}
@@ -563,7 +647,7 @@ public class TextParser extends Parser {
 				nextToken = in.nextToken();
 				if (nextToken != '=') {
 					in.pushBack();
-					DDGExplorer.showErrMsg("Line " + in.lineno() + ": Expected =.\n\n");
+					reportError("Line " + in.lineno() + ": Expected =.\n\n");
 					consumeRestOfLine();
 					return null;
 				}
@@ -574,7 +658,7 @@ public class TextParser extends Parser {
 				}
 				
 				in.pushBack();
-				DDGExplorer.showErrMsg("Line " + in.lineno() + ": Location is missing for node " + nodeId + "\n\n");
+				reportError("Line " + in.lineno() + ": Location is missing for node " + nodeId + "\n\n");
 				consumeRestOfLine();
 				return null;
 			}
@@ -585,7 +669,7 @@ public class TextParser extends Parser {
 		}
 
 		in.pushBack();
-		DDGExplorer.showErrMsg("Line " + in.lineno() + " Node " + nodeId + " unexpected token.\n\n");
+		reportError("Line " + in.lineno() + " Node " + nodeId + " unexpected token.\n\n");
 		consumeRestOfLine();
 		return null;
 	}
@@ -637,7 +721,7 @@ public class TextParser extends Parser {
 				nextToken = in.nextToken();
 				if (nextToken != '=') {
 					in.pushBack();
-					DDGExplorer.showErrMsg("Line " + in.lineno() + ": Expected = after TIMESTAMP.\n\n");
+					reportError("Line " + in.lineno() + ": Expected = after TIMESTAMP.\n\n");
 					consumeRestOfLine();
 					return null;
 				}
@@ -647,7 +731,7 @@ public class TextParser extends Parser {
 					return in.sval;
 				}
 				
-				DDGExplorer.showErrMsg("Line " + in.lineno() + ": Timestamp is missing for node " + nodeId + "\n\n");
+				reportError("Line " + in.lineno() + ": Timestamp is missing for node " + nodeId + "\n\n");
 				consumeRestOfLine();
 				return null;
 			}
@@ -657,7 +741,7 @@ public class TextParser extends Parser {
 			return null;
 		}
 		in.pushBack();
-		DDGExplorer.showErrMsg("Line " + in.lineno() + " Node " + nodeId + " unexpected token.\n\n");
+		reportError("Line " + in.lineno() + " Node " + nodeId + " unexpected token.\n\n");
 		consumeRestOfLine();
 		return null;
 	}
@@ -693,10 +777,7 @@ public class TextParser extends Parser {
 					if (value == null) {
 						value = parseValue(nodeId);
 						if (value != null) {
-							if(nodeType.equals("File") || nodeType.equals("Snapshot")){
-								File relative = new File(builder.getSourceDDGDirectory(), value);
-								value = relative.getAbsolutePath();
-							}
+							value = resolveFileValue(nodeType, value);
 							somethingMatched = true;
 						}
 					}
@@ -730,7 +811,7 @@ public class TextParser extends Parser {
 					}
 					else {
 						// Neither value nor timestamp nor location
-						DDGExplorer.showErrMsg("Line " + in.lineno() + ": Expecting VALUE or TIMESTAMP or LOCATION for node " + nodeId + "\n\n");
+						reportError("Line " + in.lineno() + ": Expecting VALUE or TIMESTAMP or LOCATION for node " + nodeId + "\n\n");
 						consumeRestOfLine();
 						break;
 					}
@@ -739,19 +820,36 @@ public class TextParser extends Parser {
 			}
 			
 			else if (nextToken != ';') {
-				DDGExplorer.showErrMsg("Line " + in.lineno() + ": Unexpected tokens for node " + nodeId + "\n\n");
+				reportError("Line " + in.lineno() + ": Unexpected tokens for node " + nodeId + "\n\n");
 				consumeRestOfLine();
 			}
 			
 			addDataNode (nodeType, nodeId, name, value, valType, timestamp, location);
-
+			nodeDeclared(nodeId);
 			
 		} catch (IllegalStateException e) {
-			DDGExplorer.showErrMsg("Line " + in.lineno() + ": Name missing for node " + nodeId + "\n\n");
+			reportError("Line " + in.lineno() + ": Name missing for node " + nodeId + "\n\n");
 		}
 
 	}
 	
+	/**
+	 * The value of a file or snapshot node is a path relative to the DDG.
+	 * This converts it to an absolute path.
+	 * 
+	 * @param nodeType the type of the data node
+	 * @param value the node's value
+	 * @return the absolute path for files and snapshots, the value unchanged for
+	 * 	other data nodes
+	 */
+	private String resolveFileValue(String nodeType, String value) {
+		if(nodeType.equals("File") || nodeType.equals("Snapshot")){
+			File relative = new File(getSourceDDGDirectory(), value);
+			return relative.getAbsolutePath();
+		}
+		return value;
+	}
+	
 	/**
 	 * Creates a string of all attributes and their given values.
 	 * 
@@ -763,7 +861,7 @@ public class TextParser extends Parser {
 		
 		int nextToken = in.nextToken();
 		if (nextToken != '=') {
-			DDGExplorer.showErrMsg("Line " + in.lineno() + ": Expected = for attribute " + attributeName + "\n\n");
+			reportError("Line " + in.lineno() + ": Expected = for attribute " + attributeName + "\n\n");
 			consumeRestOfLine();
 			return;
 		}
@@ -785,17 +883,83 @@ public class TextParser extends Parser {
 			attributes.set(attributeName, attributeValue);
 			
 		} catch (IllegalStateException e) {
-			DDGExplorer.showErrMsg("Line " + in.lineno() + ": Attribute value missing for " + attributeName + "\n\n");
+			reportError("Line " + in.lineno() + ": Attribute value missing for " + attributeName + "\n\n");
 		}
 	}
 
 	/**
-	 * Add all the edges to the graph.
+	 * Add the edges that are still saved to the graph, in the order they
+	 * appear in the file.
+	 * 
+	 * @param charsBefore the number of characters read, not counting the
+	 * 	saved edge declarations
+	 * @param edgeChars the number of characters in the saved edge declarations.
+	 * 	These are counted as parsed in proportion to the edges added.
 	 */
-	private void addEdges() {
-    	savedEdges.stream().forEach((nextEdge) -> {
-        	parseEdge(nextEdge);
-        });
+	private void addEdges(long charsBefore, long edgeChars) {
+		int added = 0;
+		int total = savedEdges.size();
+		for (ArrayList<String> nextEdge : savedEdges) {
+			parseEdge(nextEdge);
+			added++;
+			setBytesParsed(charsBefore + edgeChars * added / total);
+		}
+	}
+
+	/**
+	 * Remembers that a node has been declared
+	 * 
+	 * @param nodeId the node's id, like p3 or d5
+	 */
+	private void nodeDeclared(String nodeId) {
+		try {
+			int num = Integer.parseInt(nodeId.substring(1));
+			if (nodeId.startsWith("p")) {
+				declaredPins.set(num);
+			}
+			else if (nodeId.startsWith("d")) {
+				declaredDins.set(num);
+			}
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			// The error is reported when an edge refers to the node
+		}
+	}
+
+	/**
+	 * @param nodeId a node id from an edge declaration
+	 * @return true if the node has been declared.  Returns
+	 * 	true for an id that is not valid so that the edge is parsed and the
+	 * 	error reported.
+	 */
+	private boolean isDeclared(String nodeId) {
+		try {
+			int num = Integer.parseInt(nodeId.substring(1));
+			if (nodeId.startsWith("p")) {
+				return declaredPins.get(num);
+			}
+			if (nodeId.startsWith("d")) {
+				return declaredDins.get(num);
+			}
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			// Let parseEdge report it
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the saved edges whose nodes have both been declared.  Scripts
+	 * declare the nodes before the edges that connect them, so there are
+	 * rarely more than a few edges waiting.
+	 */
+	private void addDeclaredEdges() {
+		Iterator<ArrayList<String>> waiting = savedEdges.iterator();
+		while (waiting.hasNext()) {
+			ArrayList<String> nextEdge = waiting.next();
+			if (nextEdge.size() < 3 || (isDeclared(nextEdge.get(1)) && isDeclared(nextEdge.get(2)))) {
+				waiting.remove();
+				parseEdge(nextEdge);
+			}
+		}
 	}
 
 	/**
@@ -806,12 +970,12 @@ public class TextParser extends Parser {
 	private void parseEdge(ArrayList<String> tokens) {
 		String edgeType = tokens.get(0);
 		if(edgeType == null){
-			DDGExplorer.showErrMsg("Invalid edge construct. Nothing to add.\n");
+			reportError("Invalid edge construct. Nothing to add.\n");
 			return;
 		}
 		
 		if(tokens.size() < 3){
-			DDGExplorer.showErrMsg("Invalid edge construct. Need valid name, source and target.\n");
+			reportError("Invalid edge construct. Need valid name, source and target.\n");
 			return;
 		}
 		
@@ -849,10 +1013,137 @@ public class TextParser extends Parser {
 			addDataProducerEdge (tokens.get(1), tokens.get(2));
 		}
 		else {
-			DDGExplorer.showErrMsg("Neither source nor target of edge is a procedure node:  " + 
+			reportError("Neither source nor target of edge is a procedure node:  " + 
 					tokens.get(0) + " " + tokens.get(1) + " " + tokens.get(2));
 		}
 	}
 
 
+	/**
+	 * Adds the declarations found by the parallel tokenizer to the DDG in the
+	 * same way that they are added when the file is read sequentially.
+	 */
+	private class DeclarationAdder implements ParallelTextTokenizer.DeclarationHandler {
+		@Override
+		public void error(String msg) {
+			reportError(msg);
+		}
+
+		@Override
+		public void procNode(String nodeType, String nodeId, String name, String value, double timeFromStart,
+				String script, String startLine, String startCol, String endLine, String endCol) {
+			if (ddgBuilder == null) {
+				return;
+			}
+			
+			double elapsedTime = 0;
+			if (!Double.isNaN(timeFromStart)) {
+				elapsedTime = timeFromStart - lastProcElapsedTime;
+				lastProcElapsedTime = timeFromStart;
+			}
+			addProcNode (nodeType, nodeId, name, value, elapsedTime, script, startLine, startCol, endLine, endCol);
+		}
+
+		@Override
+		public void dataNode(String nodeType, String nodeId, String name, String value, String valType,
+				String timestamp, String location) {
+			if (ddgBuilder == null) {
+				return;
+			}
+			
+			if (value != null) {
+				value = resolveFileValue(nodeType, value);
+			}
+			addDataNode (nodeType, nodeId, name, value, valType, timestamp, location);
+		}
+
+		@Override
+		public void controlFlowFinished() {
+			controlFlowAdded();
+		}
+
+		@Override
+		public void replayed(long bytes) {
+			setBytesParsed(bytes);
+		}
+
+		@Override
+		public void controlFlowEdge(int pred, int succ) {
+			if (ddgBuilder != null) {
+				addControlFlowEdge(pred, succ);
+			}
+		}
+
+		@Override
+		public void dataConsumerEdge(int proc, int data) {
+			if (ddgBuilder == null) {
+				return;
+			}
+			
+			try {
+				addDataConsumerEdge(proc, data);
+			} catch (NoSuchDataNodeException | NoSuchProcNodeException e) {
+				// Nothing to do.  The error message is produced inside addDataConsumerEdge.
+			}
+		}
+
+		@Override
+		public void dataProducerEdge(int proc, int data) {
+			if (ddgBuilder == null) {
+				return;
+			}
+			
+			try {
+				addDataProducerEdge(proc, data);
+			} catch (NoSuchDataNodeException | NoSuchProcNodeException | ReportErrorException e) {
+				// Nothing to do.  The error message is produced inside addDataProducerEdge.
+			}
+		}
+	}
+
+	/**
+	 * Counts the characters read from a stream.  The DDGs written by R are
+	 * ASCII, so this is also the number of bytes read.
+	 */
+	private static class CountingReader extends FilterReader {
+		// The number of characters read so far
+		private long count = 0;
+
+		private CountingReader(Reader in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int c = super.read();
+			if (c != -1) {
+				count++;
+			}
+			return c;
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException {
+			int n = super.read(cbuf, off, len);
+			if (n > 0) {
+				count += n;
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			count += skipped;
+			return skipped;
+		}
+
+		/**
+		 * @return the number of characters read so far
+		 */
+		private long getCount() {
+			return count;
+		}
+	}
+
 }
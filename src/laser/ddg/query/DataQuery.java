@@ -2,12 +2,15 @@ package laser.ddg.query;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import laser.ddg.DDGBuilder;
 import laser.ddg.DataInstanceNode;
 import laser.ddg.LanguageConfigurator;
+import laser.ddg.Metrics;
 import laser.ddg.Node;
 import laser.ddg.ProcedureInstanceNode;
 import laser.ddg.ProvenanceData;
@@ -34,6 +37,13 @@ public abstract class DataQuery extends AbstractQuery {
 	// List of data resources that should be part of the query result
 	//private List<Resource> allDinsToShow = new ArrayList<Resource>();
 	private List<DataInstanceNode> allDinsToShow = new ArrayList<>();
+
+	// The same nodes as the lists, to check membership quickly
+	private Set<ProcedureInstanceNode> pinsShown = new HashSet<>();
+	private Set<DataInstanceNode> dinsShown = new HashSet<>();
+
+	// The nodes found by the query, which are remembered in the lineage cache
+	private LineageCache.Result result;
 	
 	// Object to build the visible graph
 	private PrefuseGraphBuilder graphBuilder;
@@ -43,14 +53,56 @@ public abstract class DataQuery extends AbstractQuery {
 
 	/**
 	 * Load the nodes that are returned by the query and display the resulting DDG.
+	 * If the same query was run recently on the same ddg, and the ddg has not
+	 * changed since, the nodes found then are displayed again without 
+	 * repeating the search.  A new display is built each time since a Swing
+	 * component can only be shown in one place.
+	 * @param ddg the ddg being queried
 	 * @param qResource The data node whose derivation information
 	 * 		is being loaded
 	 */
-	public void doQuery(DataInstanceNode qResource) {
-		loadNodes(qResource);
+	public void doQuery(ProvenanceData ddg, DataInstanceNode qResource) {
+		LineageQueryEvent event = new LineageQueryEvent();
+		event.begin();
+		Metrics metrics = ddg.getMetrics();
+		result = LineageCache.get(ddg, qResource, getClass());
+		boolean cached = result != null;
+		if (result != null) {
+			metrics.increment("query.cacheHits");
+			result.getPins().forEach(this::showPin);
+			result.getDins().forEach(this::showDin);
+		}
+		else {
+			int changeCount = ddg.getChangeCount();
+			long start = System.nanoTime();
+			loadNodes(qResource);
+			metrics.recordTime("query." + getClass().getSimpleName(), start);
+			metrics.record("query.resultNodes", allPinsToShow.size() + allDinsToShow.size());
+			result = new LineageCache.Result(changeCount, allPinsToShow, allDinsToShow);
+			LineageCache.put(ddg, qResource, getClass(), result);
+		}
+		commitEvent(event, qResource, cached);
 		displayDDG(qResource);
 	}
 
+	/**
+	 * Records the query with the flight recorder, if it is recording
+	 * such events
+	 * @param event the event, which began when the query started
+	 * @param qResource the data node the query started from
+	 * @param cached true if the result was remembered from an earlier query
+	 */
+	private void commitEvent(LineageQueryEvent event, DataInstanceNode qResource, boolean cached) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.query = getClass().getSimpleName();
+			event.dataNode = qResource.getName();
+			event.resultNodes = result.getPins().size() + result.getDins().size();
+			event.cached = cached;
+			event.commit();
+		}
+	}
+
 	/**
 	 * Loads the nodes that correspond to the given query beginning at 
 	 * the resource passed in.
@@ -97,11 +149,17 @@ public abstract class DataQuery extends AbstractQuery {
 		// Sort the procedure nodes by id
     	Collections.sort(allPinsToShow, (ProcedureInstanceNode res0, ProcedureInstanceNode res1) -> res0.getId() - res1.getId());
     	
-    	// Load each procedure node, its inputs and its outputs
-		for (ProcedureInstanceNode res : allPinsToShow) {
-			ProcedureInstanceNode pin = addProcResourceToProvenance(res, pd);
-			loadInputs(pd, rootNode, res, pin);
-			loadOutputs(pd, res, pin);
+    	// Load each procedure node, its inputs and its outputs.  The
+		// display is updated once after everything is loaded.
+		pd.beginBulkLoad();
+		try {
+			for (ProcedureInstanceNode res : allPinsToShow) {
+				ProcedureInstanceNode pin = addProcResourceToProvenance(res, pd);
+				loadInputs(pd, rootNode, res, pin);
+				loadOutputs(pd, res, pin);
+			}
+		} finally {
+			pd.commitBulkLoad();
 		}
 		
 		// If graph contains no procedure nodes, display a message.  It might contain
@@ -188,7 +246,7 @@ public abstract class DataQuery extends AbstractQuery {
 			DataInstanceNode nextData = outputs.next();
 			
 			// Check if the node is part of the query result
-			if (allDinsToShow.contains(nextData)) {
+			if (dinsShown.contains(nextData)) {
 				
 				// Check if the node has already been copied
 				if (!nodesToResContains(nextData, pd)) {
@@ -246,7 +304,7 @@ public abstract class DataQuery extends AbstractQuery {
 			DataInstanceNode nextInput = inputs.next();
 			
 			// Check if the input is part of the query result
-			if (allDinsToShow.contains(nextInput)) {
+			if (dinsShown.contains(nextInput)) {
 				
 				// Get the new version of the input and hookup the edges
 				// to the new procedure node.
@@ -308,7 +366,7 @@ public abstract class DataQuery extends AbstractQuery {
 	 * @param res the resource to add
 	 */
 	protected void showDin(DataInstanceNode res) {
-		if (!allDinsToShow.contains(res)) {
+		if (dinsShown.add(res)) {
 			allDinsToShow.add(res);			
 		}
 	}
@@ -335,7 +393,7 @@ public abstract class DataQuery extends AbstractQuery {
 	 * @param nextProcResource the resource
 	 */
 	protected void showPin(ProcedureInstanceNode nextProcResource) {
-		if (!allPinsToShow.contains(nextProcResource)) {
+		if (pinsShown.add(nextProcResource)) {
 			allPinsToShow.add(nextProcResource);
 		}
 	}
@@ -0,0 +1,154 @@
+package laser.ddg.query;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import laser.ddg.DataInstanceNode;
+import laser.ddg.ProcedureInstanceNode;
+import laser.ddg.ProvenanceData;
+
+/**
+ * Remembers the results of recent lineage queries so that asking about the
+ * same data node again does not repeat the search.  Only the nodes found are
+ * remembered, not their display, since a Swing component can only be shown
+ * in one tab at a time.  A result is identified by the ddg, the data node the
+ * query started from, and the kind of query.  Only the most recently used
+ * results are kept, and they are held by soft references so the garbage
+ * collector can reclaim them when memory runs low.  A result is discarded
+ * once nodes or data edges are added to its ddg.
+ */
+class LineageCache {
+	// The most results remembered
+	private static final int MAX_RESULTS = 32;
+
+	// The results, least recently used first
+	private static final Map<Key, SoftReference<Result>> results =
+		new LinkedHashMap<Key, SoftReference<Result>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, SoftReference<Result>> eldest) {
+				return size() > MAX_RESULTS;
+			}
+		};
+
+	/**
+	 * Looks up the result of a query
+	 * @param ddg the ddg queried
+	 * @param start the data node the query starts from
+	 * @param query the kind of query
+	 * @return the result, or null if it is not remembered or the ddg has
+	 * 	changed since it was computed
+	 */
+	static synchronized Result get(ProvenanceData ddg, DataInstanceNode start, Class<?> query) {
+		removeCollected();
+		Key key = new Key(ddg, start.getId(), query);
+		SoftReference<Result> ref = results.get(key);
+		Result result = ref == null ? null : ref.get();
+		if (result != null && result.changeCount != ddg.getChangeCount()) {
+			results.remove(key);
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 * Remembers the result of a query
+	 * @param ddg the ddg queried
+	 * @param start the data node the query started from
+	 * @param query the kind of query
+	 * @param result the nodes found
+	 */
+	static synchronized void put(ProvenanceData ddg, DataInstanceNode start, Class<?> query, Result result) {
+		results.put(new Key(ddg, start.getId(), query), new SoftReference<>(result));
+	}
+
+	/**
+	 * Forgets results whose ddg or contents have been garbage collected
+	 */
+	private static void removeCollected() {
+		Iterator<Map.Entry<Key, SoftReference<Result>>> entries = results.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<Key, SoftReference<Result>> entry = entries.next();
+			if (entry.getKey().ddg.get() == null || entry.getValue().get() == null) {
+				entries.remove();
+			}
+		}
+	}
+
+	/**
+	 * The nodes found by a query
+	 */
+	static class Result {
+		// The ddg's change count when the query was run
+		private final int changeCount;
+
+		// The procedure nodes in the result
+		private final List<ProcedureInstanceNode> pins;
+
+		// The data nodes in the result
+		private final List<DataInstanceNode> dins;
+
+		/**
+		 * @param changeCount the ddg's change count when the query was run
+		 * @param pins the procedure nodes in the result
+		 * @param dins the data nodes in the result
+		 */
+		Result(int changeCount, List<ProcedureInstanceNode> pins, List<DataInstanceNode> dins) {
+			this.changeCount = changeCount;
+			this.pins = new ArrayList<>(pins);
+			this.dins = new ArrayList<>(dins);
+		}
+
+		/**
+		 * @return the procedure nodes in the result
+		 */
+		List<ProcedureInstanceNode> getPins() {
+			return pins;
+		}
+
+		/**
+		 * @return the data nodes in the result
+		 */
+		List<DataInstanceNode> getDins() {
+			return dins;
+		}
+	}
+
+	/**
+	 * Identifies a query.  The ddg is only weakly referenced so that
+	 * closing it lets it be collected.
+	 */
+	private static class Key {
+		private final WeakReference<ProvenanceData> ddg;
+		private final int startId;
+		private final Class<?> query;
+		private final int hash;
+
+		private Key(ProvenanceData ddg, int startId, Class<?> query) {
+			this.ddg = new WeakReference<>(ddg);
+			this.startId = startId;
+			this.query = query;
+			hash = (System.identityHashCode(ddg) * 31 + startId) * 31 + query.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key otherKey = (Key) other;
+			ProvenanceData thisDDG = ddg.get();
+			return thisDDG != null && thisDDG == otherKey.ddg.get()
+					&& startId == otherKey.startId && query == otherKey.query;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package laser.ddg.query;
+
+import laser.ddg.FlightEvent;
+import laser.ddg.FlightEvent.EventInfo;
+import laser.ddg.FlightEvent.FieldInfo;
+
+/**
+ * Flight recorder event for finding the nodes in the lineage of a data node.
+ * It does not include drawing the result.
+ */
+@EventInfo(name = "laser.ddg.LineageQuery", label = "DDG Lineage Query",
+	category = {"DDG Explorer", "Query"},
+	description = "Finding the nodes in the lineage of a data node")
+class LineageQueryEvent extends FlightEvent {
+	@FieldInfo("Query")
+	String query;
+
+	@FieldInfo("Data Node")
+	String dataNode;
+
+	@FieldInfo("Result Nodes")
+	int resultNodes;
+
+	@FieldInfo("Cached")
+	boolean cached;
+}
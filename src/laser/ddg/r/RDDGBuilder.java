@@ -82,28 +82,36 @@ public class RDDGBuilder extends DDGBuilder {
 	public ProcedureInstanceNode addProceduralNode(String type, int id, String nodeName, String funcName, double elapsedTime, SourcePos sourcePos){
 		RFunctionInstanceNode newFuncNode = null;
 		ProvenanceData provObject = getProvObject();
-		if(type.equals("Start")){
+		nodeName = intern(nodeName);
+		funcName = internValue(funcName);
+		switch (type) {
+		case "Start":
 			newFuncNode = new RStartNode(nodeName, funcName, provObject, elapsedTime, sourcePos);
-		}
-		else if(type.equals("Leaf") || type.equals("Operation") || type.equals("Incomplete")){
+			break;
+		case "Leaf":
+		case "Operation":
+		case "Incomplete":
 			newFuncNode = new RLeafNode(nodeName, funcName, provObject, elapsedTime, sourcePos);
-		}
-		else if(type.equals("Finish")){
+			break;
+		case "Finish":
 			newFuncNode = new RFinishNode(nodeName, provObject, elapsedTime, sourcePos);
-		}
-		else if(type.equals("Interm")){
+			break;
+		case "Interm":
 			// This type is not currently produced by RDataTracker.
 			newFuncNode = new RIntermNode(nodeName, provObject, elapsedTime, sourcePos);
-		}
-		else if(type.equals("Binding")){
+			break;
+		case "Binding":
 			// This type is not currently produced by RDataTracker.
 			newFuncNode = new RBindingNode(nodeName, provObject, elapsedTime, sourcePos);
-		}
-		else if (type.equals("Checkpoint")) {
+			break;
+		case "Checkpoint":
 			newFuncNode = new RCheckpointNode(nodeName, provObject, elapsedTime, sourcePos);
-		}
-		else if (type.equals("Restore")) {
+			break;
+		case "Restore":
 			newFuncNode = new RRestoreNode(nodeName, provObject, elapsedTime, sourcePos);
+			break;
+		default:
+			break;
 		}
 		if (newFuncNode != null) {
 			provObject.addPIN(newFuncNode, id);
@@ -137,7 +145,7 @@ public class RDDGBuilder extends DDGBuilder {
 	 */
 	@Override
 	public DataInstanceNode addDataNode(String type, int id, String name, String value, String time, String location){
-		RDataInstanceNode dataNode = new RDataInstanceNode(type, name, value, time, location);
+		RDataInstanceNode dataNode = new RDataInstanceNode(intern(type), intern(name), internValue(value), time, intern(location));
 		getProvObject().addDIN(dataNode, id);
 		return dataNode;
 	}
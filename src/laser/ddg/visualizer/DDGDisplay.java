@@ -1,6 +1,7 @@
 package laser.ddg.visualizer;
 
 import java.awt.Color;
+import java.awt.Cursor;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
@@ -18,11 +19,13 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPopupMenu;
 import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 
 import laser.ddg.DataInstanceNode;
 import laser.ddg.NoScriptFileException;
@@ -31,6 +34,7 @@ import laser.ddg.SourcePos;
 import laser.ddg.commands.ShowDataFlowCommand;
 import laser.ddg.gui.DDGExplorer;
 import laser.ddg.gui.DDGPanel;
+import laser.ddg.persist.FileHashCache;
 import laser.ddg.query.DerivationQuery;
 import laser.ddg.query.ResultsQuery;
 import prefuse.Display;
@@ -62,9 +66,11 @@ public class DDGDisplay extends Display {
 	private static final int FILE_CURRENT = 0;
 	private static final int FILE_INCONSISTENT_WITH_DDG = 1;
 	private static final int FILE_INCONSISTENT_WITH_DDG_CANCEL = -1;
-	private static final int FILE_MISSING = -2;
 	private static final String FUNCTION = "#ddg.function";
 
+	// Format of the timestamps stored in the DDG.  Only used on the Swing thread.
+	private static final DateFormat DDG_TIME_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH.mm.sszzz");
+
 	/**
 	 * Create a display for a prefuse DDG
 	 * 
@@ -119,8 +125,9 @@ public class DDGDisplay extends Display {
 	}
 
 	private void openFile(final NodeItem n) throws IOException {
-		// Get timeStamp if one has been included
+		// Get timeStamp and hash if they have been included
 		String ddgTime = PrefuseUtils.getTimestamp(n);
+		String ddgHash = PrefuseUtils.getHash(n);
 
 		// Get the extension of the node's value
 		String value = PrefuseUtils.getValue(n);
@@ -132,9 +139,9 @@ public class DDGDisplay extends Display {
 			if (valueExt.equals(".csv") || valueExt.equals(".txt")) {
 				// make sure it has the correct slashes in the path
 				value = getOS(value);
-				createFileFrame(value, ddgTime);
+				createFileFrame(value, ddgTime, ddgHash);
 			} else if (valueExt.equals(".jpeg") || valueExt.equals(".png") || valueExt.equals(".gif")) {
-				createPlotFrame(value, ddgTime);
+				createPlotFrame(value, ddgTime, ddgHash);
 			} else if (valueExt.equals(".RData")) {
 				JOptionPane.showMessageDialog(DDGDisplay.this, "R Checkpoint file: " + value);
 			} else { // if(valueExt.equals(".pdf") || valueExt.equals(".html")
@@ -162,28 +169,11 @@ public class DDGDisplay extends Display {
 	 *            path of the file (either .csv or .txt)
 	 * @param time
 	 *            timestamp of the file given by the DDG
+	 * @param hash
+	 *            MD5 hash of the file given by the DDG, or null
 	 */
-	private void createFileFrame(String path, String time) throws IOException {
-		// Check the timestamps
-		// assume no change if timestamp was never given
-		int tChange = FILE_CURRENT;
-		if (time != null) {
-			tChange = timeChanged(path, time);
-		}
-
-		// Timestamp of file is not consistent with the ddg and the
-		// user canceled the request to view the file
-		if (tChange == FILE_INCONSISTENT_WITH_DDG_CANCEL || tChange == FILE_MISSING) {
-			return;
-		}
-
-		FileViewer fileViewer = new FileViewer(path, time);
-		if (tChange == FILE_INCONSISTENT_WITH_DDG) {
-			// Add warning border if file is inconsistent with the ddg
-			fileViewer.addBorder(Color.RED);
-		}
-		fileViewer.displayFile();
-
+	private void createFileFrame(String path, String time, String hash) throws IOException {
+		displayCheckedFile(path, time, hash);
 	}
 
 	/**
@@ -195,23 +185,92 @@ public class DDGDisplay extends Display {
 	 *            .png or a URL
 	 * @param time
 	 *            timestamp of the plot given by the DDG
+	 * @param hash
+	 *            MD5 hash of the plot given by the DDG, or null
 	 * @exception IOException if the image file cannot be read
 	 */
-	private void createPlotFrame(String path, String time) throws IOException {
-		// Check the timestamps
-		// assume no change if timestamp was never given
-		int tChange = FILE_CURRENT;
-		if (time != null) {
-			tChange = timeChanged(path, time);
+	private void createPlotFrame(String path, String time, String hash) throws IOException {
+		displayCheckedFile(path, time, hash);
+	}
+
+	/**
+	 * Displays a file or plot after checking that it is unchanged since the
+	 * DDG was created.  If the DDG recorded a hash of the file, the file is
+	 * hashed in the background and displayed once the hash is ready, so the 
+	 * display does not freeze while a large file is read.  Otherwise, the
+	 * file's timestamp is compared with the time recorded in the DDG.
+	 * 
+	 * @param path
+	 *            path of the file
+	 * @param time
+	 *            timestamp of the file given by the DDG, or null
+	 * @param hash
+	 *            MD5 hash of the file given by the DDG, or null
+	 * @exception IOException if the file cannot be read
+	 */
+	private void displayCheckedFile(String path, final String time, final String hash) throws IOException {
+		// assume no change if neither was given
+		if (time == null && hash == null) {
+			new FileViewer(path, time).displayFile();
+			return;
+		}
+
+		final File file = new File(path);
+		if (!file.exists()) {
+			JOptionPane.showMessageDialog(this, "File " + path + " does not exist.");
+			return;
+		}
+
+		final FileViewer fileViewer = new FileViewer(path, time);
+		if (hash == null) {
+			displayIfWanted(fileViewer, timeChanged(file, time));
+			return;
 		}
 
-		// Timestamp of file is not consistent with the ddg and the
+		final Cursor cursor = getCursor();
+		setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+		new SwingWorker<Boolean, Void>() {
+			@Override
+			protected Boolean doInBackground() throws IOException {
+				// Hashes are remembered, so this is only slow the first time
+				// a large file is checked.
+				return FileHashCache.matches(file, hash, FileHashCache.MD5);
+			}
+
+			@Override
+			protected void done() {
+				setCursor(cursor);
+				int tChange;
+				try {
+					if (get()) {
+						tChange = FILE_CURRENT;
+					}
+					else {
+						tChange = confirmOpenInconsistentFile(
+								"The contents of the file have changed since the DDG was created. Would you like to open the file anyway?",
+								"File Contents Warning");
+					}
+				} catch (InterruptedException | ExecutionException e) {
+					// Could not hash the file.  Fall back to checking the timestamp.
+					tChange = timeChanged(file, time);
+				}
+				displayIfWanted(fileViewer, tChange);
+			}
+		}.execute();
+	}
+
+	/**
+	 * Displays a file unless the user has declined to see it
+	 * @param fileViewer the viewer holding the file's contents
+	 * @param tChange the result of checking the file against the DDG
+	 */
+	private static void displayIfWanted(FileViewer fileViewer, int tChange) {
+		// Timestamp or contents of file are not consistent with the ddg and the
 		// user canceled the request to view the file
-		if (tChange == FILE_INCONSISTENT_WITH_DDG_CANCEL || tChange == FILE_MISSING) {
+		if (tChange == FILE_INCONSISTENT_WITH_DDG_CANCEL) {
 			return;
 		}
 
-		FileViewer fileViewer = new FileViewer(path, time);
 		if (tChange == FILE_INCONSISTENT_WITH_DDG) {
 			// Add warning border if file is inconsistent with the ddg
 			fileViewer.addBorder(Color.RED);
@@ -220,23 +279,21 @@ public class DDGDisplay extends Display {
 	}
 
 	/**
-	 * Function to check timestamps of files and plots against the time that
-	 * they were created
+	 * Function to check whether files and plots are unchanged since the DDG
+	 * was created, by comparing the file's timestamp with the time recorded 
+	 * in the DDG.
 	 * 
-	 * @param path
-	 *            the file/plot timestamp given by the system
+	 * @param file
+	 *            the file/plot, which exists
 	 * @param time
 	 *            the timestamp associated with the file/plot given from the DDG
 	 * @return returns FILE_INCONSISTENT_WITH_DDG(conflict but viewable),
 	 *         FILE_CURRENT(no conflict) or FILE_INCONSISTENT_WITH_DDG_CANCEL
 	 *         (conflict but don't view)
 	 */
-	private int timeChanged(String path, String time) {
-		File file = new File(path);
-
-		if (!file.exists()) {
-			JOptionPane.showMessageDialog(this, "File " + path + " does not exist.");
-			return FILE_MISSING;
+	private int timeChanged(File file, String time) {
+		if (time == null) {
+			return FILE_CURRENT;
 		}
 
 		// Determine the timeStamp of the file now
@@ -245,11 +302,10 @@ public class DDGDisplay extends Display {
 
 		// make a date object out of the original timestamp so they can be
 		// compared
-		DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH.mm.sszzz");
 		Date ddgTime;
 
 		try {
-			ddgTime = formatter.parse(time);
+			ddgTime = DDG_TIME_FORMAT.parse(time);
 
 			// find difference between the dates, acceptable if not more than a
 			// minute apart.
@@ -259,16 +315,9 @@ public class DDGDisplay extends Display {
 			}
 
 			// Time on the file is after time stored in DDG
-			int choice = JOptionPane.showConfirmDialog(DDGDisplay.this,
+			return confirmOpenInconsistentFile(
 					"There is a conflict between the timestamps. File may be modified. Would you like to open the file anyway?",
-					"File Timestamps Warning", JOptionPane.OK_CANCEL_OPTION);
-			if (choice == JOptionPane.OK_OPTION) {
-				// conflict but still show file
-				return FILE_INCONSISTENT_WITH_DDG;
-			} else {
-				// conflict but do not open file
-				return FILE_INCONSISTENT_WITH_DDG_CANCEL;
-			}
+					"File Timestamps Warning");
 		} catch (ParseException e) {
 			DDGExplorer.showErrMsg("Error with parsing the DDG timestamp. " + e.getMessage());
 			e.printStackTrace(System.err);
@@ -276,6 +325,24 @@ public class DDGDisplay extends Display {
 		}
 	}
 
+	/**
+	 * Asks the user whether to open a file that does not match the DDG
+	 * @param message the question to ask
+	 * @param title the title of the dialog
+	 * @return FILE_INCONSISTENT_WITH_DDG if the user wants to see the file,
+	 * 		FILE_INCONSISTENT_WITH_DDG_CANCEL if not
+	 */
+	private int confirmOpenInconsistentFile(String message, String title) {
+		int choice = JOptionPane.showConfirmDialog(DDGDisplay.this, message, title, JOptionPane.OK_CANCEL_OPTION);
+		if (choice == JOptionPane.OK_OPTION) {
+			// conflict but still show file
+			return FILE_INCONSISTENT_WITH_DDG;
+		} else {
+			// conflict but do not open file
+			return FILE_INCONSISTENT_WITH_DDG_CANCEL;
+		}
+	}
+
 	/**
 	 * Function that will determine whether the program is being run on a PC or
 	 * MAC If windows, it will change all paths to reflect the syntax accepted
@@ -304,8 +371,7 @@ public class DDGDisplay extends Display {
 	 */
 	private void displayFunc(VisualItem leaf) throws NoScriptFileException {
 		// Get the Data node for this leaf
-		String leafName = PrefuseUtils.getName((NodeItem) leaf);		
-		DataInstanceNode funcDin = builder.getDataNode (leafName);
+		DataInstanceNode funcDin = builder.getDataNode ((NodeItem) leaf);
 		
 		// Find the node that sets the function value
 		ProcedureInstanceNode funcPin = funcDin.getProducer();
@@ -415,6 +481,19 @@ public class DDGDisplay extends Display {
 			}
 		};
 
+		private PopupCommand collapseLoopCommand = new PopupCommand("Collapse Loop") {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				VisualItem item = findItem(p);
+				if (item instanceof NodeItem) {
+					NodeItem loopNode = builder.collapseIterations((NodeItem) item);
+					if (loopNode != null) {
+						builder.layout(loopNode);
+					}
+				}
+			}
+		};
+
 		private PopupCommand showElapsedTimeCommand = new PopupCommand("Show Elapsed Execution Time") {
 
 			@Override
@@ -584,7 +663,7 @@ public class DDGDisplay extends Display {
 		private PopupCommand showHowComputedCommand = new PopupCommand("Show how value was computed") {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-                ShowDataFlowCommand.execute((Node) findItem(p), new DerivationQuery());
+                ShowDataFlowCommand.execute(builder, (Node) findItem(p), new DerivationQuery());
 			}
 
 		};
@@ -593,7 +672,7 @@ public class DDGDisplay extends Display {
 		private PopupCommand showWhatIsComputedCommand = new PopupCommand("Show what is computed using this value") {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-                ShowDataFlowCommand.execute((Node) findItem(p), new ResultsQuery());
+                ShowDataFlowCommand.execute(builder, (Node) findItem(p), new ResultsQuery());
 			}
 
 		};
@@ -620,7 +699,12 @@ public class DDGDisplay extends Display {
 						return;
 					}
 
-					if (PrefuseUtils.isCollapsed(item)) {
+					if (PrefuseUtils.isCollapsed(item) && builder.isIterationMember((NodeItem) item)) {
+						showPopup(e, expandCommand, expandAllCommand, collapseLoopCommand, showFunctionCommand,
+								showElapsedTimeCommand);
+					}
+
+					else if (PrefuseUtils.isCollapsed(item)) {
 						showPopup(e, expandCommand, expandAllCommand, showFunctionCommand,
 								showElapsedTimeCommand/* , showLineNumberCommand */);
 					}
@@ -639,9 +723,14 @@ public class DDGDisplay extends Display {
 					}
 
 					else if (PrefuseUtils.isAnyDataNode((NodeItem) item)) {
+						startVerifyingFile((NodeItem) item);
 						showPopup(e, showValueCommand, showHowComputedCommand, showWhatIsComputedCommand);
 					}
 
+					else if (PrefuseUtils.isLeafNode((NodeItem) item) && builder.isIterationMember((NodeItem) item)) {
+						showPopup(e, collapseLoopCommand, showFunctionCommand, showElapsedTimeCommand);
+					}
+
 					else if (PrefuseUtils.isLeafNode((NodeItem) item)) {
 						showPopup(e, showFunctionCommand,
 								showElapsedTimeCommand/* , showLineNumberCommand */);
@@ -658,6 +747,23 @@ public class DDGDisplay extends Display {
 				}
 			}
 
+			/**
+			 * Starts hashing the file behind a data node while the user is looking
+			 * at the menu, so that the result is likely to be ready if they ask to
+			 * see the file.
+			 * @param item the data node
+			 */
+			private void startVerifyingFile(NodeItem item) {
+				String hash = PrefuseUtils.getHash(item);
+				String value = PrefuseUtils.getValue(item);
+				if (hash != null && value != null && PrefuseUtils.isFile(item)) {
+					File file = new File(getOS(value));
+					if (file.exists()) {
+						FileHashCache.hashInBackground(file, FileHashCache.MD5);
+					}
+				}
+			}
+
 			private void showPopup(MouseEvent e, PopupCommand... commands) {
 				JPopupMenu popup = new JPopupMenu();
 
@@ -686,4 +792,17 @@ public class DDGDisplay extends Display {
         paintDisplay((Graphics2D) g, getSize());
     }
 
+	/**
+	 * Paints the DDG, recording how long painting takes
+	 */
+	@Override
+	public void paintComponent(Graphics g) {
+		long start = System.nanoTime();
+		super.paintComponent(g);
+		Visualization vis = getVisualization();
+		if (vis instanceof DDGVisualization) {
+			((DDGVisualization) vis).getMetrics().recordTime("display.paint", start);
+		}
+	}
+
 }
@@ -2,13 +2,16 @@ package laser.ddg.visualizer;
 
 
 import java.awt.geom.Point2D;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 
 import prefuse.action.layout.graph.TreeLayout;
 import prefuse.data.Graph;
@@ -44,6 +47,10 @@ public class DDGLayout extends TreeLayout {
 	// The rightmost node at each depth
 	private Map<Integer, NodeItem> rightMostAtDepth = new HashMap<>();
 
+	// Whether there is a path from a node to the layout root.  Remembered
+	// for the rest of a layout since most nodes share the nodes above them.
+	private Map<Node, Boolean> reachesRoot = new HashMap<>();
+
 	// If true, means that we are drawing a data derivation, not a full DDG.
 	// The graph might not contain any control flow edges, which affects the way
 	// layout is done.
@@ -73,6 +80,20 @@ public class DDGLayout extends TreeLayout {
 		this.collapsedRoot = collapsedRoot;
 	}
 
+	/**
+	 * Creates a layout with the same settings for a copy of the graph, so
+	 * that the copy can be laid out without holding the visualization's lock.
+	 * @param copyOf finds the item of the copy that corresponds to an item of
+	 * 	the graph this layout belongs to
+	 * @return the new layout.  Its visualization and anchor still need to be set.
+	 */
+	DDGLayout copyFor(UnaryOperator<NodeItem> copyOf) {
+		DDGLayout copy = new DDGLayout(m_group, dataDerivation);
+		copy.m_root = copyOf.apply(m_root);
+		copy.collapsedRoot = copyOf.apply(collapsedRoot);
+		return copy;
+	}
+
 	private double spacing(NodeItem l, NodeItem r, boolean siblings) {
 		double totalDistance = l.getBounds().getWidth() + r.getBounds().getWidth();
 
@@ -108,11 +129,15 @@ public class DDGLayout extends TreeLayout {
 	 */
 	@Override
 	public void run(double frac) {
+		LayoutEvent event = new LayoutEvent();
+		event.begin();
+		long start = System.nanoTime();
 		NodeItem root = getLayoutRoot();
 		synchronized(root.getVisualization()) {
 			// initialize the two sets every time the layout is done
 			laidOutNodes = new HashSet<>();
 			secondWalkDone = new HashSet<>();
+			reachesRoot = new HashMap<>();
 
 			Graph g = (Graph) m_vis.getGroup(m_group);
 			TupleSet nodes = g.getNodes();
@@ -139,6 +164,14 @@ public class DDGLayout extends TreeLayout {
 			// do second pass - assign layout positions
 			secondWalk(root, null, -rp.prelim, 0);
 		}
+		((DDGVisualization) m_vis).getMetrics().recordTime("layout.tree", start);
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.layout = "tree";
+			event.visibleNodes = laidOutNodes.size();
+			event.commit();
+		}
 	}
 	
 	@Override
@@ -320,7 +353,7 @@ public class DDGLayout extends TreeLayout {
 
 		while (neighbors.hasNext()) {
 			Node neighbor = neighbors.next();
-			if (!PrefuseUtils.pathExists(neighbor, root)) {
+			if (!pathExists(neighbor, root)) {
 				//System.out.println("    Adding " + neighbor);
 				unattachedParents.add((NodeItem) neighbor);
 			}
@@ -329,6 +362,61 @@ public class DDGLayout extends TreeLayout {
 		return unattachedParents.iterator();
 	}
 
+	/**
+	 * Returns true if there is a directed path from a node to the root.  This
+	 * gives the same answer as PrefuseUtils.pathExists, but it remembers the
+	 * answer for each node it searches, and it does not recurse, so a long
+	 * chain of nodes above the node cannot overflow the stack.
+	 * @param start the start of the path
+	 * @param root the layout root
+	 * @return true if the path exists
+	 */
+	private boolean pathExists(Node start, Node root) {
+		Boolean known = reachesRoot.get(start);
+		if (known != null) {
+			return known;
+		}
+
+		// Depth-first search.  The stacks hold the path being followed and
+		// the neighbors not yet searched at each node on it.
+		Set<Node> visited = new HashSet<>();
+		Deque<Node> path = new ArrayDeque<>();
+		Deque<Iterator<Node>> unsearched = new ArrayDeque<>();
+		visited.add(start);
+		path.push(start);
+		@SuppressWarnings("unchecked")
+		Iterator<Node> startNeighbors = start.outNeighbors();
+		unsearched.push(startNeighbors);
+		boolean found = start == root;
+		while (!found && !unsearched.isEmpty()) {
+			Iterator<Node> neighbors = unsearched.peek();
+			if (!neighbors.hasNext()) {
+				unsearched.pop();
+				path.pop();
+			}
+			else {
+				Node neighbor = neighbors.next();
+				Boolean neighborKnown = reachesRoot.get(neighbor);
+				if (neighbor == root || Boolean.TRUE.equals(neighborKnown)) {
+					found = true;
+				}
+				else if (neighborKnown == null && visited.add(neighbor)) {
+					path.push(neighbor);
+					@SuppressWarnings("unchecked")
+					Iterator<Node> furtherNeighbors = neighbor.outNeighbors();
+					unsearched.push(furtherNeighbors);
+				}
+			}
+		}
+
+		// If the search found the root, everything on the path reaches it.
+		// Otherwise, nothing that was searched does.
+		for (Node n : found ? path : visited) {
+			reachesRoot.put(n, found);
+		}
+		return found;
+	}
+
 	private void resetRightMost() {
 		rightMostAtDepth = new HashMap<>();
 	}
@@ -1,14 +1,17 @@
 package laser.ddg.visualizer;
 
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
+import laser.ddg.Metrics;
 import laser.ddg.SourcePos;
 import prefuse.Visualization;
 import prefuse.data.Node;
 import prefuse.render.DefaultRendererFactory;
 import prefuse.render.EdgeRenderer;
 import prefuse.render.LabelRenderer;
+import prefuse.render.RendererFactory;
 import prefuse.visual.NodeItem;
 import prefuse.visual.VisualItem;
 
@@ -40,6 +43,29 @@ public class DDGVisualization extends Visualization {
 	// nodes and their collapsed node.
 	private CheckpointTable checkpointTable = new CheckpointTable();
 	
+	// How the renderers were last configured
+	private int arrowDirection = prefuse.Constants.EDGE_ARROW_FORWARD;
+	private boolean showLineNumbers = false;
+	
+	// Where the time spent laying out and painting the ddg is recorded.
+	// Replaced by the ddg's own metrics once the ddg is known.
+	private volatile Metrics metrics = new Metrics();
+	
+	/**
+	 * @return where the time spent laying out and painting the ddg is recorded
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @param metrics where to record the time spent laying out and painting
+	 * 	the ddg
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
 	/**
 	 * Add an entry in the step table
 	 * @param collapsedNode the collapsed node
@@ -55,6 +81,38 @@ public class DDGVisualization extends Visualization {
 		}
 	}
 
+	/**
+	 * Add an entry in the step table for a node standing for the iterations
+	 * of a loop, or for one iteration
+	 * @param collapsedNode the collapsed node
+	 * @param startNode the first member
+	 * @param finishNode the last member
+	 * @param memberNodes the members, which are moved out of the collapsed
+	 * 	node they were directly inside
+	 */
+	public void addIterations(NodeItem collapsedNode, NodeItem startNode, NodeItem finishNode,
+			Set<NodeItem> memberNodes) {
+		stepTable.addIterations(collapsedNode, startNode, finishNode, memberNodes);
+	}
+
+	/**
+	 * @param collapsedNode a collapsed node
+	 * @return true if it stands for the iterations of a loop, or for one iteration
+	 */
+	public boolean isIterations(Node collapsedNode) {
+		return stepTable.isIterations(collapsedNode);
+	}
+
+	/**
+	 * Returns the iteration node that a node is directly inside
+	 * @param node the node
+	 * @return the iteration node, or null if the node is not directly
+	 * 	inside one
+	 */
+	public NodeItem getIterations(Node node) {
+		return stepTable.getIterations(node);
+	}
+
 	/**
 	 * Returns the members contained directly within the collapsed node.
 	 * @param collapsedNode the collapsed node
@@ -76,6 +134,31 @@ public class DDGVisualization extends Visualization {
 		return stepTable.nestedContains(collapsedNode, node);
 	}
 
+	/**
+	 * Returns the collapsed steps that a node is nested in
+	 * @param node the node
+	 * @return the enclosing collapsed steps, innermost first
+	 */
+	public List<NodeItem> getEnclosingSteps(Node node) {
+		return stepTable.getEnclosing(node);
+	}
+
+	/**
+	 * Numbers the steps so that nestedContains is a constant time test.
+	 * Call this once all the collapsed nodes have been added.
+	 */
+	public void numberSteps() {
+		stepTable.number();
+	}
+
+	/**
+	 * @return the collapsed nodes, each after the collapsed nodes nested
+	 * 	inside it
+	 */
+	public List<NodeItem> getCollapsedInnermostFirst() {
+		return stepTable.getCollapsedInnermostFirst();
+	}
+
 	/**
 	 * Returns the entry point for when the collapsed node is expanded
 	 * @param collapsedNode the collapsed node
@@ -142,6 +225,18 @@ public class DDGVisualization extends Visualization {
 	 * 	    the end of node names 
 	 */
 	public void setRenderer(int arrowDirection, boolean showLineNumbers) {
+		this.arrowDirection = arrowDirection;
+		this.showLineNumbers = showLineNumbers;
+		setRendererFactory(newRendererFactory());
+	}
+
+	/**
+	 * Renderers keep state while they draw an item, so they cannot be shared
+	 * by threads that draw at the same time.  This creates a new set of 
+	 * renderers configured like the ones the display uses.
+	 * @return a renderer factory that is not shared with the display
+	 */
+	RendererFactory newRendererFactory() {
 		// draw the "name" label for NodeItems
 		LabelRenderer r;
 		if (showLineNumbers) {
@@ -161,7 +256,7 @@ public class DDGVisualization extends Visualization {
 				prefuse.Constants.EDGE_TYPE_LINE,
 				arrowDirection);
 		rendererFactory.setDefaultEdgeRenderer(edgeRenderer);
-		setRendererFactory(rendererFactory);
+		return rendererFactory;
 	}
 
 	/**
@@ -0,0 +1,20 @@
+package laser.ddg.visualizer;
+
+import laser.ddg.FlightEvent;
+import laser.ddg.FlightEvent.EventInfo;
+import laser.ddg.FlightEvent.FieldInfo;
+
+/**
+ * Flight recorder event for expanding or collapsing a step.  It covers
+ * changing which nodes are visible, not the layout that follows.
+ */
+@EventInfo(name = "laser.ddg.ExpandCollapse", label = "DDG Expand/Collapse",
+	category = {"DDG Explorer", "Display"},
+	description = "Expanding or collapsing a step of a ddg")
+class ExpandCollapseEvent extends FlightEvent {
+	@FieldInfo("Operation")
+	String operation;
+
+	@FieldInfo("Node")
+	String node;
+}
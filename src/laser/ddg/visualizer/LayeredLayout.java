@@ -0,0 +1,418 @@
+package laser.ddg.visualizer;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import prefuse.action.layout.Layout;
+import prefuse.data.Graph;
+import prefuse.visual.EdgeItem;
+import prefuse.visual.NodeItem;
+
+/**
+ * Lays out a graph in layers, in the style of Sugiyama.  Unlike the tree
+ * layouts, this does not assume that each node has one parent, so it handles
+ * ddgs with data shared between steps and workflows with files shared
+ * between scripts.  The layout is done in three phases:
+ * <ol>
+ * <li> Layering.  Each node goes one layer below the lowest node that an edge
+ * 	from it points to, so every edge points up.  Nodes that nothing points
+ * 	to are then pulled down to sit just above their nearest user.  This takes
+ * 	time linear in the size of the graph.
+ * <li> Ordering.  The nodes in each layer are sorted by the average position
+ * 	of their neighbors in other layers, for a fixed number of rounds.  Each
+ * 	round reorders the odd layers and then the even layers.  Layers of the
+ * 	same parity are reordered independently, so large graphs reorder them
+ * 	in parallel.
+ * <li> Compaction.  Nodes are moved toward their neighbors horizontally, as
+ * 	far as they can go without overlapping the other nodes in their layer.
+ * </ol>
+ * Long edges do not get bend points, which keeps memory proportional to the
+ * size of the graph.
+ */
+public class LayeredLayout extends Layout {
+	// Horizontal space between nodes in a layer
+	private static final double NODE_SPACING = 50;
+
+	// Vertical space between layers
+	private static final double LAYER_SPACING = 25;
+
+	// Number of rounds of reordering the layers
+	private static final int ORDERING_ROUNDS = 8;
+
+	// Number of rounds of moving nodes toward their neighbors
+	private static final int COMPACTION_ROUNDS = 4;
+
+	// Graphs with at least this many layers reorder them in parallel
+	private static final int PARALLEL_LAYERS = 64;
+
+	// The visible nodes being laid out
+	private NodeItem[] items;
+
+	// For each node, the nodes its edges point to and the nodes whose
+	// edges point to it, as indices into items
+	private int[][] up;
+	private int[][] down;
+
+	// The layer of each node
+	private int[] layerOf;
+
+	// The nodes in each layer, in order from left to right
+	private int[][] layers;
+
+	// The position of each node within its layer
+	private int[] order;
+
+	/**
+	 * Create a layered layout
+	 * @param group the data group to lay out.  Must resolve to a Graph instance.
+	 */
+	public LayeredLayout(String group) {
+		super(group);
+	}
+
+	@Override
+	public void run(double frac) {
+		LayoutEvent event = new LayoutEvent();
+		event.begin();
+		long start = System.nanoTime();
+		int visibleNodes = 0;
+		synchronized (m_vis) {
+			Graph g = (Graph) m_vis.getGroup(m_group);
+			if (g == null) {
+				return;
+			}
+			collectGraph(g);
+			visibleNodes = items.length;
+			if (items.length > 0) {
+				assignLayers();
+				orderLayers();
+				assignCoordinates();
+			}
+			setEdgeVisibility(g);
+
+			// Let the visual items be collected
+			items = null;
+			up = null;
+			down = null;
+		}
+		((DDGVisualization) m_vis).getMetrics().recordTime("layout.layered", start);
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.layout = "layered";
+			event.visibleNodes = visibleNodes;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Finds the visible nodes and the visible edges between them
+	 * @param g the graph being laid out
+	 */
+	private void collectGraph(Graph g) {
+		List<NodeItem> visible = new ArrayList<>();
+		Iterator<?> nodes = g.nodes();
+		while (nodes.hasNext()) {
+			NodeItem node = (NodeItem) nodes.next();
+			if (node.isVisible()) {
+				visible.add(node);
+			}
+		}
+		items = visible.toArray(new NodeItem[visible.size()]);
+
+		int[] indexOfRow = new int[g.getNodeTable().getMaximumRow() + 1];
+		Arrays.fill(indexOfRow, -1);
+		for (int i = 0; i < items.length; i++) {
+			indexOfRow[items[i].getRow()] = i;
+		}
+
+		int[] downCount = new int[items.length];
+		up = new int[items.length][];
+		for (int i = 0; i < items.length; i++) {
+			int[] targets = new int[items[i].getOutDegree()];
+			int numTargets = 0;
+			Iterator<?> outNeighbors = items[i].outNeighbors();
+			while (outNeighbors.hasNext()) {
+				int target = indexOfRow[((NodeItem) outNeighbors.next()).getRow()];
+				if (target != -1 && target != i) {
+					targets[numTargets++] = target;
+					downCount[target]++;
+				}
+			}
+			up[i] = Arrays.copyOf(targets, numTargets);
+		}
+
+		down = new int[items.length][];
+		for (int i = 0; i < items.length; i++) {
+			down[i] = new int[downCount[i]];
+		}
+		int[] filled = new int[items.length];
+		for (int i = 0; i < items.length; i++) {
+			for (int target : up[i]) {
+				down[target][filled[target]++] = i;
+			}
+		}
+	}
+
+	/**
+	 * Puts each node one layer below the lowest node it points to.  If
+	 * the graph has a cycle, the edge that closes it is ignored.
+	 */
+	private void assignLayers() {
+		int n = items.length;
+		layerOf = new int[n];
+		int[] unplaced = new int[n];
+		boolean[] placed = new boolean[n];
+		int[] queue = new int[n];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < n; i++) {
+			unplaced[i] = up[i].length;
+			if (unplaced[i] == 0) {
+				queue[tail++] = i;
+				placed[i] = true;
+			}
+		}
+
+		int nextUnplaced = 0;
+		while (head < n) {
+			if (head == tail) {
+				// Only cycles are left.  Break one at the next unplaced node.
+				while (placed[nextUnplaced]) {
+					nextUnplaced++;
+				}
+				queue[tail++] = nextUnplaced;
+				placed[nextUnplaced] = true;
+			}
+			int node = queue[head++];
+			for (int user : down[node]) {
+				layerOf[user] = Math.max(layerOf[user], layerOf[node] + 1);
+				if (!placed[user] && --unplaced[user] == 0) {
+					queue[tail++] = user;
+					placed[user] = true;
+				}
+			}
+		}
+
+		// Pull nodes that nothing points to down next to their users.
+		// Visiting them in reverse placement order handles chains of them.
+		for (int i = n - 1; i >= 0; i--) {
+			int node = queue[i];
+			if (up[node].length == 0 && down[node].length > 0) {
+				int highestUser = Integer.MAX_VALUE;
+				for (int user : down[node]) {
+					highestUser = Math.min(highestUser, layerOf[user]);
+				}
+				layerOf[node] = Math.max(layerOf[node], highestUser - 1);
+			}
+		}
+
+		int numLayers = 0;
+		for (int layer : layerOf) {
+			numLayers = Math.max(numLayers, layer + 1);
+		}
+		int[] layerSize = new int[numLayers];
+		for (int layer : layerOf) {
+			layerSize[layer]++;
+		}
+		layers = new int[numLayers][];
+		for (int layer = 0; layer < numLayers; layer++) {
+			layers[layer] = new int[layerSize[layer]];
+		}
+		order = new int[n];
+		int[] filled = new int[numLayers];
+		for (int i = 0; i < n; i++) {
+			order[i] = filled[layerOf[i]]++;
+			layers[layerOf[i]][order[i]] = i;
+		}
+	}
+
+	/**
+	 * Reduces edge crossings by repeatedly sorting each layer by the average
+	 * position of each node's neighbors
+	 */
+	private void orderLayers() {
+		boolean parallel = layers.length >= PARALLEL_LAYERS;
+		for (int round = 0; round < ORDERING_ROUNDS; round++) {
+			for (int parity = 1; parity >= 0; parity--) {
+				final int firstLayer = parity;
+
+				// The layers being sorted only read the positions of nodes
+				// in other layers, which do not change during this phase
+				final int[] positions = order.clone();
+				IntStream phase = IntStream.range(0, (layers.length + 1 - parity) / 2)
+						.map(k -> 2 * k + firstLayer);
+				if (parallel) {
+					phase = phase.parallel();
+				}
+				phase.forEach(layer -> sortLayer(layers[layer], positions));
+			}
+		}
+	}
+
+	/**
+	 * Sorts one layer by the average position of each node's neighbors.
+	 * Nodes without neighbors keep their position.
+	 * @param layer the nodes in the layer
+	 * @param positions the position of every node within its layer
+	 */
+	private void sortLayer(int[] layer, int[] positions) {
+		int size = layer.length;
+		if (size < 2) {
+			return;
+		}
+		double[] keys = new double[size];
+		Integer[] byKey = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			int node = layer[i];
+			int numNeighbors = up[node].length + down[node].length;
+			if (numNeighbors == 0) {
+				keys[i] = positions[node];
+			}
+			else {
+				double sum = 0;
+				for (int neighbor : up[node]) {
+					sum += positions[neighbor] * (double) size / layers[layerOf[neighbor]].length;
+				}
+				for (int neighbor : down[node]) {
+					sum += positions[neighbor] * (double) size / layers[layerOf[neighbor]].length;
+				}
+				keys[i] = sum / numNeighbors;
+			}
+			byKey[i] = i;
+		}
+		Arrays.sort(byKey, (a, b) -> Double.compare(keys[a], keys[b]));
+
+		int[] sorted = new int[size];
+		for (int i = 0; i < size; i++) {
+			sorted[i] = layer[byKey[i]];
+		}
+		for (int i = 0; i < size; i++) {
+			layer[i] = sorted[i];
+			order[sorted[i]] = i;
+		}
+	}
+
+	/**
+	 * Places the layers one below another, then moves each node toward its
+	 * neighbors as far as the other nodes in its layer allow
+	 */
+	private void assignCoordinates() {
+		int n = items.length;
+		double[] width = new double[n];
+		double[] x = new double[n];
+
+		// Pack each layer from the left
+		for (int[] layer : layers) {
+			double right = 0;
+			for (int node : layer) {
+				width[node] = items[node].getBounds().getWidth();
+				x[node] = right + width[node] / 2;
+				right += width[node] + NODE_SPACING;
+			}
+		}
+
+		double[] desired = new double[n];
+		for (int round = 0; round < COMPACTION_ROUNDS; round++) {
+			boolean downward = round % 2 == 0;
+			for (int i = 0; i < layers.length; i++) {
+				int[] layer = layers[downward ? i : layers.length - 1 - i];
+				for (int node : layer) {
+					int[] neighbors = downward ? up[node] : down[node];
+					if (neighbors.length == 0) {
+						desired[node] = x[node];
+					}
+					else {
+						double sum = 0;
+						for (int neighbor : neighbors) {
+							sum += x[neighbor];
+						}
+						desired[node] = sum / neighbors.length;
+					}
+				}
+				placeLayer(layer, desired, width, x);
+			}
+		}
+
+		// Shift the drawing to the anchor, with the top layer at the anchor
+		double minX = Double.MAX_VALUE;
+		for (int node = 0; node < n; node++) {
+			minX = Math.min(minX, x[node] - width[node] / 2);
+		}
+		Point2D anchor = getLayoutAnchor();
+		double y = anchor.getY();
+		for (int[] layer : layers) {
+			double height = 0;
+			for (int node : layer) {
+				height = Math.max(height, items[node].getBounds().getHeight());
+			}
+			for (int node : layer) {
+				setX(items[node], null, anchor.getX() + x[node] - minX);
+				setY(items[node], null, y + height / 2);
+			}
+			y += height + LAYER_SPACING;
+		}
+	}
+
+	/**
+	 * Moves the nodes of a layer as close as possible to where they want to
+	 * be without changing their order or overlapping.  Nodes are placed from
+	 * the left and then from the right, and each ends up halfway between.
+	 * @param layer the nodes of the layer, from left to right
+	 * @param desired where each node would like to be
+	 * @param width the width of each node
+	 * @param x where each node is placed
+	 */
+	private static void placeLayer(int[] layer, double[] desired, double[] width, double[] x) {
+		int size = layer.length;
+		if (size == 0) {
+			return;
+		}
+		double[] fromLeft = new double[size];
+		double[] fromRight = new double[size];
+		for (int i = 0; i < size; i++) {
+			fromLeft[i] = desired[layer[i]];
+			if (i > 0) {
+				fromLeft[i] = Math.max(fromLeft[i], fromLeft[i - 1] + gap(layer, i - 1, width));
+			}
+		}
+		for (int i = size - 1; i >= 0; i--) {
+			fromRight[i] = desired[layer[i]];
+			if (i < size - 1) {
+				fromRight[i] = Math.min(fromRight[i], fromRight[i + 1] - gap(layer, i, width));
+			}
+		}
+
+		// Averaging two non-overlapping placements cannot overlap
+		for (int i = 0; i < size; i++) {
+			x[layer[i]] = (fromLeft[i] + fromRight[i]) / 2;
+		}
+	}
+
+	/**
+	 * @param layer the nodes of a layer
+	 * @param i the position of a node in the layer
+	 * @param width the width of each node
+	 * @return the distance needed between the centers of the node at i
+	 * 	and the node after it
+	 */
+	private static double gap(int[] layer, int i, double[] width) {
+		return (width[layer[i]] + width[layer[i + 1]]) / 2 + NODE_SPACING;
+	}
+
+	/**
+	 * Shows exactly the edges whose ends are both visible
+	 * @param g the graph being laid out
+	 */
+	private static void setEdgeVisibility(Graph g) {
+		Iterator<?> edges = g.edges();
+		while (edges.hasNext()) {
+			EdgeItem edge = (EdgeItem) edges.next();
+			edge.setVisible(edge.getSourceItem().isVisible() && edge.getTargetItem().isVisible());
+		}
+	}
+}
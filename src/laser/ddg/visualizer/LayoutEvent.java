@@ -0,0 +1,19 @@
+package laser.ddg.visualizer;
+
+import laser.ddg.FlightEvent;
+import laser.ddg.FlightEvent.EventInfo;
+import laser.ddg.FlightEvent.FieldInfo;
+
+/**
+ * Flight recorder event for one run of a layout
+ */
+@EventInfo(name = "laser.ddg.Layout", label = "DDG Layout",
+	category = {"DDG Explorer", "Display"},
+	description = "Positioning the visible nodes of a graph")
+class LayoutEvent extends FlightEvent {
+	@FieldInfo("Layout")
+	String layout;
+
+	@FieldInfo("Visible Nodes")
+	int visibleNodes;
+}
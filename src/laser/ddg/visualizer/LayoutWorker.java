@@ -0,0 +1,576 @@
+package laser.ddg.visualizer;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import laser.ddg.gui.DDGExplorer;
+import prefuse.action.layout.Layout;
+import prefuse.data.Graph;
+import prefuse.data.Table;
+import prefuse.data.event.EventConstants;
+import prefuse.data.event.TableListener;
+import prefuse.visual.EdgeItem;
+import prefuse.visual.NodeItem;
+import prefuse.visual.VisualGraph;
+import prefuse.visual.VisualItem;
+import prefuse.visual.VisualTable;
+
+/**
+ * Lays out a graph on a worker thread so that neither the Swing thread
+ * nor painting waits while positions are computed.  The worker keeps a
+ * copy of the graph.  Each request brings the copy up to date while
+ * holding the visualization's lock, which only involves what changed since
+ * the last request.  The copy is laid out without the lock, and then the
+ * nodes that moved are moved on the real graph in a single step, so the
+ * display never shows a half-finished layout.  A request made while
+ * another is waiting or in progress supersedes it:  the positions of the
+ * older request are never published.
+ */
+public class LayoutWorker {
+	// The visualization whose graph is laid out
+	private final DDGVisualization vis;
+
+	// The group holding the graph within the visualization
+	private final String group;
+
+	// Incremented with each request.  Only the positions computed for the
+	// newest request are published.
+	private final AtomicLong generation = new AtomicLong();
+
+	// The newest request that the worker has not started on yet
+	private Request pending;
+
+	// The thread that lays out the copies.  Started with the first request.
+	private Thread worker;
+
+	// The copy of the graph that is laid out.  Made by the first request
+	// and only used by the worker thread.
+	private GraphCopy copy;
+
+	/**
+	 * Creates a worker to lay out a graph
+	 * @param vis the visualization holding the graph
+	 * @param group the group holding the graph.  Must resolve to a Graph instance.
+	 */
+	public LayoutWorker(DDGVisualization vis, String group) {
+		this.vis = vis;
+		this.group = group;
+	}
+
+	/**
+	 * Asks for the graph to be laid out.  Returns immediately.  It is safe
+	 * to call this while holding the visualization's lock.
+	 *
+	 * @param layout the layout to use.  It must be the tree layout or the
+	 * 	layered layout.  It is not run itself.  A copy with the same settings
+	 * 	lays out a copy of the graph.
+	 * @param whenPublished run while holding the visualization's lock, after
+	 * 	the new positions have been copied onto the nodes.  Can be null.  It
+	 * 	is not run if a newer request supersedes this one.
+	 */
+	public synchronized void layout(Layout layout, Runnable whenPublished) {
+		if (pending != null) {
+			vis.getMetrics().increment("layout.superseded");
+		}
+		pending = new Request(generation.incrementAndGet(), layout, whenPublished);
+		if (worker == null) {
+			worker = new Thread("DDG layout") {
+				@Override
+				public void run() {
+					layoutRequests();
+				}
+			};
+			worker.setDaemon(true);
+			worker.start();
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Waits for the next request
+	 * @return the newest request
+	 */
+	private synchronized Request nextRequest() {
+		while (pending == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				// Keep waiting.  The worker runs as long as the program does.
+			}
+		}
+		Request request = pending;
+		pending = null;
+		return request;
+	}
+
+	/**
+	 * @param request a request
+	 * @return true if a newer request has been made
+	 */
+	private boolean isSuperseded(Request request) {
+		return request.generation != generation.get();
+	}
+
+	/**
+	 * Runs on the worker thread, handling requests as they come in
+	 */
+	private void layoutRequests() {
+		while (true) {
+			Request request = nextRequest();
+			try {
+				layout(request);
+			} catch (RuntimeException e) {
+				DDGExplorer.showErrMsg("Could not lay out the graph: " + e + "\n\n");
+
+				// The copy may be half updated, so start over with a new one
+				synchronized (vis) {
+					if (copy != null) {
+						copy.stopWatching();
+						copy = null;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Brings the copy of the graph up to date, lays out the copy and
+	 * publishes the positions unless a newer request comes in first
+	 * @param request the request being handled
+	 */
+	private void layout(Request request) {
+		Layout copyLayout;
+		int count;
+		long start = System.nanoTime();
+		synchronized (vis) {
+			if (isSuperseded(request)) {
+				return;
+			}
+			if (copy == null || copy.source != vis.getSourceData(group)) {
+				if (copy != null) {
+					copy.stopWatching();
+				}
+				copy = new GraphCopy();
+			}
+			count = copy.update();
+			copyLayout = copy.layoutFor(request.layout);
+		}
+		vis.getMetrics().recordTime("layout.snapshot", start);
+
+		List<Move> moves = copy.layOut(copyLayout, count);
+		if (isSuperseded(request)) {
+			copy.undo(moves);
+			vis.getMetrics().increment("layout.superseded");
+			return;
+		}
+
+		start = System.nanoTime();
+		synchronized (vis) {
+			if (isSuperseded(request)) {
+				copy.undo(moves);
+				vis.getMetrics().increment("layout.superseded");
+				return;
+			}
+			copy.publish(moves);
+			if (request.whenPublished != null) {
+				request.whenPublished.run();
+			}
+		}
+		vis.getMetrics().recordTime("layout.publish", start);
+	}
+
+	/**
+	 * A request to lay out the graph
+	 */
+	private static class Request {
+		// Where the request comes in the order of requests
+		private final long generation;
+
+		// The layout whose settings are used
+		private final Layout layout;
+
+		// What to do once the positions are published
+		private final Runnable whenPublished;
+
+		private Request(long generation, Layout layout, Runnable whenPublished) {
+			this.generation = generation;
+			this.layout = layout;
+			this.whenPublished = whenPublished;
+		}
+	}
+
+	/**
+	 * A node that a layout moved
+	 */
+	private static class Move {
+		// Where the node is in the copy's list of nodes
+		private final int index;
+
+		// The new position
+		private final double x;
+		private final double y;
+
+		private Move(int index, double x, double y) {
+			this.index = index;
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	/**
+	 * A copy of the graph that is laid out in place of the real one.  The
+	 * copy is kept between requests.  Listeners on the real visual tables
+	 * record which nodes and edges change, so each request only copies the
+	 * nodes and edges added since the last one and the visual state of the
+	 * nodes that changed.  Only the worker thread uses the copy.
+	 */
+	private class GraphCopy implements TableListener {
+		// The real graph
+		private final Graph source;
+
+		// The visual items of the real graph
+		private final VisualTable liveNodes;
+		private final VisualTable liveEdges;
+
+		// The copy and its visual items
+		private final Graph copyGraph;
+		private final DDGVisualization copyVis;
+		private final VisualTable copyNodes;
+
+		// The columns of the real visual nodes that layout reads
+		private final Set<Integer> layoutColumns = new HashSet<>();
+
+		// The column holding whether a real edge is visible
+		private final int edgeVisibleColumn;
+
+		// The number of rows of the real node and edge tables copied so far
+		private int nodeRowsCopied = 0;
+		private int edgeRowsCopied = 0;
+
+		// The real nodes and the corresponding nodes of the copy, in the
+		// order they were copied
+		private final List<NodeItem> liveItems = new ArrayList<>();
+		private final List<NodeItem> copyItems = new ArrayList<>();
+
+		// Where each node is in the lists, by id
+		private final Map<Integer, Integer> indexById = new HashMap<>();
+
+		// The positions of the real nodes, as far as the copy knows,
+		// indexed like liveItems
+		private double[] liveX = new double[64];
+		private double[] liveY = new double[64];
+
+		// Rows of the real visual node and edge tables that changed since
+		// they were last looked at.  Guarded by this object, since the real
+		// graph can be changed on any thread.
+		private final BitSet changedNodes = new BitSet();
+		private final BitSet changedEdges = new BitSet();
+
+		// Rows of the real visual edge table whose visibility should be set
+		// from their ends when positions are next published
+		private final BitSet edgesToShow = new BitSet();
+
+		// True while the worker thread publishes positions, so that the
+		// changes it makes are not recorded
+		private boolean publishing = false;
+
+		/**
+		 * Copies the real graph and starts watching it for changes.  The
+		 * caller must hold the visualization's lock.
+		 */
+		private GraphCopy() {
+			source = (Graph) vis.getSourceData(group);
+			VisualGraph liveGraph = (VisualGraph) vis.getVisualGroup(group);
+			liveNodes = (VisualTable) liveGraph.getNodeTable();
+			liveEdges = (VisualTable) liveGraph.getEdgeTable();
+
+			// Copying the rows before the tables are part of a graph is much
+			// faster than adding them to the graph one at a time
+			Table nodeTable = source.getNodeTable().getSchema().instantiate();
+			Table edgeTable = source.getEdgeTable().getSchema().instantiate();
+			List<Integer> nodeRows = new ArrayList<>();
+			List<Integer> edgeRows = new ArrayList<>();
+			nodeRowsCopied = copyNewRows(source.getNodeTable(), 0, nodeTable, nodeRows);
+			edgeRowsCopied = copyNewRows(source.getEdgeTable(), 0, edgeTable, edgeRows);
+			copyGraph = new Graph(nodeTable, edgeTable, source.isDirected(), source.getNodeKeyField(),
+					source.getEdgeSourceField(), source.getEdgeTargetField());
+			copyVis = new DDGVisualization();
+			copyVis.setMetrics(vis.getMetrics());
+
+			// Node sizes come from the renderers, so the copy needs renderers
+			// configured like the display's.  They cannot be the display's own
+			// since the copy is laid out while the display paints.
+			copyVis.setRendererFactory(vis.newRendererFactory());
+			copyNodes = (VisualTable) copyVis.addGraph(group, copyGraph).getNodeTable();
+			addCopied(nodeRows, edgeRows);
+
+			for (String column : new String[] {VisualItem.VISIBLE, VisualItem.EXPANDED, VisualItem.BOUNDS,
+					VisualItem.X, VisualItem.Y, VisualItem.ENDX, VisualItem.ENDY}) {
+				layoutColumns.add(liveNodes.getColumnNumber(column));
+			}
+			edgeVisibleColumn = liveEdges.getColumnNumber(VisualItem.VISIBLE);
+			liveNodes.addTableListener(this);
+			liveEdges.addTableListener(this);
+		}
+
+		/**
+		 * Stops recording changes to the real graph
+		 */
+		private void stopWatching() {
+			liveNodes.removeTableListener(this);
+			liveEdges.removeTableListener(this);
+		}
+
+		/**
+		 * Records the rows of the real visual tables that change in a way
+		 * that matters to layout
+		 */
+		@Override
+		public synchronized void tableChanged(Table t, int start, int end, int col, int type) {
+			if (type != EventConstants.UPDATE || (publishing && Thread.currentThread() == worker)) {
+				return;
+			}
+			if (t == liveNodes && (col == EventConstants.ALL_COLUMNS || layoutColumns.contains(col))) {
+				changedNodes.set(start, end + 1);
+			}
+			else if (t == liveEdges && (col == EventConstants.ALL_COLUMNS || col == edgeVisibleColumn)) {
+				changedEdges.set(start, end + 1);
+			}
+		}
+
+		/**
+		 * Copies the nodes and edges added to the real graph since the last
+		 * update, and the visual state of the nodes that changed.  The
+		 * caller must hold the visualization's lock.
+		 * @return the number of nodes in the copy
+		 */
+		private int update() {
+			List<Integer> nodeRows = new ArrayList<>();
+			List<Integer> edgeRows = new ArrayList<>();
+			nodeRowsCopied = copyNewRows(source.getNodeTable(), nodeRowsCopied, copyGraph.getNodeTable(), nodeRows);
+			edgeRowsCopied = copyNewRows(source.getEdgeTable(), edgeRowsCopied, copyGraph.getEdgeTable(), edgeRows);
+			addCopied(nodeRows, edgeRows);
+
+			BitSet nodes;
+			synchronized (this) {
+				nodes = (BitSet) changedNodes.clone();
+				changedNodes.clear();
+				edgesToShow.or(changedEdges);
+				changedEdges.clear();
+			}
+			for (int row = nodes.nextSetBit(0); row >= 0; row = nodes.nextSetBit(row + 1)) {
+				if (liveNodes.isValidRow(row)) {
+					Integer index = indexById.get(PrefuseUtils.getId((NodeItem) liveNodes.getItem(row)));
+					if (index != null) {
+						copyVisualState(index);
+					}
+				}
+			}
+			return liveItems.size();
+		}
+
+		/**
+		 * Copies the rows added to a table of the real graph since it was
+		 * last copied
+		 * @param from the table of the real graph
+		 * @param firstRow the first row that has not been copied
+		 * @param to the table of the copy
+		 * @param copiedRows each row copied is added to it, followed by the
+		 * 	row of the copy
+		 * @return the row after the last one copied
+		 */
+		private int copyNewRows(Table from, int firstRow, Table to, List<Integer> copiedRows) {
+			int columns = from.getColumnCount();
+			int row = firstRow;
+			for (; row <= from.getMaximumRow(); row++) {
+				if (from.isValidRow(row)) {
+					int copyRow = to.addRow();
+					for (int col = 0; col < columns; col++) {
+						to.set(copyRow, col, from.get(row, col));
+					}
+					copiedRows.add(row);
+					copiedRows.add(copyRow);
+				}
+			}
+			return row;
+		}
+
+		/**
+		 * Adds the nodes and edges that were just copied.  Each node is added
+		 * to the lists of nodes with its visual state.  The visibility of
+		 * each edge is set when positions are next published.
+		 * @param nodeRows the rows of the real nodes, each followed by the row
+		 * 	of its copy
+		 * @param edgeRows the rows of the real edges, each followed by the row
+		 * 	of its copy
+		 */
+		private void addCopied(List<Integer> nodeRows, List<Integer> edgeRows) {
+			for (int i = 0; i < nodeRows.size(); i += 2) {
+				addNode(nodeRows.get(i), nodeRows.get(i + 1));
+			}
+			for (int i = 0; i < edgeRows.size(); i += 2) {
+				edgesToShow.set(liveEdges.getChildRow(edgeRows.get(i)));
+			}
+		}
+
+		/**
+		 * Adds a node that was just copied to the lists of nodes and copies
+		 * its visual state
+		 * @param row the row of the real node
+		 * @param copyRow the row of the copy
+		 */
+		private void addNode(int row, int copyRow) {
+			int index = liveItems.size();
+			liveItems.add((NodeItem) liveNodes.getItem(liveNodes.getChildRow(row)));
+			copyItems.add((NodeItem) copyNodes.getItem(copyNodes.getChildRow(copyRow)));
+			indexById.put(PrefuseUtils.getId(liveItems.get(index)), index);
+			if (index == liveX.length) {
+				liveX = Arrays.copyOf(liveX, index * 2);
+				liveY = Arrays.copyOf(liveY, index * 2);
+			}
+			copyVisualState(index);
+		}
+
+		/**
+		 * Copies the visual state that layout depends on from a real node to
+		 * its copy.  If the node was shown or hidden, its edges are shown or
+		 * hidden to match when positions are next published.
+		 * @param index where the node is in the lists of nodes
+		 */
+		private void copyVisualState(int index) {
+			NodeItem liveItem = liveItems.get(index);
+			NodeItem copyItem = copyItems.get(index);
+			if (copyItem.isVisible() != liveItem.isVisible()) {
+				copyItem.setVisible(liveItem.isVisible());
+				@SuppressWarnings("unchecked")
+				Iterator<EdgeItem> edges = liveItem.edges();
+				while (edges.hasNext()) {
+					edgesToShow.set(edges.next().getRow());
+				}
+			}
+			copyItem.setExpanded(liveItem.isExpanded());
+			Rectangle2D bounds = liveItem.getBounds();
+			copyItem.setBounds(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight());
+			copyItem.setX(liveItem.getX());
+			copyItem.setY(liveItem.getY());
+			copyItem.setEndX(liveItem.getEndX());
+			copyItem.setEndY(liveItem.getEndY());
+			liveX[index] = liveItem.getEndX();
+			liveY[index] = liveItem.getEndY();
+		}
+
+		/**
+		 * Creates a layout with the settings of one of the real graph's
+		 * layouts to lay out the copy.  The caller must hold the
+		 * visualization's lock.
+		 * @param layout the layout whose settings are copied
+		 * @return the layout for the copy
+		 */
+		private Layout layoutFor(Layout layout) {
+			Layout copyLayout;
+			if (layout instanceof DDGLayout) {
+				copyLayout = ((DDGLayout) layout).copyFor(item -> {
+					Integer index = item == null ? null : indexById.get(PrefuseUtils.getId(item));
+					return index == null ? null : copyItems.get(index);
+				});
+			}
+			else if (layout instanceof LayeredLayout) {
+				copyLayout = new LayeredLayout(group);
+			}
+			else {
+				throw new IllegalArgumentException("Cannot lay out a copy of the graph with " + layout);
+			}
+			copyLayout.setVisualization(copyVis);
+
+			// The copy has no display to find the anchor from
+			copyLayout.setLayoutAnchor(new Point2D.Double(layout.getLayoutAnchor().getX(),
+					layout.getLayoutAnchor().getY()));
+			return copyLayout;
+		}
+
+		/**
+		 * Lays out the copy.  Does not need the visualization's lock.
+		 * @param copyLayout the layout for the copy
+		 * @param count the number of nodes copied when the layout was requested
+		 * @return the nodes whose positions changed
+		 */
+		private List<Move> layOut(Layout copyLayout, int count) {
+			// Each layout starts from scratch, as it would on a new copy
+			if (copyNodes.getColumnNumber(DDGLayout.PARAMS) != -1) {
+				for (NodeItem copyItem : copyItems) {
+					copyItem.set(DDGLayout.PARAMS, null);
+				}
+			}
+			copyLayout.run(1.0);
+			List<Move> moves = new ArrayList<>();
+			for (int i = 0; i < count; i++) {
+				NodeItem copyItem = copyItems.get(i);
+				double x = copyItem.getEndX();
+				double y = copyItem.getEndY();
+				if (Double.compare(x, liveX[i]) != 0 || Double.compare(y, liveY[i]) != 0) {
+					moves.add(new Move(i, x, y));
+				}
+			}
+			return moves;
+		}
+
+		/**
+		 * Puts the nodes of the copy back where the real nodes are, when the
+		 * positions of a layout are not going to be published
+		 * @param moves the nodes that the layout moved
+		 */
+		private void undo(List<Move> moves) {
+			for (Move move : moves) {
+				NodeItem copyItem = copyItems.get(move.index);
+				copyItem.setX(liveX[move.index]);
+				copyItem.setY(liveY[move.index]);
+				copyItem.setEndX(liveX[move.index]);
+				copyItem.setEndY(liveY[move.index]);
+			}
+		}
+
+		/**
+		 * Moves the real nodes that the layout moved, and shows the edges
+		 * whose ends were shown or hidden if both ends are visible.  The
+		 * caller must hold the visualization's lock.
+		 * @param moves the nodes that the layout moved
+		 */
+		private void publish(List<Move> moves) {
+			publishing = true;
+			try {
+				for (Move move : moves) {
+					NodeItem item = liveItems.get(move.index);
+					item.setStartX(Double.isNaN(item.getX()) ? move.x : item.getX());
+					item.setStartY(Double.isNaN(item.getY()) ? move.y : item.getY());
+					item.setEndX(move.x);
+					item.setEndY(move.y);
+					item.setX(move.x);
+					item.setY(move.y);
+					liveX[move.index] = move.x;
+					liveY[move.index] = move.y;
+				}
+
+				for (int row = edgesToShow.nextSetBit(0); row >= 0; row = edgesToShow.nextSetBit(row + 1)) {
+					if (liveEdges.isValidRow(row)) {
+						EdgeItem edge = (EdgeItem) liveEdges.getItem(row);
+						edge.setVisible(edge.getSourceItem().isVisible() && edge.getTargetItem().isVisible());
+					}
+				}
+				edgesToShow.clear();
+			} finally {
+				publishing = false;
+			}
+		}
+	}
+
+}
@@ -1,15 +1,17 @@
 package laser.ddg.visualizer;
 
 import java.awt.HeadlessException;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 import java.util.logging.Level;
@@ -17,18 +19,20 @@ import java.util.logging.Logger;
 
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
+import javax.swing.Timer;
 
 import laser.ddg.Attributes;
+import laser.ddg.BatchProvenanceListener;
 import laser.ddg.DDGBuilder;
 import laser.ddg.DataBindingEvent;
 import laser.ddg.DataBindingEvent.BindingEvent;
 import laser.ddg.DataInstanceNode;
 import laser.ddg.LanguageConfigurator;
+import laser.ddg.LoopFinder;
 import laser.ddg.NoScriptFileException;
 import laser.ddg.ProcedureInstanceNode;
 import laser.ddg.ProvenanceData;
 import laser.ddg.ProvenanceDataVisitor;
-import laser.ddg.ProvenanceListener;
 import laser.ddg.SourcePos;
 import laser.ddg.gui.DDGExplorer;
 import laser.ddg.gui.DDGPanel;
@@ -57,7 +61,7 @@ import prefuse.visual.tuple.TableNodeItem;
  * @author Barbara Lerner, Antonia Miruna Oprescu
  *
  */
-public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVisitor {
+public class PrefuseGraphBuilder implements BatchProvenanceListener, ProvenanceDataVisitor {
 	// Smallest value used for a data node
 	private static final int MIN_DATA_ID = ((Integer.MAX_VALUE) / 3) * 2;
 
@@ -110,7 +114,6 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 
 	// visualization and display tools
 	private final DDGVisualization vis = new DDGVisualization();
-	private BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	// private PINClickControl pinClickControl = new PINClickControl(this);
 
 	// display
@@ -123,12 +126,23 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	DDGPanel ddgPanel;
 	private DDGLayout ddgLayout;
 
+	// The layout actions, which hold either the tree layout or the layered layout
+	private ActionList layoutActions;
+
+	// Lays out the graph in layers when the user prefers that to the tree layout
+	private LayeredLayout layeredLayout;
+
+	// True if the layered layout is in use
+	private boolean layered = false;
+
+	// Computes layouts off the Swing thread and publishes the positions
+	private LayoutWorker layoutWorker;
+
 	// The root of the provenance graph, where layout begins
 	private NodeItem root;
 
-	// If true, execution pauses after each node is connected to the graph so
-	// the user
-	// can see the updates
+	// If true, the graph is redrawn as each node is connected to it so the
+	// user can see the updates
 	private boolean incremental = true;
 
 	// If true, means that we are drawing a data derivation, not a full DDG.
@@ -150,6 +164,31 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	// True indicates that the graph is complete
 	private boolean processFinished = false;
 
+	// True once the loops in the graph have been collapsed
+	private boolean iterationsAdded = false;
+
+	// If true, the steps of the graph are drawn as soon as its control flow
+	// has been added, and its data flow is drawn once the graph is complete
+	private boolean controlFlowFirst = false;
+
+	// True once the steps have been drawn from the control flow alone
+	private boolean controlFlowDrawn = false;
+
+	// Time between redraws of a graph that is still growing.  Changes made
+	// between redraws are drawn together.
+	private static final int FRAME_INTERVAL = 100;
+
+	// Redraws a growing graph at a fixed rate.  Null if the graph is
+	// not being updated live.
+	private Timer frameTimer;
+
+	// True if nodes or edges have been added since the last redraw
+	private volatile boolean graphChanged = false;
+
+	// True while a batch of events from a bulk load is being delivered.
+	// Visibility and layout are updated once at the end of the batch.
+	private boolean inBatch = false;
+
 	private ProvenanceData provData;
 
 	private int numPins;
@@ -170,7 +209,7 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	 * Creates an object that builds a visual graph.
 	 * 
 	 * @param incremental
-	 *            if true, pauses after adding each node to the graph so that
+	 *            if true, redraws the graph as nodes are added to it so that
 	 *            the user can see the updates
 	 */
 	public PrefuseGraphBuilder(boolean incremental) {
@@ -184,7 +223,7 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	 * Creates an object that builds a visual graph.
 	 * 
 	 * @param incremental
-	 *            if true, pauses after adding each node to the graph so that
+	 *            if true, redraws the graph as nodes are added to it so that
 	 *            the user can see the updates
 	 * @param dataDerivation
 	 *            if true, indicates that the graph being drawn represents a
@@ -279,6 +318,19 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 		return getNode(id);
 	}
 
+	/**
+	 * adds a step node that corresponds to a range of the source code
+	 *
+	 * @param name
+	 * @param sourcePos the code that the step's members came from
+	 * @return the node just added
+	 */
+	private NodeItem addCollapsedNode(String name, SourcePos sourcePos) {
+		NodeItem collapsedNode = addCollapsedNode(name, null, null);
+		setSourcePos(PrefuseUtils.getId(collapsedNode) - MIN_STEP_NODE_ID, sourcePos);
+		return collapsedNode;
+	}
+
 	/**
 	 * updates the focus group to the node which is being added to the DDG
 	 *
@@ -360,6 +412,21 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	}
 
 	public NodeItem getNode(int nodeId) {
+		// Look the node up by its key if the graph is built from the
+		// current tables.  A missing key means there is no such node,
+		// which is the usual case when a node is being added, so the
+		// items are not searched.
+		if (graph != null && graph.getNodeTable() == nodes) {
+			Node node = graph.getNodeFromKey(nodeId);
+			if (node == null) {
+				return null;
+			}
+			VisualItem item = vis.getVisualItem(GRAPH, node);
+			if (item instanceof NodeItem) {
+				return (NodeItem) item;
+			}
+		}
+
 		Iterator items = vis.items();
 		Object item = null;
 		while (items.hasNext()) {
@@ -372,11 +439,32 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	}
 	
 	/**
-	 * @param leafName the name of a data node
-	 * @return the DataInstanceNode with that name
+	 * @param dataNode a data node in the display
+	 * @return the DataInstanceNode that it displays
+	 */
+	public DataInstanceNode getDataNode (Node dataNode) {
+		return provData.findDin (getDataNodeId(dataNode));
+	}
+
+	/**
+	 * @param dataNode a data node in the display
+	 * @return the id of the DataInstanceNode that it displays
 	 */
-	public DataInstanceNode getDataNode (String leafName) {
-		return provData.findDin (leafName);
+	public int getDataNodeId (Node dataNode) {
+		return dataNode.getInt(PrefuseUtils.DATA_ID);
+	}
+
+	/**
+	 * Records the id that a data node has in the ddg.  The id the node has
+	 * in prefuse depends on how the graph was built, so the ddg id is kept
+	 * separately.
+	 * @param rowNum the row of the table where the node was added
+	 * @param dinId the id of the DataInstanceNode
+	 */
+	public void setDataNodeId (int rowNum, int dinId) {
+		synchronized (vis) {
+			nodes.setInt(rowNum, PrefuseUtils.DATA_ID, dinId);
+		}
 	}
 
 	/**
@@ -388,6 +476,7 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 
 	private void buildGraph(ProvenanceData ddg) {
 		provData = ddg;
+		vis.setMetrics(ddg.getMetrics());
 		addNodesAndEdges(ddg);
 
 		graph = new Graph(nodes, edges, true, PrefuseUtils.ID, PrefuseUtils.SOURCE, PrefuseUtils.TARGET);
@@ -417,6 +506,8 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 			nodes.addColumn(PrefuseUtils.VALUE, String.class);
 			nodes.addColumn(PrefuseUtils.TIMESTAMP, String.class);
 			nodes.addColumn(PrefuseUtils.LOCATION, String.class);
+			nodes.addColumn(PrefuseUtils.HASH, String.class);
+			nodes.addColumn(PrefuseUtils.DATA_ID, int.class);
 			nodes.addColumn(PrefuseUtils.STARTLINE, int.class);
 			nodes.addColumn(PrefuseUtils.STARTCOL, int.class);
 			nodes.addColumn(PrefuseUtils.ENDLINE, int.class);
@@ -444,8 +535,9 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 
 	@Override
 	public void visitDin(DataInstanceNode din) {
-		addNode(din.getType(), din.getId() + numPins, din.getName(), din.getValue().toString(), din.getCreatedTime(),
-				din.getLocation(), null);
+		int rowNum = addNode(din.getType(), din.getId() + numPins, din.getName(), din.getValue().toString(), 
+				din.getCreatedTime(), din.getLocation(), null);
+		setDataNodeId(rowNum, din.getId());
 	}
 
 	@Override
@@ -524,22 +616,13 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 				nodes.setString(rowNum, PrefuseUtils.VALUE, value);
 				nodes.setString(rowNum, PrefuseUtils.TIMESTAMP, time);
 				nodes.setString(rowNum, PrefuseUtils.LOCATION, location);
-				if (sourcePos == null) {
-					nodes.setInt(rowNum, PrefuseUtils.SCRIPT, -1);
-					nodes.setInt(rowNum, PrefuseUtils.STARTLINE, -1);
-					nodes.setInt(rowNum, PrefuseUtils.STARTCOL, -1);
-					nodes.setInt(rowNum, PrefuseUtils.ENDLINE, -1);
-					nodes.setInt(rowNum, PrefuseUtils.ENDCOL, -1);
-				}
-				else {
-					nodes.setInt(rowNum, PrefuseUtils.SCRIPT, sourcePos.getScriptNumber());
-					nodes.setInt(rowNum, PrefuseUtils.STARTLINE, sourcePos.getStartLine());
-					nodes.setInt(rowNum, PrefuseUtils.STARTCOL, sourcePos.getStartCol());
-					nodes.setInt(rowNum, PrefuseUtils.ENDLINE, sourcePos.getEndLine());
-					nodes.setInt(rowNum, PrefuseUtils.ENDCOL, sourcePos.getEndCol());
+				setSourcePos(rowNum, sourcePos);
+				if (controlFlowDrawn) {
+					hideIfDataNode(id);
 				}
 
 				searchIndex.addToSearchIndex(type, id, name, time);
+				graphChanged = true;
 				return rowNum;
 			}
 		} catch (Exception e) {
@@ -552,6 +635,39 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 		/* outFile.println(id+" \""+name+"\" "+type); */
 	}
 
+	/**
+	 * Records where in the source code a node comes from
+	 * @param rowNum the row of the table where the node was added
+	 * @param sourcePos the location in the source file.  Can be null.
+	 */
+	private void setSourcePos(int rowNum, SourcePos sourcePos) {
+		if (sourcePos == null) {
+			nodes.setInt(rowNum, PrefuseUtils.SCRIPT, -1);
+			nodes.setInt(rowNum, PrefuseUtils.STARTLINE, -1);
+			nodes.setInt(rowNum, PrefuseUtils.STARTCOL, -1);
+			nodes.setInt(rowNum, PrefuseUtils.ENDLINE, -1);
+			nodes.setInt(rowNum, PrefuseUtils.ENDCOL, -1);
+		}
+		else {
+			nodes.setInt(rowNum, PrefuseUtils.SCRIPT, sourcePos.getScriptNumber());
+			nodes.setInt(rowNum, PrefuseUtils.STARTLINE, sourcePos.getStartLine());
+			nodes.setInt(rowNum, PrefuseUtils.STARTCOL, sourcePos.getStartCol());
+			nodes.setInt(rowNum, PrefuseUtils.ENDLINE, sourcePos.getEndLine());
+			nodes.setInt(rowNum, PrefuseUtils.ENDCOL, sourcePos.getEndCol());
+		}
+	}
+
+	/**
+	 * Records the hash of the file associated with a data node
+	 * @param rowNum the row of the table where the node was added
+	 * @param hash the MD5 hash recorded in the DDG
+	 */
+	public void setHash(int rowNum, String hash) {
+		synchronized (vis) {
+			nodes.setString(rowNum, PrefuseUtils.HASH, hash);
+		}
+	}
+
 	/**
 	 * Adds a node to the prefuse graph
 	 *
@@ -597,6 +713,7 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 				edges.setString(rowNum, PrefuseUtils.TYPE, type);
 				edges.setInt(rowNum, PrefuseUtils.SOURCE, source);
 				edges.setInt(rowNum, PrefuseUtils.TARGET, target);
+				graphChanged = true;
 				// write to a file
 
 				// if(type.equals("CF")) {
@@ -640,10 +757,8 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 
 			// assign the colors
 			vis.run("color");
-			// start up the animated layout
-			vis.run("layout");
-			// do the repaint
-			vis.run("repaint");
+			// lay out the graph and repaint once the nodes are placed
+			layOut(() -> vis.run("repaint"));
 		}
 
 	}
@@ -670,6 +785,13 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 		ActionList layout = new ActionList();
 		ddgLayout = new DDGLayout(GRAPH, dataDerivation);
 		layout.add(ddgLayout);
+		layoutActions = layout;
+		layeredLayout = new LayeredLayout(GRAPH);
+
+		// The layered layout is not in the action list yet, so it does not
+		// get the visualization when the list does
+		layeredLayout.setVisualization(vis);
+		layoutWorker = new LayoutWorker(vis, GRAPH);
 
 		ActionList repaint = new ActionList();
 		repaint.add(new RepaintAction());
@@ -792,6 +914,12 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 		ColorAction fill = new ColorAction(GRAPH_NODES, VisualItem.FILLCOLOR);
 		fill.add("ingroup('left_group')", ColorLib.rgb(255, 175, 175));
 		fill.add("ingroup('right_group')", ColorLib.rgb(0, 255, 0));
+		
+		// Colors used when comparing execution times
+		fill.add("ingroup('much_slower_group')", ColorLib.rgb(255, 140, 0));
+		fill.add("ingroup('slower_group')", ColorLib.rgb(255, 210, 140));
+		fill.add("ingroup('faster_group')", ColorLib.rgb(180, 210, 255));
+		fill.add("ingroup('much_faster_group')", ColorLib.rgb(90, 150, 255));
 
 		fill.add("_highlight", ColorLib.rgb(193, 253, 51));
 		fill.add(ExpressionParser.predicate("Type = 'Binding'"), ColorLib.rgb(255, 255, 255));
@@ -865,6 +993,9 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 		// graph.
 
 		this.provData = provData;
+		if (provData != null) {
+			vis.setMetrics(provData.getMetrics());
+		}
 		buildNodeAndEdgeTables();
 		graph = new Graph(nodes, edges, true, PrefuseUtils.ID, PrefuseUtils.SOURCE, PrefuseUtils.TARGET);
 		initializeDisplay(compareDDG);
@@ -894,8 +1025,12 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 
 		// System.out.println("Drawing DDG");
 		processFinished = true;
+		stopLiveUpdates();
 		dispPlusOver.stopRefocusing();
-		if (!incremental) {
+		if (controlFlowDrawn) {
+			drawDataFlow();
+		}
+		else if (!incremental) {
 			drawFullGraph();
 		}
 		repaint();
@@ -934,10 +1069,9 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 			// left
 			// corner of the window.
 			if (incremental && !rootDrawn) {
-				vis.run("layout");
 				// System.out.println("Updating focus from
 				// procedureNodeCreated");
-				updateFocusGroup(pinId);
+				layout(getNode(pinId));
 				repaint();
 				rootDrawn = true;
 
@@ -947,29 +1081,84 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	}
 
 	private void repaint() {
+		// When the graph is drawn as it grows, repaints are coalesced and
+		// done by the frame timer.
+		if (incremental && !processFinished) {
+			graphChanged = true;
+			startLiveUpdates();
+			return;
+		}
 
 		synchronized (vis) {
 			vis.run("color");
 			vis.run("repaint");
 
 		}
+		vis.getMetrics().increment("graph.repaints");
 
-		try {
-			if (incremental) {
-				System.out.println("Hit return to continue.");
-				in.readLine();
-			}
-		} catch (IOException e) {
-			// TODO Auto-generated catch-block stub.
-			e.printStackTrace(System.err);
+	}
+
+	/**
+	 * Starts redrawing the graph at a fixed rate while nodes and edges are 
+	 * added to it, as when a ddg is streamed from a running script.  All the 
+	 * changes made between two frames are drawn together, so the cost of
+	 * layout does not grow with the rate that nodes arrive.
+	 */
+	public synchronized void startLiveUpdates() {
+		if (frameTimer == null) {
+			frameTimer = new Timer(FRAME_INTERVAL, e -> drawFrame());
+			frameTimer.setCoalesce(true);
+			frameTimer.start();
 		}
+	}
+
+	/**
+	 * Stops redrawing the graph at a fixed rate
+	 */
+	public synchronized void stopLiveUpdates() {
+		if (frameTimer != null) {
+			frameTimer.stop();
+			frameTimer = null;
+		}
+	}
+
+	/**
+	 * @return true if the graph is being redrawn as nodes and edges are added
+	 */
+	public synchronized boolean isLive() {
+		return frameTimer != null;
+	}
 
+	/**
+	 * Lays out and repaints the graph if anything has been added since the
+	 * last frame
+	 */
+	private void drawFrame() {
+		if (!graphChanged) {
+			return;
+		}
+		graphChanged = false;
+		vis.getMetrics().increment("graph.liveFrames");
+		synchronized (vis) {
+			if (root == null) {
+				root = getTableNodeItem(1);
+				if (root == null) {
+					return;
+				}
+				ddgLayout.setLayoutRoot(root);
+			}
+			if (!inBatch) {
+				setAllDataNodeVisibility();
+			}
+			layout(root);
+		}
 	}
 
 	/**
 	 * Draw the complete graph at once instead of incrementally.
 	 */
 	public void drawFullGraph() {
+		long start = System.nanoTime();
 		synchronized (vis) {
 			if (root == null) {
 				setRoot();
@@ -981,6 +1170,7 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 			dispPlusOver.stopRefocusing();
 			layout(root);
 		}
+		vis.getMetrics().recordTime("graph.drawFullGraph", start);
 	}
 
 	/**
@@ -995,6 +1185,89 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 		}
 	}
 
+	/**
+	 * Draws the graph in two stages, which lets the user look at the
+	 * structure of a large ddg while the rest of it is read.  The collapsed
+	 * steps are drawn as soon as the procedure nodes and control flow have
+	 * been added.  The data flow is drawn once the graph is complete.
+	 */
+	public void drawControlFlowFirst() {
+		controlFlowFirst = true;
+	}
+
+	/**
+	 * Called once all the procedure nodes and control flow edges have been
+	 * added, before the data flow edges.  The data nodes may not have been
+	 * added yet.  If the graph is drawn control flow first, this draws the
+	 * collapsed steps.  The data nodes are hidden, including those added
+	 * later, until their edges have been added.
+	 */
+	public void controlFlowFinished() {
+		if (!controlFlowFirst || incremental || processFinished) {
+			return;
+		}
+		long start = System.nanoTime();
+		synchronized (vis) {
+			controlFlowDrawn = true;
+			if (root == null) {
+				setRoot();
+			}
+			addCollapsedNodes();
+			hideDataNodes();
+			layout(root);
+		}
+		vis.getMetrics().recordTime("graph.drawControlFlow", start);
+	}
+
+	/**
+	 * Draws the data flow of a graph whose steps were drawn from the control
+	 * flow alone.  The collapsed nodes were added before there were any data
+	 * edges, so their data edges are added now.  A collapsed node's data
+	 * edges depend on those of the collapsed nodes inside it, so the
+	 * innermost are done first.  Whatever the user has expanded in the
+	 * meantime stays expanded.
+	 */
+	private void drawDataFlow() {
+		long start = System.nanoTime();
+		synchronized (vis) {
+			for (NodeItem collapsedNode : vis.getCollapsedInnermostFirst()) {
+				Set<NodeItem> memberNodes = new LinkedHashSet<>();
+				vis.getMembers(collapsedNode).forEachRemaining(memberNodes::add);
+				addDataEdgesToCollapsedNode(memberNodes, collapsedNode);
+			}
+			setAllDataNodeVisibility();
+			layOut(() -> {
+				vis.run("color");
+				vis.run("repaint");
+			});
+		}
+		vis.getMetrics().recordTime("graph.drawDataFlow", start);
+	}
+
+	/**
+	 * Hides a node that has just been added if it is a data node
+	 * @param id the node's id
+	 */
+	private void hideIfDataNode(int id) {
+		NodeItem item = getNode(id);
+		if (item != null && PrefuseUtils.isAnyDataNode(item)) {
+			item.setVisible(false);
+		}
+	}
+
+	/**
+	 * Hides all the data nodes
+	 */
+	private void hideDataNodes() {
+		Iterator<?> items = vis.items();
+		while (items.hasNext()) {
+			Object next = items.next();
+			if (next instanceof NodeItem && PrefuseUtils.isAnyDataNode((NodeItem) next)) {
+				((NodeItem) next).setVisible(false);
+			}
+		}
+	}
+
 	/**
 	 * Re-display the graph. Change the focus to the node passed in.
 	 * 
@@ -1002,11 +1275,45 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	 *            the node to focus on
 	 */
 	void layout(Node focusNode) {
-		synchronized (vis) {
-			vis.run("layout");
-			updateFocusGroup(PrefuseUtils.getId(focusNode));
+		int focusId = PrefuseUtils.getId(focusNode);
+		layOut(() -> {
+			updateFocusGroup(focusId);
 			vis.run("color");
 			vis.run("repaint");
+		});
+	}
+
+	/**
+	 * Lays out the graph with the current layout on the layout worker.
+	 * Returns without waiting for the layout.
+	 * 
+	 * @param whenPublished what to do once the nodes have been moved.
+	 *            It is not done if another layout is requested first.
+	 */
+	private void layOut(Runnable whenPublished) {
+		layoutWorker.layout(layered ? layeredLayout : ddgLayout, whenPublished);
+	}
+
+	/**
+	 * Switches between the tree layout and the layered layout and redraws
+	 * the graph.  The layered layout places nodes that share data, or are
+	 * reached by more than one path, between all of their neighbors rather
+	 * than under a single parent.
+	 * 
+	 * @param useLayered if true, the layered layout is used
+	 */
+	public void useLayeredLayout(boolean useLayered) {
+		synchronized (vis) {
+			if (layoutActions == null || useLayered == layered) {
+				return;
+			}
+			layoutActions.remove(useLayered ? ddgLayout : layeredLayout);
+			layoutActions.add(useLayered ? layeredLayout : ddgLayout);
+			layered = useLayered;
+			layOut(() -> {
+				vis.run("color");
+				vis.run("repaint");
+			});
 		}
 	}
 
@@ -1041,6 +1348,7 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	 * collapsed nodes and displays those in place of the expanded versions.
 	 */
 	private void addCollapsedNodes() {
+		long start = System.nanoTime();
 		Set<NodeItem> rootMembers = new HashSet<>();
 		if (root == null) {
 			setRoot();
@@ -1073,8 +1381,11 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 			nextRoot = roots.poll();
 		}
 		addCheckpointRestoreCollapsedNodes();
+		addIterationCollapsedNodes();
+		vis.numberSteps();
 
 		expand(root);
+		vis.getMetrics().recordTime("graph.addCollapsedNodes", start);
 	}
 
 	/**
@@ -1092,6 +1403,176 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 		}
 	}
 
+	/**
+	 * Adds a collapsed node for each loop, standing for all of its iterations.
+	 * Expanding it shows a collapsed node for each iteration, so the nodes of
+	 * an iteration are only shown when the user asks for that iteration.
+	 * Loops are only found once all the procedure nodes have been added.
+	 */
+	private void addIterationCollapsedNodes() {
+		if (!(processFinished || controlFlowDrawn) || dataDerivation || provData == null || iterationsAdded) {
+			return;
+		}
+		iterationsAdded = true;
+		long start = System.nanoTime();
+		Map<NodeItem, NodeItem> covered = new HashMap<>();
+		int loopNodes = 0;
+		for (LoopFinder.Loop loop : LoopFinder.find(provData)) {
+			if (addIterationCollapsedNodes(loop, covered) != null) {
+				loopNodes++;
+			}
+		}
+		vis.getMetrics().add("graph.loopNodes", loopNodes);
+		vis.getMetrics().recordTime("graph.addIterationCollapsedNodes", start);
+	}
+
+	/**
+	 * Adds the collapsed nodes for a loop, after adding those for the loops
+	 * nested in its iterations
+	 * 
+	 * @param loop
+	 *            the loop
+	 * @param covered
+	 *            maps from each node that is already inside a loop node
+	 *            to that loop node
+	 * @return the collapsed node for the loop, or null if some of its
+	 *         nodes are not in the graph, or it includes the root
+	 */
+	private NodeItem addIterationCollapsedNodes(LoopFinder.Loop loop, Map<NodeItem, NodeItem> covered) {
+		// The members of each iteration, with nested loops replaced by
+		// their collapsed nodes
+		List<List<NodeItem>> iterations = new ArrayList<>();
+		for (int i = 0; i < loop.getIterationCount(); i++) {
+			for (LoopFinder.Loop nested : loop.getNestedLoops(i)) {
+				addIterationCollapsedNodes(nested, covered);
+			}
+
+			List<NodeItem> members = new ArrayList<>();
+			for (ProcedureInstanceNode pin : loop.getIteration(i)) {
+				// The layout starts from the root, so it cannot be hidden
+				NodeItem member = getElementNode(getNode(pin.getId()));
+				if (member == null || member == root) {
+					return null;
+				}
+				while (covered.containsKey(member)) {
+					member = covered.get(member);
+				}
+				if (members.isEmpty() || members.get(members.size() - 1) != member) {
+					members.add(member);
+				}
+			}
+			iterations.add(members);
+		}
+
+		List<NodeItem> loopMembers = new ArrayList<>();
+		for (int i = 0; i < iterations.size(); i++) {
+			List<NodeItem> members = iterations.get(i);
+			if (members.size() == 1) {
+				loopMembers.add(members.get(0));
+			}
+			else {
+				loopMembers.add(addIterationCollapsedNode("Iteration " + (i + 1), members));
+			}
+		}
+		NodeItem loopNode = addIterationCollapsedNode("\u00d7" + loop.getIterationCount() + " iterations",
+				loopMembers);
+
+		for (List<NodeItem> members : iterations) {
+			for (NodeItem member : members) {
+				covered.put(member, loopNode);
+			}
+		}
+		return loopNode;
+	}
+
+	/**
+	 * Adds a collapsed node for a loop or for one of its iterations
+	 * 
+	 * @param name
+	 *            the name of the new node
+	 * @param members
+	 *            the nodes it stands for, in the order they ran
+	 * @return the collapsed node
+	 */
+	private NodeItem addIterationCollapsedNode(String name, List<NodeItem> members) {
+		NodeItem firstMember = members.get(0);
+		NodeItem lastMember = members.get(members.size() - 1);
+		NodeItem firstProcNode = getFirstProcNode(firstMember);
+		NodeItem lastProcNode = getLastProcNode(lastMember);
+
+		SourcePos firstSourcePos = PrefuseUtils.getSourcePos(firstProcNode);
+		SourcePos lastSourcePos = PrefuseUtils.getSourcePos(lastProcNode);
+		NodeItem collapsedNode = addCollapsedNode(name,
+				new SourcePos(firstSourcePos.getScriptNumber(), firstSourcePos.getStartLine(),
+						firstSourcePos.getStartCol(), lastSourcePos.getEndLine(), lastSourcePos.getEndCol()));
+
+		double totalElapsedTime = 0.0;
+		for (NodeItem member : members) {
+			String elapsedTime = PrefuseUtils.getTimestamp(member);
+			if (elapsedTime != null) {
+				try {
+					totalElapsedTime = totalElapsedTime + Double.parseDouble(elapsedTime);
+				} catch (NumberFormatException e) {
+					// Do nothing
+				}
+			}
+		}
+		PrefuseUtils.setTimestamp(collapsedNode, totalElapsedTime);
+
+		Set<NodeItem> memberNodes = new LinkedHashSet<>(members);
+		vis.addIterations(collapsedNode, firstMember, lastMember, memberNodes);
+
+		// Add edges to the collapsed node
+		int collapsedNodeId = PrefuseUtils.getId(collapsedNode);
+		addSuccessorEdgesToCollapsedNode(lastProcNode, collapsedNodeId);
+		addPredecessorEdgesToCollapsedNode(firstProcNode, collapsedNodeId);
+		addDataEdgesToCollapsedNode(memberNodes, collapsedNode);
+		return collapsedNode;
+	}
+
+	/**
+	 * Returns the node that stands for a procedure node in the sequence of
+	 * nodes of its caller.  That is the collapsed node for a Start node, and
+	 * the node itself otherwise.
+	 * 
+	 * @param item
+	 *            the procedure node
+	 * @return the node that stands for it.  Returns null if item is null, or
+	 *         it is a Start node without a matching Finish node.
+	 */
+	private NodeItem getElementNode(NodeItem item) {
+		if (item != null && PrefuseUtils.isStartNode(item)) {
+			return vis.getCollapsedStartFinish(item);
+		}
+		return item;
+	}
+
+	/**
+	 * @param item
+	 *            a node
+	 * @return the first procedure node that ran inside the node, if it is
+	 *         a collapsed node, or else the node itself
+	 */
+	private NodeItem getFirstProcNode(NodeItem item) {
+		while (PrefuseUtils.isCollapsedNode(item)) {
+			item = vis.getStart(item);
+		}
+		return item;
+	}
+
+	/**
+	 * @param item
+	 *            a node
+	 * @return the last procedure node that ran inside the node, if it is a
+	 *         collapsed node, or else the node itself
+	 */
+	private NodeItem getLastProcNode(NodeItem item) {
+		while (PrefuseUtils.isCollapsedNode(item)) {
+			item = vis.getFinish(item);
+		}
+		return item;
+	}
+
 	/**
 	 * Find all the nodes rooted at startNode that should belong to the same
 	 * collapsed node
@@ -1414,6 +1895,21 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	 * @return the start node associated with the root
 	 */
 	NodeItem expand(NodeItem root) {
+		ExpandCollapseEvent event = new ExpandCollapseEvent();
+		event.begin();
+		NodeItem start = expandOneLevel(root);
+		commitEvent(event, "expand", root);
+		return start;
+	}
+
+	/**
+	 * Expand one level, rooted at the given node.
+	 * 
+	 * @param root
+	 *            the node to expand
+	 * @return the start node associated with the root
+	 */
+	private NodeItem expandOneLevel(NodeItem root) {
 		// Expanding a collapsed node. In this case, the members are currently
 		// not displayed, so we just need to hide the collapsed node and
 		// show the members instead.
@@ -1428,7 +1924,7 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 		// System.out.println("expand: Making root visible: " + root);
 		root.setVisible(true);
 		NodeItem collapsedRoot = null;
-		if (PrefuseUtils.isStartNode(root) && processFinished) {
+		if (PrefuseUtils.isStartNode(root) && (processFinished || controlFlowDrawn)) {
 			collapsedRoot = vis.getCollapsedStartFinish(root);
 			if (collapsedRoot == null) {
 				String rootName = PrefuseUtils.getName(root);
@@ -1459,6 +1955,8 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	 * @return the start node for the node we expanded
 	 */
 	NodeItem expandRecursively(NodeItem item) {
+		ExpandCollapseEvent event = new ExpandCollapseEvent();
+		event.begin();
 		// assert PrefuseUtils.isCollapsed(item);
 		if (!PrefuseUtils.isCollapsed(item)) {
 			collapse(item);
@@ -1468,6 +1966,7 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 		item.setVisible(false);
 		showMembersRecursively(item);
 		setAllDataNodeVisibility();
+		commitEvent(event, "expand all", item);
 		return vis.getStart(item);
 	}
 
@@ -1578,8 +2077,19 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	private void collapse(Iterator<NodeItem> successors) {
 		while (successors.hasNext()) {
 			NodeItem successor = successors.next();
+			if (vis.getIterations(getElementNode(successor)) != null) {
+				// Shown when the loop node it is inside is expanded
+				continue;
+			}
+
 			if (PrefuseUtils.isStartNode(successor)) {
 				collapse(successor);
+			} else if (PrefuseUtils.isCollapsedNode(successor) && vis.isIterations(successor)) {
+				successor.setVisible(true);
+				hideCollapsedMembers(successor);
+				@SuppressWarnings("unchecked")
+				Iterator<NodeItem> predecessors = successor.inNeighbors();
+				collapse(predecessors);
 			} else if (PrefuseUtils.isProcNode(successor)) {
 				collapse(successor.inNeighbors());
 			}
@@ -1629,10 +2139,63 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 	 *            the node to collapse
 	 */
 	void collapseStartNode(NodeItem item) {
+		ExpandCollapseEvent event = new ExpandCollapseEvent();
+		event.begin();
 		if (PrefuseUtils.isStart(item)) {
 			collapse(item);
 		}
 		setAllDataNodeVisibility();
+		commitEvent(event, "collapse", item);
+	}
+
+	/**
+	 * Shows the collapsed node for the loop or iteration that a node is
+	 * directly inside, in place of its members
+	 * 
+	 * @param item
+	 *            the node
+	 * @return the collapsed node shown, or null if the node is not inside a
+	 *         loop
+	 */
+	NodeItem collapseIterations(NodeItem item) {
+		NodeItem iterations = vis.getIterations(getElementNode(item));
+		if (iterations == null) {
+			return null;
+		}
+		ExpandCollapseEvent event = new ExpandCollapseEvent();
+		event.begin();
+		iterations.setVisible(true);
+		hideCollapsedMembers(iterations);
+		setAllDataNodeVisibility();
+		commitEvent(event, "collapse", iterations);
+		return iterations;
+	}
+
+	/**
+	 * @param item
+	 *            a node
+	 * @return true if the node is directly inside the collapsed node for a
+	 *         loop or for one of its iterations
+	 */
+	boolean isIterationMember(NodeItem item) {
+		return vis.getIterations(getElementNode(item)) != null;
+	}
+
+	/**
+	 * Records an expand or collapse with the flight recorder, if it is
+	 * recording such events
+	 * 
+	 * @param event the event, which began when the operation started
+	 * @param operation what was done
+	 * @param item the node expanded or collapsed
+	 */
+	private static void commitEvent(ExpandCollapseEvent event, String operation, NodeItem item) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.operation = operation;
+			event.node = PrefuseUtils.getName(item);
+			event.commit();
+		}
 	}
 
 	/**
@@ -1788,11 +2351,13 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 			// add the data node, passing in the optional associated value and
 			// timestamp
 			Object value = din.getValue();
+			int rowNum;
 			if (value == null) {
-				addNode(din.getType(), dinId, din.getName(), null, din.getCreatedTime(), null);
+				rowNum = addNode(din.getType(), dinId, din.getName(), null, din.getCreatedTime(), null);
 			} else {
-				addNode(din.getType(), dinId, din.getName(), din.getValue().toString(), din.getCreatedTime(), null);
+				rowNum = addNode(din.getType(), dinId, din.getName(), din.getValue().toString(), din.getCreatedTime(), null);
 			}
+			setDataNodeId(rowNum, din.getId());
 			NodeItem dataNode = getNode(dinId);
 
 			if (dataDerivation && (root == null)) {
@@ -1813,7 +2378,7 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 			// successor.getNameAndType() + " to " +
 			// predecessor.getNameAndType());
 			addEdge(PrefuseUtils.CONTROL_FLOW, successorId, predecessorId);
-			if (!incremental) {
+			if (!incremental || inBatch) {
 				return;
 			}
 
@@ -1840,19 +2405,18 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 			}
 
 			// change the focus to recently added node
-			vis.run("layout");
 			// System.out.println("Updating focus from successorEdgeCreated");
 			NodeItem collapsedSuccessor = vis.getCollapsedStartFinish(getNode(successorId));
 
 			// The successor is not collapsed, so focus on the expanded
 			// successor
 			if (collapsedSuccessor == null || !collapsedSuccessor.isVisible()) {
-				updateFocusGroup(successorId);
+				layout(getNode(successorId));
 			}
 
 			// The successor is collapsed, so focus on the collapsed successor.
 			else {
-				updateFocusGroup(PrefuseUtils.getId(collapsedSuccessor));
+				layout(collapsedSuccessor);
 			}
 		}
 
@@ -1881,12 +2445,9 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 					NodeItem producerNode = producers.next();
 
 					// If the producer is buried several levels deep, add an
-					// edge
-					// to each of its enclosing collapsed steps.
-					NodeItem collapsedNode = vis.getCollapsedStartFinish(producerNode);
-					while (collapsedNode != null) {
+					// edge to each of its enclosing collapsed steps.
+					for (NodeItem collapsedNode : vis.getEnclosingSteps(producerNode)) {
 						addEdge(PrefuseUtils.STEPDF, dataNodeId, PrefuseUtils.getId(collapsedNode));
-						collapsedNode = vis.getCollapsedStartFinish(collapsedNode);
 					}
 				}
 
@@ -1895,18 +2456,48 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 
 			}
 
+			// Visibility is computed once when the batch is finished
+			if (inBatch) {
+				return;
+			}
+
 			setAllDataNodeVisibility();
 
 			// change the focus to recently added node
 			if (incremental) {
-				vis.run("layout");
-				vis.run("animate");
+				layOut(() -> vis.run("animate"));
 			}
 		}
 		repaint();
 
 	}
 
+	/**
+	 * Stops updating visibility and layout after each node and edge is added
+	 */
+	@Override
+	public void batchStarted() {
+		synchronized (vis) {
+			inBatch = true;
+		}
+	}
+
+	/**
+	 * Updates the visibility of the data nodes and redraws the graph once
+	 * for all the nodes and edges in the batch.
+	 */
+	@Override
+	public void batchFinished() {
+		synchronized (vis) {
+			inBatch = false;
+			setAllDataNodeVisibility();
+			if (incremental && root != null) {
+				layout(root);
+			}
+		}
+		repaint();
+	}
+
 	/**
 	 * Handles clicking on a node
 	 * 
@@ -1954,6 +2545,7 @@ public class PrefuseGraphBuilder implements ProvenanceListener, ProvenanceDataVi
 
 	public void setProvData(ProvenanceData provData) {
 		this.provData = provData;
+		vis.setMetrics(provData.getMetrics());
 		ddgPanel.setProvData(provData);
 	}
 
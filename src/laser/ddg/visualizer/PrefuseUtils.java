@@ -97,6 +97,13 @@ public class PrefuseUtils {
 	public static final String STANDARD_OUTPUT_SNAPSHOT = "StandardOutputSnapshot";
 
 	public static final String LOCATION = "Location";
+
+	/** The field name to identify the MD5 hash recorded for a file or snapshot */
+	public static final String HASH = "Hash";
+
+	/** The field name to identify the id a data node has in the ddg.  Its id 
+	 * in prefuse is offset so that it differs from the ids of procedure nodes. */
+	public static final String DATA_ID = "DataId";
 	
 	public static final DecimalFormat elapsedTimeFormat = new DecimalFormat("##.###");
 
@@ -547,6 +554,18 @@ public class PrefuseUtils {
 		return n.getString(LOCATION);
 	}
 
+	/**
+	 * @param n
+	 * @return the MD5 hash recorded in the DDG for the node's file, or null
+	 * 		if none was recorded
+	 */
+	public static String getHash(Node n) {
+		if (!n.canGetString(HASH)) {
+			return null;
+		}
+		return n.getString(HASH);
+	}
+
 	/**
 	 * @param n
 	 * @return the source code position associated with a node
@@ -586,40 +605,21 @@ public class PrefuseUtils {
 	 * @return true if a data node
 	 */
 	public static boolean isAnyDataNode(Node n) {
-		String nodeType = getNodeType(n);
-		if (nodeType.equals(DATA_NODE)) {
-			return true;
-		}
-		
-		if (nodeType.equals(EXCEPTION)) {
-			return true;
-		}
-		
-		if (nodeType.equals(FILE)) {
-			return true;
-		}
-		
-		if (nodeType.equals(URL)) {
-			return true;
-		}
-		
-		if (nodeType.equals(DEVICE)) {
-			return true;
-		}
-		
-		if (nodeType.equals(SNAPSHOT)) {
+		// Types are pooled when the ddg is read, so the switch finds the 
+		// matching case with a hash lookup and an identity comparison.
+		switch (getNodeType(n)) {
+		case DATA_NODE:
+		case EXCEPTION:
+		case FILE:
+		case URL:
+		case DEVICE:
+		case SNAPSHOT:
+		case STANDARD_OUTPUT:
+		case CHECKPOINT_FILE:
 			return true;
+		default:
+			return false;
 		}
-		
-		if (nodeType.equals(STANDARD_OUTPUT)) {
-			return true;
-		}
-		
-		if (nodeType.equals(CHECKPOINT_FILE)) {
-			return true;
-		}
-		
-		return false;
 	}
 
 	/**
@@ -1,7 +1,12 @@
 package laser.ddg.visualizer;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -26,6 +31,22 @@ public class StepTable {
 
 	// Maps from collapsed node to the member steps.
 	private Map<Node, Set<NodeItem>> memberTable = new HashMap<> ();
+
+	// The collapsed nodes that stand for the iterations of a loop, or for
+	// one iteration
+	private Set<Node> iterationNodes = new HashSet<>();
+
+	// Maps from a node to the iteration node that it belongs to.  This
+	// takes precedence over startFinishTable.
+	private Map<Node, NodeItem> iterationTable = new HashMap<>();
+
+	// Pre-order and post-order numbers of the nodes in the start-finish 
+	// hierarchy.  A node is nested inside a collapsed node exactly when its 
+	// interval lies inside the collapsed node's interval.
+	private Map<Node, int[]> intervals = new HashMap<>();
+
+	// True if the intervals are up to date with the collapsed nodes added
+	private boolean numbered = false;
 	
 	/**
 	 * Adds information about a new collapsed node
@@ -38,6 +59,7 @@ public class StepTable {
 			Set<NodeItem> memberNodes) {
 		//System.out.println("StepTable.add:  Adding " + collapsedNode);
 		memberTable.put(collapsedNode, memberNodes);
+		numbered = false;
 
 		startTable.put(collapsedNode, startNode);
 		finishTable.put(collapsedNode, finishNode);
@@ -52,6 +74,83 @@ public class StepTable {
 		}
 	}
 
+	/**
+	 * Adds a collapsed node standing for the iterations of a loop, or for
+	 * one iteration.  The members are moved out of the collapsed node that
+	 * they were directly inside, and the new node takes their place.
+	 * @param collapsedNode the collapsed node
+	 * @param startNode the first member
+	 * @param finishNode the last member
+	 * @param memberNodes the members, which must all be directly inside the
+	 * 	same collapsed node, or not inside any
+	 */
+	public void addIterations(NodeItem collapsedNode, NodeItem startNode, NodeItem finishNode,
+			Set<NodeItem> memberNodes) {
+		NodeItem enclosing = getParent(startNode);
+		memberTable.put(collapsedNode, memberNodes);
+		iterationNodes.add(collapsedNode);
+		numbered = false;
+
+		startTable.put(collapsedNode, startNode);
+		finishTable.put(collapsedNode, finishNode);
+
+		for (NodeItem member : memberNodes) {
+			iterationTable.put(member, collapsedNode);
+		}
+
+		if (enclosing != null) {
+			Set<NodeItem> enclosingMembers = memberTable.get(enclosing);
+			enclosingMembers.removeAll(memberNodes);
+			enclosingMembers.add(collapsedNode);
+			if (iterationNodes.contains(enclosing)) {
+				iterationTable.put(collapsedNode, enclosing);
+			}
+			else {
+				startFinishTable.put(collapsedNode, enclosing);
+			}
+		}
+	}
+
+	/**
+	 * @param collapsedNode a collapsed node
+	 * @return true if the collapsed node stands for the iterations of a
+	 * 	loop, or for one iteration
+	 */
+	public boolean isIterations(Node collapsedNode) {
+		return iterationNodes.contains(collapsedNode);
+	}
+
+	/**
+	 * @param node a node
+	 * @return the iteration node that the node is directly inside, or null
+	 * 	if it is not directly inside one
+	 */
+	public NodeItem getIterations(Node node) {
+		return iterationTable.get(node);
+	}
+
+	/**
+	 * @param node a node
+	 * @return the collapsed node that the node is directly inside, or null
+	 * 	if there is none
+	 */
+	private NodeItem getParent(Node node) {
+		NodeItem iterations = iterationTable.get(node);
+		if (iterations != null) {
+			return iterations;
+		}
+		return startFinishTable.get(node);
+	}
+
+	/**
+	 * @param collapsedNode a collapsed node
+	 * @return true if the collapsed node is part of the hierarchy of
+	 * 	collapsed nodes, that is, it is not a checkpoint-restore node
+	 */
+	private boolean isHierarchical(Node collapsedNode) {
+		return iterationNodes.contains(collapsedNode) || PrefuseUtils.isStartNode(startTable.get(collapsedNode));
+	}
+
 	/**
 	 * Return an iterator over the members of a collapsed node
 	 * @param collapsedNode the collapsed node
@@ -64,35 +163,146 @@ public class StepTable {
 
 	/**
 	 * Returns true if the node is a member (recursively) of the collapsed node.
+	 * This is a constant time test once the start-finish hierarchy has been
+	 * numbered.  Until then, it walks up from the node through the collapsed
+	 * nodes that enclose it.
 	 * @param collapsedNode the collapsed node
 	 * @param node the node to look for
 	 * @return true if the node is a member of collapsedNode, or, recursively,
 	 *    the member of any collapsed node that is a member of collapsedNode.
 	 */
 	public boolean nestedContains(Node collapsedNode, Node node) {
-		Set<NodeItem> members = memberTable.get(collapsedNode);
-		
-		if (members == null) {
+		if (!memberTable.containsKey(collapsedNode)) {
 			return false;
 		}
 
+		// Checkpoint-restore nodes are not part of the start-finish hierarchy
+		if (!isHierarchical(collapsedNode)) {
+			return checkpointContains(collapsedNode, node);
+		}
+
+		if (numbered) {
+			int[] outer = intervals.get(collapsedNode);
+			int[] inner = intervals.get(node);
+			if (outer != null && inner != null) {
+				return outer[0] < inner[0] && inner[1] < outer[1];
+			}
+		}
+
+		for (Node enclosing = getParent(node); enclosing != null; 
+				enclosing = getParent(enclosing)) {
+			if (enclosing == collapsedNode) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Searches the members of a checkpoint-restore node
+	 * @param collapsedNode the collapsed checkpoint-restore node
+	 * @param node the node to look for
+	 * @return true if the node is a member of collapsedNode, or nested
+	 * 	inside a member
+	 */
+	private boolean checkpointContains(Node collapsedNode, Node node) {
+		Set<NodeItem> members = memberTable.get(collapsedNode);
 		if (members.contains(node)) {
 			return true;
 		}
 		
-		Iterator<NodeItem> memberIter = members.iterator();
-		while (memberIter.hasNext()) {
-			Node nextMember = memberIter.next();
-			if (PrefuseUtils.isCollapsedNode(nextMember)) {
-				if (nestedContains(nextMember, node)) {
-					return true;
-				}
+		for (Node nextMember : members) {
+			if (PrefuseUtils.isCollapsedNode(nextMember) && nestedContains(nextMember, node)) {
+				return true;
 			}
 		}
 		
 		return false;
 	}
 
+	/**
+	 * Returns the collapsed steps that a node is nested in
+	 * @param node the node
+	 * @return the collapsed steps enclosing the node, innermost first
+	 */
+	public List<NodeItem> getEnclosing(Node node) {
+		List<NodeItem> enclosing = new ArrayList<>();
+		for (NodeItem step = getParent(node); step != null; step = getParent(step)) {
+			enclosing.add(step);
+		}
+		return enclosing;
+	}
+
+	/**
+	 * Numbers the start-finish hierarchy in pre-order and post-order so that
+	 * nestedContains becomes a constant time test.  This should be called
+	 * once all the collapsed nodes have been added.  Adding more collapsed
+	 * nodes later makes nestedContains walk the hierarchy until it is 
+	 * numbered again.
+	 */
+	public void number() {
+		intervals.clear();
+		int counter = 0;
+
+		Deque<Frame> stack = new ArrayDeque<>();
+		for (Map.Entry<Node, Set<NodeItem>> step : memberTable.entrySet()) {
+			Node root = step.getKey();
+			if (getParent(root) != null || !isHierarchical(root)) {
+				continue;
+			}
+
+			intervals.put(root, new int[] {counter++, 0});
+			stack.push(new Frame(root, step.getValue()));
+			while (!stack.isEmpty()) {
+				Frame frame = stack.peek();
+				if (frame.members.hasNext()) {
+					NodeItem member = frame.members.next();
+					int[] interval = {counter++, 0};
+					intervals.put(member, interval);
+					Set<NodeItem> nested = memberTable.get(member);
+					if (nested != null && isHierarchical(member)) {
+						stack.push(new Frame(member, nested));
+					}
+					else {
+						interval[1] = counter++;
+					}
+				}
+				else {
+					intervals.get(frame.step)[1] = counter++;
+					stack.pop();
+				}
+			}
+		}
+		numbered = true;
+	}
+
+	/**
+	 * Returns the collapsed nodes ordered so that each comes after the
+	 * collapsed nodes nested inside it.  Checkpoint-restore nodes, which
+	 * are not part of the start-finish hierarchy, come last.
+	 * @return the collapsed nodes
+	 */
+	public List<NodeItem> getCollapsedInnermostFirst() {
+		if (!numbered) {
+			number();
+		}
+		List<NodeItem> steps = new ArrayList<>();
+		List<NodeItem> checkpoints = new ArrayList<>();
+		for (Node collapsedNode : memberTable.keySet()) {
+			if (isHierarchical(collapsedNode)) {
+				steps.add((NodeItem) collapsedNode);
+			}
+			else {
+				checkpoints.add((NodeItem) collapsedNode);
+			}
+		}
+		
+		// A step's post-order number is larger than those of its members
+		steps.sort((step1, step2) -> Integer.compare(intervals.get(step1)[1], intervals.get(step2)[1]));
+		steps.addAll(checkpoints);
+		return steps;
+	}
+
 	/**
 	 * Returns the start node associated with a collapsed node
 	 * @param collapsedNode the collapsed node
@@ -143,4 +353,16 @@ public class StepTable {
 		return members.contains(node);
 	}
 
+	/**
+	 * A collapsed step being numbered and the members not numbered yet
+	 */
+	private static class Frame {
+		private final Node step;
+		private final Iterator<NodeItem> members;
+
+		private Frame(Node step, Set<NodeItem> members) {
+			this.step = step;
+			this.members = members.iterator();
+		}
+	}
 }
@@ -0,0 +1,398 @@
+package laser.ddg.visualizer;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import prefuse.render.RendererFactory;
+import prefuse.visual.EdgeItem;
+import prefuse.visual.VisualItem;
+
+/**
+ * Writes a picture of a laid out DDG as a pyramid of PNG tiles in the
+ * Deep Zoom format, so that DDGs far too large to export as a single image
+ * can be browsed with a zoomable image viewer, such as OpenSeadragon.
+ *
+ * For a DDG named ddg, this writes ddg.dzi describing the image and the tiles
+ * in ddg_files/<level>/<column>_<row>.png.  The highest level shows the DDG
+ * at the scale given when the exporter is created.  Each level below it is
+ * half the size of the one above, down to a single pixel at level 0.
+ *
+ * The visible items and their bounds are copied while holding the
+ * visualization's lock.  The tiles are then drawn in parallel, each tile
+ * drawing only the items that overlap it.  The items are read, but not
+ * changed, while the tiles are drawn, so a layout that runs during the
+ * export may show up in some tiles and not others.
+ */
+public class TileExporter {
+	// Width and height of a tile in pixels
+	private static final int TILE_SIZE = 256;
+
+	// Space left around the DDG in the highest level image
+	private static final int MARGIN = 10;
+
+	// The visualization being drawn
+	private final DDGVisualization vis;
+
+	// Color to fill the tiles with before drawing the items
+	private final Color background;
+
+	// Pixels per unit of item space in the highest level
+	private final double scale;
+
+	// Number of threads drawing tiles
+	private final int threads;
+
+	// The visible items in the order they are drawn, edges first so that
+	// the nodes cover their ends
+	private final List<VisualItem> items = new ArrayList<>();
+
+	// Copies of the bounds of the items, in the same order
+	private final List<Rectangle2D> itemBounds = new ArrayList<>();
+
+	// Area of item space that is drawn
+	private Rectangle2D bounds;
+
+	// Size of the highest level image in pixels
+	private int width;
+	private int height;
+
+	// Highest level of the pyramid
+	private int maxLevel;
+
+	// Number of tiles written so far
+	private final AtomicInteger tilesWritten = new AtomicInteger();
+
+	// Set to stop an export in progress
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Creates an exporter for a display, using the display's background color
+	 * @param display the display whose ddg is exported
+	 * @param scale the number of pixels per unit of item space in the most
+	 *    detailed level.  At 1, the most detailed tiles show the DDG as it
+	 *    appears on the screen when the display is not zoomed.
+	 */
+	public TileExporter(DDGDisplay display, double scale) {
+		this((DDGVisualization) display.getVisualization(), display.getBackground(), scale,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an exporter
+	 * @param vis the visualization to draw
+	 * @param background the color behind the ddg
+	 * @param scale the number of pixels per unit of item space in the most
+	 *    detailed level
+	 * @param threads the number of tiles to draw at the same time
+	 */
+	public TileExporter(DDGVisualization vis, Color background, double scale, int threads) {
+		this.vis = vis;
+		this.background = background == null ? Color.WHITE : background;
+		this.scale = scale;
+		this.threads = Math.max(1, threads);
+		snapshot();
+	}
+
+	/**
+	 * Copies the visible items and their bounds and computes the size of the
+	 * pyramid
+	 */
+	private void snapshot() {
+		List<VisualItem> nodes = new ArrayList<>();
+		List<Rectangle2D> nodeBounds = new ArrayList<>();
+		synchronized (vis) {
+			Iterator<?> visibleItems = vis.visibleItems();
+			while (visibleItems.hasNext()) {
+				VisualItem item = (VisualItem) visibleItems.next();
+				Rectangle2D itemBound = (Rectangle2D) item.getBounds().clone();
+				if (item instanceof EdgeItem) {
+					items.add(item);
+					itemBounds.add(itemBound);
+				}
+				else {
+					nodes.add(item);
+					nodeBounds.add(itemBound);
+				}
+				if (bounds == null) {
+					bounds = itemBound.getBounds2D();
+				}
+				else {
+					bounds.add(itemBound);
+				}
+			}
+		}
+		items.addAll(nodes);
+		itemBounds.addAll(nodeBounds);
+
+		if (bounds == null) {
+			bounds = new Rectangle2D.Double(0, 0, 1, 1);
+		}
+		bounds.setRect(bounds.getX() - MARGIN, bounds.getY() - MARGIN,
+				bounds.getWidth() + 2 * MARGIN, bounds.getHeight() + 2 * MARGIN);
+		width = Math.max(1, (int) Math.ceil(bounds.getWidth() * scale));
+		height = Math.max(1, (int) Math.ceil(bounds.getHeight() * scale));
+		maxLevel = 32 - Integer.numberOfLeadingZeros(Math.max(width, height) - 1);
+	}
+
+	/**
+	 * @return the total number of tiles in the pyramid
+	 */
+	public int getTileCount() {
+		int count = 0;
+		for (int level = 0; level <= maxLevel; level++) {
+			count += columns(level) * rows(level);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of tiles written so far
+	 */
+	public int getTilesWritten() {
+		return tilesWritten.get();
+	}
+
+	/**
+	 * Stops an export in progress.  Tiles being drawn are finished, but
+	 * no more are started.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return true if the export was cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Writes the pyramid
+	 * @param dziFile the descriptor file to write.  The tiles are written
+	 *    to a directory next to it, named like the file with _files in place
+	 *    of the .dzi extension.
+	 * @throws IOException if a file cannot be written
+	 * @throws CancellationException if the export is cancelled
+	 */
+	public void export(File dziFile) throws IOException {
+		String baseName = dziFile.getName();
+		if (baseName.endsWith(".dzi")) {
+			baseName = baseName.substring(0, baseName.length() - ".dzi".length());
+		}
+		File tileDir = new File(dziFile.getAbsoluteFile().getParentFile(), baseName + "_files");
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "DDG tile renderer");
+			t.setDaemon(true);
+			return t;
+		});
+
+		// Each thread needs its own renderers
+		ThreadLocal<RendererFactory> renderers = ThreadLocal.withInitial(vis::newRendererFactory);
+		try {
+			// Finish each level before starting the next, so that only one
+			// level's worth of tile contents is held at a time
+			for (int level = maxLevel; level >= 0; level--) {
+				File levelDir = new File(tileDir, String.valueOf(level));
+				if (!levelDir.isDirectory() && !levelDir.mkdirs()) {
+					throw new IOException("Cannot create directory " + levelDir);
+				}
+				exportLevel(pool, renderers, level, levelDir);
+			}
+			writeDescriptor(dziFile);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Draws the tiles of one level in parallel and waits for them to finish
+	 * @param pool the threads that draw the tiles
+	 * @param renderers the renderers each thread uses
+	 * @param level the level to draw
+	 * @param levelDir the directory to write the level's tiles to
+	 * @throws IOException if a tile cannot be written
+	 */
+	private void exportLevel(ExecutorService pool, ThreadLocal<RendererFactory> renderers,
+			int level, File levelDir) throws IOException {
+		double levelScale = levelScale(level);
+		int columns = columns(level);
+		int rows = rows(level);
+		List<List<Integer>> tileItems = cull(levelScale, columns, rows);
+
+		List<Future<?>> tiles = new ArrayList<>(columns * rows);
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < columns; col++) {
+				final int tileCol = col;
+				final int tileRow = row;
+				final List<Integer> contents = tileItems.get(row * columns + col);
+				tiles.add(pool.submit(() -> {
+					if (cancelled) {
+						return null;
+					}
+					File tileFile = new File(levelDir, tileCol + "_" + tileRow + ".png");
+					BufferedImage tile = drawTile(renderers.get(), level, levelScale, tileCol, tileRow, contents);
+					if (!ImageIO.write(tile, "png", tileFile)) {
+						throw new IOException("No PNG writer available");
+					}
+					tilesWritten.incrementAndGet();
+					return null;
+				}));
+			}
+		}
+
+		try {
+			for (Future<?> tile : tiles) {
+				tile.get();
+			}
+		} catch (InterruptedException e) {
+			cancelled = true;
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			cancelled = true;
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException("Unable to draw tile: " + cause, cause);
+		}
+		if (cancelled) {
+			throw new CancellationException("Tile export cancelled");
+		}
+	}
+
+	/**
+	 * Finds which items overlap each tile of a level
+	 * @param levelScale pixels per unit of item space at this level
+	 * @param columns the number of columns of tiles
+	 * @param rows the number of rows of tiles
+	 * @return for each tile, by row and then column, the positions of the
+	 *    items that overlap it, in the order they are drawn
+	 */
+	private List<List<Integer>> cull(double levelScale, int columns, int rows) {
+		List<List<Integer>> tileItems = new ArrayList<>(columns * rows);
+		for (int i = 0; i < columns * rows; i++) {
+			tileItems.add(new ArrayList<>());
+		}
+		for (int i = 0; i < items.size(); i++) {
+			Rectangle2D itemBound = itemBounds.get(i);
+			int firstCol = tileIndex(itemBound.getMinX() - bounds.getX(), levelScale, columns);
+			int lastCol = tileIndex(itemBound.getMaxX() - bounds.getX(), levelScale, columns);
+			int firstRow = tileIndex(itemBound.getMinY() - bounds.getY(), levelScale, rows);
+			int lastRow = tileIndex(itemBound.getMaxY() - bounds.getY(), levelScale, rows);
+			for (int row = firstRow; row <= lastRow; row++) {
+				for (int col = firstCol; col <= lastCol; col++) {
+					tileItems.get(row * columns + col).add(i);
+				}
+			}
+		}
+		return tileItems;
+	}
+
+	/**
+	 * @param offset a distance from the edge of the drawn area in item space
+	 * @param levelScale pixels per unit of item space
+	 * @param count the number of tiles in that direction
+	 * @return the tile containing that point, limited to the tiles that exist
+	 */
+	private static int tileIndex(double offset, double levelScale, int count) {
+		int index = (int) Math.floor(offset * levelScale / TILE_SIZE);
+		return Math.max(0, Math.min(count - 1, index));
+	}
+
+	/**
+	 * Draws one tile
+	 * @param rendererFactory the renderers to draw with
+	 * @param level the level the tile is in
+	 * @param levelScale pixels per unit of item space at this level
+	 * @param col the tile's column
+	 * @param row the tile's row
+	 * @param contents the positions of the items that overlap the tile
+	 * @return the tile's image
+	 */
+	private BufferedImage drawTile(RendererFactory rendererFactory, int level, double levelScale,
+			int col, int row, List<Integer> contents) {
+		int tileWidth = Math.min(TILE_SIZE, levelWidth(level) - col * TILE_SIZE);
+		int tileHeight = Math.min(TILE_SIZE, levelHeight(level) - row * TILE_SIZE);
+		BufferedImage tile = new BufferedImage(tileWidth, tileHeight, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = tile.createGraphics();
+		try {
+			g.setColor(background);
+			g.fillRect(0, 0, tileWidth, tileHeight);
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+			g.translate(-col * TILE_SIZE, -row * TILE_SIZE);
+			g.scale(levelScale, levelScale);
+			g.translate(-bounds.getX(), -bounds.getY());
+			for (int i : contents) {
+				VisualItem item = items.get(i);
+				rendererFactory.getRenderer(item).render(g, item);
+			}
+		} finally {
+			g.dispose();
+		}
+		return tile;
+	}
+
+	/**
+	 * Writes the file that describes the image to the viewer
+	 * @param dziFile the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	private void writeDescriptor(File dziFile) throws IOException {
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(dziFile), StandardCharsets.UTF_8))) {
+			out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+			out.write("<Image xmlns=\"http://schemas.microsoft.com/deepzoom/2008\" TileSize=\"" + TILE_SIZE
+					+ "\" Overlap=\"0\" Format=\"png\">\n");
+			out.write("  <Size Width=\"" + width + "\" Height=\"" + height + "\"/>\n");
+			out.write("</Image>\n");
+		}
+	}
+
+	/**
+	 * @param level a level of the pyramid
+	 * @return pixels per unit of item space at that level
+	 */
+	private double levelScale(int level) {
+		return scale / (1L << (maxLevel - level));
+	}
+
+	private int levelWidth(int level) {
+		return (int) Math.max(1, (width + (1L << (maxLevel - level)) - 1) >> (maxLevel - level));
+	}
+
+	private int levelHeight(int level) {
+		return (int) Math.max(1, (height + (1L << (maxLevel - level)) - 1) >> (maxLevel - level));
+	}
+
+	private int columns(int level) {
+		return (levelWidth(level) + TILE_SIZE - 1) / TILE_SIZE;
+	}
+
+	private int rows(int level) {
+		return (levelHeight(level) + TILE_SIZE - 1) / TILE_SIZE;
+	}
+}
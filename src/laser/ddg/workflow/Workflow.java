@@ -1,8 +1,14 @@
 package laser.ddg.workflow;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import laser.ddg.r.RDataInstanceNode;
 import laser.ddg.workflow.visualizer.WorkflowGraphBuilder;
@@ -23,15 +29,24 @@ public class Workflow {
 	private ArrayList<WorkflowEdge> edges;
 	private Map<Integer, RDataInstanceNode> fileNodes;
 	private Map<Integer, ScriptNode> scriptNodes;
-	private ArrayList<RDataInstanceNode> addedFiles;
-	private ArrayList<ScriptNode> addedScripts;
+	
+	// For each node, the edges that end at it
+	private Map<Integer, List<WorkflowEdge>> inEdges;
+	
+	// For each node, the edges that end at it or start at it, in the order
+	// the edges were added.  This is the order the assembly visits them in.
+	private Map<Integer, List<WorkflowEdge>> incidentEdges;
+	
+	// The ids of the nodes that have been added to the graph builder
+	private Set<Integer> addedNodes;
 
 	public Workflow(WorkflowGraphBuilder builder) {
 		edges = new ArrayList<WorkflowEdge>();
 		fileNodes = new HashMap<Integer, RDataInstanceNode>();
 		scriptNodes = new HashMap<Integer, ScriptNode>();
-		addedFiles = new ArrayList<RDataInstanceNode>();
-		addedScripts = new ArrayList<ScriptNode>();
+		inEdges = new HashMap<>();
+		incidentEdges = new HashMap<>();
+		addedNodes = new HashSet<>();
 	}
 
 	/**
@@ -63,6 +78,11 @@ public class Workflow {
 	public void addEdge(String type, int source, int target) {
 		WorkflowEdge we = new WorkflowEdge(type, source, target);
 		edges.add(we);
+		inEdges.computeIfAbsent(target, (Integer id) -> new ArrayList<>()).add(we);
+		incidentEdges.computeIfAbsent(source, (Integer id) -> new ArrayList<>()).add(we);
+		if (source != target) {
+			incidentEdges.computeIfAbsent(target, (Integer id) -> new ArrayList<>()).add(we);
+		}
 	}
 
 	/**
@@ -73,51 +93,144 @@ public class Workflow {
 	 * @param index the id of the node currently being acted upon.
 	 */
 	public void walkBeginning(WorkflowGraphBuilder builder, int index) {
-		for (int j = 0; j <  edges.size(); j++) {
-			if (edges.get(j).getTarget() == index) {
-				walkBeginning(builder, edges.get(j).getSource());
-				return;
+		// Follow the first incoming edge until we reach a node with no
+		// incoming edges, or we come around a cycle.
+		Set<Integer> walked = new HashSet<>();
+		walked.add(index);
+		List<WorkflowEdge> incoming = inEdges.get(index);
+		while (incoming != null && !incoming.isEmpty()) {
+			int source = incoming.get(0).getSource();
+			if (!walked.add(source)) {
+				break;
 			}
+			index = source;
+			incoming = inEdges.get(index);
 		}
 		assembleRecursively(builder, index);
 	}
 
 	/**
-	 * Using recursive calls, constructs the DDG.
+	 * Returns the ids of all the nodes that have no incoming edges
+	 * 
+	 * @return the root ids in increasing order
+	 */
+	public List<Integer> findRoots() {
+		Set<Integer> roots = new TreeSet<>();
+		roots.addAll(scriptNodes.keySet());
+		roots.addAll(fileNodes.keySet());
+		roots.removeAll(inEdges.keySet());
+		return new ArrayList<>(roots);
+	}
+
+	/**
+	 * Adds every node and edge of the workflow to the graph builder, starting
+	 * from each root in turn.  Nodes that are only reachable around a cycle
+	 * are added afterwards.
+	 * 
+	 * @param builder the workflow graph builder being used.
+	 */
+	public void assembleAll(WorkflowGraphBuilder builder) {
+		for (int root : findRoots()) {
+			assembleRecursively(builder, root);
+		}
+		
+		Set<Integer> remaining = new TreeSet<>();
+		remaining.addAll(scriptNodes.keySet());
+		remaining.addAll(fileNodes.keySet());
+		for (int id : remaining) {
+			assembleRecursively(builder, id);
+		}
+	}
+
+	/**
+	 * Constructs the DDG by walking all the nodes connected to the given node.
+	 * The walk is depth-first but uses an explicit stack so that long chains
+	 * of scripts and files cannot overflow the Java stack.
+	 * 
+	 * Each node is added when it is first reached.  Each edge is added when
+	 * walking out of its source node, once its target has been added.
 	 * 
 	 * @param builder the workflow graph builder being used.
 	 * @param index the id of the node currently being acted upon.
 	 */
 	public void assembleRecursively(WorkflowGraphBuilder builder, int index) {
+		if (!addNode(builder, index)) {
+			return;
+		}
+
+		Deque<WalkState> stack = new ArrayDeque<>();
+		stack.push(new WalkState(index));
+		while (!stack.isEmpty()) {
+			WalkState current = stack.peek();
+			
+			// The target of this edge has been walked, so the edge can be added
+			if (current.pendingEdge != null) {
+				builder.addEdge(current.pendingEdge.getType(), current.node, current.pendingEdge.getTarget());
+				current.pendingEdge = null;
+			}
+			
+			List<WorkflowEdge> incident = incidentEdges.get(current.node);
+			if (incident == null || current.nextEdge >= incident.size()) {
+				stack.pop();
+				continue;
+			}
+			
+			WorkflowEdge edge = incident.get(current.nextEdge);
+			current.nextEdge++;
+			int next;
+			if (edge.getSource() == current.node) {
+				next = edge.getTarget();
+				current.pendingEdge = edge;
+			}
+			else {
+				next = edge.getSource();
+			}
+			
+			if (addNode(builder, next)) {
+				stack.push(new WalkState(next));
+			}
+		}
+	}
+
+	/**
+	 * Adds a node to the graph builder if it has not already been added
+	 * 
+	 * @param builder the workflow graph builder being used.
+	 * @param index the id of the node to add
+	 * @return true if the node had not been added before
+	 */
+	private boolean addNode(WorkflowGraphBuilder builder, int index) {
+		if (!addedNodes.add(index)) {
+			return false;
+		}
+		
 		ScriptNode sn = scriptNodes.get(index);
 		RDataInstanceNode rdin = fileNodes.get(index);
 		if (sn != null) {
-			if (!addedScripts.contains(sn)) {
-				builder.addNode(sn, index);
-				addedScripts.add(sn);
-			} else {
-				return;
-			}
+			builder.addNode(sn, index);
 		} else if (rdin != null) {
-			if (!addedFiles.contains(rdin)) {
-				builder.addNode(rdin.getType(), index, rdin.getName(), rdin.getValue(),
-						rdin.getCreatedTime(), rdin.getLocation(), null);
-				addedFiles.add(rdin);
-			} else {
-				return;
-			}
+			builder.addNode(rdin.getType(), index, rdin.getName(), rdin.getValue(),
+					rdin.getCreatedTime(), rdin.getLocation(), null);
 		}
+		return true;
+	}
 
-		for (int j = 0; j <  edges.size(); j++) {
-			int sourceIndex = edges.get(j).getSource();
-			int targetIndex = edges.get(j).getTarget();
-			if (targetIndex == index) {
-				assembleRecursively(builder, sourceIndex);
-			}
-			if (sourceIndex == index) {
-				assembleRecursively(builder, targetIndex);
-				builder.addEdge(edges.get(j).getType(), index, targetIndex);
-			}
+	/**
+	 * Remembers how far the walk has gotten through the edges of a node
+	 */
+	private static class WalkState {
+		// The node being walked
+		private final int node;
+		
+		// Position of the next edge to follow
+		private int nextEdge = 0;
+		
+		// An outgoing edge whose target is being walked.  It is added
+		// once the walk returns to this node.
+		private WorkflowEdge pendingEdge;
+		
+		private WalkState(int node) {
+			this.node = node;
 		}
 	}
 }
@@ -282,6 +282,16 @@ public class WorkflowPanel extends JPanel {
 		vis.repaint();
 	}
 
+	/**
+	 * Switches between the tree layout and the layered layout
+	 * @param layered if true, the layered layout is used
+	 */
+	public void useLayeredLayout(boolean layered) {
+		if (builder != null) {
+			builder.useLayeredLayout(layered);
+		}
+	}
+
 	public void addLegend() {
 		wfMain.add(legendBox, BorderLayout.WEST);
 		wfMain.validate();
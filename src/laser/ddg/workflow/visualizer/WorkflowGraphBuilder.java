@@ -31,6 +31,7 @@ import laser.ddg.gui.DDGExplorer;
 import laser.ddg.gui.LegendEntry;
 import laser.ddg.search.SearchIndex;
 import laser.ddg.visualizer.DDGVisualization;
+import laser.ddg.visualizer.LayeredLayout;
 import laser.ddg.visualizer.PrefuseUtils;
 import laser.ddg.workflow.ScriptNode;
 import laser.ddg.workflow.gui.WorkflowPanel;
@@ -119,6 +120,15 @@ public class WorkflowGraphBuilder implements ProvenanceListener, ProvenanceDataV
 	WorkflowPanel workflowPanel;
 	private TreeLayout wfLayout;
 
+	// The layout actions, which hold either the tree layout or the layered layout
+	private ActionList layoutActions;
+
+	// Lays out the graph in layers when the user prefers that to the tree layout
+	private LayeredLayout layeredLayout;
+
+	// True if the layered layout is in use
+	private boolean layered = false;
+
 	// The root of the provenance graph, where layout begins
 	private NodeItem root;
 
@@ -382,6 +392,7 @@ public class WorkflowGraphBuilder implements ProvenanceListener, ProvenanceDataV
 		graph = new Graph(nodes, edges, true, PrefuseUtils.ID, PrefuseUtils.SOURCE, PrefuseUtils.TARGET);
 		provData = new ProvenanceData("Workflow");
 		provData.setQuery("Entire Workflow");
+		vis.setMetrics(provData.getMetrics());
 	}
 
 	/**
@@ -675,6 +686,12 @@ public class WorkflowGraphBuilder implements ProvenanceListener, ProvenanceDataV
 		ActionList layout = new ActionList();
 		wfLayout = new WorkflowLayout(GRAPH, 2, 75, 20, 50);
 		layout.add(wfLayout);
+		layoutActions = layout;
+		layeredLayout = new LayeredLayout(GRAPH);
+
+		// The layered layout is not in the action list yet, so it does not
+		// get the visualization when the list does
+		layeredLayout.setVisualization(vis);
 
 		ActionList repaint = new ActionList();
 		repaint.add(new RepaintAction());
@@ -828,6 +845,9 @@ public class WorkflowGraphBuilder implements ProvenanceListener, ProvenanceDataV
 		// graph.
 
 		this.provData = provData;
+		if (provData != null) {
+			vis.setMetrics(provData.getMetrics());
+		}
 		buildNodeAndEdgeTables();
 		graph = new Graph(nodes, edges, true, PrefuseUtils.ID, PrefuseUtils.SOURCE, PrefuseUtils.TARGET);
 		initializeDisplay(compareWorkflow);
@@ -975,6 +995,28 @@ public class WorkflowGraphBuilder implements ProvenanceListener, ProvenanceDataV
 		}
 	}
 
+	/**
+	 * Switches between the tree layout and the layered layout and redraws
+	 * the graph.  The layered layout places nodes that share data, or are
+	 * reached by more than one path, between all of their neighbors rather
+	 * than under a single parent.
+	 * 
+	 * @param useLayered if true, the layered layout is used
+	 */
+	public void useLayeredLayout(boolean useLayered) {
+		synchronized (vis) {
+			if (layoutActions == null || useLayered == layered) {
+				return;
+			}
+			layoutActions.remove(useLayered ? wfLayout : layeredLayout);
+			layoutActions.add(useLayered ? layeredLayout : wfLayout);
+			layered = useLayered;
+			vis.run("layout");
+			vis.run("color");
+			vis.run("repaint");
+		}
+	}
+
 	private void setRoot() {
 		laser.ddg.Node rootNode = provData.getRoot();
 		if (rootNode == null) {
@@ -1917,6 +1959,7 @@ public class WorkflowGraphBuilder implements ProvenanceListener, ProvenanceDataV
 
 	public void setProvData(ProvenanceData provData) {
 		this.provData = provData;
+		vis.setMetrics(provData.getMetrics());
 		workflowPanel.setProvData(provData);
 	}
 
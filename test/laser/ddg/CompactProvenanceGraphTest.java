@@ -0,0 +1,290 @@
+package laser.ddg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import laser.ddg.diff.TimingComparison;
+import laser.ddg.persist.Parser;
+
+/**
+ * Tests that the views of a compacted ddg behave like the nodes of the
+ * ddg they were copied from.
+ */
+public class CompactProvenanceGraphTest {
+	// Where the ddg files are written
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// The ddg as read from the file
+	private ProvenanceData original;
+
+	// The same ddg read again and compacted
+	private ProvenanceData compacted;
+
+	@BeforeClass
+	public static void addLanguage() {
+		LanguageConfigurator.addLanguageBuilder("R", "laser.ddg.r.RDDGBuilder");
+	}
+
+	@Before
+	public void readDdgs() throws IOException {
+		File ddgFile = writeDdg("left.txt", "2");
+		original = read(ddgFile);
+		compacted = read(ddgFile);
+		compacted.compact();
+	}
+
+	@Test
+	public void visitsTheSameNodesInTheSameOrder() {
+		assertTrue(compacted.isCompact());
+		assertEquals(original.getNumNodes(), compacted.getNumNodes());
+		assertEquals(describePins(original), describePins(compacted));
+		assertEquals(describeDins(original), describeDins(compacted));
+	}
+
+	@Test
+	public void findsParametersByName() {
+		Iterator<ProcedureInstanceNode> pins = original.pinIter();
+		while (pins.hasNext()) {
+			ProcedureInstanceNode pin = pins.next();
+			ProcedureInstanceNode view = compacted.findPin(pin.getId());
+			Iterator<String> inputs = pin.inputParamNames();
+			while (inputs.hasNext()) {
+				String name = inputs.next();
+				assertEquals(describe(pin.getInput(name)), describe(view.getInput(name)));
+			}
+			Iterator<String> outputs = pin.outputParamNames();
+			while (outputs.hasNext()) {
+				String name = outputs.next();
+				assertEquals(describe(pin.getOutput(name)), describe(view.getOutput(name)));
+			}
+		}
+
+		ProcedureInstanceNode view = compacted.findPin(2);
+		try {
+			view.getInput("no such parameter");
+			fail("Found a parameter that does not exist");
+		} catch (UnboundParameterException e) {
+			// Expected
+		}
+		assertNull(compacted.findPin(100));
+		assertNull(compacted.findDin(100));
+	}
+
+	@Test
+	public void findsTheSameLineage() {
+		Iterator<DataInstanceNode> dins = original.dinIter();
+		while (dins.hasNext()) {
+			DataInstanceNode din = dins.next();
+			DataInstanceNode view = compacted.findDin(din.getId());
+			assertEquals(din.getName(), lineage(din), lineage(view));
+		}
+	}
+
+	@Test
+	public void diffsLikeTheOriginal() throws IOException {
+		ProvenanceData right = read(writeDdg("right.txt", "5"));
+		ProvenanceData compactRight = read(writeDdg("right2.txt", "5"));
+		compactRight.compact();
+
+		TimingComparison expected = new TimingComparison(original, right);
+		TimingComparison actual = new TimingComparison(compacted, compactRight);
+		assertFalse(expected.getStepDeltas().isEmpty());
+		assertEquals(expected.getDeleted(), actual.getDeleted());
+		assertEquals(expected.getAdded(), actual.getAdded());
+		assertEquals(expected.getLeftTotal(), actual.getLeftTotal(), 0.0);
+		assertEquals(expected.getRightTotal(), actual.getRightTotal(), 0.0);
+		assertEquals(describe(expected.getStepDeltas()), describe(actual.getStepDeltas()));
+		assertEquals(describe(expected.getLineDeltas()), describe(actual.getLineDeltas()));
+	}
+
+	@Test
+	public void cannotBeChanged() {
+		try {
+			compacted.addDIN(compacted.findDin(1));
+			fail("Added a node to a compacted ddg");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		try {
+			compacted.findDin(1).setValue("2");
+			fail("Changed a node of a compacted ddg");
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void clonesDataNodesIntoChangeableCopies() {
+		DataInstanceNode view = compacted.findDin(2);
+		DataInstanceNode copy = (DataInstanceNode) view.clone();
+		assertNotSame(view, copy);
+		assertEquals(view.getId(), copy.getId());
+		assertEquals(view.getName(), copy.getName());
+		assertEquals(view.getType(), copy.getType());
+		assertEquals(view.getValue(), copy.getValue());
+		assertNull(copy.getProducer());
+		assertFalse(copy.users().hasNext());
+
+		copy.setValue("changed");
+		assertEquals("changed", copy.getValue());
+		assertEquals("4", compacted.findDin(2).getValue());
+	}
+
+	/**
+	 * Writes a ddg with nested steps, data used by several operations,
+	 * and data that is never used
+	 * @param name the file name
+	 * @param yTime the elapsed time of the step computing y, so that two
+	 * 	files can differ in their timing
+	 * @return the file
+	 */
+	private File writeDdg(String name, String yTime) throws IOException {
+		File ddgFile = folder.newFile(name);
+		try (PrintWriter out = new PrintWriter(ddgFile, "UTF-8")) {
+			out.println("Language=\"R\"");
+			out.println("Script=\"/tmp/s.R\"");
+			out.println("7");
+			out.println("Start p1 \"s.R\" Time=\"0\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			out.println("Operation p2 \"x <- 4\" Time=\"1\" Script=\"0\" Pos=\"1,1,1,6\";");
+			out.println("Start p3 \"f()\" Time=\"1\" Script=\"0\" Pos=\"2,1,2,8\";");
+			out.println("Operation p4 \"y <- x * 2\" Time=\"" + yTime + "\" Script=\"0\" Pos=\"2,1,2,10\";");
+			out.println("Finish p5 \"f()\" Time=\"" + yTime + "\" Script=\"0\" Pos=\"2,1,2,8\";");
+			out.println("Operation p6 \"z <- x + y\" Time=\"3\" Script=\"0\" Pos=\"3,1,3,10\";");
+			out.println("Finish p7 \"s.R\" Time=\"3\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			out.println("Data d1 \"a\" Value=\"unused\" Time=\"\";");
+			out.println("Data d2 \"x\" Value=\"4\" Time=\"\";");
+			out.println("Data d3 \"y\" Value=\"8\" Time=\"\";");
+			out.println("Data d4 \"z\" Value=\"12\" Time=\"\";");
+			for (int i = 1; i < 7; i++) {
+				out.println("CF p" + i + " p" + (i + 1) + ";");
+			}
+			out.println("DF p2 d2;");
+			out.println("DF d2 p4;");
+			out.println("DF p4 d3;");
+			out.println("DF d2 p6;");
+			out.println("DF d3 p6;");
+			out.println("DF p6 d4;");
+		}
+		return ddgFile;
+	}
+
+	private static ProvenanceData read(File ddgFile) throws IOException {
+		return Parser.createParser(ddgFile, null).addNodesAndEdges();
+	}
+
+	private static List<String> describePins(ProvenanceData provData) {
+		List<String> descriptions = new ArrayList<>();
+		Iterator<ProcedureInstanceNode> pins = provData.pinIter();
+		while (pins.hasNext()) {
+			descriptions.add(describe(pins.next()));
+		}
+		return descriptions;
+	}
+
+	private static List<String> describeDins(ProvenanceData provData) {
+		List<String> descriptions = new ArrayList<>();
+		Iterator<DataInstanceNode> dins = provData.dinIter();
+		while (dins.hasNext()) {
+			DataInstanceNode din = dins.next();
+			descriptions.add(describe(din) + " in=" + provData.isProcessInput(din)
+					+ " out=" + provData.isProcessOutput(din));
+		}
+		return descriptions;
+	}
+
+	/**
+	 * @return the contents of a procedure node and the ids of its neighbors
+	 */
+	private static String describe(ProcedureInstanceNode pin) {
+		StringBuilder s = new StringBuilder();
+		s.append(pin.getId()).append(' ').append(pin.getType()).append(' ').append(pin.getName());
+		s.append(" time=").append(pin.getElapsedTime()).append(" root=").append(pin.canBeRoot());
+		SourcePos pos = pin.getSourcePos();
+		if (pos != null) {
+			s.append(" pos=").append(pos.getScriptNumber()).append(',').append(pos.getStartLine()).append(',')
+				.append(pos.getStartCol()).append(',').append(pos.getEndLine()).append(',').append(pos.getEndCol());
+		}
+		s.append(" succ=").append(ids(pin.successorIter()));
+		s.append(" pred=").append(ids(pin.predecessorIter()));
+		s.append(" in=").append(params(pin.inputParamNames(), pin.inputParamValues()));
+		s.append(" out=").append(params(pin.outputParamNames(), pin.outputParamValues()));
+		return s.toString();
+	}
+
+	/**
+	 * @return the contents of a data node and the ids of its neighbors
+	 */
+	private static String describe(DataInstanceNode din) {
+		ProcedureInstanceNode producer = din.getProducer();
+		return din.getId() + " " + din.getType() + " " + din.getName() + " = " + din.getValue()
+			+ " time=" + din.getCreatedTime() + " location=" + din.getLocation() + " hash=" + din.getHash()
+			+ " producer=" + (producer == null ? "none" : producer.getId())
+			+ " users=" + ids(din.users());
+	}
+
+	private static List<String> describe(List<TimingComparison.Delta> deltas) {
+		List<String> descriptions = new ArrayList<>();
+		for (TimingComparison.Delta delta : deltas) {
+			descriptions.add(delta.getLabel() + " " + delta.getLeftTime() + " " + delta.getRightTime()
+				+ " " + delta.getChange());
+		}
+		return descriptions;
+	}
+
+	private static List<Integer> ids(Iterator<? extends Node> nodes) {
+		List<Integer> ids = new ArrayList<>();
+		while (nodes.hasNext()) {
+			ids.add(nodes.next().getId());
+		}
+		return ids;
+	}
+
+	private static List<String> params(Iterator<String> names, Iterator<DataInstanceNode> values) {
+		List<String> params = new ArrayList<>();
+		while (names.hasNext()) {
+			params.add(names.next() + "=" + values.next().getId());
+		}
+		return params;
+	}
+
+	/**
+	 * @return the ids of the nodes a data node was derived from, found by
+	 * 	following producers and inputs backward, in the order they are found
+	 */
+	private static List<String> lineage(DataInstanceNode start) {
+		List<String> found = new ArrayList<>();
+		List<DataInstanceNode> toVisit = new ArrayList<>();
+		toVisit.add(start);
+		while (!toVisit.isEmpty()) {
+			DataInstanceNode din = toVisit.remove(0);
+			found.add("d" + din.getId());
+			ProcedureInstanceNode producer = din.getProducer();
+			if (producer != null && !found.contains("p" + producer.getId())) {
+				found.add("p" + producer.getId());
+				Iterator<DataInstanceNode> inputs = producer.inputParamValues();
+				while (inputs.hasNext()) {
+					toVisit.add(inputs.next());
+				}
+			}
+		}
+		return found;
+	}
+}
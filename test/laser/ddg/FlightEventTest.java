@@ -0,0 +1,89 @@
+package laser.ddg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import laser.ddg.FlightEvent.EventInfo;
+import laser.ddg.FlightEvent.FieldInfo;
+
+/**
+ * Tests that FlightEvents are recorded by the flight recorder, with the
+ * values of their fields, when the runtime has one.
+ */
+public class FlightEventTest {
+	@EventInfo(name = "laser.ddg.Test", label = "Test",
+		category = {"DDG Explorer", "Test"},
+		description = "An event used by the tests")
+	static class TestEvent extends FlightEvent {
+		@FieldInfo("Name")
+		String name;
+
+		@FieldInfo(value = "Size", bytes = true)
+		long size;
+
+		@FieldInfo("Count")
+		int count;
+
+		@FieldInfo("Cached")
+		boolean cached;
+
+		// Not recorded
+		String ignored = "ignored";
+	}
+
+	@Test
+	public void recordsTheFieldsOfCommittedEvents() throws IOException {
+		assertTrue(FlightEvent.isRecorderAvailable());
+
+		Path dump = Files.createTempFile("events", ".jfr");
+		try (Recording recording = new Recording()) {
+			recording.enable("laser.ddg.Test");
+			recording.start();
+
+			TestEvent event = new TestEvent();
+			event.begin();
+			event.end();
+			assertTrue(event.shouldCommit());
+			event.name = "ddg.txt";
+			event.size = 1024;
+			event.count = 3;
+			event.cached = true;
+			event.commit();
+
+			recording.stop();
+			recording.dump(dump);
+
+			List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+			assertEquals(1, events.size());
+			RecordedEvent recorded = events.get(0);
+			assertEquals("laser.ddg.Test", recorded.getEventType().getName());
+			assertEquals("ddg.txt", recorded.getString("name"));
+			assertEquals(1024, recorded.getLong("size"));
+			assertEquals(3, recorded.getInt("count"));
+			assertTrue(recorded.getBoolean("cached"));
+			assertFalse(recorded.hasField("ignored"));
+		} finally {
+			Files.delete(dump);
+		}
+	}
+
+	@Test
+	public void eventsThatAreNotEnabledAreNotCommitted() {
+		TestEvent event = new TestEvent();
+		event.begin();
+		event.end();
+		assertFalse(event.shouldCommit());
+		event.commit();
+	}
+}
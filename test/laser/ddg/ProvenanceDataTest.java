@@ -0,0 +1,81 @@
+package laser.ddg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import laser.ddg.DataBindingEvent.BindingEvent;
+
+/**
+ * Tests how changes to a ddg are counted and announced during a bulk load
+ */
+public class ProvenanceDataTest {
+	// The ddg being changed
+	private ProvenanceData provData;
+
+	// The bindings the listener was told about, in order
+	private final List<DataBindingEvent> delivered = new ArrayList<>();
+
+	@Before
+	public void createDdg() {
+		provData = new ProvenanceData("test");
+		provData.addDataBindingListener(delivered::add);
+	}
+
+	@Test
+	public void countsBulkLoadedChangesOnce() {
+		int before = provData.getChangeCount();
+		provData.beginBulkLoad();
+		DataBindingEvent first = binding("x");
+		DataBindingEvent second = binding("y");
+		provData.notifyDataBindingListeners(first);
+		provData.notifyDataBindingListeners(second);
+
+		assertEquals(before + 2, provData.getChangeCount());
+		assertTrue(delivered.isEmpty());
+
+		provData.commitBulkLoad();
+		assertEquals(before + 2, provData.getChangeCount());
+		assertEquals(2, delivered.size());
+		assertEquals(first, delivered.get(0));
+		assertEquals(second, delivered.get(1));
+		assertFalse(provData.isBulkLoading());
+	}
+
+	@Test
+	public void deliversChangesImmediatelyOutsideABulkLoad() {
+		int before = provData.getChangeCount();
+		provData.notifyDataBindingListeners(binding("x"));
+		assertEquals(before + 1, provData.getChangeCount());
+		assertEquals(1, delivered.size());
+	}
+
+	@Test
+	public void deliversChangesQueuedByAnotherThread() throws InterruptedException {
+		provData.beginBulkLoad();
+		Thread loader = new Thread(() -> {
+			for (int i = 0; i < 1000; i++) {
+				provData.notifyDataBindingListeners(binding("x" + i));
+			}
+		});
+		loader.start();
+		loader.join();
+		provData.commitBulkLoad();
+		assertEquals(1000, delivered.size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsACommitWithoutABulkLoad() {
+		provData.commitBulkLoad();
+	}
+
+	private static DataBindingEvent binding(String param) {
+		return new DataBindingEvent(BindingEvent.INPUT, null, null, param);
+	}
+}
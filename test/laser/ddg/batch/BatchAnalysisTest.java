@@ -0,0 +1,233 @@
+package laser.ddg.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import laser.ddg.LanguageConfigurator;
+
+/**
+ * Tests the commands of BatchAnalysis on two small runs of the same script
+ */
+public class BatchAnalysisTest {
+	// Where the ddg files are written
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// The first run: y <- x + 1, then z <- y * 2
+	private File firstRun;
+
+	// The second run, where z <- y * 2 is slower and w <- z is added
+	private File secondRun;
+
+	// Where the commands write their results
+	private ByteArrayOutputStream output;
+
+	// The object being tested
+	private BatchAnalysis analysis;
+
+	@BeforeClass
+	public static void addLanguage() {
+		LanguageConfigurator.addLanguageBuilder("R", "laser.ddg.r.RDDGBuilder");
+	}
+
+	@Before
+	public void writeDdgs() throws IOException {
+		firstRun = writeDdg("run1", 0.5, 1, false);
+		secondRun = writeDdg("run2", 0.5, 3, true);
+		output = new ByteArrayOutputStream();
+		analysis = new BatchAnalysis(new PrintStream(output, true, "UTF-8"));
+	}
+
+	@Test
+	public void reportsTheLineageOfANamedNode() throws IOException {
+		analysis.lineage("y", Collections.singletonList(firstRun));
+		JsonObject result = onlyResult();
+		assertEquals("y", result.get("node").getAsString());
+
+		JsonArray matches = result.getAsJsonArray("matches");
+		assertEquals(1, matches.size());
+		JsonObject y = matches.get(0).getAsJsonObject();
+		assertEquals("d2", y.get("id").getAsString());
+		assertEquals(Arrays.asList("p2", "d1"), ids(y.getAsJsonArray("ancestors")));
+		assertEquals(Arrays.asList("p3", "d3"), ids(y.getAsJsonArray("descendants")));
+		assertFalse(analysis.hasFailed());
+	}
+
+	@Test
+	public void reportsTheTimeOfEachLineSlowestFirst() throws IOException {
+		analysis.timing(Collections.singletonList(secondRun));
+		JsonObject result = onlyResult();
+		assertEquals(3.75, result.get("totalTime").getAsDouble(), 1e-9);
+
+		JsonArray lines = result.getAsJsonArray("lines");
+		assertEquals(3, lines.size());
+		assertEquals("s.R:3", lines.get(0).getAsJsonObject().get("line").getAsString());
+		assertEquals(3, lines.get(0).getAsJsonObject().get("time").getAsDouble(), 1e-9);
+		assertEquals(1, lines.get(0).getAsJsonObject().get("executions").getAsLong());
+		assertEquals("s.R:2", lines.get(1).getAsJsonObject().get("line").getAsString());
+		assertEquals("s.R:4", lines.get(2).getAsJsonObject().get("line").getAsString());
+	}
+
+	@Test
+	public void reportsEachDdgInTheOrderGiven() throws IOException {
+		analysis.timing(Arrays.asList(firstRun, secondRun));
+		List<JsonObject> results = results();
+		assertEquals(2, results.size());
+		assertEquals(firstRun.getPath(), results.get(0).get("file").getAsString());
+		assertEquals(secondRun.getPath(), results.get(1).get("file").getAsString());
+	}
+
+	@Test
+	public void reportsTheStepsAddedByASecondRun() throws IOException {
+		analysis.diff(firstRun, secondRun);
+		JsonObject result = onlyResult();
+		assertEquals(4, result.get("unchanged").getAsInt());
+		assertEquals(0, result.getAsJsonArray("deleted").size());
+		JsonArray added = result.getAsJsonArray("added");
+		assertEquals(1, added.size());
+		assertEquals("p4", added.get(0).getAsJsonObject().get("id").getAsString());
+	}
+
+	@Test
+	public void reportsTheLinesThatGotSlower() throws IOException {
+		analysis.compareTimes(firstRun, secondRun);
+		JsonObject result = onlyResult();
+		assertEquals(1.5, result.get("leftTotal").getAsDouble(), 1e-9);
+		assertEquals(3.75, result.get("rightTotal").getAsDouble(), 1e-9);
+		JsonObject slowest = result.getAsJsonArray("lines").get(0).getAsJsonObject();
+		assertEquals("s.R:3", slowest.get("line").getAsString());
+		assertEquals(2, slowest.get("change").getAsDouble(), 1e-9);
+		assertEquals(1, result.get("added").getAsInt());
+		assertEquals(0, result.get("deleted").getAsInt());
+	}
+
+	@Test
+	public void exportsAllTheNodesAndEdges() throws IOException {
+		analysis.export(Collections.singletonList(firstRun));
+		JsonObject result = onlyResult();
+		assertEquals(7, result.getAsJsonArray("nodes").size());
+
+		List<String> edges = new ArrayList<>();
+		for (JsonElement edge : result.getAsJsonArray("edges")) {
+			JsonObject e = edge.getAsJsonObject();
+			edges.add(e.get("type").getAsString() + " " + e.get("source").getAsString() + " "
+					+ e.get("target").getAsString());
+		}
+		assertEquals(7, edges.size());
+		assertTrue(edges.contains("CF p1 p2"));
+		assertTrue(edges.contains("DF d1 p2"));
+		assertTrue(edges.contains("DF p3 d3"));
+	}
+
+	@Test
+	public void reportsDdgsThatCannotBeRead() throws IOException {
+		File missing = new File(folder.getRoot(), "missing/ddg.txt");
+		analysis.timing(Arrays.asList(missing, firstRun));
+		List<JsonObject> results = results();
+		assertEquals(2, results.size());
+		assertTrue(results.get(0).has("failure"));
+		assertFalse(results.get(1).has("failure"));
+		assertTrue(analysis.hasFailed());
+	}
+
+	/**
+	 * Writes the ddg of a run of a script that computes y from x and z
+	 * from y, optionally followed by w from z.  The times in the file are
+	 * the time elapsed since the script started.
+	 * @param dirName the directory to write ddg.txt in
+	 * @param yTime the time taken to compute y
+	 * @param zTime the time taken to compute z
+	 * @param computeW true if the run also computes w, taking 0.25 seconds
+	 * @return the ddg file
+	 */
+	private File writeDdg(String dirName, double yTime, double zTime, boolean computeW) throws IOException {
+		File ddgFile = new File(folder.newFolder(dirName), "ddg.txt");
+		int numPins = computeW ? 5 : 4;
+		double end = yTime + zTime + (computeW ? 0.25 : 0);
+		try (PrintWriter out = new PrintWriter(ddgFile, "UTF-8")) {
+			out.println("Language=\"R\"");
+			out.println("Script=\"/tmp/s.R\"");
+			out.println(numPins);
+			out.println("Start p1 \"s.R\" Time=\"0\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			out.println("Operation p2 \"y <- x + 1\" Time=\"" + yTime + "\" Script=\"0\" Pos=\"2,1,2,10\";");
+			out.println("Operation p3 \"z <- y * 2\" Time=\"" + (yTime + zTime) + "\" Script=\"0\" Pos=\"3,1,3,10\";");
+			if (computeW) {
+				out.println("Operation p4 \"w <- z\" Time=\"" + end + "\" Script=\"0\" Pos=\"4,1,4,6\";");
+			}
+			out.println("Finish p" + numPins + " \"s.R\" Time=\"" + end + "\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			out.println("Data d1 \"x\" Value=\"1\" Time=\"\";");
+			out.println("Data d2 \"y\" Value=\"2\" Time=\"\";");
+			out.println("Data d3 \"z\" Value=\"4\" Time=\"\";");
+			for (int pin = 1; pin < numPins; pin++) {
+				out.println("CF p" + pin + " p" + (pin + 1) + ";");
+			}
+			out.println("DF d1 p2;");
+			out.println("DF p2 d2;");
+			out.println("DF d2 p3;");
+			out.println("DF p3 d3;");
+			if (computeW) {
+				out.println("Data d4 \"w\" Value=\"4\" Time=\"\";");
+				out.println("DF d3 p4;");
+				out.println("DF p4 d4;");
+			}
+		}
+		return ddgFile;
+	}
+
+	/**
+	 * @return the results written by the command, one for each line
+	 */
+	private List<JsonObject> results() throws UnsupportedEncodingException {
+		List<JsonObject> results = new ArrayList<>();
+		JsonParser parser = new JsonParser();
+		for (String line : output.toString("UTF-8").split("\\R")) {
+			if (!line.isEmpty()) {
+				results.add(parser.parse(line).getAsJsonObject());
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * @return the single result written by the command
+	 */
+	private JsonObject onlyResult() throws UnsupportedEncodingException {
+		List<JsonObject> results = results();
+		assertEquals(1, results.size());
+		return results.get(0);
+	}
+
+	/**
+	 * @return the ids of the described nodes, in order
+	 */
+	private static List<String> ids(JsonArray nodes) {
+		List<String> ids = new ArrayList<>();
+		for (JsonElement node : nodes) {
+			ids.add(node.getAsJsonObject().get("id").getAsString());
+		}
+		return ids;
+	}
+}
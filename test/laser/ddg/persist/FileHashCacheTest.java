@@ -0,0 +1,114 @@
+package laser.ddg.persist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests that FileHashCache computes the same hashes as MessageDigest
+ */
+public class FileHashCacheTest {
+	// Where the files to hash are written
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void hashesSmallFiles() throws Exception {
+		File file = writeFile("small.csv", 10000, 1);
+		assertEquals(digest(file, "SHA-1"), FileHashCache.getHash(file, FileHashCache.SHA1));
+		assertEquals(digest(file, "MD5"), FileHashCache.getHash(file, FileHashCache.MD5));
+	}
+
+	@Test
+	public void hashesEmptyFiles() throws Exception {
+		File file = writeFile("empty.csv", 0, 2);
+		assertEquals(digest(file, "MD5"), FileHashCache.getHash(file, FileHashCache.MD5));
+	}
+
+	/**
+	 * Large files are mapped a region at a time.  This one ends part way
+	 * through its second region.
+	 */
+	@Test
+	public void hashesFilesLargerThanOneMappedRegion() throws Exception {
+		File file = writeFile("large.csv", 64 * 1024 * 1024 + 12345, 3);
+		assertEquals(digest(file, "MD5"), FileHashCache.getHash(file, FileHashCache.MD5));
+	}
+
+	@Test
+	public void hashesAFileAgainAfterItChanges() throws Exception {
+		File file = writeFile("changing.csv", 2 * 1024 * 1024, 4);
+		String before = FileHashCache.getHash(file, FileHashCache.SHA1);
+		assertEquals(digest(file, "SHA-1"), before);
+
+		writeFile("changing.csv", 2 * 1024 * 1024 + 1, 5);
+		String after = FileHashCache.getHash(file, FileHashCache.SHA1);
+		assertEquals(digest(file, "SHA-1"), after);
+		assertFalse(before.equals(after));
+	}
+
+	@Test
+	public void matchesRecordedHashesInEitherCase() throws Exception {
+		File file = writeFile("recorded.csv", 500, 6);
+		String recorded = digest(file, "MD5").toUpperCase();
+		assertTrue(FileHashCache.matches(file, recorded, FileHashCache.MD5));
+		assertFalse(FileHashCache.matches(file, digest(file, "SHA-1"), FileHashCache.MD5));
+	}
+
+	@Test(expected = IOException.class)
+	public void reportsFilesThatCannotBeRead() throws IOException {
+		FileHashCache.getHash(new File(folder.getRoot(), "missing.csv"), FileHashCache.MD5);
+	}
+
+	/**
+	 * Writes a file of random bytes
+	 * @param name the file name
+	 * @param size the number of bytes
+	 * @param seed the seed for the random bytes
+	 * @return the file
+	 */
+	private File writeFile(String name, long size, long seed) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		Random random = new Random(seed);
+		byte[] buffer = new byte[64 * 1024];
+		try (OutputStream out = Files.newOutputStream(file.toPath())) {
+			for (long written = 0; written < size; written += buffer.length) {
+				random.nextBytes(buffer);
+				out.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * @return the hash of a file computed directly with MessageDigest
+	 */
+	private static String digest(File file, String algorithm) throws IOException, NoSuchAlgorithmException {
+		MessageDigest md = MessageDigest.getInstance(algorithm);
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				md.update(buffer, 0, read);
+			}
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : md.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+}
@@ -0,0 +1,173 @@
+package laser.ddg.persist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import laser.ddg.LanguageConfigurator;
+import laser.ddg.ProvenanceData;
+import laser.ddg.persist.ProvenanceCatalog.CatalogFile;
+import laser.ddg.persist.ProvenanceCatalog.Run;
+
+/**
+ * Tests saving and reading the provenance catalog
+ */
+public class ProvenanceCatalogTest {
+	// Where the ddgs, the files they use and the catalog are written
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// A ddg of a script that reads in.csv and writes out.csv
+	private ProvenanceData provData;
+
+	// The file the catalog is saved in
+	private File catalogFile;
+
+	@BeforeClass
+	public static void addLanguage() {
+		LanguageConfigurator.addLanguageBuilder("R", "laser.ddg.r.RDDGBuilder");
+	}
+
+	@Before
+	public void readDdg() throws IOException {
+		provData = Parser.createParser(writeDdg(), null).addNodesAndEdges();
+		catalogFile = new File(folder.getRoot(), "catalog/catalog.json");
+	}
+
+	@Test
+	public void readsWhatWasSaved() throws IOException {
+		ProvenanceCatalog catalog = new ProvenanceCatalog();
+		Run run = catalog.addRun(provData);
+		assertEquals(1, run.getInputs().size());
+		assertEquals(1, run.getOutputs().size());
+		String input = run.getInputs().iterator().next();
+		String output = run.getOutputs().iterator().next();
+		catalog.save(catalogFile);
+
+		ProvenanceCatalog read = ProvenanceCatalog.load(catalogFile);
+		assertEquals(1, read.getRuns().size());
+		Run readRun = read.getRuns().get(0);
+		assertEquals(run.getScriptPath(), readRun.getScriptPath());
+		assertEquals(run.getDDGPath(), readRun.getDDGPath());
+		assertEquals(run.getTimestamp(), readRun.getTimestamp());
+		assertEquals(run.getInputs(), readRun.getInputs());
+		assertEquals(run.getOutputs(), readRun.getOutputs());
+
+		CatalogFile inFile = read.getFile(input);
+		assertNotNull(inFile);
+		assertEquals(Collections.singleton("in.csv"), inFile.getNames());
+		assertEquals(Collections.singleton(inFile), read.getFilesNamed("in.csv"));
+		assertEquals(Arrays.asList(readRun.getId()), ids(read.getConsumers(input)));
+		assertEquals(Arrays.asList(readRun.getId()), ids(read.getProducers(output)));
+		assertEquals(1, read.getRunsOfScript(run.getScriptPath()).size());
+
+		// The indexes are rebuilt, so the same ddg is not added twice
+		read.addRun(provData);
+		assertEquals(1, read.getRuns().size());
+	}
+
+	@Test
+	public void recordsWhetherTheCatalogChanged() throws IOException {
+		ProvenanceCatalog catalog = new ProvenanceCatalog();
+		assertFalse(catalog.hasUnsavedChanges());
+		catalog.addRun(provData);
+		assertTrue(catalog.hasUnsavedChanges());
+		catalog.save(catalogFile);
+		assertFalse(catalog.hasUnsavedChanges());
+
+		catalog.addRun(provData);
+		assertFalse(catalog.hasUnsavedChanges());
+		assertFalse(ProvenanceCatalog.load(catalogFile).hasUnsavedChanges());
+	}
+
+	@Test
+	public void replacesTheFileWithoutLeavingTemporaryFiles() throws IOException {
+		new ProvenanceCatalog().save(catalogFile);
+		ProvenanceCatalog catalog = new ProvenanceCatalog();
+		catalog.addRun(provData);
+		catalog.save(catalogFile);
+
+		assertEquals(1, ProvenanceCatalog.load(catalogFile).getRuns().size());
+		assertEquals(Arrays.asList("catalog.json"), Arrays.asList(catalogFile.getParentFile().list()));
+	}
+
+	@Test
+	public void setsAsideACatalogThatCannotBeRead() throws IOException {
+		catalogFile.getParentFile().mkdirs();
+		String contents = "{\"runs\": [ {\"id\": ";
+		Files.write(catalogFile.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+
+		ProvenanceCatalog catalog = ProvenanceCatalog.open(catalogFile);
+		assertTrue(catalog.getRuns().isEmpty());
+		assertFalse(catalogFile.exists());
+
+		File[] backups = catalogFile.getParentFile().listFiles();
+		assertEquals(1, backups.length);
+		assertTrue(backups[0].getName(), backups[0].getName().startsWith("catalog.json."));
+		assertEquals(contents, new String(Files.readAllBytes(backups[0].toPath()), StandardCharsets.UTF_8));
+
+		// Saving the new catalog leaves the unreadable one alone
+		catalog.addRun(provData);
+		catalog.save(catalogFile);
+		assertEquals(2, catalogFile.getParentFile().list().length);
+	}
+
+	@Test
+	public void opensAnEmptyCatalogIfThereIsNoFile() {
+		assertTrue(ProvenanceCatalog.open(catalogFile).getRuns().isEmpty());
+	}
+
+	/**
+	 * @return a ddg file for a script that reads in.csv and writes out.csv.
+	 * 		Both files are created so that their contents can be hashed.
+	 */
+	private File writeDdg() throws IOException {
+		File in = folder.newFile("in.csv");
+		Files.write(in.toPath(), "a,b\n1,2\n".getBytes(StandardCharsets.UTF_8));
+		File out = folder.newFile("out.csv");
+		Files.write(out.toPath(), "a,b\n2,4\n".getBytes(StandardCharsets.UTF_8));
+
+		File ddgFile = folder.newFile("ddg.txt");
+		try (PrintWriter ddg = new PrintWriter(ddgFile, "UTF-8")) {
+			ddg.println("Language=\"R\"");
+			ddg.println("Script=\"/tmp/s.R\"");
+			ddg.println("DateTime=\"2016-01-01T10.00.00\"");
+			ddg.println("3");
+			ddg.println("Start p1 \"s.R\" Time=\"0\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			ddg.println("Operation p2 \"write(read(in.csv))\" Time=\"1\" Script=\"0\" Pos=\"1,1,1,20\";");
+			ddg.println("Finish p3 \"s.R\" Time=\"1\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			ddg.println("File d1 \"in.csv\" Value=\"in.csv\" Time=\"\" Location=\"" + in.getAbsolutePath() + "\";");
+			ddg.println("File d2 \"out.csv\" Value=\"out.csv\" Time=\"\" Location=\"" + out.getAbsolutePath() + "\";");
+			ddg.println("CF p1 p2;");
+			ddg.println("CF p2 p3;");
+			ddg.println("DF d1 p2;");
+			ddg.println("DF p2 d2;");
+		}
+		return ddgFile;
+	}
+
+	private static List<Integer> ids(List<Run> runs) {
+		List<Integer> ids = new ArrayList<>();
+		for (Run run : runs) {
+			ids.add(run.getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,277 @@
+package laser.ddg.persist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import laser.ddg.DataInstanceNode;
+import laser.ddg.LanguageConfigurator;
+import laser.ddg.Node;
+import laser.ddg.ProcedureInstanceNode;
+import laser.ddg.ProvenanceData;
+import laser.ddg.SourcePos;
+import laser.ddg.visualizer.PrefuseGraphBuilder;
+
+/**
+ * Tests that a textual ddg tokenized in parallel is read the same way
+ * as one read sequentially.
+ */
+public class TextParserTest {
+	// The number of assignments in the generated script
+	private static final int STEPS = 2000;
+
+	// Where the ddg file is written
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void addLanguage() {
+		LanguageConfigurator.addLanguageBuilder("R", "laser.ddg.r.RDDGBuilder");
+	}
+
+	/**
+	 * The edges of a file read sequentially are added in the order they
+	 * appear in the file, with the control flow and data flow mixed.
+	 */
+	@Test
+	public void addsEdgesInFileOrderWhenReadSequentially() throws IOException {
+		File ddgFile = writeDdg();
+		Reading sequential = read(ddgFile, Long.MAX_VALUE, ParallelTextTokenizer.MAX_CHUNK_SIZE);
+		assertEquals(fileOrderEdges(), sequential.edges);
+	}
+
+	@Test
+	public void readsTheSameDdgInParallel() throws IOException {
+		File ddgFile = writeDdg();
+		Reading sequential = read(ddgFile, Long.MAX_VALUE, ParallelTextTokenizer.MAX_CHUNK_SIZE);
+		Reading parallel = read(ddgFile, 0, ParallelTextTokenizer.MAX_CHUNK_SIZE);
+		assertSameDdg(sequential, parallel);
+	}
+
+	/**
+	 * Files too big to map at once are mapped a chunk at a time.  Small
+	 * chunks make this file need many of them.
+	 */
+	@Test
+	public void readsTheSameDdgMappedInSmallChunks() throws IOException {
+		File ddgFile = writeDdg();
+		assertTrue(ddgFile.length() > 4 * ParallelTextTokenizer.MIN_CHUNK_SIZE);
+		Reading sequential = read(ddgFile, Long.MAX_VALUE, ParallelTextTokenizer.MAX_CHUNK_SIZE);
+		Reading parallel = read(ddgFile, 0, ParallelTextTokenizer.MIN_CHUNK_SIZE);
+		assertSameDdg(sequential, parallel);
+	}
+
+	/**
+	 * When a file is tokenized in parallel, the builder is told that the
+	 * control flow is complete, so it can draw the steps, before any data
+	 * node is added.
+	 */
+	@Test
+	public void addsTheStepsBeforeTheDataNodesInParallel() throws IOException {
+		File ddgFile = writeDdg();
+		Reading parallel = read(ddgFile, 0, ParallelTextTokenizer.MAX_CHUNK_SIZE);
+		assertEquals(STEPS + 2, parallel.nodesBeforeSteps);
+		assertTrue(parallel.nodesAdded > parallel.nodesBeforeSteps);
+	}
+
+	/**
+	 * The parallel tokenizer adds all the control flow edges before the data
+	 * flow edges, so that the steps can be drawn first.  Each kind of edge is
+	 * still added in file order, so the nodes are linked in the same order.
+	 */
+	private static void assertSameDdg(Reading sequential, Reading parallel) {
+		assertEquals(describePins(sequential.provData), describePins(parallel.provData));
+		assertEquals(describeDins(sequential.provData), describeDins(parallel.provData));
+
+		List<String> controlFlowFirst = new ArrayList<>();
+		for (String edge : sequential.edges) {
+			if (edge.startsWith("CF")) {
+				controlFlowFirst.add(edge);
+			}
+		}
+		for (String edge : sequential.edges) {
+			if (!edge.startsWith("CF")) {
+				controlFlowFirst.add(edge);
+			}
+		}
+		assertEquals(controlFlowFirst, parallel.edges);
+	}
+
+	/**
+	 * A ddg read from a file and the edges added to its drawing
+	 */
+	private static class Reading {
+		private ProvenanceData provData;
+
+		// The edges added to the drawing while the file was read
+		private final List<String> edges = new ArrayList<>();
+
+		// The number of nodes added to the drawing, and the number added
+		// before the builder was told the control flow was complete
+		private int nodesAdded = 0;
+		private int nodesBeforeSteps = -1;
+	}
+
+	/**
+	 * Reads a ddg file, recording the edges added to the drawing in order.
+	 * The drawing is not laid out once the file has been read.
+	 * @param threshold files this big or bigger are tokenized in parallel
+	 * @param maxChunkSize the most bytes mapped at once when tokenizing in parallel
+	 */
+	private static Reading read(File ddgFile, long threshold, int maxChunkSize) throws IOException {
+		Reading reading = new Reading();
+		PrefuseGraphBuilder builder = new PrefuseGraphBuilder(false) {
+			@Override
+			public void addEdge(String type, int source, int target) {
+				reading.edges.add(type + " " + source + " " + target);
+				super.addEdge(type, source, target);
+			}
+
+			@Override
+			public int addNode(String type, int id, String name, String value, String time, String location,
+					SourcePos sourcePos) {
+				reading.nodesAdded++;
+				return super.addNode(type, id, name, value, time, location, sourcePos);
+			}
+
+			@Override
+			public void controlFlowFinished() {
+				reading.nodesBeforeSteps = reading.nodesAdded;
+			}
+
+			@Override
+			public void processFinished() {
+				// Nothing to draw
+			}
+		};
+		builder.processStarted("s.R", null);
+		TextParser parser = (TextParser) Parser.createParser(ddgFile, builder);
+		parser.setParallelTokenizing(threshold, maxChunkSize);
+		reading.provData = parser.addNodesAndEdges();
+		return reading;
+	}
+
+	/**
+	 * Writes the ddg of a script that assigns a new value to x at each step,
+	 * computed from the previous one, with the edges declared as the nodes
+	 * they connect are, the way R writes them.  Every tenth value is also
+	 * written to a file, whose path is relative to the ddg.
+	 */
+	private File writeDdg() throws IOException {
+		File ddgFile = folder.newFile("ddg.txt");
+		File dataDir = folder.newFolder("data");
+		int numPins = STEPS + 2;
+		try (PrintWriter out = new PrintWriter(ddgFile, "UTF-8")) {
+			out.println("Language=\"R\"");
+			out.println("Script=\"/tmp/s.R\"");
+			out.println("DateTime=\"2016-01-01T10.00.00\"");
+			out.println(numPins);
+			out.println("Start p1 \"s.R\" Time=\"0\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			int din = 0;
+			for (int step = 1; step <= STEPS; step++) {
+				int pin = step + 1;
+				out.println("Operation p" + pin + " \"x <- paste(x, \\\"" + step + "\\\")\" Time=\"" + step / 100.0
+						+ "\" Script=\"0\" Pos=\"" + step + ",1," + step + ",22\";");
+				out.println("CF p" + (pin - 1) + " p" + pin + ";");
+				if (din > 0) {
+					out.println("DF d" + din + " p" + pin + ";");
+				}
+				din++;
+				out.println("Data d" + din + " \"x\" Value=\"\\\"" + step + "\\\"\" ValType=\"{\\\"container\\\":\\\"vector\\\"}\" Time=\"\";");
+				out.println("DF p" + pin + " d" + din + ";");
+				if (step % 10 == 0) {
+					new File(dataDir, "x" + step + ".csv").createNewFile();
+					din++;
+					out.println("File d" + din + " \"x" + step + ".csv\" Value=\"data/x" + step + ".csv\" Time=\"2016-01-01T10.00.0"
+							+ step % 10 + "\" Location=\"/tmp/x" + step + ".csv\";");
+					out.println("DF p" + pin + " d" + din + ";");
+				}
+			}
+			out.println("Finish p" + numPins + " \"s.R\" Time=\"" + STEPS / 100.0 + "\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			out.println("CF p" + (numPins - 1) + " p" + numPins + ";");
+		}
+		return ddgFile;
+	}
+
+	/**
+	 * @return the edges of the file written by writeDdg in the order they
+	 * 	are declared, as they are passed to the drawing.  Data node ids are
+	 * 	offset by the number of procedure nodes, and edges go from the node
+	 * 	that comes later in the flow of data or control to the earlier one.
+	 */
+	private static List<String> fileOrderEdges() {
+		int numPins = STEPS + 2;
+		List<String> edges = new ArrayList<>();
+		int din = 0;
+		for (int step = 1; step <= STEPS; step++) {
+			int pin = step + 1;
+			edges.add("CF " + pin + " " + (pin - 1));
+			if (din > 0) {
+				edges.add("DF " + pin + " " + (din + numPins));
+			}
+			din++;
+			edges.add("DF " + (din + numPins) + " " + pin);
+			if (step % 10 == 0) {
+				din++;
+				edges.add("DF " + (din + numPins) + " " + pin);
+			}
+		}
+		edges.add("CF " + numPins + " " + (numPins - 1));
+		return edges;
+	}
+
+	private static List<String> describePins(ProvenanceData provData) {
+		List<String> descriptions = new ArrayList<>();
+		Iterator<ProcedureInstanceNode> pins = provData.pinIter();
+		while (pins.hasNext()) {
+			ProcedureInstanceNode pin = pins.next();
+			StringBuilder s = new StringBuilder();
+			s.append(pin.getId()).append(' ').append(pin.getType()).append(' ').append(pin.getName());
+			s.append(" time=").append(pin.getElapsedTime());
+			SourcePos pos = pin.getSourcePos();
+			if (pos != null) {
+				s.append(" pos=").append(pos.getScriptNumber()).append(',').append(pos.getStartLine()).append(',')
+					.append(pos.getStartCol()).append(',').append(pos.getEndLine()).append(',').append(pos.getEndCol());
+			}
+			s.append(" succ=").append(ids(pin.successorIter()));
+			s.append(" pred=").append(ids(pin.predecessorIter()));
+			s.append(" in=").append(ids(pin.inputParamValues()));
+			s.append(" out=").append(ids(pin.outputParamValues()));
+			descriptions.add(s.toString());
+		}
+		return descriptions;
+	}
+
+	private static List<String> describeDins(ProvenanceData provData) {
+		List<String> descriptions = new ArrayList<>();
+		Iterator<DataInstanceNode> dins = provData.dinIter();
+		while (dins.hasNext()) {
+			DataInstanceNode din = dins.next();
+			ProcedureInstanceNode producer = din.getProducer();
+			descriptions.add(din.getId() + " " + din.getType() + " " + din.getName() + " = " + din.getValue()
+				+ " time=" + din.getCreatedTime() + " location=" + din.getLocation()
+				+ " producer=" + (producer == null ? "none" : producer.getId())
+				+ " users=" + ids(din.users()));
+		}
+		return descriptions;
+	}
+
+	private static List<Integer> ids(Iterator<? extends Node> nodes) {
+		List<Integer> ids = new ArrayList<>();
+		while (nodes.hasNext()) {
+			ids.add(nodes.next().getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,108 @@
+package laser.ddg.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.JComponent;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import laser.ddg.DataInstanceNode;
+import laser.ddg.LanguageConfigurator;
+import laser.ddg.ProvenanceData;
+import laser.ddg.persist.Parser;
+
+/**
+ * Tests that repeating a lineage query reuses the nodes found but builds
+ * a new display for them.
+ */
+public class DataQueryTest {
+	// Where the ddg file is written
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	// The ddg queried
+	private ProvenanceData provData;
+
+	// The data node the queries start from
+	private DataInstanceNode result;
+
+	@BeforeClass
+	public static void addLanguage() {
+		LanguageConfigurator.addLanguageBuilder("R", "laser.ddg.r.RDDGBuilder");
+	}
+
+	@Before
+	public void readDdg() throws IOException {
+		provData = Parser.createParser(writeDdg(), null).addNodesAndEdges();
+		result = provData.findDin("y");
+	}
+
+	@Test
+	public void buildsANewDisplayWhenAResultIsReused() throws InterruptedException {
+		JComponent first = runQuery();
+		LineageCache.Result cached = LineageCache.get(provData, result, DerivationQuery.class);
+		assertNotNull(cached);
+		assertEquals(1, cached.getPins().size());
+		assertEquals(2, cached.getDins().size());
+
+		JComponent second = runQuery();
+		assertNotSame(first, second);
+		assertSame(cached, LineageCache.get(provData, result, DerivationQuery.class));
+	}
+
+	/**
+	 * Runs a derivation query from y and waits for its display
+	 * @return the display of the result
+	 */
+	private JComponent runQuery() throws InterruptedException {
+		SynchronousQueue<JComponent> panels = new SynchronousQueue<>();
+		DerivationQuery query = new DerivationQuery();
+		query.setLanguage("R");
+		query.addQueryListener((name, panel) -> {
+			try {
+				panels.put(panel);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		query.doQuery(provData, result);
+		JComponent panel = panels.poll(30, TimeUnit.SECONDS);
+		assertNotNull(panel);
+		return panel;
+	}
+
+	/**
+	 * @return a file containing a ddg in which y is computed from x
+	 */
+	private File writeDdg() throws IOException {
+		File ddgFile = folder.newFile("ddg.txt");
+		try (PrintWriter out = new PrintWriter(ddgFile, "UTF-8")) {
+			out.println("Language=\"R\"");
+			out.println("Script=\"/tmp/s.R\"");
+			out.println("3");
+			out.println("Start p1 \"s.R\" Time=\"0\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			out.println("Operation p2 \"y <- x + 1\" Time=\"1\" Script=\"0\" Pos=\"2,1,2,10\";");
+			out.println("Finish p3 \"s.R\" Time=\"1\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			out.println("Data d1 \"x\" Value=\"1\" Time=\"\";");
+			out.println("Data d2 \"y\" Value=\"2\" Time=\"\";");
+			out.println("CF p1 p2;");
+			out.println("CF p2 p3;");
+			out.println("DF d1 p2;");
+			out.println("DF p2 d2;");
+		}
+		return ddgFile;
+	}
+}
@@ -0,0 +1,112 @@
+package laser.ddg.visualizer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import laser.ddg.DataInstanceNode;
+import laser.ddg.LanguageConfigurator;
+import laser.ddg.ProvenanceData;
+import laser.ddg.gui.DDGExplorer;
+import laser.ddg.persist.Parser;
+import prefuse.visual.NodeItem;
+
+/**
+ * Tests that the nodes drawn by a PrefuseGraphBuilder can be traced back
+ * to the nodes of the ddg.
+ */
+public class PrefuseGraphBuilderTest {
+	// Where the ddg files are written
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@BeforeClass
+	public static void addLanguage() {
+		LanguageConfigurator.addLanguageBuilder("R", "laser.ddg.r.RDDGBuilder");
+	}
+
+	/**
+	 * Data nodes read from a file have their ids offset by the number of
+	 * procedure nodes in the file, rather than by the offset used for
+	 * nodes added as a ddg is built.
+	 */
+	@Test
+	public void resolvesDataNodesLoadedFromAFile() throws IOException {
+		PrefuseGraphBuilder builder = new PrefuseGraphBuilder(false);
+		builder.processStarted("s.R", null);
+		Parser parser = Parser.createParser(writeDdg(), builder);
+		parser.addNodesAndEdges();
+
+		assertResolvesDataNode(builder);
+	}
+
+	/**
+	 * A graph drawn from provenance data that has already been read offsets
+	 * the ids of data nodes by the number of procedure nodes it visits.
+	 */
+	@Test
+	public void resolvesDataNodesDrawnFromProvenanceData() throws IOException {
+		PrefuseGraphBuilder parseBuilder = new PrefuseGraphBuilder(false);
+		parseBuilder.processStarted("s.R", null);
+		ProvenanceData provData = Parser.createParser(writeDdg(), parseBuilder).addNodesAndEdges();
+
+		// The edges are added before the graph is, so the builder reports
+		// them as missing.  Collect the messages rather than showing them.
+		DDGExplorer.loadingDDG();
+		PrefuseGraphBuilder builder = new PrefuseGraphBuilder();
+		builder.drawGraph(provData);
+
+		assertResolvesDataNode(builder);
+	}
+
+	/**
+	 * @return a file containing a ddg with 3 procedure nodes and one data node
+	 */
+	private File writeDdg() throws IOException {
+		File ddgFile = folder.newFile("ddg.txt");
+		try (PrintWriter out = new PrintWriter(ddgFile, "UTF-8")) {
+			out.println("Language=\"R\"");
+			out.println("Script=\"/tmp/s.R\"");
+			out.println("3");
+			out.println("Start p1 \"s.R\" Time=\"0\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			out.println("Operation p2 \"x <- 1\" Time=\"0.5\" Script=\"0\" Pos=\"1,1,1,6\";");
+			out.println("Finish p3 \"s.R\" Time=\"0\" Script=\"0\" Pos=\"NA,NA,NA,NA\";");
+			out.println("Data d1 \"x\" Value=\"1\" Time=\"\";");
+			out.println("CF p1 p2;");
+			out.println("CF p2 p3;");
+			out.println("DF p2 d1;");
+		}
+		return ddgFile;
+	}
+
+	/**
+	 * Checks that the data node drawn by a builder leads back to the 
+	 * DataInstanceNode d1 in the file written by writeDdg
+	 */
+	private static void assertResolvesDataNode(PrefuseGraphBuilder builder) {
+		NodeItem dataNode = null;
+		Iterator<?> items = builder.getDisplay().getVisualization().items();
+		while (items.hasNext()) {
+			Object item = items.next();
+			if (item instanceof NodeItem && PrefuseUtils.isAnyDataNode((NodeItem) item)) {
+				dataNode = (NodeItem) item;
+			}
+		}
+		assertNotNull(dataNode);
+
+		assertEquals(1, builder.getDataNodeId(dataNode));
+		DataInstanceNode din = builder.getDataNode(dataNode);
+		assertNotNull(din);
+		assertEquals("x", din.getName());
+		assertEquals("x <- 1", din.getProducer().getName());
+	}
+}
@@ -0,0 +1,92 @@
+package laser.ddg.workflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import laser.ddg.r.RDataInstanceNode;
+import laser.ddg.workflow.visualizer.WorkflowGraphBuilder;
+
+/**
+ * Tests that a workflow made of scripts that share no files is assembled
+ * completely.
+ */
+public class WorkflowTest {
+	// The builder the workflow is drawn with
+	private WorkflowGraphBuilder builder;
+
+	// Two independent chains, 1 -> 2 -> 3 and 4 -> 5, and a cycle 6 -> 7 -> 6
+	// that has no root
+	private Workflow workflow;
+
+	@Before
+	public void buildWorkflow() {
+		builder = new WorkflowGraphBuilder();
+		workflow = new Workflow(builder);
+
+		addFile(1, "in.csv");
+		addScript(2, "clean.R");
+		addFile(3, "clean.csv");
+		workflow.addEdge("SFR", 1, 2);
+		workflow.addEdge("SFW", 2, 3);
+
+		addScript(4, "simulate.R");
+		addFile(5, "sim.csv");
+		workflow.addEdge("SFW", 4, 5);
+
+		addScript(6, "update.R");
+		addFile(7, "state.csv");
+		workflow.addEdge("SFW", 6, 7);
+		workflow.addEdge("SFR", 7, 6);
+
+		builder.buildNodeAndEdgeTables();
+	}
+
+	private void addFile(int id, String name) {
+		RDataInstanceNode file = new RDataInstanceNode("File", name, "/data/" + name, "", "/data/" + name,
+				"hash" + id, "/scripts/script.R");
+		file.setId(id);
+		workflow.addFile(file);
+	}
+
+	private void addScript(int id, String name) {
+		ScriptNode script = new ScriptNode(0.0, name, "/ddg/" + name + "/ddg.json", "/scripts/" + name);
+		script.setId(id);
+		workflow.addScript(script);
+	}
+
+	@Test
+	public void findsEveryRoot() {
+		assertEquals(Arrays.asList(1, 4), workflow.findRoots());
+	}
+
+	@Test
+	public void walkingFromOneScriptOnlyAddsItsOwnWorkflow() {
+		workflow.walkBeginning(builder, 3);
+		builder.drawGraph();
+
+		for (int id = 1; id <= 3; id++) {
+			assertNotNull("node " + id, builder.getNode(id));
+		}
+		for (int id = 4; id <= 7; id++) {
+			assertNull("node " + id, builder.getNode(id));
+		}
+	}
+
+	@Test
+	public void assemblingAllAddsEveryNodeOnce() {
+		workflow.assembleAll(builder);
+		builder.drawGraph();
+
+		for (int id = 1; id <= 7; id++) {
+			assertNotNull("node " + id, builder.getNode(id));
+		}
+		assertEquals(7, builder.getDisplay().getVisualization().getGroup("graph.nodes").getTupleCount());
+		assertEquals(5, builder.getDisplay().getVisualization().getGroup("graph.edges").getTupleCount());
+	}
+}